@@ -0,0 +1,127 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Restricts a search to the Lucene documents indexed for the XML documents of a
+ * {@link DocumentSet}, so hits in other documents are skipped by Lucene and never
+ * reach the collector.
+ *
+ * Only the document ids are kept: two filters are equal if they select the same
+ * documents, so the bit sets computed for a segment can be cached and reused by
+ * later queries on the same documents, see {@link LuceneIndex#getDocumentFilter(DocumentSet)}.
+ */
+public class DocumentSetFilter extends Filter {
+
+    // if a segment has fewer Lucene documents per XML document, the document id
+    // of every Lucene document is checked instead of looking up each XML document
+    private static final int SEEK_RATIO = 8;
+
+    private final int[] docIds;
+    private final int hashCode;
+
+    public DocumentSetFilter(DocumentSet docs) {
+        int[] ids = new int[docs.getDocumentCount()];
+        int count = 0;
+        for (Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2 + 1);
+            }
+            ids[count++] = i.next().getDocId();
+        }
+        this.docIds = count == ids.length ? ids : Arrays.copyOf(ids, count);
+        Arrays.sort(this.docIds);
+        this.hashCode = Arrays.hashCode(this.docIds);
+    }
+
+    public int getDocumentCount() {
+        return docIds.length;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final AtomicReader reader = context.reader();
+        final int maxDoc = reader.maxDoc();
+        final FixedBitSet bits = new FixedBitSet(maxDoc);
+        final NumericDocValues docIdValues = reader.getNumericDocValues(LuceneUtil.FIELD_DOC_ID);
+        if (docIdValues != null && (long) docIds.length * SEEK_RATIO >= maxDoc) {
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (Arrays.binarySearch(docIds, (int) docIdValues.get(doc)) >= 0) {
+                    bits.set(doc);
+                }
+            }
+        } else {
+            final Terms terms = reader.terms(LuceneUtil.FIELD_DOC_ID);
+            if (terms == null) {
+                return null;
+            }
+            final TermsEnum termsEnum = terms.iterator(null);
+            final BytesRef term = new BytesRef(NumericUtils.BUF_SIZE_INT);
+            DocsEnum docs = null;
+            for (final int docId : docIds) {
+                NumericUtils.intToPrefixCoded(docId, 0, term);
+                if (termsEnum.seekExact(term, false)) {
+                    docs = termsEnum.docs(null, docs, DocsEnum.FLAG_NONE);
+                    int doc;
+                    while ((doc = docs.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+                        bits.set(doc);
+                    }
+                }
+            }
+        }
+        return BitsFilteredDocIdSet.wrap(bits, acceptDocs);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DocumentSetFilter && hashCode == obj.hashCode() &&
+            Arrays.equals(docIds, ((DocumentSetFilter) obj).docIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSetFilter(" + docIds.length + " documents)";
+    }
+}
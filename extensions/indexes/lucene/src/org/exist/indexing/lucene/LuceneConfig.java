@@ -53,6 +53,7 @@ public class LuceneConfig {
     private static final String IGNORE_ELEMENT = "ignore";
     private final static String BOOST_ATTRIB = "boost";
     private static final String DIACRITICS = "diacritics";
+    private static final String PARTITION_ATTRIB = "partition";
 
     private Map<QName, LuceneIndexConfig> paths = new TreeMap<>();
     private List<LuceneIndexConfig> wildcardPaths = new ArrayList<>();
@@ -71,6 +72,8 @@ public class LuceneConfig {
 
     private String queryParser = null;
 
+    private String partition = LuceneIndex.DEFAULT_PARTITION;
+
     public LuceneConfig(NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
         parseConfig(configNodes, namespaces);
     }
@@ -90,6 +93,7 @@ public class LuceneConfig {
     	this.ignoreNodes = other.ignoreNodes;
     	this.boost = other.boost;
     	this.analyzers = other.analyzers;
+    	this.partition = other.partition;
     }
     
     public boolean matches(NodePath path) {
@@ -219,6 +223,13 @@ public class LuceneConfig {
         return fieldTypes.get(name);
     }
 
+    /**
+     * @return the name of the index partition the collection is stored in
+     */
+    public String getPartition() {
+        return partition;
+    }
+
     /**
      * Parse a configuration entry. The main configuration entries for this index
      * are the &lt;text&gt; elements. They may be enclosed by a &lt;lucene&gt; element.
@@ -247,6 +258,14 @@ public class LuceneConfig {
                                                 + "lucene index config: float expected, got " + value);
                                     }
                                 }
+                                if (elem.hasAttribute(PARTITION_ATTRIB)) {
+                                    String value = elem.getAttribute(PARTITION_ATTRIB);
+                                    if (!LuceneIndex.isValidPartitionName(value)) {
+                                        throw new DatabaseConfigurationException("Invalid value for 'partition' attribute in "
+                                                + "lucene index config: letters, digits, '_' or '-' expected, got " + value);
+                                    }
+                                    partition = value;
+                                }
                                 if (elem.hasAttribute(DIACRITICS)) {
                                     String value = elem.getAttribute(DIACRITICS);
                                     if (value.equalsIgnoreCase("no")) {
@@ -27,12 +27,14 @@ import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.exist.backup.RawDataBackup;
+import org.exist.dom.persistent.DocumentSet;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
@@ -47,8 +49,19 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     
@@ -60,15 +73,58 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
 	private static final String DIR_NAME = "lucene";
 
-    protected Directory directory;
+    /**
+     * Name of the partition used by collections which do not specify one. It is
+     * stored in the index directory itself, other partitions in subdirectories
+     * of {@link #PARTITIONS_DIR}.
+     */
+    public final static String DEFAULT_PARTITION = "default";
+
+    private static final String PARTITIONS_DIR = "partitions";
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("[\\w\\-]+");
+
     protected Analyzer defaultAnalyzer;
 
     protected double bufferSize = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
 
-    protected IndexWriter cachedWriter = null;
+    protected LucenePartition defaultPartition = null;
+
+    // all partitions opened so far by name, including the default partition
+    private final Map<String, LucenePartition> partitions = new ConcurrentHashMap<>();
+
+    protected boolean needsCommit = false;
+
+    /**
+     * Maximum time in milliseconds before a write becomes visible to queries
+     * running in other threads. If 0, every query reopens the searchers if
+     * anything was written since they were last opened.
+     */
+    protected long maxStaleness = 0;
 
-    protected SearcherManager searcherManager = null;
-    protected ReaderManager readerManager = null;
+    private SearcherRefreshThread refreshThread = null;
+
+    /**
+     * Number of threads used to search several partitions. If 1, the
+     * partitions are searched by the calling thread one after the other.
+     */
+    protected int searchThreads = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService searchExecutor = null;
+
+    // maximum number of document set filters kept for reuse
+    private static final int DOCUMENT_FILTER_CACHE_SIZE = 16;
+
+    // document set filters by the documents they select, least recently used first
+    private final Map<DocumentSetFilter, Filter> documentFilters =
+        new LinkedHashMap<DocumentSetFilter, Filter>(DOCUMENT_FILTER_CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 4172587093371523781L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DocumentSetFilter, Filter> eldest) {
+                return size() > DOCUMENT_FILTER_CACHE_SIZE;
+            }
+        };
 
     //Taxonomy staff
     protected Directory taxonomyDirectory;
@@ -101,6 +157,22 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        String stalenessParam = config.getAttribute("max-staleness");
+        if (stalenessParam != null && stalenessParam.length() > 0)
+            try {
+                maxStaleness = Math.max(0, Long.parseLong(stalenessParam));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid max-staleness setting for lucene index: " + stalenessParam, e);
+            }
+
+        String searchThreadsParam = config.getAttribute("search-threads");
+        if (searchThreadsParam != null && searchThreadsParam.length() > 0)
+            try {
+                searchThreads = Math.max(1, Integer.parseInt(searchThreadsParam));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid search-threads setting for lucene index: " + searchThreadsParam, e);
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -120,7 +192,6 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         if (LOG.isDebugEnabled())
             LOG.debug("Opening Lucene index directory: " + dir.toAbsolutePath().toString());
 
-        IndexWriter writer = null;
         try {
             if (Files.exists(dir)) {
                 if (!Files.isDirectory(dir))
@@ -130,47 +201,54 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
                 Files.createDirectories(dir);
             }
 
-            directory = FSDirectory.open(dir.toFile());
-            taxonomyDirectory = FSDirectory.open(dir.resolve("taxonomy").toFile());
-
-            final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LUCENE_VERSION_IN_USE, defaultAnalyzer);
-            idxWriterConfig.setRAMBufferSizeMB(bufferSize);
-            cachedWriter = new IndexWriter(directory, idxWriterConfig);
+            defaultPartition = new LucenePartition(DEFAULT_PARTITION, dir);
+            defaultPartition.open(defaultAnalyzer, bufferSize);
+            partitions.put(DEFAULT_PARTITION, defaultPartition);
+
+            final Path partitionsDir = dir.resolve(PARTITIONS_DIR);
+            if (Files.isDirectory(partitionsDir)) {
+                try (final DirectoryStream<Path> subDirs = Files.newDirectoryStream(partitionsDir, Files::isDirectory)) {
+                    for (final Path subDir : subDirs) {
+                        openPartition(subDir.getFileName().toString());
+                    }
+                }
+            }
 
-            searcherManager = new SearcherManager(cachedWriter, true, null);
-            readerManager = new ReaderManager(cachedWriter, true);
+            if (maxStaleness > 0) {
+                refreshThread = new SearcherRefreshThread(this, maxStaleness);
+                refreshThread.start();
+            }
 
+            taxonomyDirectory = FSDirectory.open(dir.resolve("taxonomy").toFile());
             cachedTaxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDirectory);
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
-        } finally {
-            releaseWriter(writer);
         }
     }
 
     @Override
     public synchronized void close() throws DBException {
+        if (refreshThread != null) {
+            refreshThread.shutdown();
+            refreshThread = null;
+        }
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
         try {
-            if (searcherManager != null) {
-                searcherManager.close();
-                searcherManager = null;
-            }
-            if (readerManager != null) {
-                readerManager.close();
-                readerManager = null;
+            commit();
+            for (LucenePartition partition : partitions.values()) {
+                partition.close();
             }
-            if (cachedWriter != null) {
-            	commit();
-            	
-            	cachedTaxonomyWriter.close();
-                cachedWriter.close();
-                
+            partitions.clear();
+            defaultPartition = null;
+            if (cachedTaxonomyWriter != null) {
+                cachedTaxonomyWriter.close();
                 cachedTaxonomyWriter = null;
-                cachedWriter = null;
             }
             taxonomyDirectory.close();
-            directory.close();
         } catch (IOException e) {
             throw new DBException("Caught exception while closing lucene indexes: " + e.getMessage());
         }
@@ -185,9 +263,11 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public void remove() throws DBException {
         try {
-            String[] files = directory.listAll();
-            for (String file : files) {
-                directory.deleteFile(file);
+            for (LucenePartition partition : partitions.values()) {
+                Directory directory = partition.getDirectory();
+                for (String file : directory.listAll()) {
+                    directory.deleteFile(file);
+                }
             }
             close();
         } catch (Exception e) {
@@ -208,62 +288,317 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected Analyzer getDefaultAnalyzer() {
         return defaultAnalyzer;
     }
-    
-    protected boolean needsCommit = false;
 
+    public static boolean isValidPartitionName(String name) {
+        return name != null && PARTITION_NAME.matcher(name).matches();
+    }
+
+    /**
+     * Get the partition with the given name. The partition is created
+     * if it does not exist yet.
+     *
+     * @param name the name of the partition, null for the default partition
+     */
+    protected LucenePartition getPartition(String name) throws IOException {
+        if (name == null) {
+            return defaultPartition;
+        }
+        LucenePartition partition = partitions.get(name);
+        if (partition == null) {
+            synchronized (partitions) {
+                partition = partitions.get(name);
+                if (partition == null) {
+                    partition = openPartition(name);
+                }
+            }
+        }
+        return partition;
+    }
+
+    private LucenePartition openPartition(String name) throws IOException {
+        if (!isValidPartitionName(name)) {
+            throw new IOException("Invalid lucene index partition name: " + name);
+        }
+        final Path dir = getDataDir().resolve(getDirName()).resolve(PARTITIONS_DIR).resolve(name);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Opening Lucene index partition: " + dir.toAbsolutePath().toString());
+        Files.createDirectories(dir);
+        final LucenePartition partition = new LucenePartition(name, dir);
+        partition.open(defaultAnalyzer, bufferSize);
+        partitions.put(name, partition);
+        return partition;
+    }
+
+    /**
+     * @return all partitions opened so far, including the default partition
+     */
+    protected Collection<LucenePartition> getPartitions() {
+        return partitions.values();
+    }
+
+    /**
+     * @return the names of all partitions opened so far, including the default partition
+     */
+    public List<String> getPartitionNames() {
+        return new ArrayList<>(partitions.keySet());
+    }
+
+    /**
+     * Select the existing partitions among the given ones. Partitions which
+     * were never written to are skipped as they cannot contain matches.
+     *
+     * @param names names of the partitions, null for all partitions
+     * @return at least one partition
+     */
+    private List<LucenePartition> selectPartitions(Collection<String> names) {
+        final List<LucenePartition> selected = new ArrayList<>();
+        if (names == null) {
+            selected.addAll(partitions.values());
+        } else {
+            for (String name : names) {
+                final LucenePartition partition = partitions.get(name);
+                if (partition != null) {
+                    selected.add(partition);
+                }
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.add(defaultPartition);
+        }
+        return selected;
+    }
+
+    /**
+     * @return the writer of the default partition
+     */
     public IndexWriter getWriter() throws IOException {
         return getWriter(false);
     }
 
     public IndexWriter getWriter(boolean exclusive) throws IOException {
-        return cachedWriter;
+        return defaultPartition.getWriter();
     }
 
     public synchronized void releaseWriter(IndexWriter writer) {
         if (writer == null)
             return;
+        for (LucenePartition partition : partitions.values()) {
+            if (partition.getWriter() == writer) {
+                releaseWriter(partition);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Signal that the writer of the given partition has been used.
+     */
+    protected synchronized void releaseWriter(LucenePartition partition) {
         needsCommit = true;
+        partition.releaseWriter();
     }
 
     protected void commit() {
-    	if (!needsCommit) {
-            return;
-        }
-        try {
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Committing lucene index");
-            }
-            
-        	if (cachedWriter != null) {
-        	    cachedTaxonomyWriter.commit();
-                cachedWriter.commit();
+        if (needsCommit) {
+            try {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Committing lucene index");
+                }
+                if (cachedTaxonomyWriter != null) {
+                    cachedTaxonomyWriter.commit();
+                }
+                needsCommit = false;
+            } catch(IOException ioe) {
+                LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
             }
-            needsCommit = false;
-        } catch(CorruptIndexException cie) {
-            LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
-        } catch(IOException ioe) {
-            LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
+        }
+        for (LucenePartition partition : partitions.values()) {
+            partition.commit();
         }
     }
 
+    /**
+     * Calls fn with the current index reader of all partitions. The reader sees all writes done
+     * by the current thread, writes by other threads only if
+     * they are older than the configured max staleness.
+     */
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
-        final DirectoryReader reader = readerManager.acquire();
-        try {
-            return fn.apply(reader);
-        } finally {
-            readerManager.release(reader);
+        return withReader(null, fn);
+    }
+
+    /**
+     * Calls fn with the current index reader of the given partitions, see {@link #withReader(FunctionE)}.
+     *
+     * @param partitionNames the names of the partitions to read, null for all partitions
+     */
+    public <R> R withReader(Collection<String> partitionNames, FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        final List<LucenePartition> selected = selectPartitions(partitionNames);
+        if (selected.size() == 1) {
+            final LucenePartition partition = selected.get(0);
+            final DirectoryReader reader = partition.acquireReader(maxStaleness);
+            try {
+                return fn.apply(reader);
+            } finally {
+                partition.releaseReader(reader);
+            }
         }
+        return withMultiReader(selected, reader -> fn.apply(reader));
     }
 
+    /**
+     * Calls consumer with the current index searcher of all partitions. The searcher sees all
+     * writes done by the current thread, writes by other threads only if
+     * they are older than the configured max staleness.
+     */
     public <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
-        final IndexSearcher searcher = searcherManager.acquire();
+        return withSearcher(null, consumer);
+    }
+
+    /**
+     * Calls consumer with the current index searcher of the given partitions, see
+     * {@link #withSearcher(Function2E)}. If there are several partitions, the searcher
+     * reads all of them, so scores are computed from the statistics of all partitions.
+     * Searches for the top hits are then run in parallel, one task per segment,
+     * and merged by the searcher.
+     *
+     * @param partitionNames the names of the partitions to search, null for all partitions
+     */
+    public <R> R withSearcher(Collection<String> partitionNames, Function2E<IndexSearcher, R, IOException, XPathException> consumer)
+            throws IOException, XPathException {
+        final List<LucenePartition> selected = selectPartitions(partitionNames);
+        if (selected.size() == 1) {
+            final LucenePartition partition = selected.get(0);
+            final IndexSearcher searcher = partition.acquireSearcher(maxStaleness);
+            try {
+                return consumer.apply(searcher);
+            } finally {
+                partition.releaseSearcher(searcher);
+            }
+        }
+        final ExecutorService executor = getSearchExecutor();
+        return withMultiReader(selected, reader -> consumer.apply(new IndexSearcher(reader, executor)));
+    }
+
+    private <R, E extends Throwable> R withMultiReader(List<LucenePartition> selected,
+            Function2E<IndexReader, R, IOException, E> fn) throws IOException, E {
+        final DirectoryReader[] readers = new DirectoryReader[selected.size()];
         try {
-            return consumer.apply(searcher);
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = selected.get(i).acquireReader(maxStaleness);
+            }
+            // the sub readers are not closed, but released to their partition
+            try (final MultiReader reader = new MultiReader(readers, false)) {
+                return fn.apply(reader);
+            }
         } finally {
-            searcherManager.release(searcher);
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i] != null) {
+                    selected.get(i).releaseReader(readers[i]);
+                }
+            }
+        }
+    }
+
+    private synchronized ExecutorService getSearchExecutor() {
+        if (searchThreads < 2) {
+            return null;
+        }
+        if (searchExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            searchExecutor = Executors.newFixedThreadPool(searchThreads, runnable -> {
+                final Thread thread = new Thread(runnable, "exist-lucene-search-" + getDirName() + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return searchExecutor;
+    }
+
+    /**
+     * Get a filter restricting a search to the given documents. Filters are shared
+     * by all queries on the same documents and cache their bit set for every
+     * index segment, so it is only computed for segments written since.
+     */
+    public Filter getDocumentFilter(DocumentSet docs) {
+        final DocumentSetFilter key = new DocumentSetFilter(docs);
+        synchronized (documentFilters) {
+            Filter filter = documentFilters.get(key);
+            if (filter == null) {
+                filter = new CachingWrapperFilter(key);
+                documentFilters.put(key, filter);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Reopen searchers and readers of all partitions unless they already see all writes.
+     *
+     * @throws IOException if reopening fails
+     */
+    protected void refresh() throws IOException {
+        for (LucenePartition partition : partitions.values()) {
+            partition.refresh(partition.getWriteGeneration());
+        }
+    }
+
+    /**
+     * @return the number of writes done since the index was opened
+     */
+    public long getWriteGeneration() {
+        long generation = 0;
+        for (LucenePartition partition : partitions.values()) {
+            generation += partition.getWriteGeneration();
+        }
+        return generation;
+    }
+
+    /**
+     * @return the number of writes not yet visible to the current searchers
+     */
+    public long getGenerationLag() {
+        long lag = 0;
+        for (LucenePartition partition : partitions.values()) {
+            lag += partition.getGenerationLag();
+        }
+        return lag;
+    }
+
+    /**
+     * @return the number of times searchers and readers were reopened
+     */
+    public long getRefreshCount() {
+        long count = 0;
+        for (LucenePartition partition : partitions.values()) {
+            count += partition.getRefreshCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total time in milliseconds spent reopening searchers and readers
+     */
+    public long getRefreshTime() {
+        long time = 0;
+        for (LucenePartition partition : partitions.values()) {
+            time += partition.getRefreshTime();
+        }
+        return time;
+    }
+
+    /**
+     * @return the time in milliseconds the last refresh of a partition took at most
+     */
+    public long getLastRefreshTime() {
+        long time = 0;
+        for (LucenePartition partition : partitions.values()) {
+            time = Math.max(time, partition.getLastRefreshTime());
+        }
+        return time;
+    }
+
+    public long getMaxStaleness() {
+        return maxStaleness;
     }
 
     public synchronized TaxonomyWriter getTaxonomyWriter() throws IOException {
@@ -276,14 +611,20 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
 	@Override
 	public void backupToArchive(RawDataBackup backup) throws IOException {
-		for (String name : directory.listAll()) {
-			String path = getDirName() + "/" + name;
-
-            try(final OutputStream os = backup.newEntry(path)) {
-                Files.copy(getDataDir().resolve(path), os);
-            } finally {
-                backup.closeEntry();
+        for (LucenePartition partition : partitions.values()) {
+            String dir = getDirName();
+            if (partition != defaultPartition) {
+                dir += "/" + PARTITIONS_DIR + "/" + partition.getName();
+            }
+            for (String name : partition.getDirectory().listAll()) {
+                String path = dir + "/" + name;
+
+                try(final OutputStream os = backup.newEntry(path)) {
+                    Files.copy(getDataDir().resolve(path), os);
+                } finally {
+                    backup.closeEntry();
+                }
             }
-		}
+        }
 	}
 }
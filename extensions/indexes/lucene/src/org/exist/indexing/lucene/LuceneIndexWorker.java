@@ -22,6 +22,7 @@ package org.exist.indexing.lucene;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.PriorityQueue;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -56,6 +57,7 @@ import org.exist.dom.persistent.NewArrayNodeSet;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.AbstractCharacterData;
 import org.exist.dom.persistent.NodeSet;
+import org.exist.dom.persistent.VirtualNodeSet;
 import org.exist.dom.persistent.AttrImpl;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
@@ -63,9 +65,12 @@ import org.exist.storage.*;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
 import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.Occurrences;
+import org.exist.util.function.Function2E;
+import org.exist.util.function.FunctionE;
 import org.exist.util.pool.NodePool;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
@@ -134,6 +139,23 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private final byte[] buf = new byte[1024];
     private boolean isReindexing;
 
+    // maximum number of operations kept in the write batch; larger batches
+    // did not pay off when reindexing large collections
+    private static final int MAX_BATCH_OPERATIONS = 1000;
+
+    // context nodes are used as filter if the index has that many more documents
+    private static final int NODE_FILTER_RATIO = 8;
+
+    // index changes not yet passed to the index writers, by partition
+    private final Map<String, WriteBatch> batches = new HashMap<>();
+    // the partition of the current document
+    private String partition = LuceneIndex.DEFAULT_PARTITION;
+    private long batchTextSize = 0;
+    // the transaction the batch is written on commit, null if it is written after each flush
+    private Txn batchTransaction = null;
+    // the transaction passed to the stream listener for the current document
+    private Txn transaction = null;
+
     public LuceneIndexWorker(LuceneIndex parent, DBBroker broker) {
         this.index = parent;
         this.broker = broker;
@@ -174,6 +196,134 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             	removePlainTextIndexes();
             	break;
         }
+        if (batchTransaction == null || batchSize() > MAX_BATCH_OPERATIONS || batchTextSize > maxCachedNodesSize) {
+            applyBatch();
+        }
+    }
+
+    private WriteBatch batch() {
+        return batches.computeIfAbsent(partition, k -> new WriteBatch());
+    }
+
+    private long batchSize() {
+        long size = 0;
+        for (WriteBatch batch : batches.values()) {
+            size += batch.size();
+        }
+        return size;
+    }
+
+    /**
+     * Pass all pending changes to the index writers.
+     */
+    public void applyBatch() {
+        for (Map.Entry<String, WriteBatch> entry : batches.entrySet()) {
+            final WriteBatch batch = entry.getValue();
+            if (batch.isEmpty()) {
+                continue;
+            }
+            LucenePartition target = null;
+            try {
+                target = index.getPartition(entry.getKey());
+                batch.apply(target.getWriter());
+            } catch (IOException e) {
+                LOG.warn("An exception was caught while writing lucene index: " + e.getMessage(), e);
+            } finally {
+                batch.clear();
+                if (target != null) {
+                    index.releaseWriter(target);
+                }
+            }
+        }
+        batchTextSize = 0;
+    }
+
+    /**
+     * Search all partitions of the index. Pending changes are written first, so the search
+     * sees all changes made through this worker.
+     */
+    <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> fn) throws IOException, XPathException {
+        return withSearcher(null, fn);
+    }
+
+    /**
+     * Search the partitions of the index containing the given documents. Pending changes
+     * are written first, so the search sees all changes made through this worker.
+     *
+     * @param docs the documents to search, null to search all partitions
+     */
+    <R> R withSearcher(DocumentSet docs, Function2E<IndexSearcher, R, IOException, XPathException> fn) throws IOException, XPathException {
+        applyBatch();
+        return index.withSearcher(getPartitions(docs), fn);
+    }
+
+    /**
+     * Read all partitions of the index. Pending changes are written first, so the reader
+     * sees all changes made through this worker.
+     */
+    <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        return withReader(null, fn);
+    }
+
+    /**
+     * Read the partitions of the index containing the given documents, see
+     * {@link #withSearcher(DocumentSet, Function2E)}.
+     */
+    <R> R withReader(DocumentSet docs, FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        applyBatch();
+        return index.withReader(getPartitions(docs), fn);
+    }
+
+    /**
+     * Determine the index partitions the given documents are stored in, using the
+     * configuration of their collections.
+     *
+     * @return the names of the partitions, null if all partitions should be read
+     */
+    Set<String> getPartitions(DocumentSet docs) {
+        if (docs == null || index.getPartitions().size() == 1) {
+            return null;
+        }
+        final Set<String> partitions = new HashSet<>();
+        for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+            final IndexSpec idxConf = i.next().getIndexConfiguration(broker);
+            final LuceneConfig collectionConfig = idxConf == null ? null : (LuceneConfig) idxConf.getCustomIndexSpec(LuceneIndex.ID);
+            partitions.add(collectionConfig == null ? LuceneIndex.DEFAULT_PARTITION : collectionConfig.getPartition());
+        }
+        return partitions;
+    }
+
+    /**
+     * Changes made within a transaction are collected and written when it
+     * completes, unless the batch grows too large.
+     */
+    private void joinTransaction() {
+        if (transaction == null || transaction == batchTransaction || transaction.getState() != Txn.State.STARTED) {
+            return;
+        }
+        // changes of a previous transaction
+        applyBatch();
+        final Txn txn = transaction;
+        batchTransaction = txn;
+        txn.registerListener(new TxnListener() {
+            @Override
+            public void commit() {
+                transactionCompleted(txn);
+            }
+
+            @Override
+            public void abort() {
+                // the changes have been stored in the dom already
+                transactionCompleted(txn);
+            }
+        });
+    }
+
+    private void transactionCompleted(Txn txn) {
+        if (batchTransaction == txn) {
+            applyBatch();
+            batchTransaction = null;
+        }
     }
 
     @Override
@@ -184,15 +334,19 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     @Override
     public void setDocument(DocumentImpl document, ReindexMode newMode) {
         currentDoc = document;
+        transaction = null;
         //config = null;
         contentStack = null;
+        partition = LuceneIndex.DEFAULT_PARTITION;
         IndexSpec indexConf = document.getCollection().getIndexConfiguration(broker);
         if (indexConf != null) {
             config = (LuceneConfig) indexConf.getCustomIndexSpec(LuceneIndex.ID);
-            if (config != null)
+            if (config != null) {
             	// Create a copy of the original LuceneConfig (there's only one per db instance), 
             	// so we can safely work with it.
             	config = new LuceneConfig(config);
+            	partition = config.getPartition();
+            }
         }
         mode = newMode;
     }
@@ -314,25 +468,15 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removeDocument(int docId) {
-    	IndexWriter writer = null;
-        try {
-            writer = index.getWriter();
-            BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
-            NumericUtils.intToPrefixCoded(docId, 0, bytes);
-            Term dt = new Term(FIELD_DOC_ID, bytes);
-            writer.deleteDocuments(dt);
-        } catch (IOException e) {
-            LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
-        } finally {
-            index.releaseWriter(writer);
-            mode = ReindexMode.STORE;
-        }
+        batch().removeDocument(docId);
+        mode = ReindexMode.STORE;
     }
 
     protected void removePlainTextIndexes() {
+        applyBatch();
     	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getPartition(partition).getWriter();
             String uri = currentDoc.getURI().toString();
             Term dt = new Term(FIELD_DOC_URI, uri);
             writer.deleteDocuments(dt);
@@ -348,20 +492,29 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
         if (LOG.isDebugEnabled())
             LOG.debug("Removing collection " + collection.getURI());
-        IndexWriter writer = null;
+        applyBatch();
         try {
-            writer = index.getWriter();
+            final List<Term> terms = new ArrayList<>();
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
-                DocumentImpl doc = i.next();
-                BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
-                NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
-                Term dt = new Term(FIELD_DOC_ID, bytes);
-                writer.deleteDocuments(dt);
+                terms.add(WriteBatch.docIdTerm(i.next().getDocId()));
+            }
+            final Term[] docTerms = terms.toArray(new Term[terms.size()]);
+            // the configured partition may have changed since the documents were indexed,
+            // so check all partitions, but leave those without any of the documents untouched
+            final boolean partitioned = index.getPartitions().size() > 1;
+            for (LucenePartition target : index.getPartitions()) {
+                if (partitioned && !target.containsAny(docTerms)) {
+                    continue;
+                }
+                try {
+                    target.getWriter().deleteDocuments(docTerms);
+                } finally {
+                    index.releaseWriter(target);
+                }
             }
         } catch (IOException | PermissionDeniedException e) {
             LOG.error("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             if (reindex) {
                 try {
                     index.sync();
@@ -383,35 +536,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     protected void removeNodes() {
     	if (nodesToRemove == null)
             return;
-        IndexWriter writer = null;
-        try {
-            writer = index.getWriter();
-
-            BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
-            NumericUtils.intToPrefixCoded(currentDoc.getDocId(), 0, bytes);
-            Term dt = new Term(FIELD_DOC_ID, bytes);
-            TermQuery tq = new TermQuery(dt);
-            for (NodeId nodeId : nodesToRemove) {
-                // store the node id
-                int nodeIdLen = nodeId.size();
-                byte[] data = new byte[nodeIdLen + 2];
-                ByteConversion.shortToByte((short) nodeId.units(), data, 0);
-                nodeId.serialize(data, 2);
-
-                Term it = new Term(LuceneUtil.FIELD_NODE_ID, new BytesRef(data));
-
-                TermQuery iq = new TermQuery(it);
-                BooleanQuery q = new BooleanQuery();
-                q.add(tq, BooleanClause.Occur.MUST);
-                q.add(iq, BooleanClause.Occur.MUST);
-                writer.deleteDocuments(q);
-            }
-        } catch (IOException e) {
-            LOG.warn("Error while deleting lucene index entries: " + e.getMessage(), e);
-        } finally {
-            index.releaseWriter(writer);
-            nodesToRemove = null;
+        joinTransaction();
+        for (NodeId nodeId : nodesToRemove) {
+            batch().remove(currentDoc.getDocId(), nodeId);
         }
+        nodesToRemove = null;
     }
 
     private NodeId readNodeId(int doc, BinaryDocValues nodeIdValues, BrokerPool pool) {
@@ -442,22 +571,62 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
         List<QName> qnames, String queryStr, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
-            final List<QName> definedIndexes = getDefinedIndexes(qnames);
+        return query(context, contextId, docs, contextSet, qnames, queryStr, axis, options, -1);
+    }
+
+    /**
+     * Query the index, returning only the best matching nodes, see
+     * {@link #query(XQueryContext, int, DocumentSet, NodeSet, List, String, int, Properties)}.
+     *
+     * @param topK the number of nodes with the highest score to return for each
+     *             qname, -1 for all. Nodes with equal scores are selected in document order.
+     */
+    public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
+        List<QName> qnames, String queryStr, int axis, Properties options, int topK)
+            throws IOException, ParseException, XPathException {
+        return query(context, contextId, docs, contextSet, parse(context, docs, qnames, queryStr, options), axis, topK);
+    }
+
+    /**
+     * Parse a query string for every qname with an index, using the analyzer and
+     * query parser configured for the qname.
+     *
+     * @return the parsed query for each qname, to be passed to
+     *  {@link #query(XQueryContext, int, DocumentSet, NodeSet, Map, int, int)} or
+     *  {@link #estimate(DocumentSet, Map)}
+     */
+    public Map<QName, Query> parse(XQueryContext context, DocumentSet docs, List<QName> qnames, String queryStr,
+            Properties options) throws IOException, XPathException {
+        final Map<QName, Query> queries = new LinkedHashMap<>();
+        for (QName qname : getDefinedIndexes(qnames)) {
+            String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
+            Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
+            QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
+            try {
+                setOptions(options, parser.getConfiguration());
+                queries.put(qname, parser.parse(queryStr));
+            } catch(ParseException e) {
+                throw new XPathException("Lucene query syntax error: " + e.getMessage());
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Run queries returned by {@link #parse(XQueryContext, DocumentSet, List, String, Properties)}
+     * or {@link #parse(XQueryContext, DocumentSet, List, Element, Properties)}.
+     *
+     * @param topK the number of nodes with the highest score to return for each
+     *             qname, -1 for all
+     */
+    public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
+            Map<QName, Query> queries, int axis, int topK) throws IOException, XPathException {
+        return withSearcher(docs, searcher -> {
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
-            for (QName qname : definedIndexes) {
-                String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
-                Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
-                QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
-                try {
-                    setOptions(options, parser.getConfiguration());
-                    Query query = parser.parse(queryStr);
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
-                } catch(ParseException e) {
-                    throw new XPathException("Lucene query syntax error: " + e.getMessage());
-                }
+            for (Map.Entry<QName, Query> query : queries.entrySet()) {
+                searchAndProcess(contextId, query.getKey(), docs, contextSet, resultSet,
+                        returnAncestor, searcher, query.getValue(), topK, context.getWatchDog());
             }
             return resultSet;
         });
@@ -515,34 +684,69 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
                          List<QName> qnames, Element queryRoot, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
-            final List<QName> definedIndexes = getDefinedIndexes(qnames);
-            final NodeSet resultSet = new NewArrayNodeSet();
-            final boolean returnAncestor = axis == NodeSet.ANCESTOR;
-            for (QName qname : definedIndexes) {
-                String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
-                analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
-                Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
-                if (query != null) {
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
-                }
+        return query(context, contextId, docs, contextSet, qnames, queryRoot, axis, options, -1);
+    }
+
+    /**
+     * Query the index, returning only the best matching nodes, see
+     * {@link #query(XQueryContext, int, DocumentSet, NodeSet, List, Element, int, Properties)}.
+     *
+     * @param topK the number of nodes with the highest score to return for each
+     *             qname, -1 for all. Nodes with equal scores are selected in document order.
+     */
+    public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
+                         List<QName> qnames, Element queryRoot, int axis, Properties options, int topK)
+            throws IOException, ParseException, XPathException {
+        return query(context, contextId, docs, contextSet, parse(context, docs, qnames, queryRoot, options), axis, topK);
+    }
+
+    /**
+     * Translate an XML query for every qname with an index, see
+     * {@link #parse(XQueryContext, DocumentSet, List, String, Properties)}.
+     */
+    public Map<QName, Query> parse(XQueryContext context, DocumentSet docs, List<QName> qnames, Element queryRoot,
+            Properties options) throws IOException, XPathException {
+        final Map<QName, Query> queries = new LinkedHashMap<>();
+        for (QName qname : getDefinedIndexes(qnames)) {
+            String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
+            analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
+            Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
+            if (query != null) {
+                queries.put(qname, query);
             }
-            return resultSet;
+        }
+        return queries;
+    }
+
+    /**
+     * Estimate the number of nodes matched by the queries from the term statistics
+     * of the index, without running them. See {@link LuceneUtil#estimateHits(IndexReader, Query)}.
+     *
+     * @param queries the queries returned by {@link #parse(XQueryContext, DocumentSet, List, String, Properties)}
+     *  or {@link #parse(XQueryContext, DocumentSet, List, Element, Properties)}
+     * @return estimated number of matching nodes
+     */
+    public long estimate(DocumentSet docs, Map<QName, Query> queries) throws IOException, XPathException {
+        return withSearcher(docs, searcher -> {
+            long hits = 0;
+            for (Query query : queries.values()) {
+                hits += LuceneUtil.estimateHits(searcher.getIndexReader(), query);
+            }
+            return hits;
         });
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, Element queryRoot, int axis, Properties options)
             throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return withSearcher(docs, searcher -> {
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
             analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, -1, context.getWatchDog());
             }
             return resultSet;
         });
@@ -550,15 +754,34 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
             NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-            IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
-        searcher.search(query, collector);
+            IndexSearcher searcher, Query query, int topK, XQueryWatchDog watchDog) throws IOException, TerminatedException {
+        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, topK, watchDog);
+        searcher.search(query, getFilter(searcher, docs, returnAncestor ? contextSet : null), collector);
+        collector.finish();
+    }
+
+    /**
+     * Get a filter which lets Lucene skip hits outside the given context before
+     * they are scored and collected.
+     *
+     * @param docs the documents to search, null for all documents
+     * @param contextNodes if not null, hits must be one of these nodes. They are only
+     *                     used for filtering if there are few of them compared to the
+     *                     size of the index, as each has to be looked up.
+     * @return the filter or null if all documents should be searched
+     */
+    Filter getFilter(IndexSearcher searcher, DocumentSet docs, NodeSet contextNodes) {
+        if (contextNodes != null && !(contextNodes instanceof VirtualNodeSet) &&
+                (long) contextNodes.getLength() * NODE_FILTER_RATIO < searcher.getIndexReader().maxDoc()) {
+            return new NodeSetFilter(contextNodes);
+        }
+        return docs == null ? null : index.getDocumentFilter(docs);
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, String queryString, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return withSearcher(docs, searcher -> {
             NodeSet resultSet = new NewArrayNodeSet();
             boolean returnAncestor = axis == NodeSet.ANCESTOR;
             Analyzer analyzer = getAnalyzer(field, null, context.getBroker(), docs);
@@ -568,7 +791,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 setOptions(options, parser.getConfiguration());
                 Query query = parser.parse(queryString);
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, -1, context.getWatchDog());
             } catch(ParseException e) {
                 throw new XPathException("Lucene query syntax error: " + e.getMessage());
             }
@@ -651,9 +874,10 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
     
     public void writeNonXML() {
+        applyBatch();
     	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getPartition(partition).getWriter();
             
             writer.addDocument(pendingDoc);
         } catch (IOException e) {
@@ -675,7 +899,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      */
     public NodeImpl search(final XQueryContext context, final List<String> toBeMatchedURIs, String queryText, String[] fieldsToGet) throws XPathException, IOException {
 
-        return index.withSearcher(searcher -> {
+        return withSearcher(searcher -> {
             // Get analyzer : to be retrieved from configuration
             final Analyzer searchAnalyzer = new StandardAnalyzer(Version.LUCENE_43);
 
@@ -794,7 +1018,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         NumericUtils.intToPrefixCoded(docId, 0, bytes);
         Term dt = new Term(FIELD_DOC_ID, bytes);
 
-        return index.withReader(reader -> {
+        return withReader(reader -> {
             List<AtomicReaderContext> leaves = reader.leaves();
             for (AtomicReaderContext context : leaves) {
                 AtomicReader atomicReader = context.reader();
@@ -816,7 +1040,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         NumericUtils.intToPrefixCoded(docId, 0, bytes);
         Term dt = new Term(FIELD_DOC_ID, bytes);
 
-        return index.withReader(reader -> {
+        return withReader(reader -> {
             boolean found = false;
             List<AtomicReaderContext> leaves = reader.leaves();
             for (AtomicReaderContext context : leaves) {
@@ -874,9 +1098,13 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final int contextId;
         private final Query query;
         private final XQueryWatchDog watchdog;
+        // if only the best hits are returned: the number of hits and the best hits so far,
+        // the worst one first
+        private final int topK;
+        private final PriorityQueue<ScoredNode> topHits;
 
         private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+                                   int contextId, int topK, XQueryWatchDog watchDog) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -885,6 +1113,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.contextId = contextId;
             this.query = query;
             this.watchdog = watchDog;
+            this.topK = topK;
+            this.topHits = topK < 0 ? null : new PriorityQueue<>(Math.max(1, Math.min(topK, 1024)));
         }
 
         @Override
@@ -908,6 +1138,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         public void collect(int doc) {
             try {
                 float score = scorer.score();
+                if (topHits != null && topHits.size() == topK && (topK == 0 || score < topHits.peek().score))
+                    return;
                 int docId = (int) this.docIdValues.get(doc);
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
@@ -921,42 +1153,97 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
                 if (qname != null)
                     storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
-                // if a context set is specified, we can directly check if the
-                // matching node is a descendant of one of the nodes
-                // in the context set.
-                if (contextSet != null) {
-                    int sizeHint = contextSet.getSizeHint(storedDocument);
-                    if (returnAncestor) {
-                        NodeProxy parentNode = contextSet.get(storedNode);
-                        // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                        if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                            match.setScore(score);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
-                        }
-                    } else {
+                if (topHits != null) {
+                    // hits which will not be returned must not take the place of others
+                    if (contextSet == null || !returnAncestor || contextSet.get(storedNode) != null)
+                        offer(new ScoredNode(storedNode, score));
+                } else
+                    addHit(storedNode, score);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void offer(ScoredNode hit) {
+            if (topHits.size() < topK)
+                topHits.add(hit);
+            else if (hit.compareTo(topHits.peek()) > 0) {
+                topHits.poll();
+                topHits.add(hit);
+            }
+        }
+
+        /**
+         * Add the best hits to the result set if only those are returned.
+         */
+        private void finish() {
+            if (topHits != null) {
+                for (ScoredNode hit : topHits) {
+                    addHit(hit.node, hit.score);
+                }
+                topHits.clear();
+            }
+        }
+
+        private void addHit(NodeProxy storedNode, float score) {
+            NodeId nodeId = storedNode.getNodeId();
+            // if a context set is specified, we can directly check if the
+            // matching node is a descendant of one of the nodes
+            // in the context set.
+            if (contextSet != null) {
+                int sizeHint = contextSet.getSizeHint(storedNode.getOwnerDocument());
+                if (returnAncestor) {
+                    NodeProxy parentNode = contextSet.get(storedNode);
+                    // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
+                    if (parentNode != null) {
                         LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
                         match.setScore(score);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
+                        parentNode.addMatch(match);
+                        resultSet.add(parentNode, sizeHint);
+                        if (Expression.NO_CONTEXT_ID != contextId) {
+                            parentNode.deepCopyContext(storedNode, contextId);
+                        } else
+                            parentNode.copyContext(storedNode);
                     }
                 } else {
                     LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
                     match.setScore(score);
                     storedNode.addMatch(match);
-                    resultSet.add(storedNode);
+                    resultSet.add(storedNode, sizeHint);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+            } else {
+                LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+                match.setScore(score);
+                storedNode.addMatch(match);
+                resultSet.add(storedNode);
             }
         }
     }
 
+    /**
+     * A hit of a top k search. Hits are ranked by score, hits with the
+     * same score in document order.
+     */
+    private static class ScoredNode implements Comparable<ScoredNode> {
+
+        private final NodeProxy node;
+        private final float score;
+
+        private ScoredNode(NodeProxy node, float score) {
+            this.node = node;
+            this.score = score;
+        }
+
+        /**
+         * @return a positive number if this hit ranks before the other
+         */
+        @Override
+        public int compareTo(ScoredNode other) {
+            final int cmp = Float.compare(score, other.score);
+            return cmp != 0 ? cmp : other.node.compareTo(node);
+        }
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
@@ -978,7 +1265,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     private List<QName> getDefinedIndexesFor(QName qname, final List<QName> indexes) throws IOException {
-        return index.withReader(reader -> {
+        return withReader(reader -> {
             for (FieldInfo info: MultiFields.getMergedFieldInfos(reader)) {
                 if (!FIELD_DOC_ID.equals(info.name)) {
                     QName name = LuceneUtil.decodeQName(info.name, index.getBrokerPool().getSymbols());
@@ -1071,7 +1358,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private Occurrences[] scanIndexByQName(List<QName> qnames, DocumentSet docs, NodeSet nodes, String start, String end, long max) throws IOException {
         final TreeMap<String, Occurrences> map = new TreeMap<>();
-        index.withReader(reader -> {
+        withReader(docs, reader -> {
             for (QName qname : qnames) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 List<AtomicReaderContext> leaves = reader.leaves();
@@ -1216,24 +1503,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             return;
 	}
 
-        if (broker.getIndexController().isReindexing()) {
-            // remove old indexed nodes
-            nodesToRemove = new TreeSet<>();
-            for (PendingDoc p : nodesToWrite) {
-                nodesToRemove.add(p.nodeId);
-            }
-            removeNodes();
-        }
+        // replace the nodes indexed before when reindexing
+        final boolean replace = broker.getIndexController().isReindexing();
 
-        IndexWriter writer = null;
+        joinTransaction();
         try {
-            writer = index.getWriter();
-            // docId and nodeId are stored as doc value
-            NumericDocValuesField fDocId = new NumericDocValuesField(FIELD_DOC_ID, 0);
-            BinaryDocValuesField fNodeId = new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(8));
-            // docId also needs to be indexed
-            IntField fDocIdIdx = new IntField(FIELD_DOC_ID, 0, IntField.TYPE_NOT_STORED);
-
             final List<Field> metas = new ArrayList<>();
             final List<CategoryPath> paths = new ArrayList<>();
 
@@ -1256,16 +1530,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
             for (PendingDoc pending : nodesToWrite) {
                 final Document doc = new Document();
-                fDocId.setLongValue(currentDoc.getDocId());
-                doc.add(fDocId);
+                // docId and nodeId are stored as doc value
+                doc.add(new NumericDocValuesField(FIELD_DOC_ID, currentDoc.getDocId()));
 
                 // store the node id
-                int nodeIdLen = pending.nodeId.size();
-                byte[] data = new byte[nodeIdLen + 2];
-                ByteConversion.shortToByte((short) pending.nodeId.units(), data, 0);
-                pending.nodeId.serialize(data, 2);
-                fNodeId.setBytesValue(data);
-                doc.add(fNodeId);
+                byte[] data = LuceneUtil.createNodeKey(pending.nodeId);
+                doc.add(new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(data)));
 
                 // add separate index for node id
                 BinaryTokenStream bts = new BinaryTokenStream(new BytesRef(data));
@@ -1290,8 +1560,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
                 doc.add(fld);
 
-                fDocIdIdx.setIntValue(currentDoc.getDocId());
-                doc.add(fDocIdIdx);
+                // docId also needs to be indexed
+                doc.add(new IntField(FIELD_DOC_ID, currentDoc.getDocId(), IntField.TYPE_NOT_STORED));
                 
                 for (Field meta : metas) {
                     doc.add(meta);
@@ -1304,16 +1574,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 final Field fDocNodeId = new StoredField("docNodeId", docNodeId);
                 doc.add(fDocNodeId);
 
-                if (pending.idxConf.getAnalyzer() == null) {
-                    writer.addDocument(doc);
-                } else {
-                    writer.addDocument(doc, pending.idxConf.getAnalyzer());
-		        }
+                batch().add(currentDoc.getDocId(), pending.nodeId, doc, pending.idxConf.getAnalyzer(), replace);
+                batchTextSize += pending.text.length();
 	        }
         } catch (final IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             nodesToWrite = new ArrayList<>();
             cachedNodesSize = 0;
         }
@@ -1324,15 +1590,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * may take a while and write operations will be blocked during the optimize.
      */
     public void optimize() {
-        IndexWriter writer = null;
-        try {
-            writer = index.getWriter(true);
-            writer.forceMerge(1, true);
-            writer.commit();
-        } catch (IOException e) {
-            LOG.warn("An exception was caught while optimizing the lucene index: " + e.getMessage(), e);
-        } finally {
-            index.releaseWriter(writer);
+        applyBatch();
+        for (LucenePartition target : index.getPartitions()) {
+            try {
+                IndexWriter writer = target.getWriter();
+                writer.forceMerge(1, true);
+                writer.commit();
+            } catch (IOException e) {
+                LOG.warn("An exception was caught while optimizing the lucene index: " + e.getMessage(), e);
+            } finally {
+                index.releaseWriter(target);
+            }
         }
     }
 
@@ -1343,6 +1611,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         @Override
         public void startElement(Txn transaction, ElementImpl element, NodePath path) {
+            setTransaction(transaction);
             if (currentElement != null) {
                 indexPendingAttrs();
             }
@@ -1426,6 +1695,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         @Override
         public void attribute(Txn transaction, AttrImpl attrib, NodePath path) {
+            setTransaction(transaction);
             path.addComponent(attrib.getQName());
 
             AttrImpl attribCopy = null;
@@ -1477,6 +1747,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             return LuceneIndexWorker.this;
         }
 
+        private void setTransaction(Txn txn) {
+            if (txn != null) {
+                transaction = txn;
+            }
+        }
+
         /*
 	 * delay indexing of attributes until we have them all to calculate boost
 	 */
@@ -0,0 +1,254 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A physical Lucene index of a {@link LuceneIndex}. Collections are assigned to
+ * a partition by the <code>partition</code> attribute of the &lt;lucene&gt; element
+ * in their collection configuration; collections without one use the default
+ * partition.
+ *
+ * Every partition has its own directory, writer and searchers, which are
+ * refreshed independently, so writes to one partition do not invalidate the
+ * searchers of the others.
+ */
+class LucenePartition {
+
+    private static final Logger LOG = LogManager.getLogger(LucenePartition.class);
+
+    private final String name;
+    private final Path dir;
+
+    private Directory directory;
+    private IndexWriter writer = null;
+    private SearcherManager searcherManager = null;
+    private ReaderManager readerManager = null;
+
+    private boolean needsCommit = false;
+
+    // incremented each time a writer is released
+    private final AtomicLong writeGeneration = new AtomicLong();
+    // write generation visible to the current searchers and readers, guarded by refreshLock
+    private volatile long refreshedGeneration = 0;
+    private final Object refreshLock = new Object();
+    // write generation of the last write done by the current thread
+    private final ThreadLocal<Long> ownGeneration = ThreadLocal.withInitial(() -> 0L);
+
+    // refresh statistics
+    private volatile long refreshCount = 0;
+    private volatile long refreshTime = 0;
+    private volatile long lastRefreshTime = 0;
+
+    LucenePartition(String name, Path dir) {
+        this.name = name;
+        this.dir = dir;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    Directory getDirectory() {
+        return directory;
+    }
+
+    void open(Analyzer analyzer, double bufferSize) throws IOException {
+        directory = FSDirectory.open(dir.toFile());
+
+        final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LuceneIndex.LUCENE_VERSION_IN_USE, analyzer);
+        idxWriterConfig.setRAMBufferSizeMB(bufferSize);
+        writer = new IndexWriter(directory, idxWriterConfig);
+
+        searcherManager = new SearcherManager(writer, true, null);
+        readerManager = new ReaderManager(writer, true);
+        refreshedGeneration = writeGeneration.get();
+    }
+
+    synchronized void close() throws IOException {
+        if (searcherManager != null) {
+            searcherManager.close();
+            searcherManager = null;
+        }
+        if (readerManager != null) {
+            readerManager.close();
+            readerManager = null;
+        }
+        if (writer != null) {
+            commit();
+            writer.close();
+            writer = null;
+        }
+        directory.close();
+    }
+
+    IndexWriter getWriter() {
+        return writer;
+    }
+
+    synchronized void releaseWriter() {
+        needsCommit = true;
+        ownGeneration.set(writeGeneration.incrementAndGet());
+    }
+
+    synchronized void commit() {
+        if (!needsCommit) {
+            return;
+        }
+        try {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Committing lucene index partition " + name);
+            }
+            if (writer != null) {
+                writer.commit();
+            }
+            needsCommit = false;
+        } catch (CorruptIndexException cie) {
+            LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
+        } catch (IOException ioe) {
+            LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Acquire the current searcher, which sees all writes done by the
+     * current thread and writes by other threads only if they are older
+     * than maxStaleness. Must be released with {@link #releaseSearcher(IndexSearcher)}.
+     */
+    IndexSearcher acquireSearcher(long maxStaleness) throws IOException {
+        refresh(requiredGeneration(maxStaleness));
+        return searcherManager.acquire();
+    }
+
+    void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Acquire the current reader, see {@link #acquireSearcher(long)}.
+     * Must be released with {@link #releaseReader(DirectoryReader)}.
+     */
+    DirectoryReader acquireReader(long maxStaleness) throws IOException {
+        refresh(requiredGeneration(maxStaleness));
+        return readerManager.acquire();
+    }
+
+    void releaseReader(DirectoryReader reader) throws IOException {
+        readerManager.release(reader);
+    }
+
+    /**
+     * Check if any live document matches one of the given terms. Sees all writes
+     * released so far.
+     */
+    boolean containsAny(Term[] terms) throws IOException {
+        final DirectoryReader reader = acquireReader(0);
+        try {
+            for (final Term term : terms) {
+                final DocsEnum docs = MultiFields.getTermDocsEnum(reader, MultiFields.getLiveDocs(reader),
+                    term.field(), term.bytes());
+                if (docs != null && docs.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    private long requiredGeneration(long maxStaleness) {
+        return maxStaleness == 0 ? writeGeneration.get() : ownGeneration.get();
+    }
+
+    /**
+     * Reopen searchers and readers unless they already see all writes up to
+     * the given write generation. Only one thread refreshes at a time; other threads
+     * requiring the same generation wait and use the result.
+     *
+     * @param generation the write generation which should be visible
+     * @throws IOException if reopening fails
+     */
+    void refresh(long generation) throws IOException {
+        if (refreshedGeneration >= generation) {
+            return;
+        }
+        synchronized (refreshLock) {
+            if (refreshedGeneration >= generation) {
+                return;
+            }
+            // writes released after this point may not be included
+            final long target = writeGeneration.get();
+            final long start = System.currentTimeMillis();
+            searcherManager.maybeRefreshBlocking();
+            readerManager.maybeRefreshBlocking();
+            lastRefreshTime = System.currentTimeMillis() - start;
+            refreshTime += lastRefreshTime;
+            refreshCount++;
+            if (LOG.isDebugEnabled())
+                LOG.debug("Refreshed lucene searchers of partition " + name + " in " + lastRefreshTime +
+                    "ms; generation lag was " + (target - refreshedGeneration));
+            refreshedGeneration = target;
+        }
+    }
+
+    long getWriteGeneration() {
+        return writeGeneration.get();
+    }
+
+    long getGenerationLag() {
+        return Math.max(0, writeGeneration.get() - refreshedGeneration);
+    }
+
+    long getRefreshCount() {
+        return refreshCount;
+    }
+
+    long getRefreshTime() {
+        return refreshTime;
+    }
+
+    long getLastRefreshTime() {
+        return lastRefreshTime;
+    }
+}
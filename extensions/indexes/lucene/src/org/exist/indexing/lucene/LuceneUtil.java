@@ -61,6 +61,18 @@ public class LuceneUtil {
         return data;
     }
 
+    /**
+     * Create the key of a node within its document, stored as doc value and
+     * indexed as term of the {@link #FIELD_NODE_ID} field. The key is not unique
+     * across documents, lookups have to check the {@link #FIELD_DOC_ID} as well.
+     */
+    public static byte[] createNodeKey(NodeId nodeId) {
+        byte[] data = new byte[nodeId.size() + 2];
+        ByteConversion.shortToByte((short) nodeId.units(), data, 0);
+        nodeId.serialize(data, 2);
+        return data;
+    }
+
     public static byte[] createId(NodeId nodeId) {
         byte[] data = new byte[nodeId.size()];
         nodeId.serialize(data, 0);
@@ -120,6 +132,62 @@ public class LuceneUtil {
 		return fields.toArray(fieldArray);
 	}
 	
+    /**
+     * Estimate the number of Lucene documents matched by the query from the
+     * term statistics of the reader, without running the query. The estimate is
+     * exact for single terms and an upper bound for conjunctions. Queries whose terms
+     * would have to be expanded, like wildcards or ranges, are estimated by the
+     * number of documents having the field.
+     *
+     * @param reader the index reader
+     * @param query the query to estimate
+     * @return the estimated number of matching documents
+     * @throws IOException in case of an error
+     */
+    public static long estimateHits(IndexReader reader, Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            return reader.docFreq(((TermQuery) query).getTerm());
+        } else if (query instanceof PhraseQuery) {
+            long min = reader.maxDoc();
+            for (Term term : ((PhraseQuery) query).getTerms()) {
+                min = Math.min(min, reader.docFreq(term));
+            }
+            return min;
+        } else if (query instanceof BooleanQuery) {
+            long must = -1;
+            long should = 0;
+            boolean hasShould = false;
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                switch (clause.getOccur()) {
+                    case MUST:
+                        final long hits = estimateHits(reader, clause.getQuery());
+                        must = must < 0 ? hits : Math.min(must, hits);
+                        break;
+                    case SHOULD:
+                        hasShould = true;
+                        should += estimateHits(reader, clause.getQuery());
+                        break;
+                    default:
+                        // MUST_NOT only removes matches
+                        break;
+                }
+            }
+            if (must > -1) {
+                return must;
+            }
+            return hasShould ? Math.min(should, reader.maxDoc()) : 0;
+        } else if (query instanceof MultiTermQuery) {
+            final String field = ((MultiTermQuery) query).getField();
+            if (field != null) {
+                final int count = reader.getDocCount(field);
+                if (count > -1) {
+                    return count;
+                }
+            }
+        }
+        return reader.maxDoc();
+    }
+
     /**
      * Extract all terms which would be matched by a given query.
      * The terms are put into a map with the term as key and the
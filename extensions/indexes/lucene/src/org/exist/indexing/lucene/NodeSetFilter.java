@@ -0,0 +1,103 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Restricts a search to the Lucene documents indexed for the nodes of a
+ * {@link NodeSet}. The nodes are looked up by their {@link LuceneUtil#FIELD_NODE_ID}
+ * term, so this only pays off if the node set is small compared to the index.
+ * Node keys are only unique within a document, so the matches are checked against
+ * the {@link LuceneUtil#FIELD_DOC_ID} of the nodes.
+ */
+public class NodeSetFilter extends Filter {
+
+    // node keys in index order, each with the sorted ids of the documents containing it
+    private final BytesRef[] keys;
+    private final int[][] docIds;
+
+    public NodeSetFilter(NodeSet nodes) {
+        final TreeMap<BytesRef, List<Integer>> map = new TreeMap<>();
+        for (NodeProxy node : nodes) {
+            map.computeIfAbsent(new BytesRef(LuceneUtil.createNodeKey(node.getNodeId())), k -> new ArrayList<>(1))
+                .add(node.getOwnerDocument().getDocId());
+        }
+        keys = new BytesRef[map.size()];
+        docIds = new int[map.size()][];
+        int i = 0;
+        for (Map.Entry<BytesRef, List<Integer>> entry : map.entrySet()) {
+            keys[i] = entry.getKey();
+            docIds[i] = new int[entry.getValue().size()];
+            for (int j = 0; j < docIds[i].length; j++) {
+                docIds[i][j] = entry.getValue().get(j);
+            }
+            Arrays.sort(docIds[i]);
+            i++;
+        }
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final Terms terms = context.reader().terms(LuceneUtil.FIELD_NODE_ID);
+        final NumericDocValues docIdValues = context.reader().getNumericDocValues(LuceneUtil.FIELD_DOC_ID);
+        if (terms == null || docIdValues == null) {
+            return null;
+        }
+        final FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+        final TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docs = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (termsEnum.seekExact(keys[i], false)) {
+                docs = termsEnum.docs(acceptDocs, docs, DocsEnum.FLAG_NONE);
+                int doc;
+                while ((doc = docs.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+                    if (Arrays.binarySearch(docIds[i], (int) docIdValues.get(doc)) > -1) {
+                        bits.set(doc);
+                    }
+                }
+            }
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeSetFilter(" + keys.length + " nodes)";
+    }
+}
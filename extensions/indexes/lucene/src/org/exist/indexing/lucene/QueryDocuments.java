@@ -53,12 +53,12 @@ public class QueryDocuments {
 
         final LuceneIndex index = worker.index;
 
-        return index.withSearcher(searcher -> {
+        return worker.withSearcher(docs, searcher -> {
             final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
 
-            searcher.search(query, collector);
+            searcher.search(query, worker.getFilter(searcher, docs, null), collector);
             
             return collector.getFacetResults();
         });
@@ -75,7 +75,7 @@ public class QueryDocuments {
         
         DBBroker broker = db.getActiveBroker();
         
-        return index.withSearcher(searcher -> {
+        return worker.withSearcher(docs, searcher -> {
             final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
@@ -93,7 +93,7 @@ public class QueryDocuments {
 
                     Query query = parser.parse(queryStr);
 
-                    searcher.search(query, collector);
+                    searcher.search(query, worker.getFilter(searcher, docs, null), collector);
                 } catch (ParseException e) {
                     throw new XPathException("Syntax error in Lucene query string: " + e.getMessage(), e);
                 }
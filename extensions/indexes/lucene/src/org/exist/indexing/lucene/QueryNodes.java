@@ -64,12 +64,12 @@ public class QueryNodes {
 
         final Database db = index.getBrokerPool();
 
-        return index.withSearcher(searcher -> {
+        return worker.withSearcher(docs, searcher -> {
             final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, query, qname, contextId, docs, callback, searchParams, taxonomyReader);
 
-            searcher.search(query, collector);
+            searcher.search(query, worker.getFilter(searcher, docs, null), collector);
             
             return collector.getFacetResults();
         });
@@ -86,7 +86,7 @@ public class QueryNodes {
         
         DBBroker broker = db.getActiveBroker();
         
-        return index.withSearcher(searcher -> {
+        return worker.withSearcher(docs, searcher -> {
             final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, null, null, contextId, docs, callback, searchParams, taxonomyReader);
@@ -107,7 +107,7 @@ public class QueryNodes {
                     collector.qname = qname;
                     collector.query = query;
 
-                    searcher.search(query, collector);
+                    searcher.search(query, worker.getFilter(searcher, docs, null), collector);
                 } catch (ParseException e) {
                     throw new XPathException("Syntax error in lucene query: " + e.getMessage(), e);
                 }
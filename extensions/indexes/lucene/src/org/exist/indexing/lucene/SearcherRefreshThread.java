@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Reopens the searchers and readers of a {@link LuceneIndex} in the background
+ * if documents were written since the last refresh. Queries thus just acquire the
+ * current searcher and see changes made by other threads after at most
+ * the configured interval.
+ */
+public class SearcherRefreshThread extends Thread {
+
+    private static final Logger LOG = LogManager.getLogger(SearcherRefreshThread.class);
+
+    private final LuceneIndex index;
+    private final long interval;
+
+    // used as termination flag, volatile semantics are sufficient
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param index the index to refresh
+     * @param interval the maximum time in milliseconds between a write and
+     *                 a refresh making it visible
+     */
+    public SearcherRefreshThread(final LuceneIndex index, final long interval) {
+        super("exist-lucene-refresh-" + index.getDirName());
+        this.index = index;
+        this.interval = interval;
+        setDaemon(true);
+    }
+
+    /**
+     * Shutdown the refresh thread and wait until it has terminated.
+     */
+    public void shutdown() {
+        shutdown = true;
+        interrupt();
+        try {
+            join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!shutdown) {
+            try {
+                Thread.sleep(interval);
+            } catch (final InterruptedException e) {
+                //Nothing to do
+            }
+            if (shutdown) {
+                break;
+            }
+            try {
+                index.refresh();
+            } catch (final IOException | RuntimeException e) {
+                LOG.warn("Failed to refresh lucene searchers: " + e.getMessage(), e);
+            }
+        }
+    }
+}
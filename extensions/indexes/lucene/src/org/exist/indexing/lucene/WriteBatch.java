@@ -0,0 +1,172 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.numbering.NodeId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the Lucene documents to be added or deleted by a {@link LuceneIndexWorker}
+ * so they can be written in one go, usually when the transaction commits.
+ *
+ * Operations on the same node are coalesced: a node which is deleted and indexed
+ * again is deleted and added once, and pending operations on a document are dropped
+ * if the whole document is removed. Nodes are identified by their {@link LuceneUtil#FIELD_DOC_ID}
+ * and {@link LuceneUtil#FIELD_NODE_ID} terms. The deletes of a document are combined
+ * into a single query.
+ */
+class WriteBatch {
+
+    private static class NodeOp {
+        // delete documents indexed for the node before adding the new ones
+        final boolean replace;
+        final List<Document> docs = new ArrayList<>(2);
+        final List<Analyzer> analyzers = new ArrayList<>(2);
+
+        NodeOp(boolean replace) {
+            this.replace = replace;
+        }
+    }
+
+    // whole documents to remove, applied before the node operations
+    private final Set<Integer> removedDocs = new LinkedHashSet<>();
+    // pending operations by document and node key
+    private final Map<Integer, Map<BytesRef, NodeOp>> nodeOps = new LinkedHashMap<>();
+
+    private long size = 0;
+
+    /**
+     * Add a Lucene document for a node.
+     *
+     * @param replace true if documents previously indexed for the node should be deleted
+     */
+    public void add(int docId, NodeId nodeId, Document doc, Analyzer analyzer, boolean replace) {
+        final Map<BytesRef, NodeOp> ops = nodeOps.computeIfAbsent(docId, k -> new LinkedHashMap<>());
+        final BytesRef key = nodeKey(nodeId);
+        NodeOp op = ops.get(key);
+        if (op == null) {
+            op = new NodeOp(replace);
+            ops.put(key, op);
+        }
+        op.docs.add(doc);
+        op.analyzers.add(analyzer);
+        size++;
+    }
+
+    /**
+     * Delete all Lucene documents indexed for a node, including pending ones.
+     */
+    public void remove(int docId, NodeId nodeId) {
+        nodeOps.computeIfAbsent(docId, k -> new LinkedHashMap<>()).put(nodeKey(nodeId), new NodeOp(true));
+        size++;
+    }
+
+    /**
+     * Delete all Lucene documents indexed for an XML document, including pending ones.
+     */
+    public void removeDocument(int docId) {
+        nodeOps.remove(docId);
+        removedDocs.add(docId);
+        size++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of operations recorded since the batch was last applied
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Write all pending operations and clear the batch.
+     */
+    public void apply(IndexWriter writer) throws IOException {
+        try {
+            if (!removedDocs.isEmpty()) {
+                final Term[] terms = new Term[removedDocs.size()];
+                int i = 0;
+                for (final int docId : removedDocs) {
+                    terms[i++] = docIdTerm(docId);
+                }
+                writer.deleteDocuments(terms);
+            }
+            for (final Map.Entry<Integer, Map<BytesRef, NodeOp>> docOps : nodeOps.entrySet()) {
+                // deletes only apply to documents added before, so delete first
+                final List<BytesRef> deletes = new ArrayList<>();
+                for (final Map.Entry<BytesRef, NodeOp> entry : docOps.getValue().entrySet()) {
+                    if (entry.getValue().replace) {
+                        deletes.add(entry.getKey());
+                    }
+                }
+                if (!deletes.isEmpty()) {
+                    writer.deleteDocuments(new FilteredQuery(new TermQuery(docIdTerm(docOps.getKey())),
+                        new TermsFilter(LuceneUtil.FIELD_NODE_ID, deletes)));
+                }
+                for (final NodeOp op : docOps.getValue().values()) {
+                    for (int i = 0; i < op.docs.size(); i++) {
+                        writer.addDocument(op.docs.get(i), analyzer(writer, op.analyzers.get(i)));
+                    }
+                }
+            }
+        } finally {
+            clear();
+        }
+    }
+
+    public void clear() {
+        removedDocs.clear();
+        nodeOps.clear();
+        size = 0;
+    }
+
+    private static Analyzer analyzer(IndexWriter writer, Analyzer analyzer) {
+        return analyzer == null ? writer.getAnalyzer() : analyzer;
+    }
+
+    static Term docIdTerm(int docId) {
+        final BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
+        NumericUtils.intToPrefixCoded(docId, 0, bytes);
+        return new Term(LuceneUtil.FIELD_DOC_ID, bytes);
+    }
+
+    private static BytesRef nodeKey(NodeId nodeId) {
+        return new BytesRef(LuceneUtil.createNodeKey(nodeId));
+    }
+}
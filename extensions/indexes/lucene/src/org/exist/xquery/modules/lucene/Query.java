@@ -22,6 +22,8 @@ package org.exist.xquery.modules.lucene;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 
 import javax.xml.stream.XMLStreamException;
@@ -30,6 +32,8 @@ import javax.xml.stream.XMLStreamReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.VirtualNodeSet;
@@ -37,6 +41,7 @@ import org.exist.indexing.lucene.LuceneIndex;
 import org.exist.indexing.lucene.LuceneIndexWorker;
 import org.exist.storage.ElementValue;
 import org.exist.xquery.*;
+import org.exist.xquery.functions.fn.FunDeepEqual;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
@@ -46,7 +51,7 @@ import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.w3c.dom.Element;
 
-public class Query extends Function implements Optimizable {
+public class Query extends Function implements Optimizable, TopKOptimizable {
 	
 	protected static final Logger logger = LogManager.getLogger(Query.class);
 
@@ -110,6 +115,11 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    // number of best matches to return if the results are ordered by score, -1 for all
+    private int topK = -1;
+    private int topKCount = 0;
+    // the queries parsed by the last index lookup, see parseQueries
+    private ParsedQuery parsed = null;
 
     public Query(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
@@ -204,6 +214,69 @@ public class Query extends Function implements Optimizable {
         return axis;
     }
 
+    /**
+     * The matches can be ordered by descending score if they are the context
+     * nodes, i.e. the query is called on "." in a predicate.
+     */
+    @Override
+    public boolean canOptimizeOrder(QName variable, OrderSpec[] orderSpecs) {
+        if (!optimizeSelf || orderSpecs.length != 1 ||
+                (orderSpecs[0].getModifiers() & OrderSpec.DESCENDING_ORDER) == 0) {
+            return false;
+        }
+        final Expression sortExpr = unwrap(orderSpecs[0].getSortExpression());
+        if (!(sortExpr instanceof Score)) {
+            return false;
+        }
+        final Expression node = unwrap(((Score) sortExpr).getArgument(0));
+        return node instanceof VariableReference && ((VariableReference) node).getName().equals(variable);
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            expr = expr.simplify();
+            if (expr instanceof InternalFunctionCall) {
+                expr = ((InternalFunctionCall) expr).getFunction();
+            } else if (expr instanceof DynamicCardinalityCheck) {
+                expr = ((DynamicCardinalityCheck) expr).getExpression();
+            } else if (expr instanceof DynamicTypeCheck) {
+                expr = ((DynamicTypeCheck) expr).getExpression();
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    @Override
+    public void setTopK(int k) {
+        topK = k;
+        topKCount = 0;
+    }
+
+    @Override
+    public int getTopKCount() {
+        return topKCount;
+    }
+
+    @Override
+    public boolean mustRunLast() {
+        // the best hits must be selected from the nodes left by the other lookups
+        return topK >= 0;
+    }
+
+    @Override
+    public long estimateCardinality(Sequence contextSequence) throws XPathException {
+        if (topK >= 0 || contextSequence == null || !contextSequence.isPersistentSet())
+            return CostEstimator.UNKNOWN;
+        LuceneIndexWorker index = (LuceneIndexWorker) context.getBroker().getIndexController().getWorkerByIndexId(LuceneIndex.ID);
+        DocumentSet docs = contextSequence.getDocumentSet();
+        try {
+            return index.estimate(docs, parseQueries(index, docs, contextSequence));
+        } catch (IOException e) {
+            throw new XPathException(this, "Error while reading full text index statistics: " + e.getMessage(), e);
+        }
+    }
+
     public NodeSet preSelect(Sequence contextSequence, boolean useContext) throws XPathException {
     	if (contextSequence != null && !contextSequence.isPersistentSet())
     		// in-memory docs won't have an index
@@ -216,20 +289,14 @@ public class Query extends Function implements Optimizable {
 
         // DW: contextSequence can be null
         DocumentSet docs = contextSequence.getDocumentSet();
-        Item key = getKey(contextSequence, null);
-        List<QName> qnames = new ArrayList<>(1);
-        qnames.add(contextQName);
-        Properties options = parseOptions(contextSequence, null);
         try {
-            if (Type.subTypeOf(key.getType(), Type.ELEMENT))
-                preselectResult = index.query(context, getExpressionId(), docs, useContext ? contextSequence.toNodeSet() : null,
-                    qnames, (Element) ((NodeValue)key).getNode(), NodeSet.DESCENDANT, options);
-            else
-                preselectResult = index.query(context, getExpressionId(), docs, useContext ? contextSequence.toNodeSet() : null,
-                    qnames, key.getStringValue(), NodeSet.DESCENDANT, options);
-        } catch (IOException | org.apache.lucene.queryparser.classic.ParseException e) {
+            preselectResult = index.query(context, getExpressionId(), docs, useContext ? contextSequence.toNodeSet() : null,
+                parseQueries(index, docs, contextSequence), NodeSet.DESCENDANT, topK);
+        } catch (IOException e) {
             throw new XPathException(this, "Error while querying full text index: " + e.getMessage(), e);
         }
+        if (topK >= 0)
+            topKCount += preselectResult.getLength();
         LOG.trace("Lucene query took " + (System.currentTimeMillis() - start));
         if( context.getProfiler().traceFunctions() ) {
             context.getProfiler().traceIndexUsage( context, "lucene", this, PerformanceStats.OPTIMIZED_INDEX, System.currentTimeMillis() - start );
@@ -237,6 +304,29 @@ public class Query extends Function implements Optimizable {
         return preselectResult;
     }
 
+    /**
+     * Parse the query for the index lookup on the given context. The queries parsed by the
+     * last lookup are reused if the query, the options and the documents did not change,
+     * e.g. by {@link #preSelect(Sequence, boolean)} after {@link #estimateCardinality(Sequence)},
+     * or if the expression is evaluated again in a loop.
+     */
+    private Map<QName, org.apache.lucene.search.Query> parseQueries(LuceneIndexWorker index, DocumentSet docs,
+            Sequence contextSequence) throws IOException, XPathException {
+        Item key = getKey(contextSequence, null);
+        Properties options = parseOptions(contextSequence, null);
+        if (parsed == null || !parsed.matches(key, options, docs)) {
+            List<QName> qnames = new ArrayList<>(1);
+            qnames.add(contextQName);
+            Map<QName, org.apache.lucene.search.Query> queries;
+            if (Type.subTypeOf(key.getType(), Type.ELEMENT))
+                queries = index.parse(context, docs, qnames, (Element) ((NodeValue)key).getNode(), options);
+            else
+                queries = index.parse(context, docs, qnames, key.getStringValue(), options);
+            parsed = new ParsedQuery(key, options, docs, queries);
+        }
+        return parsed.queries;
+    }
+
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
     	
         if (contextItem != null)
@@ -264,13 +354,15 @@ public class Query extends Function implements Optimizable {
                     qnames.add(contextQName);
                 }
                 Properties options = parseOptions(contextSequence, contextItem);
+                // scores of earlier matches on the context nodes add to the score of the node
+                final int limit = topK >= 0 && !hasScores(inNodes) ? topK : -1;
                 try {
                     if (Type.subTypeOf(key.getType(), Type.ELEMENT))
                         result = index.query(context, getExpressionId(), docs, inNodes, qnames,
-                                (Element)((NodeValue)key).getNode(), NodeSet.ANCESTOR, options);
+                                (Element)((NodeValue)key).getNode(), NodeSet.ANCESTOR, options, limit);
                     else
                         result = index.query(context, getExpressionId(), docs, inNodes, qnames,
-                                key.getStringValue(), NodeSet.ANCESTOR, options);
+                                key.getStringValue(), NodeSet.ANCESTOR, options, limit);
                 } catch (IOException | org.apache.lucene.queryparser.classic.ParseException e) {
                     throw new XPathException(this, e.getMessage());
                 }
@@ -283,9 +375,23 @@ public class Query extends Function implements Optimizable {
             contextStep.setPreloadedData(contextSequence.getDocumentSet(), preselectResult);
             result = getArgument(0).eval(contextSequence).toNodeSet();
         }
+        if (topK >= 0 && preselectResult == null)
+            topKCount += result.getLength();
         return result;
     }
 
+    private static boolean hasScores(NodeSet nodes) {
+        if (nodes instanceof VirtualNodeSet)
+            return false;
+        for (NodeProxy node : nodes) {
+            for (Match match = node.getMatches(); match != null; match = match.getNextMatch()) {
+                if (match.getIndexId() == LuceneIndex.ID)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     protected Item getKey(Sequence contextSequence, Item contextItem) throws XPathException {
         Sequence keySeq = getArgument(1).eval(contextSequence, contextItem);
         Item key = keySeq.itemAt(0);
@@ -336,6 +442,29 @@ public class Query extends Function implements Optimizable {
         super.resetState(postOptimization);
         if (!postOptimization) {
             preselectResult = null;
+            topK = -1;
+            topKCount = 0;
+            parsed = null;
+        }
+    }
+
+    private static class ParsedQuery {
+
+        private final Item key;
+        private final Properties options;
+        private final DocumentSet docs;
+        private final Map<QName, org.apache.lucene.search.Query> queries;
+
+        ParsedQuery(Item key, Properties options, DocumentSet docs, Map<QName, org.apache.lucene.search.Query> queries) {
+            this.key = key;
+            this.options = options;
+            this.docs = docs;
+            this.queries = queries;
+        }
+
+        boolean matches(Item otherKey, Properties otherOptions, DocumentSet otherDocs) {
+            return (docs == otherDocs || docs.equalDocs(otherDocs)) && Objects.equals(options, otherOptions) &&
+                FunDeepEqual.deepEquals(key, otherKey, null);
         }
     }
 }
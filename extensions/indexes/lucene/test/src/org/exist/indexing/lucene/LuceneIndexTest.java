@@ -21,6 +21,7 @@ package org.exist.indexing.lucene;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,6 +31,8 @@ import java.util.*;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.lucene.search.MatchAllDocsQuery;
+
 import org.exist.EXistException;
 import org.exist.Indexer;
 import org.exist.TestUtils;
@@ -42,6 +45,8 @@ import org.exist.dom.QName;
 import org.exist.dom.persistent.DefaultDocumentSet;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.MutableDocumentSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
 import org.exist.indexing.OrderedValuesIndex;
 import org.exist.indexing.QNamedKeysIndex;
 import org.exist.security.PermissionDeniedException;
@@ -63,6 +68,7 @@ import org.exist.xquery.XQuery;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.value.BooleanValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xupdate.Modification;
 import org.exist.xupdate.XUpdateProcessor;
@@ -258,6 +264,15 @@ public class LuceneIndexTest {
             "   </index>" +
             "</collection>";
 
+    private static final String COLLECTION_CONFIG9 =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "	<index>" +
+        "       <lucene partition=\"test-partition\">" +
+        "           <text match=\"/section/p\"/>" +
+        "       </lucene>" +
+        "	</index>" +
+        "</collection>";
+
 
     private static BrokerPool pool;
     private static Collection root;
@@ -669,6 +684,133 @@ public class LuceneIndexTest {
         }
     }
 
+    @Test
+    public void refreshSearchers() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        final LuceneIndex index = (LuceneIndex) pool.getIndexManager().getIndexByName("lucene-index");
+        final long refreshCount = index.getRefreshCount();
+        configureAndStore(COLLECTION_CONFIG1, XML1, "refresh.xml");
+        assertTrue(index.getGenerationLag() > 0);
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            Sequence seq = xquery.execute(broker, "/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals(0, index.getGenerationLag());
+            assertTrue(index.getRefreshCount() > refreshCount);
+
+            // nothing changed, so the searcher is not reopened
+            final long refreshed = index.getRefreshCount();
+            seq = xquery.execute(broker, "/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals(refreshed, index.getRefreshCount());
+        }
+    }
+
+    @Test
+    public void partitions() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        final DocumentSet partitionDocs = configureAndStore(COLLECTION_CONFIG9, XML1, "partition.xml");
+        final MutableDocumentSet defaultDocs = new DefaultDocumentSet();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try(final Txn transaction = transact.beginTransaction()) {
+                // the sub collection is stored in the default partition
+                final Collection child = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI2);
+                broker.saveCollection(transaction, child);
+                pool.getConfigurationManager().addConfiguration(transaction, broker, child, COLLECTION_CONFIG1);
+                final IndexInfo info = child.validateXMLResource(transaction, broker, XmldbURI.create("default.xml"), XML1);
+                assertNotNull(info);
+                child.store(transaction, broker, info, XML1, false);
+                defaultDocs.add(info.getDocument());
+                transact.commit(transaction);
+            }
+
+            final LuceneIndex index = (LuceneIndex) pool.getIndexManager().getIndexByName("lucene-index");
+            assertTrue(index.getPartitionNames().contains("test-partition"));
+            final LuceneIndexWorker worker = (LuceneIndexWorker) broker.getIndexController().getWorkerByIndexId(LuceneIndex.ID);
+            assertEquals(Collections.singleton("test-partition"), worker.getPartitions(partitionDocs));
+            assertEquals(Collections.singleton(LuceneIndex.DEFAULT_PARTITION), worker.getPartitions(defaultDocs));
+
+            final XQuery xquery = pool.getXQueryService();
+            Sequence seq = xquery.execute(broker, "collection('" + TestConstants.TEST_COLLECTION_URI + "')/section[ft:query(p, 'content')]", null);
+            assertEquals(2, seq.getItemCount());
+            seq = xquery.execute(broker, "collection('" + TestConstants.TEST_COLLECTION_URI2 + "')/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+            seq = xquery.execute(broker, "doc('" + TestConstants.TEST_COLLECTION_URI + "/partition.xml')/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+
+            try(final Txn transaction = transact.beginTransaction()) {
+                root.removeXMLResource(transaction, broker, XmldbURI.create("partition.xml"));
+                transact.commit(transaction);
+            }
+            seq = xquery.execute(broker, "collection('" + TestConstants.TEST_COLLECTION_URI + "')/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+        }
+    }
+
+    @Test
+    public void contextFilters() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        configureAndStore(COLLECTION_CONFIG1, XML1, "filter1.xml");
+        configureAndStore(null, XML1, "filter2.xml");
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final String doc = "doc('" + TestConstants.TEST_COLLECTION_URI + "/filter1.xml')";
+            // hits are restricted to the documents of the context
+            Sequence seq = xquery.execute(broker, doc + "/section[ft:query(p, 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+            seq = xquery.execute(broker, "collection('" + TestConstants.TEST_COLLECTION_URI + "')/section[ft:query(p, 'content')]", null);
+            assertEquals(2, seq.getItemCount());
+
+            // and to the context nodes: only the second paragraph contains the term
+            seq = xquery.execute(broker, "let $p := " + doc + "/section/p[1] return $p[ft:query(., 'content')]", null);
+            assertEquals(0, seq.getItemCount());
+            seq = xquery.execute(broker, "let $p := " + doc + "/section/p[2] return $p[ft:query(., 'content')]", null);
+            assertEquals(1, seq.getItemCount());
+            seq = xquery.execute(broker, "let $p := " + doc + "/section/p return $p[ft:query(., 'content')]/@rend/string()", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("right", seq.itemAt(0).getStringValue());
+
+            // the other document has nodes with the same ids, which must not pass the node filter
+            final NodeSet nodes = xquery.execute(broker, doc + "/section/p", null).toNodeSet();
+            final LuceneIndex index = (LuceneIndex) pool.getIndexManager().getIndexByName("lucene-index");
+            final int hits = index.withSearcher(searcher ->
+                searcher.search(new MatchAllDocsQuery(), new NodeSetFilter(nodes), 10).totalHits);
+            assertEquals(2, hits);
+        }
+    }
+
+    @Test
+    public void topHits() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        configureAndStore(COLLECTION_CONFIG1, "samples/shakespeare");
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            // the best hits selected by the index must be the ones found by sorting all hits,
+            // with hits of equal score in document order
+            final String[] inputs = {
+                "//LINE[ft:query(., 'love')]",
+                "//LINE[ft:query(., 'love OR night')]",
+                "//LINE[ft:query(., <query><term>love</term></query>)]",
+                // hits are filtered by the step: all of them are sorted
+                "//SPEECH[SPEAKER = 'ROMEO']/LINE[ft:query(., 'love')]"
+            };
+            for (final String input : inputs) {
+                final String all = "for $l in " + input + " order by ft:score($l) descending return $l";
+                final String top = "subsequence(for $l in " + input + " order by ft:score($l) descending return $l, 2, 15)";
+                final Sequence seq = xquery.execute(broker,
+                    "let $sorted := " + all + " " +
+                    "let $all := subsequence($sorted, 2, 15) " +
+                    "let $top := " + top + " " +
+                    "return (count($all), count($top), every $i in 1 to count($all) satisfies $all[$i] is $top[$i])", null);
+                assertEquals(input, 15, (int) seq.itemAt(0).toJavaObject(int.class));
+                assertEquals(input, 15, (int) seq.itemAt(1).toJavaObject(int.class));
+                assertTrue(input, ((BooleanValue) seq.itemAt(2)).getValue());
+            }
+
+            // fewer hits than requested
+            final Sequence seq = xquery.execute(broker,
+                "subsequence(for $l in //LINE[ft:query(., 'bark')] order by ft:score($l) descending return $l, 1, 10)", null);
+            assertEquals(6, seq.getItemCount());
+        }
+    }
+
     @Test
     public void dropSingleDoc() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException {
         final DocumentSet docs = configureAndStore(COLLECTION_CONFIG1, XML1, "dropDocument.xml");
@@ -839,6 +981,50 @@ public class LuceneIndexTest {
         }
     }
 
+    /**
+     * Node keys are only unique within a document: updating nodes in one document
+     * must not touch the entries of another document with the same structure.
+     */
+    @Test
+    public void xupdateOtherDocument() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException, ParserConfigurationException {
+        final DocumentSet docs = configureAndStore(COLLECTION_CONFIG2, XML2, "xupdate1.xml");
+        configureAndStore(null, XML2, "xupdate2.xml");
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final XQuery xquery = pool.getXQueryService();
+            final String collection = "collection('" + TestConstants.TEST_COLLECTION_URI + "')";
+            Sequence seq = xquery.execute(broker, collection + "//item[ft:query(description, 'chair')]", null);
+            assertEquals(2, seq.getItemCount());
+
+            final XUpdateProcessor proc = new XUpdateProcessor(broker, docs);
+            proc.setBroker(broker);
+            proc.setDocumentSet(docs);
+            String xupdate =
+                    XUPDATE_START +
+                    "   <xu:remove select=\"//item[@id='2']/condition\"/>" +
+                    "   <xu:update select=\"//item[@id='1']/description\">Sofa</xu:update>" +
+                    XUPDATE_END;
+            Modification[] modifications = proc.parse(new InputSource(new StringReader(xupdate)));
+            assertNotNull(modifications);
+            for (final Modification modification : modifications) {
+                modification.process(transaction);
+            }
+            proc.reset();
+            transact.commit(transaction);
+
+            seq = xquery.execute(broker, collection + "//item[ft:query(condition, 'good')]", null);
+            assertEquals(1, seq.getItemCount());
+            seq = xquery.execute(broker, collection + "//item[ft:query(description, 'chair')]", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("xupdate2.xml", ((NodeProxy) seq.itemAt(0)).getOwnerDocument().getFileURI().toString());
+            seq = xquery.execute(broker, collection + "//item[ft:query(description, 'sofa')]", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("xupdate1.xml", ((NodeProxy) seq.itemAt(0)).getOwnerDocument().getFileURI().toString());
+        }
+    }
+
     /**
      * Remove nodes from different levels of the tree and check if the index is
      * correctly updated.
@@ -86,6 +86,16 @@ public class RangeIndexConfig {
         analyzer = new KeywordAnalyzer();
     }
 
+    /**
+     * Return the configuration for elements or attributes with the given qname,
+     * which may be followed by other configurations, see {@link RangeIndexConfigElement#getNext()}.
+     *
+     * @return the configuration or null if there is none
+     */
+    public RangeIndexConfigElement get(QName qname) {
+        return paths.get(qname);
+    }
+
     public Analyzer getDefaultAnalyzer() {
         return analyzer;
     }
@@ -60,6 +60,7 @@ import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.Occurrences;
+import org.exist.util.XMLString;
 import org.exist.xquery.*;
 import org.exist.xquery.modules.range.RangeQueryRewriter;
 import org.exist.xquery.value.*;
@@ -84,6 +85,10 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String FIELD_ADDRESS = "address";
     public static final String FIELD_ID = "id";
 
+    // maximum ratio of index entries to nodes for which the index is scanned instead of
+    // computing the values of the nodes: reading an entry costs about half as much
+    private static final int MAX_SCAN_RATIO = 2;
+
     private static Set<String> LOAD_FIELDS = new TreeSet<String>();
     static {
         LOAD_FIELDS.add(FIELD_DOC_ID);
@@ -539,6 +544,27 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         });
     }
 
+    /**
+     * Estimate the number of nodes {@link #query(int, DocumentSet, NodeSet, List, AtomicValue[], RangeIndex.Operator, int)}
+     * would return, using the term statistics of the index only. The estimate is not restricted to the
+     * given documents, so it is an upper bound.
+     *
+     * @return estimated number of nodes
+     */
+    public long estimate(DocumentSet docs, List<QName> qnames, AtomicValue[] keys, RangeIndex.Operator operator) throws IOException, XPathException {
+        return index.withSearcher(searcher -> {
+            final IndexReader reader = searcher.getIndexReader();
+            long hits = 0;
+            for (QName qname : getDefinedIndexes(qnames)) {
+                String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
+                for (AtomicValue key : keys) {
+                    hits += LuceneUtil.estimateHits(reader, toQuery(field, qname, key, operator, docs));
+                }
+            }
+            return hits;
+        });
+    }
+
     public NodeSet queryField(int contextId, DocumentSet docs, NodeSet contextSet, Sequence fields, Sequence[] keys, RangeIndex.Operator[] operators, int axis) throws IOException, XPathException {
         return index.withSearcher(searcher -> {
             BooleanQuery query = new BooleanQuery();
@@ -796,6 +822,351 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return true;
     }
 
+    /**
+     * Order nodes by the value of a child element or attribute, using the sorted terms of
+     * a qname index on it instead of loading and comparing the values. The order matches
+     * the "order by" clause for values of the given type compared by codepoint. Nodes with
+     * equal values are returned in document order. Nodes without value or with a value of
+     * NaN are returned first if emptyFirst is set, last otherwise.
+     *
+     * The index cannot be used and null is returned if a collection of the nodes has no plain
+     * index of the given type on the qname, if any value is not indexed or if a node has more
+     * than one value. It is not used either if the index has many more entries than there are
+     * nodes, since computing the values of the nodes is then cheaper than scanning the index.
+     *
+     * @param nodes the nodes to order
+     * @param qname the qname of the child element or attribute providing the value of a node
+     * @param type the type the values are converted to
+     * @param descending order the values in descending order
+     * @param emptyFirst return the nodes without value first
+     * @return the ordered nodes or null if the index cannot be used
+     * @throws IOException in case of an error reading the index
+     * @throws XPathException
+     */
+    public Sequence orderBy(NodeSet nodes, QName qname, int type, boolean descending, boolean emptyFirst) throws IOException, XPathException {
+        final DocumentSet docs = nodes.getDocumentSet();
+        if (!canOrderBy(docs, qname, type)) {
+            return null;
+        }
+        // number of values of the nodes, all of which must be indexed
+        final int valueCount = broker.getStructuralIndex().findElementsByTagName(qname.getNameType(), docs, qname,
+                new ChildSelector(nodes, Expression.NO_CONTEXT_ID)).getLength();
+        final NodeSet valued = new NewArrayNodeSet();
+        final NodeSet empty = new NewArrayNodeSet();
+        final List<List<NodeProxy>> groups = new ArrayList<>();
+        final int matched = index.withReader(reader -> {
+            final Terms terms = MultiFields.getTerms(reader, LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols()));
+            if (terms == null) {
+                return 0;
+            }
+            if (terms.getDocCount() > MAX_SCAN_RATIO * nodes.getLength()) {
+                return -1;
+            }
+            final NumericDocValues docIdValues = MultiDocValues.getNumericValues(reader, FIELD_DOC_ID);
+            final BinaryDocValues nodeIdValues = MultiDocValues.getBinaryValues(reader, FIELD_NODE_ID);
+            final Bits liveDocs = MultiFields.getLiveDocs(reader);
+            final BytesRef ref = new BytesRef();
+            final TermsEnum termsEnum = terms.iterator(null);
+            DocsEnum docsEnum = null;
+            List<NodeProxy> group = null;
+            double lastValue = Double.NaN;
+            int count = 0;
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                boolean isEmpty = false;
+                boolean sameValue = false;
+                switch (type) {
+                    case Type.STRING:
+                        // UTF-8 byte order differs from the codepoint order of Java strings
+                        // for characters outside the basic multilingual plane
+                        for (int i = term.offset; i < term.offset + term.length; i++) {
+                            if ((term.bytes[i] & 0xF0) == 0xF0) {
+                                return -1;
+                            }
+                        }
+                        break;
+                    case Type.DOUBLE:
+                    case Type.FLOAT:
+                        final double value;
+                        if (type == Type.DOUBLE) {
+                            if (NumericUtils.getPrefixCodedLongShift(term) != 0) {
+                                return count;
+                            }
+                            value = NumericUtils.sortableLongToDouble(NumericUtils.prefixCodedToLong(term));
+                        } else {
+                            if (NumericUtils.getPrefixCodedIntShift(term) != 0) {
+                                return count;
+                            }
+                            value = NumericUtils.sortableIntToFloat(NumericUtils.prefixCodedToInt(term));
+                        }
+                        // NaN is ordered like an empty value, -0 equals 0
+                        isEmpty = Double.isNaN(value);
+                        sameValue = value == lastValue;
+                        lastValue = value;
+                        break;
+                    case Type.INT:
+                    case Type.UNSIGNED_INT:
+                    case Type.SHORT:
+                    case Type.UNSIGNED_SHORT:
+                        if (NumericUtils.getPrefixCodedIntShift(term) != 0) {
+                            return count;
+                        }
+                        break;
+                    default:
+                        if (NumericUtils.getPrefixCodedLongShift(term) != 0) {
+                            return count;
+                        }
+                }
+                if (!sameValue || group == null) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+                int doc;
+                while ((doc = docsEnum.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+                    final DocumentImpl storedDocument = docs.getDoc((int) docIdValues.get(doc));
+                    if (storedDocument == null) {
+                        continue;
+                    }
+                    nodeIdValues.get(doc, ref);
+                    final int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
+                    final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+                    final NodeProxy node = nodes.get(storedDocument, nodeId.getParentId());
+                    if (node == null) {
+                        continue;
+                    }
+                    count++;
+                    valued.add(node);
+                    if (isEmpty) {
+                        empty.add(node);
+                    } else {
+                        group.add(node);
+                    }
+                }
+            }
+            return count;
+        });
+        if (matched != valueCount || valued.getLength() != matched) {
+            // not all values are indexed or a node has more than one value
+            return null;
+        }
+        final ValueSequence result = new ValueSequence(nodes.getLength());
+        if (emptyFirst) {
+            addEmpty(nodes, valued, empty, result);
+        }
+        if (descending) {
+            Collections.reverse(groups);
+        }
+        for (final List<NodeProxy> group : groups) {
+            Collections.sort(group);
+            for (final NodeProxy node : group) {
+                result.add(node);
+            }
+        }
+        if (!emptyFirst) {
+            addEmpty(nodes, valued, empty, result);
+        }
+        return result;
+    }
+
+    /**
+     * Return the distinct values of nodes, using the terms of a qname index on them instead of
+     * loading and atomizing the nodes. Each value is returned once. If the values are used as
+     * xs:untypedAtomic, only a string index can be used and the values are returned in the order
+     * of their first occurrence in the nodes. If they are cast to xs:double to find the minimum
+     * and maximum, only the smallest and the largest value are returned, as xs:double for an
+     * integer or double index.
+     *
+     * The index is only used if the nodes are all nodes with the qname in their documents, so
+     * the index entries of the documents only need to be counted, not matched against the
+     * nodes. Null is returned if this is not the case, if a collection of the nodes has no
+     * plain index on the qname, if an element index excludes nested elements, or if the value
+     * of any node is not indexed. The index is not used either if it has many more entries
+     * than there are nodes.
+     *
+     * @param nodes the nodes to atomize
+     * @param qname the qname of the nodes
+     * @param type the type the values are used as, {@link Type#UNTYPED_ATOMIC} or {@link Type#DOUBLE}
+     * @return the distinct values or null if the index cannot be used
+     * @throws IOException in case of an error reading the index
+     * @throws XPathException
+     */
+    public Sequence distinctValues(NodeSet nodes, QName qname, int type) throws IOException, XPathException {
+        final DocumentSet docs = nodes.getDocumentSet();
+        final int indexType = getIndexType(docs, qname);
+        final boolean intTerms;
+        switch (indexType) {
+            case Type.STRING:
+                intTerms = false;
+                break;
+            case Type.INTEGER:
+            case Type.LONG:
+            case Type.UNSIGNED_LONG:
+            case Type.DOUBLE:
+                intTerms = false;
+                // distinct numbers may be distinct strings
+                if (type != Type.DOUBLE) {
+                    return null;
+                }
+                break;
+            case Type.INT:
+            case Type.UNSIGNED_INT:
+            case Type.SHORT:
+            case Type.UNSIGNED_SHORT:
+                intTerms = true;
+                if (type != Type.DOUBLE) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+        // distinct values with the first node having them
+        final List<Map.Entry<NodeProxy, AtomicValue>> values = new ArrayList<>();
+        final int matched = index.withReader(reader -> {
+            final Terms terms = MultiFields.getTerms(reader, LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols()));
+            if (terms == null) {
+                return 0;
+            }
+            // the entries of the documents are only counted, not matched against the nodes,
+            // so the nodes must be all nodes with the qname in the documents
+            if (terms.getDocCount() > MAX_SCAN_RATIO * nodes.getLength() ||
+                    broker.getStructuralIndex().findElementsByTagName(qname.getNameType(), docs, qname, null).getLength() !=
+                        nodes.getLength()) {
+                return -1;
+            }
+            final NumericDocValues docIdValues = MultiDocValues.getNumericValues(reader, FIELD_DOC_ID);
+            final BinaryDocValues nodeIdValues = MultiDocValues.getBinaryValues(reader, FIELD_NODE_ID);
+            final Bits liveDocs = MultiFields.getLiveDocs(reader);
+            final BytesRef ref = new BytesRef();
+            final TermsEnum termsEnum = terms.iterator(null);
+            DocsEnum docsEnum = null;
+            int count = 0;
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                if (indexType != Type.STRING &&
+                        (intTerms ? NumericUtils.getPrefixCodedIntShift(term) : NumericUtils.getPrefixCodedLongShift(term)) != 0) {
+                    // numeric values are followed by lower precision terms
+                    break;
+                }
+                DocumentImpl firstDocument = null;
+                NodeId firstNodeId = null;
+                docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+                int doc;
+                while ((doc = docsEnum.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+                    final DocumentImpl storedDocument = docs.getDoc((int) docIdValues.get(doc));
+                    if (storedDocument == null) {
+                        continue;
+                    }
+                    count++;
+                    if (type != Type.UNTYPED_ATOMIC) {
+                        firstDocument = storedDocument;
+                    } else if (firstDocument == null || storedDocument.getDocId() <= firstDocument.getDocId()) {
+                        // order of first occurrence
+                        nodeIdValues.get(doc, ref);
+                        final int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
+                        final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+                        if (firstDocument == null || storedDocument.getDocId() < firstDocument.getDocId() ||
+                                nodeId.compareTo(firstNodeId) < 0) {
+                            firstDocument = storedDocument;
+                            firstNodeId = nodeId;
+                        }
+                    }
+                }
+                if (firstDocument != null) {
+                    final AtomicValue value;
+                    if (indexType == Type.STRING) {
+                        value = new UntypedAtomicValue(term.utf8ToString());
+                    } else if (indexType == Type.DOUBLE) {
+                        value = new DoubleValue(NumericUtils.sortableLongToDouble(NumericUtils.prefixCodedToLong(term)));
+                    } else if (intTerms) {
+                        value = new DoubleValue(NumericUtils.prefixCodedToInt(term));
+                    } else {
+                        value = new DoubleValue(NumericUtils.prefixCodedToLong(term));
+                    }
+                    values.add(new AbstractMap.SimpleImmutableEntry<>(new NodeProxy(firstDocument, firstNodeId), value));
+                }
+            }
+            return count;
+        });
+        // every indexed node has a single entry, so all nodes have an indexed value if the
+        // number of entries in their documents equals the number of nodes
+        if (matched != nodes.getLength()) {
+            return null;
+        }
+        if (type == Type.UNTYPED_ATOMIC) {
+            values.sort(Map.Entry.comparingByKey());
+        } else if (values.size() > 2 && indexType != Type.STRING) {
+            // numeric keys are in ascending order
+            values.subList(1, values.size() - 1).clear();
+        }
+        final ValueSequence result = new ValueSequence(values.size());
+        for (final Map.Entry<NodeProxy, AtomicValue> value : values) {
+            result.add(value.getValue());
+        }
+        return result;
+    }
+
+    private static void addEmpty(NodeSet nodes, NodeSet valued, NodeSet empty, ValueSequence result) throws XPathException {
+        for (final NodeProxy node : nodes) {
+            if (!valued.contains(node) || empty.contains(node)) {
+                result.add(node);
+            }
+        }
+    }
+
+    private boolean canOrderBy(DocumentSet docs, QName qname, int type) {
+        switch (type) {
+            case Type.STRING:
+            case Type.INTEGER:
+            case Type.LONG:
+            case Type.UNSIGNED_LONG:
+            case Type.INT:
+            case Type.UNSIGNED_INT:
+            case Type.SHORT:
+            case Type.UNSIGNED_SHORT:
+            case Type.DOUBLE:
+            case Type.FLOAT:
+                return getIndexType(docs, qname) == type;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return the type of the qname index on the given qname if all collections have the same
+     * plain index on it, whose terms are the indexed content of the nodes or the corresponding
+     * numbers. An element index must include nested elements: with nested="no", which is also
+     * the default for qname indexes, the indexed content of an element differs from its string
+     * value if it has child elements.
+     *
+     * @return the type of the index or {@link Type#ITEM} if a collection has no such index
+     */
+    private int getIndexType(DocumentSet docs, QName qname) {
+        int type = Type.ITEM;
+        for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+            final Collection collection = i.next();
+            final IndexSpec idxConf = collection.getIndexConfiguration(broker);
+            if (idxConf == null) {
+                return Type.ITEM;
+            }
+            final RangeIndexConfig config = (RangeIndexConfig) idxConf.getCustomIndexSpec(RangeIndex.ID);
+            if (config == null) {
+                return Type.ITEM;
+            }
+            final RangeIndexConfigElement conf = config.get(qname);
+            if (conf == null || conf.getNext() != null || !conf.isQNameIndex || conf.isComplex() ||
+                    conf.getTypeConverter(null) != null || conf.getAnalyzer() != null ||
+                    !conf.caseSensitive || conf.wsTreatment != XMLString.SUPPRESS_NONE ||
+                    (qname.getNameType() != ElementValue.ATTRIBUTE && !conf.includeNested) ||
+                    (type != Type.ITEM && conf.getType() != type)) {
+                return Type.ITEM;
+            }
+            type = conf.getType();
+        }
+        return type;
+    }
+
     private static boolean matchQName(QName qname, QName candidate) {
         boolean match = true;
         if (qname.getLocalPart() != null)
@@ -290,6 +290,31 @@ public class Lookup extends Function implements Optimizable {
         return RangeIndexModule.OPERATOR_MAP.get(calledAs);
     }
 
+    @Override
+    public long estimateCardinality(Sequence contextSequence) throws XPathException {
+        if (!canOptimize) {
+            return ((Optimizable)fallback).estimateCardinality(contextSequence);
+        }
+        if (contextSequence == null || !contextSequence.isPersistentSet()) {
+            return CostEstimator.UNKNOWN;
+        }
+        AtomicValue[] keys = getKeys(contextSequence);
+        if (keys.length == 0) {
+            return 0;
+        }
+        List<QName> qnames = null;
+        if (contextQName != null) {
+            qnames = new ArrayList<QName>(1);
+            qnames.add(contextQName);
+        }
+        RangeIndexWorker index = (RangeIndexWorker) context.getBroker().getIndexController().getWorkerByIndexId(RangeIndex.ID);
+        try {
+            return index.estimate(contextSequence.getDocumentSet(), qnames, keys, getOperator());
+        } catch (IOException e) {
+            throw new XPathException(this, "Error while reading range index statistics: " + e.getMessage(), e);
+        }
+    }
+
     private AtomicValue[] getKeys(Sequence contextSequence) throws XPathException {
         RangeIndexConfigElement config = findConfiguration(contextSequence);
         int targetType = config != null ? config.getType() : Type.ITEM;
@@ -21,11 +21,16 @@
  */
 package org.exist.xquery.modules.range;
 
+import org.exist.dom.QName;
 import org.exist.indexing.range.*;
+import org.exist.storage.ElementValue;
 import org.exist.storage.NodePath;
 import org.exist.xquery.*;
 import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -120,6 +125,119 @@ public class RangeQueryRewriter extends QueryRewriter {
         return null;
     }
 
+    /**
+     * Order the input of a "for" clause by a single key of the form $var/name or $var/@name,
+     * optionally cast to the type of the index, e.g. xs:integer($var/@name). Whether the
+     * index can be used is decided at run time by {@link RangeIndexWorker#orderBy(org.exist.dom.persistent.NodeSet, QName, int, boolean, boolean)}.
+     */
+    @Override
+    public IndexOrdering rewriteOrderBy(QName variable, OrderSpec[] orderSpecs) throws XPathException {
+        // keys are compared by codepoint in the index
+        if (orderSpecs.length != 1 || orderSpecs[0].getCollator() != null) {
+            return null;
+        }
+        final OrderSpec spec = orderSpecs[0];
+        Expression key = unwrap(spec.getSortExpression());
+        int type = Type.STRING;
+        if (key instanceof CastExpression) {
+            type = ((CastExpression) key).getCastType();
+            key = unwrap(((CastExpression) key).getInnerExpression());
+        }
+        if (!(key instanceof PathExpr) || ((PathExpr) key).getLength() != 2) {
+            return null;
+        }
+        final Expression var = ((PathExpr) key).getExpression(0);
+        final Expression last = ((PathExpr) key).getExpression(1);
+        if (!(var instanceof VariableReference && ((VariableReference) var).getName().equals(variable)) ||
+                !(last instanceof LocationStep)) {
+            return null;
+        }
+        final LocationStep step = (LocationStep) last;
+        final NodeTest test = step.getTest();
+        if (step.hasPredicates() || test.isWildcardTest() || test.getName() == null) {
+            return null;
+        }
+        final QName qname;
+        if (step.getAxis() == Constants.CHILD_AXIS && test.getType() == Type.ELEMENT) {
+            qname = test.getName();
+        } else if (step.getAxis() == Constants.ATTRIBUTE_AXIS) {
+            qname = new QName(test.getName().getLocalPart(), test.getName().getNamespaceURI(), test.getName().getPrefix(), ElementValue.ATTRIBUTE);
+        } else {
+            return null;
+        }
+        final int keyType = type;
+        final boolean descending = (spec.getModifiers() & OrderSpec.DESCENDING_ORDER) != 0;
+        final boolean emptyFirst = ((spec.getModifiers() & OrderSpec.EMPTY_LEAST) != 0) != descending;
+        return nodes -> {
+            final XQueryContext context = getContext();
+            final long start = System.currentTimeMillis();
+            final RangeIndexWorker index = (RangeIndexWorker) context.getBroker().getIndexController().getWorkerByIndexId(RangeIndex.ID);
+            final Sequence result;
+            try {
+                result = index.orderBy(nodes, qname, keyType, descending, emptyFirst);
+            } catch (IOException e) {
+                throw new XPathException(spec.getSortExpression(), "Error while ordering by range index: " + e.getMessage(), e);
+            }
+            if (result != null && context.getProfiler().traceFunctions()) {
+                context.getProfiler().traceIndexUsage(context, "new-range", spec.getSortExpression(),
+                    PerformanceStats.OPTIMIZED_INDEX, System.currentTimeMillis() - start);
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public IndexValues rewriteDistinctValues(Expression expression, int type) throws XPathException {
+        Expression last = unwrap(expression);
+        if (last instanceof PathExpr) {
+            last = ((PathExpr) last).getLastExpression();
+        }
+        if (last instanceof TwigJoin) {
+            final List<LocationStep> steps = ((TwigJoin) last).getSteps();
+            last = steps.get(steps.size() - 1);
+        }
+        if (!(last instanceof LocationStep)) {
+            return null;
+        }
+        final LocationStep step = (LocationStep) last;
+        final NodeTest test = step.getTest();
+        if (step.hasPredicates() || test.isWildcardTest() || test.getName() == null) {
+            return null;
+        }
+        final QName qname;
+        if (step.getAxis() == Constants.ATTRIBUTE_AXIS || step.getAxis() == Constants.DESCENDANT_ATTRIBUTE_AXIS) {
+            qname = new QName(test.getName().getLocalPart(), test.getName().getNamespaceURI(), test.getName().getPrefix(), ElementValue.ATTRIBUTE);
+        } else if (test.getType() == Type.ELEMENT) {
+            qname = test.getName();
+        } else {
+            return null;
+        }
+        return nodes -> {
+            final XQueryContext context = getContext();
+            final long start = System.currentTimeMillis();
+            final RangeIndexWorker index = (RangeIndexWorker) context.getBroker().getIndexController().getWorkerByIndexId(RangeIndex.ID);
+            final Sequence result;
+            try {
+                result = index.distinctValues(nodes, qname, type);
+            } catch (IOException e) {
+                throw new XPathException(expression, "Error while reading values from range index: " + e.getMessage(), e);
+            }
+            if (result != null && context.getProfiler().traceFunctions()) {
+                context.getProfiler().traceIndexUsage(context, "new-range", expression,
+                    PerformanceStats.OPTIMIZED_INDEX, System.currentTimeMillis() - start);
+            }
+            return result;
+        };
+    }
+
+    private static Expression unwrap(Expression expr) {
+        expr = expr.simplify();
+        if (expr instanceof DebuggableExpression) {
+            expr = ((DebuggableExpression) expr).getFirst().simplify();
+        }
+        return expr;
+    }
+
     protected static Lookup rewrite(Expression expression, NodePath path) throws XPathException {
         ArrayList<Expression> eqArgs = new ArrayList<Expression>(2);
         if (expression instanceof GeneralComparison) {
@@ -105,6 +105,9 @@ public class Collection extends Observable implements Resource, Comparable<Colle
     @GuardedBy("lock")
     private final Map<String, DocumentImpl> documents = new TreeMap<>();
 
+    // the values of documents, created on demand and dropped whenever documents is modified
+    private volatile List<DocumentImpl> documentsSnapshot = null;
+
     // stores child-collections with their storage address
     @GuardedBy("lock")
     private ObjectHashSet<XmldbURI> subCollections = new ObjectHashSet<>(19);
@@ -173,6 +176,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
         try {
             if (!subCollections.contains(childName)) {
                 subCollections.add(childName);
+                contentChanged(broker);
             }
         } finally {
             getLock().release(Lock.WRITE_LOCK);
@@ -405,6 +409,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
         getLock().acquire(Lock.WRITE_LOCK);
         try {
             documents.put(doc.getFileURI().getRawCollectionPath(), doc);
+            contentChanged(broker);
         } finally {
             getLock().release(Lock.WRITE_LOCK);
         }
@@ -424,6 +429,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
         getLock().acquire(Lock.WRITE_LOCK);
         try {
             documents.remove(doc.getFileURI().getRawCollectionPath());
+            contentChanged(broker);
         } finally {
             getLock().release(Lock.WRITE_LOCK);
         }
@@ -529,6 +535,14 @@ public class Collection extends Observable implements Resource, Comparable<Colle
      * @return The set of documents
      */
     public MutableDocumentSet allDocs(final DBBroker broker, final MutableDocumentSet docs, final boolean recursive, final LockedDocumentMap protectedDocs) throws PermissionDeniedException {
+        if(recursive) {
+            final CollectionCache.CollectionTree tree = broker.getBrokerPool().getCollectionsCache().getTree(this);
+            if(tree != null) {
+                addDocuments(broker, docs, tree);
+                return docs;
+            }
+        }
+
         List<XmldbURI> subColls = null;
         if(getPermissionsNoLock().validate(broker.getCurrentSubject(), Permission.READ)) {
             try {
@@ -608,6 +622,37 @@ public class Collection extends Observable implements Resource, Comparable<Colle
         return docs;
     }
 
+    /**
+     * Add the documents of all collections in the tree to the document set.
+     * Like the recursive {@link #allDocs(DBBroker, MutableDocumentSet, boolean, LockedDocumentMap)},
+     * a collection and its descendants are skipped if the collection can not be read or opened.
+     */
+    private void addDocuments(final DBBroker broker, final MutableDocumentSet docs, final CollectionCache.CollectionTree tree) {
+        final Subject subject = broker.getCurrentSubject();
+        int i = 0;
+        while(i < tree.size()) {
+            final Collection collection = tree.get(i);
+            final Permission permission = collection.getPermissionsNoLock();
+            if(!permission.validate(subject, Permission.READ) ||
+                    (i > 0 && !permission.validate(subject, Permission.EXECUTE))) {
+                i = tree.getSubtreeEnd(i);
+                continue;
+            }
+            try {
+                collection.getLock().acquire(Lock.READ_LOCK);
+                try {
+                    docs.addCollection(collection);
+                    collection.addDocumentsToSet(broker, docs);
+                } finally {
+                    collection.getLock().release(Lock.READ_LOCK);
+                }
+            } catch(final LockException e) {
+                LOG.error(e.getMessage(), e);
+            }
+            i++;
+        }
+    }
+
     /**
      * Add all documents to the specified document set.
      *
@@ -662,14 +707,45 @@ public class Collection extends Observable implements Resource, Comparable<Colle
 
     /**
      * Gets a stable list of the document objects
-     * from {@link #documents}
+     * from {@link #documents}. The list is shared until the
+     * documents of the collection change, and must not be modified.
      *
      * @return A stable list of the document objects
      */
     private List<DocumentImpl> copyOfDocs() throws LockException {
+        List<DocumentImpl> snapshot = documentsSnapshot;
+        if(snapshot != null) {
+            return snapshot;
+        }
+        getLock().acquire(Lock.READ_LOCK);
+        try {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(documents.values()));
+            documentsSnapshot = snapshot;
+            return snapshot;
+        } finally {
+            getLock().release(Lock.READ_LOCK);
+        }
+    }
+
+    /**
+     * Called after documents or sub-collections have been added or
+     * removed, while holding the write lock.
+     */
+    private void contentChanged(final DBBroker broker) {
+        documentsSnapshot = null;
+        final CollectionCache cache = broker.getBrokerPool().getCollectionsCache();
+        if(cache != null) {
+            cache.invalidateTrees(path);
+        }
+    }
+
+    /**
+     * Gets the names of the sub-collections.
+     */
+    List<XmldbURI> getSubCollectionNames() throws LockException {
         getLock().acquire(Lock.READ_LOCK);
         try {
-            return new ArrayList<>(documents.values());
+            return subCollections.keys();
         } finally {
             getLock().release(Lock.READ_LOCK);
         }
@@ -701,8 +777,11 @@ public class Collection extends Observable implements Resource, Comparable<Colle
     
     private void addDocumentsToSet(final DBBroker broker, final MutableDocumentSet docs) {
     	try {
+            final Subject subject = broker.getCurrentSubject();
+            // a dba may read all documents, no need to check them one by one
+            final boolean dba = subject.hasDbaRole();
             for (final DocumentImpl doc : copyOfDocs()) {
-                if (doc.getPermissions().validate(broker.getCurrentSubject(), Permission.READ)) {
+                if (dba || doc.getPermissions().validate(subject, Permission.READ)) {
                     docs.add(doc);
                 }
             }
@@ -1159,6 +1238,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
 
         getLock().acquire(Lock.WRITE_LOCK);
         try {
+            documentsSnapshot = null;
             subCollections = new ObjectHashSet<>(collLen == 0 ? 19 : collLen); //TODO what is this number 19?
             for (int i = 0; i < collLen; i++) {
                 subCollections.add(XmldbURI.create(istream.readUTF()));
@@ -1210,6 +1290,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
         getLock().acquire(Lock.WRITE_LOCK);
         try {
             subCollections.remove(name);
+            contentChanged(broker);
         } finally {
             getLock().release(Lock.WRITE_LOCK);
         }
@@ -1261,6 +1342,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
             
             broker.removeXMLResource(transaction, doc);
             documents.remove(docUri.getRawCollectionPath());
+            contentChanged(broker);
             
             trigger.afterDeleteDocument(broker, transaction, getURI().append(docUri));
             
@@ -1332,6 +1414,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
                     throw new PermissionDeniedException("Cannot delete file: " + doc.getURI().toString() + ": " + ex.getMessage(), ex);
                 }
                 documents.remove(doc.getFileURI().getRawCollectionPath());
+                contentChanged(broker);
             } finally {
                 indexController.endIndexDocument(transaction, listener);
             }
@@ -1805,6 +1888,7 @@ public class Collection extends Observable implements Resource, Comparable<Colle
                     //TODO : use a more elaborated method ? No triggers...
                     broker.removeBinaryResource(transaction, (BinaryDocument) oldDoc);
                     documents.remove(oldDoc.getFileURI().getRawCollectionPath());
+                    contentChanged(broker);
                     //This lock is released in storeXMLInternal()
                     //TODO : check that we go until there to ensure the lock is released
 //                    if (transaction != null)
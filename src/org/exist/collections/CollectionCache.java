@@ -19,13 +19,18 @@
  */
 package org.exist.collections;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.exist.storage.BrokerPool;
 import org.exist.storage.CacheManager;
 import org.exist.storage.cache.Cacheable;
 import org.exist.storage.cache.LRUCache;
 import org.exist.storage.lock.Lock;
+import org.exist.util.LockException;
 import org.exist.util.hashtable.Object2LongHashMap;
 import org.exist.util.hashtable.SequencedLongHashMap;
 import org.exist.xmldb.XmldbURI;
@@ -35,6 +40,13 @@ import org.exist.xmldb.XmldbURI;
  * cache is owned by {@link org.exist.storage.index.CollectionStore}. It is not
  * synchronized. Thus a lock should be obtained on the collection store before
  * accessing the cache.
+ *
+ * The cache also remembers the tree of cached collections below a collection,
+ * which is used by {@link Collection#allDocs(org.exist.storage.DBBroker,
+ * org.exist.dom.persistent.MutableDocumentSet, boolean, org.exist.storage.lock.LockedDocumentMap)}
+ * to collect the documents of the tree without resolving every sub-collection
+ * by name. A tree is dropped if a collection within it is modified or removed
+ * from the cache.
  * 
  * @author wolf
  */
@@ -43,6 +55,10 @@ public class CollectionCache extends LRUCache {
     private Object2LongHashMap names;
     private BrokerPool pool;
 
+    private final Map<String, CollectionTree> trees = new ConcurrentHashMap<>();
+    /** incremented whenever a tree is invalidated */
+    private long treesVersion = 0;
+
     public CollectionCache(BrokerPool pool, int blockBuffers, double growthThreshold) {
         super(blockBuffers, 2.0, 0.000001, CacheManager.DATA_CACHE);
         this.names = new Object2LongHashMap(blockBuffers);
@@ -94,6 +110,7 @@ public class CollectionCache extends LRUCache {
                                 pool.getConfigurationManager().invalidate(old.getURI(), null);
                             }
                             names.remove(old.getURI().getRawCollectionPath());
+                            invalidateTrees(old.getURI());
                             cached.sync(true);
                             map.remove(cached.getKey());
                             removed = true;
@@ -121,6 +138,7 @@ public class CollectionCache extends LRUCache {
         final Collection col = (Collection) item;
         super.remove(item);
         names.remove(col.getURI().getRawCollectionPath());
+        invalidateTrees(col.getURI());
         if(pool.getConfigurationManager() != null) // might be null during db initialization
            {pool.getConfigurationManager().invalidate(col.getURI(), null);}
     }
@@ -170,5 +188,128 @@ public class CollectionCache extends LRUCache {
     protected void shrink(int newSize) {
         super.shrink(newSize);
         names = new Object2LongHashMap(newSize);
+        synchronized (trees) {
+            treesVersion++;
+            trees.clear();
+        }
+    }
+
+    /**
+     * Returns the given collection and all its descendant collections,
+     * or null if one of them is not in the cache. Permissions are not
+     * checked.
+     *
+     * @param root a cached collection
+     */
+    public CollectionTree getTree(Collection root) {
+        final String path = root.getURI().getRawCollectionPath();
+        CollectionTree tree = trees.get(path);
+        if (tree != null && tree.getRoot() == root) {
+            return tree;
+        }
+        final long version;
+        synchronized (trees) {
+            version = treesVersion;
+        }
+        final List<Collection> collections = new ArrayList<>();
+        final List<Integer> ends = new ArrayList<>();
+        try {
+            if (!addTree(root, collections, ends)) {
+                return null;
+            }
+        } catch (final LockException e) {
+            LOG.warn("Failed to read sub-collections of " + path + ": " + e.getMessage());
+            return null;
+        }
+        final int subtreeEnds[] = new int[ends.size()];
+        for (int i = 0; i < subtreeEnds.length; i++) {
+            subtreeEnds[i] = ends.get(i);
+        }
+        tree = new CollectionTree(collections.toArray(new Collection[collections.size()]), subtreeEnds);
+        synchronized (trees) {
+            // a collection in the tree may have been modified in the meantime
+            if (version == treesVersion) {
+                trees.put(path, tree);
+            }
+        }
+        return tree;
+    }
+
+    private boolean addTree(Collection collection, List<Collection> collections, List<Integer> ends) throws LockException {
+        final int idx = collections.size();
+        collections.add(collection);
+        ends.add(-1);
+        for (final XmldbURI childName : collection.getSubCollectionNames()) {
+            final Collection child;
+            synchronized (this) {
+                child = get(collection.getURI().appendInternal(childName));
+            }
+            if (child == null || !addTree(child, collections, ends)) {
+                return false;
+            }
+        }
+        ends.set(idx, collections.size());
+        return true;
+    }
+
+    /**
+     * Drop the trees containing the given collection, i.e. the trees of the
+     * collection itself and of its ancestors, and the trees below it.
+     */
+    public void invalidateTrees(XmldbURI uri) {
+        final String path = uri.getRawCollectionPath();
+        synchronized (trees) {
+            // a tree being built without the map lock must not be stored, even if
+            // the map is still empty
+            treesVersion++;
+            if (trees.isEmpty()) {
+                return;
+            }
+            for (final Iterator<String> i = trees.keySet().iterator(); i.hasNext(); ) {
+                final String key = i.next();
+                if (isDescendantOrSelf(path, key) || isDescendantOrSelf(key, path)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private static boolean isDescendantOrSelf(String path, String ancestor) {
+        return path.startsWith(ancestor) &&
+            (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * A collection and its descendants in depth-first order.
+     */
+    public final static class CollectionTree {
+
+        private final Collection collections[];
+        private final int subtreeEnds[];
+
+        CollectionTree(Collection collections[], int subtreeEnds[]) {
+            this.collections = collections;
+            this.subtreeEnds = subtreeEnds;
+        }
+
+        public Collection getRoot() {
+            return collections[0];
+        }
+
+        public int size() {
+            return collections.length;
+        }
+
+        public Collection get(int idx) {
+            return collections[idx];
+        }
+
+        /**
+         * Returns the index of the first collection following the
+         * descendants of the collection at the given index.
+         */
+        public int getSubtreeEnd(int idx) {
+            return subtreeEnds[idx];
+        }
     }
 }
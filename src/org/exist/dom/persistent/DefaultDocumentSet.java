@@ -26,6 +26,7 @@ import org.exist.collections.Collection;
 import org.exist.numbering.NodeId;
 import org.exist.storage.DBBroker;
 import org.exist.storage.lock.Lock;
+import org.exist.util.CompressedIntSet;
 import org.exist.util.LockException;
 import org.exist.util.hashtable.Int2ObjectHashMap;
 import org.exist.xmldb.XmldbURI;
@@ -44,6 +45,10 @@ import java.util.TreeSet;
  * It also contains methods to retrieve the collections these documents
  * belong to.
  *
+ * The ids of the documents are kept in a {@link CompressedIntSet}, so membership
+ * tests, intersections and comparisons of document sets do not need to look at
+ * the documents themselves.
+ *
  * @author wolf
  */
 @NotThreadSafe
@@ -52,7 +57,7 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
     private final static int DEFAULT_SIZE = 29;
     private final static double DEFAULT_GROWTH = 1.75;
 
-    private final BitSet docIds = new BitSet();
+    private final CompressedIntSet docIds = new CompressedIntSet();
     private final BitSet collectionIds = new BitSet();
     private final Set<Collection> collections = new TreeSet<>();
 
@@ -84,7 +89,7 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
             return;
         }
 
-        docIds.set(docId);
+        docIds.add(docId);
         put(docId, doc);
         final Collection collection = doc.getCollection();
         if (collection != null && !collectionIds.get(collection.getId())) {
@@ -152,19 +157,43 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
         return result;
     }
 
+    @Override
+    public Object remove(final int docId) {
+        docIds.remove(docId);
+        return super.remove(docId);
+    }
+
+    /**
+     * Returns the ids of the documents in this set. The returned
+     * set must not be modified.
+     */
+    public CompressedIntSet getDocIds() {
+        return docIds;
+    }
+
     @Override
     public DocumentSet intersection(final DocumentSet other) {
         final DefaultDocumentSet r = new DefaultDocumentSet();
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (other.contains(d.getDocId())) {
-                r.add(d);
+        if (other instanceof DefaultDocumentSet) {
+            final CompressedIntSet common = docIds.and(((DefaultDocumentSet) other).docIds);
+            for (int docId = common.nextSetBit(0); docId > -1; docId = common.nextSetBit(docId + 1)) {
+                r.add(getDoc(docId), false);
             }
+            return r;
         }
-        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (contains(d.getDocId()) && (!r.contains(d.getDocId()))) {
-                r.add(d);
+        if (other.getDocumentCount() < size()) {
+            for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+                final DocumentImpl d = i.next();
+                if (contains(d.getDocId())) {
+                    r.add(getDoc(d.getDocId()), false);
+                }
+            }
+        } else {
+            for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+                final DocumentImpl d = i.next();
+                if (other.contains(d.getDocId())) {
+                    r.add(d, false);
+                }
             }
         }
         return r;
@@ -187,12 +216,11 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
         if (other.getDocumentCount() > size()) {
             return false;
         }
-        for (int idx = 0; idx < tabSize; idx++) {
-            if (values[idx] == null || values[idx] == REMOVED) {
-                continue;
-            }
-            final DocumentImpl d = (DocumentImpl)values[idx];
-            if (!contains(d.getDocId())) {
+        if (other instanceof DefaultDocumentSet) {
+            return docIds.containsAll(((DefaultDocumentSet) other).docIds);
+        }
+        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            if (!contains(i.next().getDocId())) {
                 return false;
             }
         }
@@ -201,7 +229,7 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
 
     @Override
     public boolean contains(final int id) {
-        return docIds.get(id);
+        return docIds.contains(id);
     }
 
     @Override
@@ -217,27 +245,11 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
     }
 
     public int getMinDocId() {
-        int min = DocumentImpl.UNKNOWN_DOCUMENT_ID;
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (min == DocumentImpl.UNKNOWN_DOCUMENT_ID) {
-                min = d.getDocId();
-            } else if (d.getDocId() < min) {
-                min = d.getDocId();
-            }
-        }
-        return min;
+        return docIds.isEmpty() ? DocumentImpl.UNKNOWN_DOCUMENT_ID : docIds.first();
     }
 
     public int getMaxDocId() {
-        int max = DocumentImpl.UNKNOWN_DOCUMENT_ID;
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (d.getDocId() > max) {
-                max = d.getDocId();
-            }
-        }
-        return max;
+        return docIds.isEmpty() ? DocumentImpl.UNKNOWN_DOCUMENT_ID : docIds.last();
     }
 
     @Override
@@ -251,6 +263,10 @@ public class DefaultDocumentSet extends Int2ObjectHashMap implements MutableDocu
             return false;
         }
 
+        if (other instanceof DefaultDocumentSet) {
+            return docIds.equals(((DefaultDocumentSet) other).docIds);
+        }
+
         for (int idx = 0; idx < tabSize; idx++) {
             if (values[idx] == null || values[idx] == REMOVED) {
                 continue;
@@ -841,6 +841,119 @@ public class NewArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet,
         return null;
     }
 
+    /**
+     * Create a cursor to look up the parents or ancestors of a series of
+     * nodes given in document order, as done by the structural joins in
+     * {@link NodeSetHelper}.
+     *
+     * @param directParent only consider immediate ancestors (parents)
+     * @param includeSelf  return the node itself if it is contained in this set
+     * @return a new cursor
+     */
+    AncestorCursor ancestorCursor(final boolean directParent, final boolean includeSelf) {
+        sort();
+        return new AncestorCursor(directParent, includeSelf);
+    }
+
+    /**
+     * Finds the nearest ancestor in this set for each node passed to
+     * {@link #parentWithChild(NodeProxy)}, with the same result as
+     * {@link NewArrayNodeSet#parentWithChild(DocumentImpl, NodeId, boolean, boolean)}.
+     * <p/>
+     * Instead of creating the id of every ancestor and doing a binary search
+     * for it, the cursor walks through the nodes of the current document in step
+     * with the nodes passed in, keeping the chain of ancestors of the last node on
+     * a stack of array positions. For nodes in document order, every node in this set
+     * is thus only visited once per document. If a node precedes the last one, the
+     * cursor starts again at the beginning of the document.
+     * <p/>
+     * The set must not be modified while the cursor is in use.
+     */
+    final class AncestorCursor {
+
+        private final boolean directParent;
+        private final boolean includeSelf;
+
+        private DocumentImpl doc = null;
+        private int docIdx = -1;
+        private int next;
+        private int end;
+        private NodeId lastId = null;
+
+        /** positions of the ancestors of the last node, outermost first */
+        private int stack[] = new int[16];
+        private int stackSize = 0;
+
+        private AncestorCursor(final boolean directParent, final boolean includeSelf) {
+            this.directParent = directParent;
+            this.includeSelf = includeSelf;
+        }
+
+        NodeProxy parentWithChild(final NodeProxy child) {
+            final NodeId nodeId = child.getNodeId();
+            if(child.getOwnerDocument() != doc) {
+                doc = child.getOwnerDocument();
+                docIdx = findDoc(doc);
+                reset();
+            } else if(lastId != null && nodeId.compareTo(lastId) < 0) {
+                reset();
+            }
+            if(docIdx < 0) {
+                return null;
+            }
+            lastId = nodeId;
+
+            // push all nodes up to and including the child, keeping only those
+            // which are ancestors of the node pushed
+            while(next < end && nodes[next].getNodeId().compareTo(nodeId) <= 0) {
+                final NodeId id = nodes[next].getNodeId();
+                while(stackSize > 0 && !isAncestorOrSelf(stack[stackSize - 1], id)) {
+                    --stackSize;
+                }
+                if(stackSize == stack.length) {
+                    stack = Arrays.copyOf(stack, stackSize << 1);
+                }
+                stack[stackSize++] = next++;
+            }
+            // nodes which are not ancestors of the child can not be ancestors
+            // of any following node either
+            while(stackSize > 0 && !isAncestorOrSelf(stack[stackSize - 1], nodeId)) {
+                --stackSize;
+            }
+
+            int top = stackSize - 1;
+            if(top > -1 && nodes[stack[top]].getNodeId().equals(nodeId)) {
+                if(includeSelf) {
+                    return nodes[stack[top]];
+                }
+                --top;
+            }
+            if(top < 0) {
+                return null;
+            }
+            final NodeProxy ancestor = nodes[stack[top]];
+            if(directParent && nodeId.computeRelation(ancestor.getNodeId()) != NodeId.IS_CHILD) {
+                return null;
+            }
+            return ancestor;
+        }
+
+        private boolean isAncestorOrSelf(final int pos, final NodeId nodeId) {
+            final NodeId ancestorId = nodes[pos].getNodeId();
+            // the document node is not part of the ids of its descendants
+            return ancestorId == NodeId.DOCUMENT_NODE || nodeId.isDescendantOrSelfOf(ancestorId);
+        }
+
+        private void reset() {
+            stackSize = 0;
+            lastId = null;
+            if(docIdx > -1) {
+                next = documentOffsets[docIdx];
+                end = next + documentLengths[docIdx];
+            }
+        }
+    }
+
     @Override
     public NodeSet except(final NodeSet other) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
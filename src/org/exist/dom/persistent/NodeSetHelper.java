@@ -68,6 +68,8 @@ public final class NodeSetHelper {
     public static NodeSet selectParentChild(final NodeSet dl, final NodeSet al,
             final int mode, final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        final NewArrayNodeSet.AncestorCursor cursor = al instanceof NewArrayNodeSet ?
+            ((NewArrayNodeSet) al).ancestorCursor(true, false) : null;
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -78,8 +80,8 @@ public final class NodeSetHelper {
                         lastDoc = child.getOwnerDocument();
                         sizeHint = dl.getSizeHint(lastDoc);
                     }
-                    final NodeProxy parent = al.parentWithChild(child, true, false,
-                        NodeProxy.UNKNOWN_NODE_LEVEL);
+                    final NodeProxy parent = cursor != null ? cursor.parentWithChild(child) :
+                        al.parentWithChild(child, true, false, NodeProxy.UNKNOWN_NODE_LEVEL);
                     if(parent != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             child.deepCopyContext(parent, contextId);
@@ -98,8 +100,8 @@ public final class NodeSetHelper {
                         lastDoc = child.getOwnerDocument();
                         sizeHint = al.getSizeHint(lastDoc);
                     }
-                    final NodeProxy parent = al.parentWithChild(child, true, false,
-                        NodeProxy.UNKNOWN_NODE_LEVEL);
+                    final NodeProxy parent = cursor != null ? cursor.parentWithChild(child) :
+                        al.parentWithChild(child, true, false, NodeProxy.UNKNOWN_NODE_LEVEL);
                     if(parent != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             parent.deepCopyContext(child, contextId);
@@ -181,6 +183,8 @@ public final class NodeSetHelper {
             final NodeSet al, final int mode, final boolean includeSelf,
             final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        final NewArrayNodeSet.AncestorCursor cursor = al instanceof NewArrayNodeSet ?
+            ((NewArrayNodeSet) al).ancestorCursor(false, includeSelf) : null;
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -192,8 +196,8 @@ public final class NodeSetHelper {
                         lastDoc = descendant.getOwnerDocument();
                         sizeHint = dl.getSizeHint(lastDoc);
                     }
-                    final NodeProxy ancestor = al.parentWithChild(descendant.getOwnerDocument(),
-                        descendant.getNodeId(), false, includeSelf);
+                    final NodeProxy ancestor = cursor != null ? cursor.parentWithChild(descendant) :
+                        al.parentWithChild(descendant.getOwnerDocument(), descendant.getNodeId(), false, includeSelf);
                     if(ancestor != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             descendant.addContextNode(contextId, ancestor);
@@ -213,8 +217,8 @@ public final class NodeSetHelper {
                         lastDoc = descendant.getOwnerDocument();
                         sizeHint = al.getSizeHint(lastDoc);
                     }
-                    final NodeProxy ancestor = al.parentWithChild(descendant.getOwnerDocument(),
-                        descendant.getNodeId(), false, includeSelf);
+                    final NodeProxy ancestor = cursor != null ? cursor.parentWithChild(descendant) :
+                        al.parentWithChild(descendant.getOwnerDocument(), descendant.getNodeId(), false, includeSelf);
                     if(ancestor != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             ancestor.addContextNode(contextId, descendant);
@@ -235,6 +239,8 @@ public final class NodeSetHelper {
     public static boolean matchAncestorDescendant(final NodeSet dl,
             final NodeSet al, final int mode, final boolean includeSelf, final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        final NewArrayNodeSet.AncestorCursor cursor = al instanceof NewArrayNodeSet ?
+            ((NewArrayNodeSet) al).ancestorCursor(false, includeSelf) : null;
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -246,8 +252,8 @@ public final class NodeSetHelper {
                         lastDoc = descendant.getOwnerDocument();
                         sizeHint = dl.getSizeHint(lastDoc);
                     }
-                    final NodeProxy ancestor = al.parentWithChild(descendant.getOwnerDocument(),
-                        descendant.getNodeId(), false, includeSelf);
+                    final NodeProxy ancestor = cursor != null ? cursor.parentWithChild(descendant) :
+                        al.parentWithChild(descendant.getOwnerDocument(), descendant.getNodeId(), false, includeSelf);
                     if(ancestor != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             descendant.addContextNode(contextId, ancestor);
@@ -268,8 +274,8 @@ public final class NodeSetHelper {
                         lastDoc = descendant.getOwnerDocument();
                         sizeHint = al.getSizeHint(lastDoc);
                     }
-                    final NodeProxy ancestor = al.parentWithChild(descendant.getOwnerDocument(),
-                        descendant.getNodeId(), false, includeSelf);
+                    final NodeProxy ancestor = cursor != null ? cursor.parentWithChild(descendant) :
+                        al.parentWithChild(descendant.getOwnerDocument(), descendant.getNodeId(), false, includeSelf);
                     if(ancestor != null) {
                         if(Expression.NO_CONTEXT_ID != contextId) {
                             ancestor.addContextNode(contextId, descendant);
@@ -67,6 +67,7 @@ import org.exist.http.servlets.HttpResponseWrapper;
 import org.exist.http.servlets.ResponseWrapper;
 import org.exist.http.urlrewrite.XQueryURLRewrite;
 import org.exist.dom.memtree.ElementImpl;
+import org.exist.dom.memtree.MemTreeBuilder;
 import org.exist.dom.memtree.NodeImpl;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.security.Permission;
@@ -101,6 +102,7 @@ import org.exist.xqj.Marshaller;
 import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.Constants;
 import org.exist.xquery.NameTest;
+import org.exist.xquery.QueryProfile;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
 import org.exist.xquery.XQueryContext;
@@ -236,6 +238,9 @@ public class RESTServer {
      * <li>_indent: if set to "yes", the returned XML will be pretty-printed.
      * </li>
      *
+     * <li>_profile: if set to "yes", an execution profile of the query is
+     * returned instead of the query results.</li>
+     *
      * <li>_source: if set to "yes" and a resource with mime-type
      * "application/xquery" is requested then the xquery will not be executed,
      * instead the source of the document will be returned. Must be enabled in
@@ -283,6 +288,7 @@ public class RESTServer {
         boolean wrap = true;
         boolean source = false;
         boolean cache = false;
+        boolean profile = false;
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
 
         String query = null;
@@ -337,6 +343,9 @@ public class RESTServer {
         if ((option = getParameter(request, Cache)) != null) {
             cache = "yes".equals(option);
         }
+        if ((option = getParameter(request, Profile)) != null) {
+            profile = "yes".equals(option);
+        }
         if ((option = getParameter(request, Indent)) != null) {
             outputProperties.setProperty(OutputKeys.INDENT, option);
         }
@@ -373,7 +382,7 @@ public class RESTServer {
             // query parameter specified, search method does all the rest of the work
             try {
                 search(broker, query, path, namespaces, variables, howmany, start, typed, outputProperties,
-                        wrap, cache, request, response);
+                        wrap, cache, profile, request, response);
 
             } catch (final XPathException e) {
                 if (MimeType.XML_TYPE.getName().equals(mimeType)) {
@@ -713,6 +722,7 @@ public class RESTServer {
             ElementImpl variables = null;
             boolean enclose = true;
             boolean cache = false;
+            boolean profile = false;
             String query = null;
 
             final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
@@ -780,6 +790,10 @@ public class RESTServer {
                             cache = "yes".equals(option);
                         }
 
+                        if ((option = root.getAttribute(Profile.xmlKey())) != null) {
+                            profile = "yes".equals(option);
+                        }
+
                         if ((option = root.getAttribute(Session.xmlKey())) != null
                                 && option.length() > 0) {
                             outputProperties.setProperty(
@@ -837,7 +851,7 @@ public class RESTServer {
                         try {
                             search(broker, query, path, nsExtractor.getNamespaces(), variables,
                                     howmany, start, typed, outputProperties,
-                                    enclose, cache, request, response);
+                                    enclose, cache, profile, request, response);
 
                             transact.commit(transaction);
 
@@ -1242,7 +1256,7 @@ public class RESTServer {
         final String path, final List<Namespace> namespaces,
         final ElementImpl variables, final int howmany, final int start,
         final boolean typed, final Properties outputProperties,
-        final boolean wrap, final boolean cache,
+        final boolean wrap, final boolean cache, final boolean profile,
         final HttpServletRequest request,
         final HttpServletResponse response) throws BadRequestException,
         PermissionDeniedException, XPathException {
@@ -1298,9 +1312,18 @@ public class RESTServer {
                 compilationTime = 0;
             }
 
+            final QueryProfile queryProfile = profile ? new QueryProfile() : null;
+            if (queryProfile != null) {
+                compiled.getContext().getProfiler().setQueryProfile(queryProfile);
+            }
             try {
                 final long executeStart = System.currentTimeMillis();
-                final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
+                Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
+                if (queryProfile != null) {
+                    // make sure all items are evaluated before the profile is taken
+                    resultSequence.getItemCount();
+                    resultSequence = profileToSequence(queryProfile);
+                }
                 final long executionTime = System.currentTimeMillis() - executeStart;
 
                 if (LOG.isDebugEnabled()) {
@@ -1318,6 +1341,9 @@ public class RESTServer {
                 writeResults(response, broker, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
 
             } finally {
+                if (queryProfile != null) {
+                    compiled.getContext().getProfiler().setQueryProfile(null);
+                }
                 pool.returnCompiledXQuery(source, compiled);
             }
 
@@ -1326,6 +1352,14 @@ public class RESTServer {
         }
     }
 
+    private Sequence profileToSequence(final QueryProfile profile) {
+        final MemTreeBuilder builder = new MemTreeBuilder();
+        builder.startDocument();
+        profile.toXML(builder);
+        builder.endDocument();
+        return builder.getDocument().getNode(1);
+    }
+
     private void declareNamespaces(final XQueryContext context,
         final List<Namespace> namespaces) throws XPathException {
         
@@ -69,6 +69,7 @@ enum RESTServerParameter {
      * <exist:query start? = number
      *  max? = number
      *  cache? = ("yes" | "no")
+     *  profile? = ("yes" | "no")
      *  session? = string
      *  typed? = ("yes" | "no")
      *  (wrap = ("yes" | "no") | enclose = ("yes" | "no"))?
@@ -224,6 +225,22 @@ enum RESTServerParameter {
      */
     Cache,
 
+    /**
+     * Can be used in either the Query String of a GET request
+     * or in the body of a POST request to indicate that, instead of
+     * the query results, an execution profile of the query should be
+     * returned.
+     * 
+     * The profile is a stats:profile element listing the evaluated
+     * expressions together with the number of calls, the time spent,
+     * the number of items passed in and out, and the indexes used.
+     * 
+     * Contexts: GET, POST
+     * 
+     * The value of the parameter should be either "yes" or "no".
+     */
+    Profile,
+
     /**
      * Can be used in the Query String of a GET request
      * to indicate that an XML result should be indented.
@@ -85,7 +85,8 @@ public class JMXtoXML {
             CATEGORIES.put("caches", new ObjectName[]{
                 new ObjectName("org.exist.management.exist:type=CacheManager"),
                 new ObjectName("org.exist.management.exist:type=CollectionCacheManager"),
-                new ObjectName("org.exist.management.exist:type=CacheManager.Cache,*")
+                new ObjectName("org.exist.management.exist:type=CacheManager.Cache,*"),
+                new ObjectName("org.exist.management.*:type=QueryPool")
             });
             CATEGORIES.put("locking", new ObjectName[]{new ObjectName("org.exist.management:type=LockManager")});
             CATEGORIES.put("processes", new ObjectName[]{new ObjectName("org.exist.management.*:type=ProcessReport")});
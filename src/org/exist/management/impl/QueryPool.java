@@ -0,0 +1,81 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * $Id$
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.XQueryPool;
+
+/**
+ * Statistics of the {@link XQueryPool}: number of pooled sources, hits and
+ * misses when borrowing a compiled query, and the number of compilations and
+ * the total time spent compiling (in milliseconds).
+ */
+public class QueryPool implements QueryPoolMBean {
+
+    private final BrokerPool pool;
+
+    public QueryPool(final BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public int getSize() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getMaxSize();
+    }
+
+    @Override
+    public long getHits() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getMisses();
+    }
+
+    @Override
+    public long getEvictions() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getEvictions();
+    }
+
+    @Override
+    public long getCompilations() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getCompilations();
+    }
+
+    @Override
+    public long getCompileTime() {
+        final XQueryPool xqPool = pool.getXQueryPool();
+        return xqPool == null ? 0 : xqPool.getCompileTime();
+    }
+}
@@ -68,6 +68,7 @@ import org.exist.util.Configuration.StartupTriggerConfig;
 import org.exist.xmldb.ShutdownListener;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.PerformanceStats;
+import org.exist.xquery.SyntaxTreeCache;
 import org.exist.xquery.XQuery;
 import org.expath.pkg.repo.PackageException;
 
@@ -85,6 +86,8 @@ import java.text.NumberFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -439,6 +442,8 @@ public class BrokerPool implements Database {
     public static final String PROPERTY_PAGE_SIZE = "db-connection.page-size";
     public static final int DEFAULT_PAGE_SIZE = 4096;
 
+    public static final String PROPERTY_FILL_FACTOR = "db-connection.fill-factor";
+
     /**
      * <code>true</code> if the database instance is able to perform recovery.
      */
@@ -605,6 +610,11 @@ public class BrokerPool implements Database {
      */
     private XQueryPool xQueryPool;
 
+    /**
+     * The threads evaluating parts of a query in parallel, created on first use.
+     */
+    private ForkJoinPool parallelEvalPool = null;
+
     /**
      * The monitor in which the database instance's strong>running</strong> XQueries are managed.
      */
@@ -825,6 +835,14 @@ public class BrokerPool implements Database {
 
                     //REFACTOR : construct then configure
                     xQueryPool = new XQueryPool(conf);
+                    if(conf.getProperty(SyntaxTreeCache.PROPERTY_PERSISTENT, false) && !isReadOnly()) {
+                        final Path syntaxDir = ((Path) conf.getProperty(PROPERTY_DATA_DIR)).resolve(SyntaxTreeCache.DIRECTORY_NAME);
+                        try {
+                            xqueryService.getSyntaxTreeCache().setDirectory(syntaxDir);
+                        } catch(final IOException e) {
+                            LOG.warn("Cannot create directory for syntax trees: " + syntaxDir.toAbsolutePath().toString(), e);
+                        }
+                    }
                     //REFACTOR : construct then... configure
                     processMonitor = new ProcessMonitor(maxShutdownWait);
                     xqueryStats = new PerformanceStats(this);
@@ -1434,6 +1452,25 @@ public class BrokerPool implements Database {
         return xQueryPool;
     }
 
+    /**
+     * Returns the pool of threads used to evaluate parts of a query in parallel,
+     * e.g. by util:eval-parallel. The pool is created on first use and shut down
+     * together with the database instance.
+     *
+     * @param parallelism The number of threads, used if the pool has to be created
+     * @return The pool
+     */
+    public synchronized ForkJoinPool getParallelEvalPool(final int parallelism) {
+        if (parallelEvalPool == null) {
+            parallelEvalPool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("exist-eval-parallel-" + instanceName + "-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return parallelEvalPool;
+    }
+
     /**
      * Retuns the XQuery Service
      *
@@ -2010,6 +2047,11 @@ public class BrokerPool implements Database {
                     }
                     LOG.debug("Calling shutdown ...");
 
+                    if (parallelEvalPool != null) {
+                        parallelEvalPool.shutdownNow();
+                        parallelEvalPool = null;
+                    }
+
                     if (pluginManager != null)
                         try {
                             pluginManager.stop(null);
@@ -139,9 +139,12 @@ public class NativeBroker extends DBBroker {
     //Note : no ID for symbols ? Too bad...
 
     public static final String PAGE_SIZE_ATTRIBUTE = "pageSize";
+    public static final String FILL_FACTOR_ATTRIBUTE = "fillFactor";
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -151,6 +154,7 @@ public class NativeBroker extends DBBroker {
 
     public static final String DEFAULT_DATA_DIR = "data";
     public static final int DEFAULT_INDEX_DEPTH = 1;
+    public static final int DEFAULT_REINDEX_THREADS = 1;
 
     /** check available memory after storing DEFAULT_NODES_BEFORE_MEMORY_CHECK nodes */
     public static final int DEFAULT_NODES_BEFORE_MEMORY_CHECK = 500;
@@ -173,6 +177,9 @@ public class NativeBroker extends DBBroker {
 
     private int defaultIndexDepth;
 
+    /** the number of threads used to reindex a collection */
+    private int reindexThreads;
+
     private final Serializer xmlSerializer;
 
     /** used to count the nodes inserted after the last memory check */
@@ -242,6 +249,11 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        reindexThreads = config.getInteger(PROPERTY_REINDEX_THREADS);
+        if(reindexThreads < 1) {
+            reindexThreads = DEFAULT_REINDEX_THREADS;
+        }
+
         final String docIdProp = (String) config.getProperty(BrokerPool.DOC_ID_MODE_PROPERTY);
         if(docIdProp != null) {
             incrementalDocIds = docIdProp.equalsIgnoreCase("incremental");
@@ -1758,8 +1770,18 @@ public class NativeBroker extends DBBroker {
 
         try(final Txn transaction = transact.beginTransaction()) {
             LOG.info(String.format("Start indexing collection %s", collection.getURI().toString()));
-            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, mode);
+            // each thread needs a broker of its own
+            final int threads = Math.min(reindexThreads, pool.getMax() - pool.countActiveBrokers());
+            if(threads > 1) {
+                final List<DocumentImpl> documents = new ArrayList<>();
+                collectReindexDocuments(transaction, collection, mode, documents);
+                final ParallelReindex reindex = new ParallelReindex(pool, getCurrentSubject(), collection.getURI(), documents, mode);
+                pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, reindex);
+                reindex.run(threads);
+            } else {
+                pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
+                reindexCollection(transaction, collection, mode);
+            }
             transact.commit(transaction);
 
         } catch(final Exception e) {
@@ -1799,6 +1821,36 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    /**
+     * Drops the indexes of the collection and its descendants like {@link #reindexCollection(Txn, Collection, IndexMode)},
+     * but only collects the documents to reindex.
+     */
+    private void collectReindexDocuments(final Txn transaction, final Collection collection, final IndexMode mode,
+            final List<DocumentImpl> documents) throws PermissionDeniedException, IOException {
+        final CollectionCache collectionsCache = pool.getCollectionsCache();
+        synchronized(collectionsCache) {
+            if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
+                throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
+            }
+            LOG.debug("Reindexing collection " + collection.getURI());
+            if(mode == IndexMode.STORE) {
+                dropCollectionIndex(transaction, collection, true);
+            }
+            for(final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
+                documents.add(i.next());
+            }
+            for(final Iterator<XmldbURI> i = collection.collectionIterator(this); i.hasNext(); ) {
+                final XmldbURI next = i.next();
+                final Collection child = getCollection(collection.getURI().append(next));
+                if(child == null) {
+                    LOG.warn("Collection '" + next + "' not found");
+                } else {
+                    collectReindexDocuments(transaction, child, mode, documents);
+                }
+            }
+        }
+    }
+
     public void dropCollectionIndex(final Txn transaction, final Collection collection) throws PermissionDeniedException, IOException {
         dropCollectionIndex(transaction, collection, false);
     }
@@ -0,0 +1,178 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reindexes a list of documents using several threads. Every thread takes the
+ * next document from the list until all are done. Each thread uses a broker
+ * of its own, and thus its own index workers, and commits its own transaction.
+ *
+ * The indexes have to be dropped before. The collections are not locked while
+ * the threads run: each document is locked while it is reindexed, and skipped
+ * if it was removed in the meantime. An instance is registered as info of
+ * the reindex job with the {@link ProcessMonitor}, so the progress is reported
+ * by its {@link #toString()}.
+ */
+public class ParallelReindex {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelReindex.class);
+
+    private final BrokerPool pool;
+    private final Subject subject;
+    private final XmldbURI collectionUri;
+    private final List<DocumentImpl> documents;
+    private final DBBroker.IndexMode mode;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    public ParallelReindex(final BrokerPool pool, final Subject subject, final XmldbURI collectionUri,
+            final List<DocumentImpl> documents, final DBBroker.IndexMode mode) {
+        this.pool = pool;
+        this.subject = subject;
+        this.collectionUri = collectionUri;
+        this.documents = documents;
+        this.mode = mode;
+    }
+
+    /**
+     * Reindex the documents and wait until all threads have finished.
+     *
+     * @param threads the number of threads to use
+     * @throws IOException if reindexing a document failed. The remaining
+     *                     documents are not reindexed then.
+     */
+    public void run(final int threads) throws IOException {
+        final Thread[] workers = new Thread[Math.min(threads, documents.size())];
+        LOG.info("Reindexing " + documents.size() + " documents of collection " + collectionUri + " using " +
+            workers.length + " threads");
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::reindexDocuments, "exist-reindex-" + i);
+            workers[i].start();
+        }
+        try {
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reindexing collection " + collectionUri, e);
+        }
+        final Throwable e = error.get();
+        if (e != null) {
+            throw new IOException("Failed to reindex collection " + collectionUri + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void reindexDocuments() {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(subject));
+             final Txn transaction = transact.beginTransaction()) {
+            int i;
+            while (error.get() == null && (i = next.getAndIncrement()) < documents.size()) {
+                final DocumentImpl doc = lockDocument(broker, documents.get(i));
+                if (doc == null) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                try {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Reindexing document " + doc.getURI());
+                    }
+                    broker.reindexXMLResource(transaction, doc, mode);
+                    done.incrementAndGet();
+                } finally {
+                    doc.getUpdateLock().release(Lock.WRITE_LOCK);
+                }
+            }
+            transact.commit(transaction);
+        } catch (final Throwable e) {
+            LOG.warn("Error while reindexing collection " + collectionUri + ": " + e.getMessage(), e);
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * The collections are not locked while the documents are reindexed, so a document
+     * may have been removed or replaced since the list was collected. Look it up again
+     * and lock it, so it cannot be modified while it is reindexed.
+     *
+     * @return the locked document or null if it does not exist any more
+     */
+    private DocumentImpl lockDocument(final DBBroker broker, final DocumentImpl doc) throws LockException, PermissionDeniedException {
+        final Collection collection = broker.getCollection(doc.getCollection().getURI());
+        if (collection == null) {
+            LOG.debug("Collection " + doc.getCollection().getURI() + " was removed, skipping " + doc.getURI());
+            return null;
+        }
+        final DocumentImpl current = collection.getDocumentWithLock(broker, doc.getFileURI(), Lock.WRITE_LOCK);
+        if (current == null) {
+            LOG.debug("Document " + doc.getURI() + " was removed, skipping it");
+            return null;
+        }
+        if (current.getDocId() != doc.getDocId()) {
+            // replaced by a new document, which was indexed when it was stored
+            current.getUpdateLock().release(Lock.WRITE_LOCK);
+            LOG.debug("Document " + doc.getURI() + " was replaced, skipping it");
+            return null;
+        }
+        return current;
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    public int getReindexedCount() {
+        return done.get();
+    }
+
+    /**
+     * @return the number of documents skipped because they were removed after the list was collected
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return collectionUri + " (" + done.get() + " of " + documents.size() + " documents reindexed)";
+    }
+}
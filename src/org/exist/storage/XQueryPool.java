@@ -23,7 +23,11 @@
 package org.exist.storage;
 
 import java.text.NumberFormat;
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
@@ -34,7 +38,6 @@ import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.source.Source;
 import org.exist.util.Configuration;
-import org.exist.util.hashtable.Object2ObjectHashMap;
 import org.exist.xquery.*;
 
 /**
@@ -45,11 +48,18 @@ import org.exist.xquery.*;
  * expression will be removed from the pool if it has not been used for a
  * pre-defined timeout. These settings can be configured in conf.xml.
  *
+ * The pool does not use a global lock: the compiled expressions for a source are
+ * kept in a lock-free stack, which is looked up in a concurrent map. If the pool is
+ * full, timed out sources are removed first. If there are none, the source with the
+ * lowest value is evicted, where the value of a source is the time it took to compile,
+ * divided by the time since it was last used. Sources which are expensive to compile
+ * thus stay in the pool longer than cheap ones which were used as recently.
+ *
  * @author wolf
  */
 @ConfigurationClass("query-pool")
 @ThreadSafe
-public class XQueryPool extends Object2ObjectHashMap {
+public class XQueryPool {
 
     private final static int MAX_POOL_SIZE = 128;
     private final static int MAX_STACK_SIZE = 5;
@@ -58,8 +68,8 @@ public class XQueryPool extends Object2ObjectHashMap {
 
     private final static Logger LOG = LogManager.getLogger(XQueryPool.class);
 
-    private long lastTimeOutCheck;
-    private long lastTimeOfCleanup;
+    private volatile long lastTimeOutCheck;
+    private volatile long lastTimeOfCleanup;
 
     @ConfigurationFieldAsAttribute("size")
     private final int maxPoolSize;
@@ -86,11 +96,18 @@ public class XQueryPool extends Object2ObjectHashMap {
 
     private final static int DEFAULT_SIZE = 27;
 
+    private final ConcurrentMap<Source, Entry> entries = new ConcurrentHashMap<>(DEFAULT_SIZE);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder compilations = new LongAdder();
+    private final LongAdder compileTime = new LongAdder();
+
     /**
      * @param conf The configuration
      */
     public XQueryPool(final Configuration conf) {
-        super(DEFAULT_SIZE);
         lastTimeOutCheck = lastTimeOfCleanup = System.currentTimeMillis();
 
         final Integer maxStSz = (Integer) conf.getProperty(PROPERTY_MAX_STACK_SIZE);
@@ -134,103 +151,116 @@ public class XQueryPool extends Object2ObjectHashMap {
         returnObject(source, xquery);
     }
 
-    private synchronized void returnObject(final Source source, final CompiledXQuery xquery) {
+    private void returnObject(final Source source, final CompiledXQuery xquery) {
         final long ts = source.getCacheTimestamp();
-        if (ts == 0 || ts > lastTimeOfCleanup) {
-            if (size() >= maxPoolSize) {
-                timeoutCheck();
-            }
-
-            if (size() < maxPoolSize) {
-                Deque<CompiledXQuery> stack = (Deque<CompiledXQuery>)get(source);
-                if (stack == null) {
-                    stack = new ArrayDeque<>();
-                    source.setCacheTimestamp(System.currentTimeMillis());
-                    put(source, stack);
-                }
+        if (ts != 0 && ts <= lastTimeOfCleanup) {
+            return;
+        }
 
-                if (stack.size() < maxStackSize) {
-                    // check if the query is already in pool before adding,
-                    // may happen for modules, don't add it a second time!
-                    if(!stack.contains(xquery)) {
-                        stack.push(xquery);
-                    }
+        Entry entry = entries.get(source);
+        if (entry == null) {
+            if (entries.size() >= maxPoolSize) {
+                evict();
+                if (entries.size() >= maxPoolSize) {
+                    return;
                 }
             }
+            final Entry newEntry = new Entry(source);
+            entry = entries.putIfAbsent(source, newEntry);
+            if (entry == null) {
+                source.setCacheTimestamp(newEntry.lastAccess);
+                entry = newEntry;
+            }
         }
+        entry.push(xquery, maxStackSize);
     }
 
-    private Object borrowObject(final DBBroker broker, final Source source) {
-        final Source key;
-        final CompiledXQuery query;
-        synchronized (this) {
-            final int idx = getIndex(source);
-            if (idx < 0) {
-                return null;
-            }
-            key = (Source) keys[idx];
-            int validity = key.isValid(broker);
-            if (validity == Source.UNKNOWN) {
-                validity = key.isValid(source);
-            }
+    private CompiledXQuery borrowObject(final DBBroker broker, final Source source) {
+        final Entry entry = entries.get(source);
+        if (entry == null) {
+            return null;
+        }
 
-            if (validity == Source.INVALID || validity == Source.UNKNOWN) {
-                keys[idx] = REMOVED;
-                values[idx] = null;
-                LOG.debug(source.getKey() + " is invalid");
-                return null;
-            }
-            final Deque<CompiledXQuery> stack = (Deque<CompiledXQuery>)values[idx];
-            if (stack == null || stack.isEmpty()) {
-                return null;
-            }
+        int validity = entry.source.isValid(broker);
+        if (validity == Source.UNKNOWN) {
+            validity = entry.source.isValid(source);
+        }
+        if (validity == Source.INVALID || validity == Source.UNKNOWN) {
+            entries.remove(source, entry);
+            LOG.debug(source.getKey() + " is invalid");
+            return null;
+        }
 
-            // now check if the compiled expression is valid
-            // it might become invalid if an imported module has changed.
-            query = stack.pop();
-            final XQueryContext context = query.getContext();
-            //context.setBroker(broker);
+        final CompiledXQuery query = entry.pop();
+        if (query == null) {
+            return null;
         }
 
+        // now check if the compiled expression is valid
+        // it might become invalid if an imported module has changed.
         // query.isValid() may open collections which in turn tries to acquire
-        // org.exist.storage.lock.ReentrantReadWriteLock. In order to avoid
-        // deadlocks with concurrent queries holding that lock while borrowing
-        // we must not hold onto the XQueryPool while calling isValid().
-
+        // org.exist.storage.lock.ReentrantReadWriteLock, so no lock must
+        // be held on the pool while calling it.
         if (!query.isValid()) {
-            synchronized (this) {
-                // the compiled query is no longer valid: one of the imported
-                // modules may have changed
-                remove(key);
-                return null;
-            }
-        } else {
-            return query;
+            // the compiled query is no longer valid: one of the imported
+            // modules may have changed
+            entries.remove(source, entry);
+            return null;
         }
+        return query;
     }
 
-    public synchronized CompiledXQuery borrowCompiledXQuery(final DBBroker broker, final Source source) throws PermissionDeniedException {
-        final CompiledXQuery query = (CompiledXQuery) borrowObject(broker, source);
+    public CompiledXQuery borrowCompiledXQuery(final DBBroker broker, final Source source) throws PermissionDeniedException {
+        final CompiledXQuery query = borrowObject(broker, source);
         if (query == null) {
+            misses.increment();
             return null;
         }
+        hits.increment();
 
         //check execution permission
         source.validate(broker.getCurrentSubject(), Permission.EXECUTE);
-
-        // now check if the compiled expression is valid
-        // it might become invalid if an imported module has changed.
-        //final XQueryContext context = query.getContext();
-        //context.setBroker(broker);
         return query;
     }
 
-    public synchronized void clear() {
+    /**
+     * Called by {@link XQuery} after a query has been compiled,
+     * to collect statistics.
+     *
+     * @param time the time it took to compile the query in milliseconds
+     */
+    public void compiled(final long time) {
+        compilations.increment();
+        compileTime.add(time);
+    }
+
+    public void clear() {
         lastTimeOfCleanup = System.currentTimeMillis();
+        entries.clear();
+    }
 
-        for (final Iterator i = iterator(); i.hasNext(); ) {
-            final Source next = (Source) i.next();
-            remove(next);
+    /**
+     * Remove timed out sources. If there are none and the pool is
+     * still full, remove the source with the lowest value.
+     */
+    private synchronized void evict() {
+        timeoutCheck();
+        if (entries.size() < maxPoolSize) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        Entry victim = null;
+        double lowest = Double.MAX_VALUE;
+        for (final Entry entry : entries.values()) {
+            final double value = (entry.compileTime + 1.0) / (now - entry.lastAccess + 1);
+            if (value < lowest) {
+                lowest = value;
+                victim = entry;
+            }
+        }
+        if (victim != null && entries.remove(victim.source, victim)) {
+            evictions.increment();
         }
     }
 
@@ -244,13 +274,83 @@ public class XQueryPool extends Object2ObjectHashMap {
             return;
         }
 
-        for (final Iterator i = iterator(); i.hasNext(); ) {
-            final Source next = (Source) i.next();
-            if (currentTime - next.getCacheTimestamp() > timeout) {
-                remove(next);
+        for (final Entry entry : entries.values()) {
+            if (currentTime - entry.lastAccess > timeout && entries.remove(entry.source, entry)) {
+                evictions.increment();
             }
         }
 
         lastTimeOutCheck = currentTime;
     }
+
+    /**
+     * @return the number of sources in the pool
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxPoolSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getCompilations() {
+        return compilations.sum();
+    }
+
+    /**
+     * @return the total time spent compiling queries in milliseconds
+     */
+    public long getCompileTime() {
+        return compileTime.sum();
+    }
+
+    /**
+     * The compiled expressions for one source.
+     */
+    private final static class Entry {
+        private final Source source;
+        private final ConcurrentLinkedDeque<CompiledXQuery> stack = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger stackSize = new AtomicInteger();
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile long compileTime = 0;
+
+        private Entry(final Source source) {
+            this.source = source;
+        }
+
+        private void push(final CompiledXQuery xquery, final int maxStackSize) {
+            lastAccess = System.currentTimeMillis();
+            compileTime = Math.max(compileTime, xquery.getContext().getCompilationTime());
+            if (stackSize.incrementAndGet() > maxStackSize ||
+                    // check if the query is already in pool before adding,
+                    // may happen for modules, don't add it a second time!
+                    stack.contains(xquery)) {
+                stackSize.decrementAndGet();
+                return;
+            }
+            stack.push(xquery);
+        }
+
+        private CompiledXQuery pop() {
+            lastAccess = System.currentTimeMillis();
+            final CompiledXQuery xquery = stack.poll();
+            if (xquery != null) {
+                stackSize.decrementAndGet();
+            }
+            return xquery;
+        }
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.DBSource;
+import org.exist.storage.lock.Lock;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+
+/**
+ * Startup trigger which compiles stored queries on a background thread, so the
+ * first requests after a restart do not have to wait for the queries and their
+ * library modules to be parsed and analyzed.
+ *
+ * Every "path" parameter names a stored query or a collection. Collections are
+ * searched recursively for the controller.xql files used by the URL rewriting
+ * (see {@link org.exist.http.urlrewrite.XQueryURLRewrite}). If no path is given,
+ * /db/apps is searched.
+ *
+ * <pre>
+ * {@code
+ * <trigger class="org.exist.storage.XQueryWarmUpTrigger">
+ *     <parameter name="path" value="/db/apps"/>
+ *     <parameter name="path" value="/db/app/modules/search.xql"/>
+ * </trigger>
+ * }
+ * </pre>
+ *
+ * The compiled queries are added to the {@link XQueryPool}. Their syntax trees and
+ * those of the modules they import are kept by the {@link org.exist.xquery.SyntaxTreeCache},
+ * which also writes them to disk if persistent-syntax-trees is enabled for the query pool.
+ */
+public class XQueryWarmUpTrigger implements StartupTrigger {
+
+    private final static Logger LOG = LogManager.getLogger(XQueryWarmUpTrigger.class);
+
+    public final static String PATH_PARAMETER = "path";
+    public final static String DEFAULT_PATH = "/db/apps";
+
+    private final static XmldbURI CONTROLLER = XmldbURI.create("controller.xql");
+    private final static String XQUERY_MIME_TYPE = "application/xquery";
+
+    /** variables declared by XQueryURLRewrite before compiling a controller */
+    private final static String[] CONTROLLER_VARIABLES = {
+        "exist:controller", "exist:root", "exist:context", "exist:prefix", "exist:path", "exist:resource"
+    };
+
+    @Override
+    public void execute(final DBBroker sysBroker, final Map<String, List<? extends Object>> params) {
+        final List<XmldbURI> paths = new ArrayList<>();
+        final List<? extends Object> values = params.get(PATH_PARAMETER);
+        if (values != null) {
+            for (final Object value : values) {
+                paths.add(XmldbURI.create(value.toString()));
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(XmldbURI.create(DEFAULT_PATH));
+        }
+
+        // the system broker must not be used from another thread
+        final BrokerPool db = sysBroker.getBrokerPool();
+        final Thread thread = new Thread(() -> warmUp(db, paths), "xquery-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp(final BrokerPool db, final List<XmldbURI> paths) {
+        final long start = System.currentTimeMillis();
+        int count = 0;
+        try (final DBBroker broker = db.get(Optional.of(db.getSecurityManager().getSystemSubject()))) {
+            for (final XmldbURI path : paths) {
+                for (final XmldbURI query : findQueries(broker, path)) {
+                    if (db.isShuttingDown()) {
+                        return;
+                    }
+                    if (compile(broker, query)) {
+                        count++;
+                    }
+                }
+            }
+        } catch (final Exception e) {
+            LOG.warn("XQuery warm-up failed: " + e.getMessage(), e);
+        }
+        LOG.info("Compiled " + count + " queries for warm-up in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Find the query at path, or the controllers in the collection at path
+     * and its descendants.
+     */
+    private List<XmldbURI> findQueries(final DBBroker broker, final XmldbURI path) throws PermissionDeniedException {
+        final List<XmldbURI> queries = new ArrayList<>();
+        final Deque<XmldbURI> collections = new ArrayDeque<>();
+        Collection collection = broker.openCollection(path, Lock.READ_LOCK);
+        if (collection == null) {
+            queries.add(path);
+            return queries;
+        }
+        collection.release(Lock.READ_LOCK);
+
+        collections.push(path);
+        while (!collections.isEmpty()) {
+            final XmldbURI uri = collections.pop();
+            collection = broker.openCollection(uri, Lock.READ_LOCK);
+            if (collection == null) {
+                continue;
+            }
+            try {
+                if (collection.hasDocument(broker, CONTROLLER)) {
+                    queries.add(uri.append(CONTROLLER));
+                }
+                for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                    collections.push(uri.append(i.next()));
+                }
+            } finally {
+                collection.release(Lock.READ_LOCK);
+            }
+        }
+        return queries;
+    }
+
+    private boolean compile(final DBBroker broker, final XmldbURI path) {
+        final DBSource source;
+        DocumentImpl doc = null;
+        try {
+            doc = broker.getXMLResource(path, Lock.READ_LOCK);
+            if (doc == null || doc.getResourceType() != DocumentImpl.BINARY_FILE ||
+                    !XQUERY_MIME_TYPE.equals(doc.getMetadata().getMimeType())) {
+                LOG.warn("Skipping warm-up of " + path + ": not a stored XQuery");
+                return false;
+            }
+            source = new DBSource(broker, (BinaryDocument) doc, true);
+        } catch (final PermissionDeniedException e) {
+            LOG.warn("Skipping warm-up of " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            if (doc != null) {
+                doc.getUpdateLock().release(Lock.READ_LOCK);
+            }
+        }
+
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final XQueryContext context = new XQueryContext(broker.getBrokerPool());
+        try {
+            context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI_PREFIX + path.removeLastSegment().getRawCollectionPath());
+            if (CONTROLLER.equals(path.lastSegment())) {
+                // the actual values are set by XQueryURLRewrite before every execution
+                for (final String variable : CONTROLLER_VARIABLES) {
+                    context.declareVariable(variable, "");
+                }
+            }
+            final CompiledXQuery compiled = xquery.compile(broker, context, source);
+            broker.getBrokerPool().getXQueryPool().returnCompiledXQuery(source, compiled);
+            return true;
+        } catch (final Exception e) {
+            LOG.warn("Failed to compile " + path + " for warm-up: " + e.getMessage());
+            return false;
+        }
+    }
+}
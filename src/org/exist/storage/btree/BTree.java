@@ -113,6 +113,9 @@ public class BTree extends Paged implements Lockable {
     /** Used as return value, if a value was not found */
     public final static long KEY_NOT_FOUND = -1;
 
+    /** Default fill factor (in percent) of pages split while adding keys in ascending order */
+    public final static int DEFAULT_FILL_FACTOR = 90;
+
     /** Type of BTreeNode/Page */
     protected final static byte LEAF = 1;
     protected final static byte BRANCH = 2;
@@ -161,6 +164,14 @@ public class BTree extends Paged implements Lockable {
 
     private double splitFactor = -1;
 
+    /**
+     * Fraction of a page's data kept in the left page if a page overflows
+     * because a key was added after its last key. Keys are usually added
+     * in ascending order when loading data, so the left page will not
+     * receive further keys.
+     */
+    private double fillFactor = DEFAULT_FILL_FACTOR / 100.0;
+
     protected BTree(final BrokerPool pool, final byte fileId, final boolean recoveryEnabled,
             final DefaultCacheManager cacheManager) throws DBException {
         super(pool);
@@ -168,6 +179,12 @@ public class BTree extends Paged implements Lockable {
         this.cacheManager = cacheManager;
         this.fileId = fileId;
         this.fileHeader = (BTreeFileHeader) getFileHeader();
+        if (pool != null) {
+            final int factor = pool.getConfiguration().getInteger(BrokerPool.PROPERTY_FILL_FACTOR);
+            if (factor > 0) {
+                setFillFactor(factor / 100.0);
+            }
+        }
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
         if (recoveryEnabled && pool.isRecoveryEnabled()) {
@@ -253,6 +270,21 @@ public class BTree extends Paged implements Lockable {
         this.splitFactor = factor;
     }
 
+    /**
+     * Set the fraction of the data kept in a page which is split after a key
+     * was added behind its last key. 0.5 splits pages at the median as for
+     * other inserts, higher values pack pages densely when keys are loaded in
+     * ascending order.
+     *
+     * @param factor the fill factor, between 0.5 and 1
+     */
+    protected void setFillFactor(final double factor) {
+        if (factor < 0.5 || factor > 1.0) {
+            throw new IllegalArgumentException("fillFactor should be >= 0.5 and <= 1");
+        }
+        this.fillFactor = factor;
+    }
+
     /**
      * addValue adds a Value to the BTree and associates a pointer with it. The
      * pointer can be used for referencing any type of data, it just so happens
@@ -1158,11 +1190,14 @@ public class BTree extends Paged implements Lockable {
         }
 
         /**
-         * Compute where to split a page: tries to split at half the data size
+         * Compute where to split a page: splits before the preferred key if one is
+         * given, otherwise where the left page receives the given fraction of the data size
          *
-         * @return
+         * @param preferred the index of the first key of the right page, or -1
+         * @param fraction the fraction of the data to keep in the left page
+         * @return the index of the first key of the right page
          */
-        private int getPivot(final int preferred) {
+        private int getPivot(final int preferred, final double fraction) {
             if (nKeys == 2) {
                 return 1;
             }
@@ -1181,7 +1216,8 @@ public class BTree extends Paged implements Lockable {
                 } else {
                     currentLen += keys[i].getLength();
                 }
-                if (currentLen > totalLen / 2 || i + 1 == preferred) {
+                if (currentLen > fileHeader.getWorkSize() ||
+                        (preferred > 0 ? i + 1 == preferred : currentLen > totalLen * fraction)) {
                     pivot = currentLen > fileHeader.getWorkSize() ? i : i + 1;
                     break;
                 }
@@ -1433,8 +1469,10 @@ public class BTree extends Paged implements Lockable {
                                     // however, if the inserted key is in the upper or lower
                                     // section of the node, we split directly at the key. this
                                     // has advantages if keys are inserted in ascending order
-                                    if (splitFactor > 0 && idx > (nKeys * splitFactor) && value.getLength() < fileHeader.getWorkSize() / 4) {
-                                        split(transaction, idx == 0 ? 1 : idx);
+                                    if (idx == nKeys - 1 && fillFactor > 0.5 && isRightmost()) {
+                                        split(transaction, getPivot(-1, fillFactor));
+                                    } else if (splitFactor > 0 && idx > (nKeys * splitFactor) && value.getLength() < fileHeader.getWorkSize() / 4) {
+                                        split(transaction, getPivot(idx == 0 ? 1 : idx, 0.5));
                                     } else {
                                         split(transaction);
                                     }
@@ -1467,27 +1505,47 @@ public class BTree extends Paged implements Lockable {
             cache.add(this);
             final boolean split = recalculateDataLen() > fileHeader.getWorkSize();
             if (split) {
-                split(transaction);
+                // keep the left node filled if keys are added in ascending order
+                split(transaction, getPivot(-1, idx == nKeys - 1 && isRightmost() ? fillFactor : 0.5));
             }
         }
 
+        /**
+         * Check if this is the last node on its level, which receives all keys
+         * if keys are added in ascending order.
+         */
+        private boolean isRightmost() {
+            if (pageHeader.getStatus() == LEAF) {
+                return pageHeader.getNextPage() == Page.NO_PAGE;
+            }
+            BTreeNode node = this;
+            BTreeNode parent;
+            while ((parent = node.getParent()) != null) {
+                if (parent.ptrs[parent.nPtrs - 1] != node.page.getPageNum()) {
+                    return false;
+                }
+                node = parent;
+            }
+            return true;
+        }
+
         private void split(final Txn transaction) throws IOException, BTreeException {
-            split(transaction, -1);
+            split(transaction, getPivot(-1, 0.5));
         }
 
         /**
          * Split the node.
          *
          * @param transaction the current transaction
+         * @param pivot the index of the first key moved to the new right node
          */
-        private void split(final Txn transaction, int pivot) throws IOException, BTreeException {
+        private void split(final Txn transaction, final int pivot) throws IOException, BTreeException {
             final Value[] leftVals;
             final Value[] rightVals;
             final long[] leftPtrs;
             final long[] rightPtrs;
             Value separator;
             final short vc = pageHeader.getValueCount();
-            pivot = getPivot(pivot);
 
             // Split the node into two nodes
             switch (pageHeader.getStatus()) {
@@ -1674,7 +1732,9 @@ public class BTree extends Paged implements Lockable {
 
         private void treeStatistics(final TreeMetrics metrics) throws IOException {
             metrics.addPage(pageHeader.getStatus());
-            if (pageHeader.getStatus() == BRANCH) {
+            if (pageHeader.getStatus() == LEAF) {
+                metrics.addLeafData(getDataLen(), fileHeader.getWorkSize());
+            } else {
                 for (int i = 0; i < nPtrs; i++) {
                     final BTreeNode child = getChildNode(i);
                     child.treeStatistics(metrics);
@@ -32,6 +32,8 @@ public class TreeMetrics {
     private int leafPages = 0;
     private int innerPages = 0;
     private int dataPages = 0;
+    private long leafDataLen = 0;
+    private long leafCapacity = 0;
     private String btreeName;
 
     public TreeMetrics(String name) {
@@ -57,11 +59,38 @@ public class TreeMetrics {
         ++dataPages;
     }
 
+    /**
+     * Record the number of bytes used by the keys and pointers of a leaf page.
+     *
+     * @param dataLen the bytes used
+     * @param capacity the bytes available in the page
+     */
+    public void addLeafData(int dataLen, int capacity) {
+        leafDataLen += dataLen;
+        leafCapacity += capacity;
+    }
+
+    public int getLeafPages() {
+        return leafPages;
+    }
+
+    public int getInnerPages() {
+        return innerPages;
+    }
+
+    /**
+     * @return the average fraction of the leaf pages used by keys and pointers
+     */
+    public double getLeafFillRatio() {
+        return leafCapacity == 0 ? 0 : leafDataLen / (double) leafCapacity;
+    }
+
     public void print(PrintWriter writer) {
         writer.println("BTree tree metrics for " + btreeName);
         writer.println("# inner pages: " + innerPages);
         writer.println("# leaf pages: " + leafPages);
         writer.println("# data pages: " + dataPages);
+        writer.println("leaf fill ratio: " + String.format("%.2f", getLeafFillRatio()));
     }
 
     public void toLogger() {
@@ -108,6 +108,17 @@ public class DataGuide {
         return temp.getMaxDepth();
     }
 
+    /**
+     * Returns the total number of elements with the given name,
+     * summed over all paths on which the element occurs.
+     *
+     * @param qname the element name
+     * @return the number of occurrences, 0 if the element is unknown
+     */
+    public long getNodeCount(QName qname) {
+        return root.getNodeCount(qname);
+    }
+
     public String toString() {
         final List<StringBuilder> paths = new ArrayList<StringBuilder>();
         root.dump(new StringBuilder(), paths);
@@ -71,6 +71,10 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return dataGuide.getMaxParentDepth(qname);
     }
 
+    public long getNodeCount(QName qname) {
+        return dataGuide.getNodeCount(qname);
+    }
+
     protected void mergeStats(DataGuide other) {
         dataGuide = other.mergeInto(dataGuide);
     }
@@ -110,7 +114,7 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
     }
 
     public void sync() throws DBException {
-        try(final SeekableByteChannel chan = Files.newByteChannel(dataFile,StandardOpenOption.WRITE)) {
+        try(final SeekableByteChannel chan = Files.newByteChannel(dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
             dataGuide.write(chan, getBrokerPool().getSymbols());
         } catch (final IOException e) {
             LOG.error(e.getMessage(), e);
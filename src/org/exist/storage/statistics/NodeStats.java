@@ -137,6 +137,19 @@ class NodeStats {
         }
     }
 
+    protected long getNodeCount(QName name) {
+        long count = 0;
+        if (qname != null && qname.equals(name)) {
+            count += nodeCount;
+        }
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                count += children[i].getNodeCount(name);
+            }
+        }
+        return count;
+    }
+
     protected void write(ByteBuffer buffer, SymbolTable symbols) {
         buffer.putShort(symbols.getNSSymbol(qname.getNamespaceURI()));
         buffer.putShort(symbols.getSymbol(qname.getLocalPart()));
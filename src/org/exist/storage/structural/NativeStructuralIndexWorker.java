@@ -358,6 +358,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         NewArrayNodeSet result;
         boolean selfAsContext = false;
         Expression parent;
+        NodeProxy last = null;
 
         FindDescendantsCallback(byte type, int axis, QName qname, int contextId, NewArrayNodeSet result, Expression parent) {
         	this(type, axis, qname, contextId, false, result, parent);
@@ -395,18 +396,26 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                     ((axis == Constants.DESCENDANT_AXIS) && ((relation == NodeId.IS_DESCENDANT) || (relation == NodeId.IS_CHILD)));
             }
             if (match) {
-                final NodeProxy storedNode =
-                    new NodeProxy(doc, nodeId, type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                if (qname != null) {
-                    storedNode.setQName(qname);
+                // with nested context nodes, the last node found for a context node can be found
+                // again as the first one for the next: merge both instead of adding a duplicate
+                final boolean found = last != null && last.getOwnerDocument() == doc && last.getNodeId().equals(nodeId);
+                final NodeProxy storedNode;
+                if (found) {
+                    storedNode = last;
+                } else {
+                    storedNode = new NodeProxy(doc, nodeId, type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
+                    if (qname != null) {
+                        storedNode.setQName(qname);
+                    }
+                    result.add(storedNode);
+                    last = storedNode;
                 }
-                result.add(storedNode);
                 if (Expression.NO_CONTEXT_ID != contextId) {
                 	if (selfAsContext)
                 		{storedNode.addContextNode(contextId, storedNode);}
                 	else
                 		{storedNode.deepCopyContext(ancestor, contextId);}
-                } else {
+                } else if (!found) {
             		storedNode.copyContext(ancestor);
                 }
                 storedNode.addMatches(ancestor);
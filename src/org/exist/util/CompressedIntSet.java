@@ -0,0 +1,533 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints, e.g. document ids.
+ *
+ * The values are split into chunks of 65536 by their upper 16 bits. A chunk holding
+ * only a few values stores them as a sorted array of chars, a dense chunk as a bitmap
+ * of 8kB (like a roaring bitmap). Compared to {@link java.util.BitSet}, sparse sets
+ * with large values need little memory, and intersections only look at chunks present
+ * in both sets.
+ *
+ * Iterate over the set like a {@link java.util.BitSet}:
+ *
+ * <pre>
+ * for (int i = set.nextSetBit(0); i &gt; -1; i = set.nextSetBit(i + 1)) { ... }
+ * </pre>
+ */
+@NotThreadSafe
+public class CompressedIntSet {
+
+    /** maximum number of values in an array chunk */
+    private final static int MAX_ARRAY_SIZE = 4096;
+    private final static int BITMAP_WORDS = 1 << 10;
+
+    /** upper 16 bits of the values in the chunk, sorted */
+    private char keys[] = new char[4];
+    private Chunk chunks[] = new Chunk[4];
+    private int size = 0;
+    private int cardinality = 0;
+
+    public CompressedIntSet() {
+    }
+
+    /**
+     * Add a value to the set.
+     *
+     * @return true if the value was not yet contained in the set
+     */
+    public boolean add(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0: " + value);
+        }
+        final char key = (char) (value >>> 16);
+        int idx = indexOf(key);
+        if (idx < 0) {
+            idx = -(idx + 1);
+            insertChunk(idx, key, new ArrayChunk());
+        }
+        final Chunk chunk = chunks[idx];
+        if (!chunk.add((char) value)) {
+            return false;
+        }
+        if (chunk instanceof ArrayChunk && chunk.cardinality() > MAX_ARRAY_SIZE) {
+            chunks[idx] = ((ArrayChunk) chunk).toBitmap();
+        }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Remove a value from the set.
+     *
+     * @return true if the value was contained in the set
+     */
+    public boolean remove(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int idx = indexOf((char) (value >>> 16));
+        if (idx < 0 || !chunks[idx].remove((char) value)) {
+            return false;
+        }
+        if (chunks[idx].cardinality() == 0) {
+            removeChunk(idx);
+        }
+        cardinality--;
+        return true;
+    }
+
+    public boolean contains(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int idx = indexOf((char) (value >>> 16));
+        return idx > -1 && chunks[idx].contains((char) value);
+    }
+
+    /**
+     * Check if all values of the other set are contained in this set.
+     */
+    public boolean containsAll(final CompressedIntSet other) {
+        if (other.cardinality > cardinality) {
+            return false;
+        }
+        for (int i = 0; i < other.size; i++) {
+            final int idx = indexOf(other.keys[i]);
+            if (idx < 0 || !chunks[idx].containsAll(other.chunks[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if this set and the other set have at least one value in common.
+     */
+    public boolean intersects(final CompressedIntSet other) {
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                if (chunks[i].and(other.chunks[j]) != null) {
+                    return true;
+                }
+                i++;
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new set containing the values contained in this and the other set.
+     */
+    public CompressedIntSet and(final CompressedIntSet other) {
+        final CompressedIntSet result = new CompressedIntSet();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk != null) {
+                    result.insertChunk(result.size, keys[i], chunk);
+                    result.cardinality += chunk.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first value in the set which is greater than or
+     * equal to the given value, or -1 if there is none.
+     */
+    public int nextSetBit(final int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        }
+        final char key = (char) (from >>> 16);
+        int idx = indexOf(key);
+        if (idx > -1) {
+            final int low = chunks[idx].next((char) from);
+            if (low > -1) {
+                return (key << 16) | low;
+            }
+            idx++;
+        } else {
+            idx = -(idx + 1);
+        }
+        if (idx < size) {
+            return (keys[idx] << 16) | chunks[idx].next((char) 0);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the smallest value in the set, or -1 if the set is empty.
+     */
+    public int first() {
+        return size == 0 ? -1 : (keys[0] << 16) | chunks[0].next((char) 0);
+    }
+
+    /**
+     * Returns the largest value in the set, or -1 if the set is empty.
+     */
+    public int last() {
+        return size == 0 ? -1 : (keys[size - 1] << 16) | chunks[size - 1].last();
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(chunks, 0, size, null);
+        size = 0;
+        cardinality = 0;
+    }
+
+    public int[] toArray() {
+        final int result[] = new int[cardinality];
+        int j = 0;
+        for (int i = nextSetBit(0); i > -1; i = nextSetBit(i + 1)) {
+            result[j++] = i;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompressedIntSet)) {
+            return false;
+        }
+        final CompressedIntSet other = (CompressedIntSet) obj;
+        return cardinality == other.cardinality && size == other.size && containsAll(other);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = cardinality;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + keys[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("{");
+        for (int i = nextSetBit(0); i > -1; i = nextSetBit(i + 1)) {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append(i);
+        }
+        return result.append('}').toString();
+    }
+
+    private int indexOf(final char key) {
+        // most sets have only one or two chunks
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertChunk(final int idx, final char key, final Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            chunks = Arrays.copyOf(chunks, size << 1);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+        System.arraycopy(chunks, idx, chunks, idx + 1, size - idx);
+        keys[idx] = key;
+        chunks[idx] = chunk;
+        size++;
+    }
+
+    private void removeChunk(final int idx) {
+        System.arraycopy(keys, idx + 1, keys, idx, size - idx - 1);
+        System.arraycopy(chunks, idx + 1, chunks, idx, size - idx - 1);
+        chunks[--size] = null;
+    }
+
+    /**
+     * The lower 16 bits of the values in a chunk.
+     */
+    private static abstract class Chunk {
+
+        abstract boolean add(char value);
+
+        abstract boolean remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        /**
+         * Returns the first value greater than or equal to the given value, or -1.
+         */
+        abstract int next(char from);
+
+        abstract int last();
+
+        /**
+         * Returns the values contained in both chunks, or null if there are none.
+         */
+        abstract Chunk and(Chunk other);
+
+        boolean containsAll(final Chunk other) {
+            if (other.cardinality() > cardinality()) {
+                return false;
+            }
+            for (int i = other.next((char) 0); i > -1; i = i < 0xFFFF ? other.next((char) (i + 1)) : -1) {
+                if (!contains((char) i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class ArrayChunk extends Chunk {
+
+        private char values[];
+        private int count = 0;
+
+        ArrayChunk() {
+            this(4);
+        }
+
+        ArrayChunk(final int capacity) {
+            values = new char[capacity];
+        }
+
+        @Override
+        boolean add(final char value) {
+            int idx = Arrays.binarySearch(values, 0, count, value);
+            if (idx > -1) {
+                return false;
+            }
+            idx = -(idx + 1);
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count << 1);
+            }
+            System.arraycopy(values, idx, values, idx + 1, count - idx);
+            values[idx] = value;
+            count++;
+            return true;
+        }
+
+        @Override
+        boolean remove(final char value) {
+            final int idx = Arrays.binarySearch(values, 0, count, value);
+            if (idx < 0) {
+                return false;
+            }
+            System.arraycopy(values, idx + 1, values, idx, count - idx - 1);
+            count--;
+            return true;
+        }
+
+        @Override
+        boolean contains(final char value) {
+            return Arrays.binarySearch(values, 0, count, value) > -1;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        int next(final char from) {
+            int idx = Arrays.binarySearch(values, 0, count, from);
+            if (idx < 0) {
+                idx = -(idx + 1);
+            }
+            return idx < count ? values[idx] : -1;
+        }
+
+        @Override
+        int last() {
+            return values[count - 1];
+        }
+
+        @Override
+        Chunk and(final Chunk other) {
+            final ArrayChunk result = new ArrayChunk(count);
+            if (other instanceof ArrayChunk) {
+                final ArrayChunk o = (ArrayChunk) other;
+                int i = 0, j = 0;
+                while (i < count && j < o.count) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result.values[result.count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        result.values[result.count++] = values[i];
+                    }
+                }
+            }
+            return result.count == 0 ? null : result;
+        }
+
+        BitmapChunk toBitmap() {
+            final BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < count; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapChunk extends Chunk {
+
+        private final long words[] = new long[BITMAP_WORDS];
+        private int count = 0;
+
+        @Override
+        boolean add(final char value) {
+            final long mask = 1L << value;
+            final int idx = value >>> 6;
+            if ((words[idx] & mask) != 0) {
+                return false;
+            }
+            words[idx] |= mask;
+            count++;
+            return true;
+        }
+
+        @Override
+        boolean remove(final char value) {
+            final long mask = 1L << value;
+            final int idx = value >>> 6;
+            if ((words[idx] & mask) == 0) {
+                return false;
+            }
+            words[idx] &= ~mask;
+            count--;
+            return true;
+        }
+
+        @Override
+        boolean contains(final char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        int next(final char from) {
+            int idx = from >>> 6;
+            long word = words[idx] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (idx << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++idx == BITMAP_WORDS) {
+                    return -1;
+                }
+                word = words[idx];
+            }
+        }
+
+        @Override
+        int last() {
+            for (int idx = BITMAP_WORDS - 1; idx > -1; idx--) {
+                if (words[idx] != 0) {
+                    return (idx << 6) + 63 - Long.numberOfLeadingZeros(words[idx]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Chunk and(final Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            final BitmapChunk o = (BitmapChunk) other;
+            final BitmapChunk result = new BitmapChunk();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] = words[i] & o.words[i];
+                result.count += Long.bitCount(result.words[i]);
+            }
+            if (result.count == 0) {
+                return null;
+            }
+            if (result.count > MAX_ARRAY_SIZE) {
+                return result;
+            }
+            final ArrayChunk array = new ArrayChunk(result.count);
+            for (int i = result.next((char) 0); i > -1; i = i < 0xFFFF ? result.next((char) (i + 1)) : -1) {
+                array.values[array.count++] = (char) i;
+            }
+            return array;
+        }
+
+        @Override
+        boolean containsAll(final Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return super.containsAll(other);
+            }
+            final BitmapChunk o = (BitmapChunk) other;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                if ((o.words[i] & ~words[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -60,6 +60,7 @@ import org.exist.validation.resolver.eXistXMLCatalogResolver;
 import org.exist.xmldb.DatabaseImpl;
 import org.exist.xquery.FunctionFactory;
 import org.exist.xquery.PerformanceStats;
+import org.exist.xquery.SyntaxTreeCache;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
 import org.exist.xslt.TransformerFactoryAllocator;
@@ -867,6 +868,25 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String fillFactor = getConfigAttributeValue( con, NativeBroker.FILL_FACTOR_ATTRIBUTE );
+
+        if( fillFactor != null ) {
+
+            try {
+                final int factor = Integer.parseInt( fillFactor );
+
+                if( factor < 50 || factor > 100 ) {
+                    LOG.warn( "parameter fillFactor should be between 50 and 100. Using default." );
+                } else {
+                    config.put( BrokerPool.PROPERTY_FILL_FACTOR, Integer.valueOf( factor ) );
+                    LOG.debug( BrokerPool.PROPERTY_FILL_FACTOR + ": " + config.get( BrokerPool.PROPERTY_FILL_FACTOR ) );
+                }
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
         //Not clear : rather looks like a buffers count
         final String collCacheSize = getConfigAttributeValue( con, BrokerPool.COLLECTION_CACHE_SIZE_ATTRIBUTE );
 
@@ -1206,6 +1226,13 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String persistentSyntaxTrees = getConfigAttributeValue( queryPool, SyntaxTreeCache.PERSISTENT_ATTRIBUTE );
+
+        if( persistentSyntaxTrees != null ) {
+            config.put( SyntaxTreeCache.PROPERTY_PERSISTENT, parseBoolean( persistentSyntaxTrees, false ) );
+            LOG.debug( SyntaxTreeCache.PROPERTY_PERSISTENT + ": " + config.get( SyntaxTreeCache.PROPERTY_PERSISTENT ) );
+        }
     }
     
     public static class StartupTriggerConfig {
@@ -1382,6 +1409,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( Math.max( 1, Integer.parseInt( reindexThreads ) ) ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
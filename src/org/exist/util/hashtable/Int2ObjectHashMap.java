@@ -322,14 +322,13 @@ public class Int2ObjectHashMap<V> extends AbstractHashtable<Integer, V> {
             throw new IllegalStateException("This never happens");
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public void remove() {
             if (idx == 0) {
                 throw new IllegalStateException("remove called before next");
             }
-            values[idx - 1] = (V)REMOVED;
-            items--;
+            // go through remove(int), so subclasses keeping additional state stay consistent
+            Int2ObjectHashMap.this.remove(keys[idx - 1]);
         }
     }
 }
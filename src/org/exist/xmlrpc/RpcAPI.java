@@ -439,6 +439,21 @@ public interface RpcAPI {
     public String printDiagnostics(String query, Map<String, Object> parameters)
             throws EXistException, PermissionDeniedException;
 
+    /**
+     * Executes the query and returns an execution profile instead of the
+     * query results. The profile is a stats:profile element listing the
+     * evaluated expressions with the number of calls, the time spent,
+     * the number of items passed in and out, and the indexes used.
+     *
+     * @param query
+     * @param parameters
+     * @return the serialized profile
+     * @throws EXistException
+     * @throws org.exist.security.PermissionDeniedException
+     */
+    public String profile(String query, Map<String, Object> parameters)
+            throws EXistException, PermissionDeniedException;
+
     String createResourceId(String collection)
             throws EXistException, PermissionDeniedException, URISyntaxException;
 
@@ -41,6 +41,7 @@ import org.exist.collections.Collection;
 import org.exist.collections.CollectionConfigurationException;
 import org.exist.collections.CollectionConfigurationManager;
 import org.exist.collections.IndexInfo;
+import org.exist.dom.memtree.MemTreeBuilder;
 import org.exist.dom.memtree.NodeImpl;
 import org.exist.numbering.NodeId;
 import org.exist.protocolhandler.embedded.EmbeddedInputStream;
@@ -357,6 +358,40 @@ public class RpcConnection implements RpcAPI {
         });
     }
 
+    @Override
+    public String profile(final String query, final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
+        final Source source = new StringSource(query);
+        return withDb((broker, transaction) -> {
+            try {
+                return this.<String>compileQuery(broker, transaction, source, parameters).apply(compiledQuery -> {
+                    final Profiler profiler = compiledQuery.getContext().getProfiler();
+                    final QueryProfile profile = new QueryProfile();
+                    profiler.setQueryProfile(profile);
+                    try {
+                        final QueryResult result = doQuery(broker, compiledQuery, null, parameters);
+                        if (result.hasErrors()) {
+                            throw result.getException();
+                        }
+                        result.result.getItemCount();
+                    } finally {
+                        profiler.setQueryProfile(null);
+                    }
+                    final MemTreeBuilder builder = new MemTreeBuilder();
+                    builder.startDocument();
+                    profile.toXML(builder);
+                    builder.endDocument();
+                    try {
+                        return broker.getSerializer().serialize(builder.getDocument().getNode(1));
+                    } catch (final SAXException e) {
+                        throw new EXistException(e);
+                    }
+                });
+            } catch(final XPathException e) {
+                throw new EXistException(e);
+            }
+        });
+    }
+
     /**
      * Check if the XQuery contains pragmas that define serialization settings.
      * If yes, copy the corresponding settings to the current set of output
@@ -23,6 +23,7 @@
 package org.exist.xquery;
 
 import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.NodeSet;
 import org.exist.xquery.functions.array.ArrayType;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.Item;
@@ -37,11 +38,26 @@ import org.exist.xquery.value.ValueSequence;
 public class Atomize extends AbstractExpression {
 
 	private final Expression expression;
+
+	// index providing the distinct values of the nodes, see setIndexValues
+	private IndexValues indexValues = null;
 	
 	public Atomize(XQueryContext context, Expression expr) {
 		super(context);
 		this.expression = expr;
 	}
+
+    /**
+     * Read the values of the nodes from an index if possible. The index returns every
+     * distinct value only once, so this must only be set if the values are passed to a
+     * function which ignores duplicates, like fn:min, fn:max or fn:distinct-values. See
+     * {@link QueryRewriter#rewriteDistinctValues(Expression, int)}.
+     *
+     * @param indexValues the index values
+     */
+    public void setIndexValues(IndexValues indexValues) {
+        this.indexValues = indexValues;
+    }
 	
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
@@ -64,7 +80,18 @@ public class Atomize extends AbstractExpression {
                 {context.getProfiler().message(this, Profiler.START_SEQUENCES, "CONTEXT ITEM", contextItem.toSequence());}
         }        
 		
-        final Sequence result = atomize(expression.eval(contextSequence, contextItem));
+        final Sequence input = expression.eval(contextSequence, contextItem);
+        Sequence result = null;
+        if (indexValues != null && input instanceof NodeSet && !input.hasOne() && !input.isEmpty()) {
+            result = indexValues.distinctValues((NodeSet) input);
+            if (context.getProfiler().isEnabled()) {
+                context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                    (result == null ? "Atomizing nodes: values not read from index" : "Read distinct values from index"));
+            }
+        }
+        if (result == null) {
+            result = atomize(input);
+        }
 
         if (context.getProfiler().isEnabled())           
             {context.getProfiler().end(this, "", result);}   
@@ -138,10 +138,15 @@ public class BasicExpressionVisitor implements ExpressionVisitor {
             new BasicExpressionVisitor() {
                 @Override
                 public void visitPathExpr(PathExpr expression) {
+                    // a twig join reports each of the steps it replaced
+                    int joined = 0;
                     for (int i = 0; i < expression.getLength(); i++) {
                         final Expression next = expression.getExpression(i);
                         next.accept(this);
-                        if (steps.size() - 1 != i) {
+                        if (next instanceof TwigJoin) {
+                            joined += ((TwigJoin) next).getSteps().size() - 1;
+                        }
+                        if (steps.size() - 1 != i + joined) {
                         	steps.add(null);
                         }
                     }
@@ -54,10 +54,17 @@ public class CastExpression extends AbstractExpression {
         setExpression(expr);
 	}
 
-	protected Expression getInnerExpression() {
+	public Expression getInnerExpression() {
 		return expression;
 	}
 
+	/**
+	 * @return the type the value is cast to
+	 */
+	public int getCastType() {
+		return requiredType;
+	}
+
     public void setExpression(Expression expr) {
         this.expression = expr;
     }
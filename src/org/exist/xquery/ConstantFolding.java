@@ -0,0 +1,238 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.xquery.functions.fn.FunAbs;
+import org.exist.xquery.functions.fn.FunBoolean;
+import org.exist.xquery.functions.fn.FunCeiling;
+import org.exist.xquery.functions.fn.FunCodepointEqual;
+import org.exist.xquery.functions.fn.FunCodepointsToString;
+import org.exist.xquery.functions.fn.FunCompare;
+import org.exist.xquery.functions.fn.FunConcat;
+import org.exist.xquery.functions.fn.FunContains;
+import org.exist.xquery.functions.fn.FunEncodeForURI;
+import org.exist.xquery.functions.fn.FunEndsWith;
+import org.exist.xquery.functions.fn.FunEscapeHTMLURI;
+import org.exist.xquery.functions.fn.FunFloor;
+import org.exist.xquery.functions.fn.FunIRIToURI;
+import org.exist.xquery.functions.fn.FunMatches;
+import org.exist.xquery.functions.fn.FunNormalizeSpace;
+import org.exist.xquery.functions.fn.FunNormalizeUnicode;
+import org.exist.xquery.functions.fn.FunNot;
+import org.exist.xquery.functions.fn.FunNumber;
+import org.exist.xquery.functions.fn.FunReplace;
+import org.exist.xquery.functions.fn.FunRound;
+import org.exist.xquery.functions.fn.FunRoundHalfToEven;
+import org.exist.xquery.functions.fn.FunStartsWith;
+import org.exist.xquery.functions.fn.FunStrLength;
+import org.exist.xquery.functions.fn.FunString;
+import org.exist.xquery.functions.fn.FunStringJoin;
+import org.exist.xquery.functions.fn.FunSubstring;
+import org.exist.xquery.functions.fn.FunSubstringAfter;
+import org.exist.xquery.functions.fn.FunSubstringBefore;
+import org.exist.xquery.functions.fn.FunTranslate;
+import org.exist.xquery.functions.fn.FunUpperOrLowerCase;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replaces expressions which only depend on literals by their value, so
+ * they are evaluated once at compile time instead of every time the
+ * query is executed, e.g. <code>60 * 60 * 24</code>, <code>concat("a", "b")</code>
+ * or <code>xs:integer("1")</code>. The type and cardinality checks added
+ * around literal function arguments are removed the same way, and type
+ * checks which can never fail are dropped from other expressions.
+ *
+ * Folding happens while the query is analyzed, so the expressions holding
+ * another expression call {@link #fold(Expression)} after analyzing it.
+ * Expressions are only folded if evaluating them succeeds and returns
+ * a single number, string, boolean or URI: errors are raised at runtime as
+ * before, and date and time values depend on the implicit timezone.
+ */
+public class ConstantFolding {
+
+    private static final Logger LOG = LogManager.getLogger(ConstantFolding.class);
+
+    /**
+     * Built-in functions which return the same result for the same arguments
+     * and have no side effects.
+     */
+    private static final Set<Class<? extends Function>> DETERMINISTIC_FUNCTIONS = new HashSet<>(Arrays.asList(
+        FunAbs.class, FunBoolean.class, FunCeiling.class, FunCodepointEqual.class,
+        FunCodepointsToString.class, FunCompare.class, FunConcat.class, FunContains.class,
+        FunEncodeForURI.class, FunEndsWith.class, FunEscapeHTMLURI.class, FunFloor.class,
+        FunIRIToURI.class, FunMatches.class, FunNormalizeSpace.class, FunNormalizeUnicode.class,
+        FunNot.class, FunNumber.class, FunReplace.class, FunRound.class, FunRoundHalfToEven.class,
+        FunStartsWith.class, FunStrLength.class, FunString.class, FunStringJoin.class,
+        FunSubstring.class, FunSubstringAfter.class, FunSubstringBefore.class, FunTranslate.class,
+        FunUpperOrLowerCase.class
+    ));
+
+    private ConstantFolding() {
+    }
+
+    /**
+     * Returns the value of the expression as a literal if it can be computed
+     * at compile time, otherwise the expression itself without redundant type
+     * checks. Must be called after the expression has been analyzed.
+     *
+     * @param expr the expression
+     * @return a {@link LiteralValue}, the checked expression or expr
+     */
+    public static Expression fold(Expression expr) {
+        if (!expr.getContext().optimizationsEnabled()) {
+            return expr;
+        }
+        expr = removeTypeChecks(expr);
+        if (expr instanceof LiteralValue || !isConstant(expr)) {
+            return expr;
+        }
+        try {
+            final Sequence result = expr.eval(null, null);
+            if (!result.hasOne()) {
+                return expr;
+            }
+            final Item item = result.itemAt(0);
+            final int type = item.getType();
+            if (!(item instanceof AtomicValue) || !(Type.subTypeOf(type, Type.NUMBER) ||
+                    Type.subTypeOf(type, Type.STRING) || type == Type.BOOLEAN || type == Type.ANY_URI)) {
+                return expr;
+            }
+            final LiteralValue literal = new LiteralValue(expr.getContext(), (AtomicValue) item);
+            literal.setLocation(expr.getLine(), expr.getColumn());
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Folded constant expression: " + ExpressionDumper.dump(expr) + " = " +
+                    ExpressionDumper.dump(literal));
+            }
+            return literal;
+        } catch (final XPathException e) {
+            // will be raised again at runtime if the expression is evaluated at all
+            return expr;
+        }
+    }
+
+    /**
+     * Removes a type check wrapped around the expression if the static type
+     * of the checked expression is a subtype of the required type, so the check
+     * would never fail or convert an item. {@link Function#checkArgument} adds
+     * such checks if the cardinality of an argument is not known to match, e.g.
+     * for casts, and the static type of an argument may only be known after
+     * it has been analyzed. The static type of an {@link UntypedValueCheck}
+     * is not trusted, since it passes items of other types unchanged. Cardinality
+     * checks are kept: most expressions do not know their cardinality statically.
+     */
+    static Expression removeTypeChecks(final Expression expr) {
+        final Expression checked;
+        final int requiredType;
+        if (expr.getClass() == DynamicTypeCheck.class) {
+            checked = removeTypeChecks(((DynamicTypeCheck) expr).getExpression());
+            requiredType = ((DynamicTypeCheck) expr).getRequiredType();
+        } else if (expr.getClass() == UntypedValueCheck.class) {
+            checked = removeTypeChecks(((UntypedValueCheck) expr).getExpression());
+            requiredType = ((UntypedValueCheck) expr).getRequiredType();
+        } else {
+            return expr;
+        }
+        if (checked.getClass() == UntypedValueCheck.class) {
+            return expr;
+        }
+        final int returnType = checked.returnsType();
+        if (returnType == Type.ITEM || returnType == Type.ANY_TYPE || returnType == Type.EMPTY ||
+                returnType == Type.UNTYPED_ATOMIC || !Type.subTypeOf(returnType, requiredType)) {
+            return expr;
+        }
+        return checked;
+    }
+
+    /**
+     * Checks if the value of the expression only depends on literals.
+     */
+    static boolean isConstant(final Expression expr) {
+        if (expr instanceof LiteralValue) {
+            return true;
+        }
+        final Class<?> clazz = expr.getClass();
+        if (clazz == PathExpr.class || clazz == UnaryExpr.class) {
+            final PathExpr path = (PathExpr) expr;
+            return path.getLength() == 1 && isConstant(path.getExpression(0));
+        }
+        if (clazz == OpNumeric.class) {
+            final OpNumeric op = (OpNumeric) expr;
+            return isConstant(op.getLeft()) && isConstant(op.getRight());
+        }
+        if (clazz == ConcatExpr.class) {
+            final ConcatExpr concat = (ConcatExpr) expr;
+            for (int i = 0; i < concat.getLength(); i++) {
+                if (!isConstant(concat.getExpression(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (clazz == CastExpression.class) {
+            return isConstant(((CastExpression) expr).getInnerExpression());
+        }
+        if (clazz == DynamicCardinalityCheck.class) {
+            return isConstant(((DynamicCardinalityCheck) expr).getExpression());
+        }
+        if (clazz == DynamicTypeCheck.class) {
+            return isConstant(((DynamicTypeCheck) expr).getExpression());
+        }
+        if (clazz == UntypedValueCheck.class) {
+            return isConstant(((UntypedValueCheck) expr).getExpression());
+        }
+        if (clazz == Atomize.class) {
+            return isConstant(((Atomize) expr).getExpression());
+        }
+        if (clazz == AtomicToString.class) {
+            return isConstant(((AtomicToString) expr).getExpression());
+        }
+        if (clazz == FunctionCall.class) {
+            // calls to functions without parameters which just return a constant
+            final FunctionCall call = (FunctionCall) expr;
+            return call.getArgumentCount() == 0 && !call.isRecursive() &&
+                call.getFunction().getFunctionBody() instanceof LiteralValue;
+        }
+        final Function function = expr instanceof InternalFunctionCall ?
+            ((InternalFunctionCall) expr).getFunction() : expr instanceof Function ? (Function) expr : null;
+        if (function != null && DETERMINISTIC_FUNCTIONS.contains(function.getClass())) {
+            // functions without arguments use the context item
+            if (function.getArgumentCount() == 0) {
+                return false;
+            }
+            for (int i = 0; i < function.getArgumentCount(); i++) {
+                if (!isConstant(function.getArgument(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.indexing.Index;
+import org.exist.storage.ElementValue;
+import org.exist.storage.statistics.IndexStatistics;
+import org.exist.xquery.functions.fn.FunLast;
+import org.exist.xquery.functions.fn.FunPosition;
+
+/**
+ * Estimates the number of nodes an expression will select, based on the
+ * element distribution collected by {@link IndexStatistics}. The estimates
+ * are used by the {@link Optimizer} to evaluate the most selective filters first.
+ *
+ * If the statistics index is not configured or does not know about a node,
+ * the estimate is {@link #UNKNOWN} and the optimizer keeps the order in which
+ * the expressions were written.
+ */
+public class CostEstimator {
+
+    public final static long UNKNOWN = Long.MAX_VALUE;
+
+    /** fraction of nodes assumed to pass an equality comparison */
+    private final static int EQUALITY_SELECTIVITY = 10;
+
+    /** fraction of nodes assumed to pass a range comparison */
+    private final static int RANGE_SELECTIVITY = 3;
+
+    private final IndexStatistics statistics;
+
+    public CostEstimator(XQueryContext context) {
+        final Index index = context.getBroker().getBrokerPool().getIndexManager().getIndexById(IndexStatistics.ID);
+        this.statistics = index instanceof IndexStatistics ? (IndexStatistics) index : null;
+    }
+
+    public boolean isAvailable() {
+        return statistics != null;
+    }
+
+    /**
+     * Estimate the number of nodes selected by a location step, ignoring
+     * its predicates. Only element steps with a name test can be estimated.
+     *
+     * @param step the location step
+     * @return estimated number of nodes or {@link #UNKNOWN}
+     */
+    public long estimateStep(LocationStep step) {
+        final NodeTest test = step.getTest();
+        if (test == null || test.isWildcardTest() || test.getName() == null) {
+            return UNKNOWN;
+        }
+        final int axis = step.getAxis();
+        if (axis == Constants.ATTRIBUTE_AXIS || axis == Constants.DESCENDANT_ATTRIBUTE_AXIS) {
+            return UNKNOWN;
+        }
+        return estimateElements(test.getName());
+    }
+
+    /**
+     * Estimate the number of nodes for which a filter expression (a predicate or
+     * an operand of a boolean and) will be true. Only general comparisons on a
+     * known node and conjunctions thereof can be estimated. For a conjunction,
+     * the most selective operand determines the result.
+     *
+     * @param expr the filter expression
+     * @return estimated number of matching nodes or {@link #UNKNOWN}
+     */
+    public long estimateFilter(Expression expr) {
+        if (statistics == null) {
+            return UNKNOWN;
+        }
+        expr = unwrap(expr);
+        if (expr instanceof GeneralComparison) {
+            return estimateComparison((GeneralComparison) expr);
+        } else if (expr instanceof OpAnd) {
+            final OpAnd and = (OpAnd) expr;
+            return Math.min(estimateFilter(and.getLeft()), estimateFilter(and.getRight()));
+        }
+        return UNKNOWN;
+    }
+
+    private long estimateComparison(GeneralComparison comparison) {
+        final QName qname = comparison.getContextQName();
+        if (qname == null || qname.getNameType() == ElementValue.ATTRIBUTE) {
+            return UNKNOWN;
+        }
+        final long count = estimateElements(qname);
+        if (count == UNKNOWN) {
+            return UNKNOWN;
+        }
+        switch (comparison.getRelation()) {
+            case EQ:
+            case IN:
+                return count / EQUALITY_SELECTIVITY;
+            case NEQ:
+                return count;
+            default:
+                return count / RANGE_SELECTIVITY;
+        }
+    }
+
+    private long estimateElements(QName qname) {
+        if (statistics == null) {
+            return UNKNOWN;
+        }
+        final long count = statistics.getNodeCount(qname);
+        // the data guide may not yet have been updated for new data
+        return count == 0 ? UNKNOWN : count;
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (expr instanceof PathExpr && ((PathExpr) expr).getLength() == 1 &&
+                !(expr instanceof BinaryOp)) {
+            expr = ((PathExpr) expr).getExpression(0);
+        }
+        return expr;
+    }
+
+    /**
+     * Check if the result of the filter expression could depend on the position of
+     * the context item, i.e. if it is unsafe to evaluate it after (or before)
+     * another filter.
+     *
+     * @param expr the filter expression
+     * @return true if the expression is or may be positional
+     */
+    public static boolean isPositional(Expression expr) {
+        if (expr instanceof Predicate && ((Predicate) expr).getExecutionMode() != Predicate.BOOLEAN &&
+                ((Predicate) expr).getExecutionMode() != Predicate.NODE) {
+            return true;
+        }
+        if (Dependency.dependsOn(expr, Dependency.CONTEXT_POSITION)) {
+            return true;
+        }
+        final PositionalVisitor visitor = new PositionalVisitor();
+        expr.accept(visitor);
+        return visitor.positional;
+    }
+
+    private static class PositionalVisitor extends DefaultExpressionVisitor {
+
+        private boolean positional = false;
+
+        @Override
+        public void visitBuiltinFunction(Function function) {
+            if (function instanceof FunPosition || function instanceof FunLast) {
+                positional = true;
+            } else {
+                super.visitBuiltinFunction(function);
+            }
+        }
+
+        @Override
+        public void visitFunctionCall(FunctionCall call) {
+            // the function body has its own focus: only check the arguments
+            for (int i = 0; i < call.getArgumentCount(); i++) {
+                call.getArgument(i).accept(this);
+            }
+        }
+
+        @Override
+        public void visitGeneralComparison(GeneralComparison comparison) {
+            comparison.getLeft().accept(this);
+            comparison.getRight().accept(this);
+        }
+
+        @Override
+        public void visitAndExpr(OpAnd and) {
+            and.getLeft().accept(this);
+            and.getRight().accept(this);
+        }
+
+        @Override
+        public void visitOrExpr(OpOr or) {
+            or.getLeft().accept(this);
+            or.getRight().accept(this);
+        }
+    }
+}
@@ -42,6 +42,14 @@ public class DynamicTypeCheck extends AbstractExpression {
 		this.requiredType = requiredType;
 		this.expression = expr;
 	}
+
+	public Expression getExpression() {
+		return expression;
+	}
+
+	public int getRequiredType() {
+		return requiredType;
+	}
 	
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.AnalyzeContextInfo)
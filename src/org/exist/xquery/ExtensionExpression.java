@@ -50,6 +50,10 @@ public class ExtensionExpression extends AbstractExpression {
         this.innerExpression = inner;
     }
 
+    public Expression getExpression() {
+        return innerExpression;
+    }
+
     public void addPragma(Pragma pragma) {
         pragmas.add(pragma);
     }
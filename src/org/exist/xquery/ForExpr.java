@@ -37,6 +37,12 @@ public class ForExpr extends BindingExpression {
     private String positionalVariable = null;
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
+    // index function selecting the input in the order of the "order by" clause
+    private TopKOptimizable topK = null;
+    // number of items required from the next evaluation, set by fn:subsequence
+    private int limit = -1;
+    // index ordering the input by the keys of the "order by" clause
+    private IndexOrdering indexOrdering = null;
 
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
@@ -89,12 +95,117 @@ public class ForExpr extends BindingExpression {
             final AnalyzeContextInfo newContextInfo = new AnalyzeContextInfo(contextInfo);
             newContextInfo.addFlag(SINGLE_STEP_EXECUTION);
             returnExpr.analyze(newContextInfo);
+
+            topK = findTopKOptimizable(inVar.getQName());
         } finally {
             // restore the local variable stack
             context.popLocalVariables(mark);
         }
     }
 
+    /**
+     * Return the "order by" clause if it directly follows this "for", which is the
+     * top clause and has neither a positional variable nor "allowing empty", so
+     * that the "order by" just reorders the items of the input.
+     *
+     * @return the "order by" clause or null
+     */
+    public OrderByClause getOrderByClause() {
+        if (positionalVariable != null || allowEmpty || getPreviousClause() != null ||
+                !(returnExpr instanceof OrderByClause)) {
+            return null;
+        }
+        final OrderByClause orderBy = (OrderByClause) returnExpr;
+        if (getReturnOfOrderBy(orderBy) instanceof FLWORClause) {
+            return null;
+        }
+        return orderBy;
+    }
+
+    private static Expression getReturnOfOrderBy(OrderByClause orderBy) {
+        Expression returns = orderBy.getReturnExpression().simplify();
+        if (returns instanceof DebuggableExpression) {
+            returns = ((DebuggableExpression) returns).getFirst().simplify();
+        }
+        return returns;
+    }
+
+    /**
+     * Order the input by an index instead of sorting the items in the "order by"
+     * clause returned by {@link #getOrderByClause()}. Set by the query optimizer.
+     *
+     * @param ordering the ordering provided by an index
+     */
+    public void setIndexOrdering(IndexOrdering ordering) {
+        this.indexOrdering = ordering;
+    }
+
+    /**
+     * Find an index function which can select the first items of the input in
+     * the order required by the "order by" clause following this "for". This is
+     * possible if the input is a path ending in a location step whose only
+     * predicate is the function call, the "for" is the top clause and every
+     * tuple returns at least one item.
+     */
+    private TopKOptimizable findTopKOptimizable(QName variable) {
+        final OrderByClause orderBy = getOrderByClause();
+        if (orderBy == null) {
+            return null;
+        }
+        final Expression returns = getReturnOfOrderBy(orderBy);
+        if (!(returns instanceof VariableReference && ((VariableReference) returns).getName().equals(variable)) &&
+                (returns.getCardinality() & Cardinality.ZERO) != 0) {
+            return null;
+        }
+        // find the last step of the input, which may have been wrapped by the optimizer
+        Expression last = inputSequence;
+        while (true) {
+            if (last instanceof PathExpr && ((PathExpr) last).getLength() > 0) {
+                last = ((PathExpr) last).getExpression(((PathExpr) last).getLength() - 1);
+            } else if (last instanceof ExtensionExpression) {
+                last = ((ExtensionExpression) last).getExpression();
+            } else {
+                break;
+            }
+        }
+        if (!(last instanceof LocationStep)) {
+            return null;
+        }
+        final LocationStep lastStep = (LocationStep) last;
+        if (lastStep.getPredicates().size() != 1 || lastStep.getPredicates().get(0).getLength() != 1) {
+            return null;
+        }
+        Expression filter = lastStep.getPredicates().get(0).getExpression(0).simplify();
+        if (filter instanceof InternalFunctionCall) {
+            filter = ((InternalFunctionCall) filter).getFunction();
+        }
+        if (filter instanceof TopKOptimizable &&
+                ((TopKOptimizable) filter).canOptimizeOrder(variable, orderBy.getOrderSpecs())) {
+            return (TopKOptimizable) filter;
+        }
+        return null;
+    }
+
+    /**
+     * Check if the first items of the result can be computed without ordering
+     * the whole input, see {@link #setLimit(int)}.
+     */
+    public boolean canLimit() {
+        return topK != null || indexOrdering != null;
+    }
+
+    /**
+     * Only the first items of the result of the next evaluation will be used.
+     * If {@link #canLimit()}, the input is then restricted to the items ranked
+     * first by the "order by" clause, or the return clause is only evaluated for
+     * them; the result is still ordered, but may lack any items after the limit.
+     *
+     * @param limit the number of items required
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
     /**
      * This implementation tries to process the "where" clause in advance, i.e. in one single
      * step. This is possible if the input sequence is a node set and the where expression
@@ -121,9 +232,24 @@ public class ForExpr extends BindingExpression {
         // Save the local variable stack
         LocalVariable mark = context.markLocalVariables(false);
         Sequence resultSequence = new ValueSequence(unordered);
+        final int limit = this.limit;
+        this.limit = -1;
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            if (limit > 0 && topK != null) {
+                in = evalTopK(contextSequence, limit);
+            } else {
+                in = inputSequence.eval(contextSequence, null);
+            }
+            // if the input is ordered by an index, the "order by" clause is skipped
+            Expression returns = returnExpr;
+            if (indexOrdering != null && in instanceof NodeSet && !in.isEmpty()) {
+                final Sequence ordered = orderByIndex((NodeSet) in);
+                if (ordered != null) {
+                    in = ordered;
+                    returns = ((OrderByClause) returnExpr).getReturnExpression();
+                }
+            }
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -173,10 +299,14 @@ public class ForExpr extends BindingExpression {
             // Loop through each variable binding
             int p = 0;
             if (in.isEmpty() && allowEmpty) {
-                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p);
+                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p, returns);
             } else {
                 for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
-                    processItem(var, i.nextItem(), in, resultSequence, at, p);
+                    if (returns != returnExpr && limit > 0 && resultSequence.getItemCount() >= limit) {
+                        // ordered input: the remaining items are not required
+                        break;
+                    }
+                    processItem(var, i.nextItem(), in, resultSequence, at, p, returns);
                 }
             }
         } finally {
@@ -221,12 +351,57 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
+    /**
+     * Evaluate the input, selecting only the first items in the order of the
+     * "order by" clause. If the location step dropped any of the selected items,
+     * the input is evaluated again without limit, as the items which would
+     * replace them are unknown.
+     */
+    private Sequence evalTopK(Sequence contextSequence, int limit) throws XPathException {
+        Sequence in;
+        final boolean complete;
+        topK.setTopK(limit);
+        try {
+            in = inputSequence.eval(contextSequence, null);
+            complete = in.getItemCount() == topK.getTopKCount();
+        } finally {
+            topK.setTopK(-1);
+        }
+        if (!complete) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Top " + limit + " items of $" + varName + " were filtered: evaluating the full input");
+            }
+            in = inputSequence.eval(contextSequence, null);
+        }
+        if (context.getProfiler().isEnabled()) {
+            context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                "Selected " + (complete ? "top " + limit : "all") + " items of $" + varName + " by order");
+        }
+        return in;
+    }
+
+    /**
+     * Order the input by the index set by the optimizer. Returns null if the
+     * index cannot order it, in which case the "order by" clause sorts the items.
+     */
+    private Sequence orderByIndex(NodeSet in) throws XPathException {
+        final Sequence ordered = indexOrdering.order(in);
+        if (ordered != null && ordered.getItemCount() != in.getItemCount()) {
+            return null;
+        }
+        if (context.getProfiler().isEnabled()) {
+            context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                (ordered == null ? "Sorting $" + varName + ": not ordered by index" : "Ordered $" + varName + " by index"));
+        }
+        return ordered;
+    }
+
     private void processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
-            at, int p) throws XPathException {
+            at, int p, Expression returns) throws XPathException {
         context.proceed(this);
         context.setContextSequencePosition(p, in);
         if (positionalVariable != null) {
-            at.setValue(new IntegerValue(p + 1));
+            at.setValue(IntegerValue.valueOf(p + 1));
         }
         final Sequence contextSequence = contextItem.toSequence();
         // set variable value to current item
@@ -236,7 +411,7 @@ public class ForExpr extends BindingExpression {
         //Reset the context position
         context.setContextSequencePosition(0, null);
 
-        resultSequence.addAll(returnExpr.eval(null));
+        resultSequence.addAll(returns.eval(null));
 
         // free resources
         var.destroy(context, resultSequence);
@@ -322,6 +497,7 @@ public class ForExpr extends BindingExpression {
     */
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        limit = -1;
     }
 
     public void accept(ExpressionVisitor visitor) {
@@ -252,8 +252,10 @@ public abstract class Function extends PathExpr {
                         Integer.valueOf(argPosition), ExpressionDumper.dump(expr)));}
             }
         }
-        expr = new DynamicCardinalityCheck(context, type.getCardinality(), expr,
-            new Error(Error.FUNC_PARAM_CARDINALITY, argPosition, mySignature));
+        // a check for zero or more items would never fail
+        if (type.getCardinality() != Cardinality.ZERO_OR_MORE)
+            {expr = new DynamicCardinalityCheck(context, type.getCardinality(), expr,
+                new Error(Error.FUNC_PARAM_CARDINALITY, argPosition, mySignature));}
         // check return type if both types are not Type.ITEM
         int returnType = expr.returnsType();
         if (returnType == Type.ANY_TYPE || returnType == Type.EMPTY)
@@ -338,6 +340,7 @@ public abstract class Function extends PathExpr {
         for(int i = 0; i < getArgumentCount(); i++) {
             final AnalyzeContextInfo argContextInfo = new AnalyzeContextInfo(contextInfo);
             getArgument(i).analyze(argContextInfo);
+            steps.set(i, ConstantFolding.fold(getArgument(i)));
         }
     }
 
@@ -271,6 +271,14 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
     }
 
 
+    @Override
+    public long estimateCardinality( Sequence contextSequence )
+    {
+        // the range index keeps no statistics, fall back to the structural estimate
+        return( new CostEstimator( context ).estimateFilter( this ) );
+    }
+
+
     /* (non-Javadoc)
      * @see org.exist.xquery.BinaryOp#returnsType()
      */
@@ -311,6 +319,15 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
         return( this.relation );
     }
 
+    /**
+     * Returns the name of the node the comparison is applied to,
+     * as determined during analysis, or null if it is not known.
+     */
+    public QName getContextQName()
+    {
+        return( contextQName );
+    }
+
     public StringTruncationOperator getTruncation() {
         return truncation;
     }
@@ -0,0 +1,43 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Orders the input of a "for" clause by the keys of its "order by" clause using
+ * an index, so the keys do not need to be computed and sorted for every item.
+ * Returned by {@link QueryRewriter#rewriteOrderBy(org.exist.dom.QName, OrderSpec[])}.
+ */
+@FunctionalInterface
+public interface IndexOrdering {
+
+    /**
+     * Order the nodes as the "order by" clause would. Nodes with equal keys must
+     * stay in document order, like the stable sort of the "order by".
+     *
+     * @param nodes the input of the "for" clause
+     * @return the nodes in order, or null if the index cannot order them,
+     * e.g. because some of the keys are not indexed
+     * @throws XPathException if ordering fails
+     */
+    Sequence order(NodeSet nodes) throws XPathException;
+}
@@ -0,0 +1,44 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Reads the distinct values of nodes from the keys of an index, so the nodes do not
+ * need to be loaded and atomized one by one. Returned by
+ * {@link QueryRewriter#rewriteDistinctValues(Expression, int)}.
+ */
+@FunctionalInterface
+public interface IndexValues {
+
+    /**
+     * Return each distinct value of the nodes once, in the order of its first
+     * occurrence in the nodes. Values only used to find the minimum and maximum
+     * may be reduced to the smallest and the largest value.
+     *
+     * @param nodes the nodes to atomize
+     * @return the distinct values, or null if the index cannot provide them,
+     * e.g. because some of the values are not indexed
+     * @throws XPathException if reading the index fails
+     */
+    Sequence distinctValues(NodeSet nodes) throws XPathException;
+}
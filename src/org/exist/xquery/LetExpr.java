@@ -55,6 +55,7 @@ public class LetExpr extends BindingExpression {
             contextInfo.setParent(this);
             final AnalyzeContextInfo varContextInfo = new AnalyzeContextInfo(contextInfo);
             inputSequence.analyze(varContextInfo);
+            inputSequence = ConstantFolding.fold(inputSequence);
             //Declare the iteration variable
             final LocalVariable inVar = new LocalVariable(QName.parse(context, varName, null));
             inVar.setSequenceType(sequenceType);
@@ -60,7 +60,7 @@ import org.exist.dom.persistent.NodeHandle;
  */
 public class LocationStep extends Step {
 
-    private static final int INDEX_SCAN_THRESHOLD = 10000;
+    static final int INDEX_SCAN_THRESHOLD = 10000;
 
 	protected NodeSet currentSet = null;
 
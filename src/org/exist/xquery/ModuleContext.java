@@ -77,11 +77,14 @@ public class ModuleContext extends XQueryContext {
         return getRootContext().getRealUser();
     }
 
-    String getLocation() {
+    /**
+     * @return the location hint the module was imported from
+     */
+    public String getLocation() {
 	    return location;
 	}
    
-	String getModuleNamespace() {
+	public String getModuleNamespace() {
 		return moduleNamespace;
 	}
 
@@ -29,6 +29,8 @@ import org.exist.storage.DBBroker;
 import org.exist.xquery.Constants.ArithmeticOperator;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.ComputableValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
@@ -110,8 +112,55 @@ public class OpNumeric extends BinaryOp {
                 {context.getProfiler().message(this, Profiler.START_SEQUENCES,
                     "CONTEXT ITEM", contextItem.toSequence());}
         }
-        final Sequence lseq = Atomize.atomize(getLeft().eval(contextSequence, contextItem));
-        final Sequence rseq = Atomize.atomize(getRight().eval(contextSequence, contextItem));
+        final Sequence left = getLeft().eval(contextSequence, contextItem);
+        final Sequence right = getRight().eval(contextSequence, contextItem);
+        Sequence result = applyTyped(left, right);
+        if (result == null) {
+            result = applyGeneric(Atomize.atomize(left), Atomize.atomize(right));
+        }
+        if (context.getProfiler().isEnabled())
+            {context.getProfiler().end(this, "", result);}
+        //Sets the return type if not already set
+        if (returnType == Type.ATOMIC)
+            //TODO : refine previously set type ? -pb
+            {returnType = result.getItemType();}
+        return result;
+    }
+
+    /**
+     * Fast path for the common case of two xs:integer or two xs:double
+     * operands: no atomization, type promotion or operand checks are needed.
+     *
+     * @return the result or null if the operands do not qualify
+     */
+    private Sequence applyTyped(Sequence left, Sequence right) throws XPathException {
+        if (left instanceof IntegerValue && right instanceof IntegerValue) {
+            final IntegerValue lvalue = (IntegerValue) left;
+            final IntegerValue rvalue = (IntegerValue) right;
+            if (lvalue.getType() != Type.INTEGER || rvalue.getType() != Type.INTEGER) {
+                return null;
+            }
+            switch (operator) {
+                case ADDITION: return lvalue.plus(rvalue);
+                case SUBTRACTION: return lvalue.minus(rvalue);
+                case MULTIPLICATION: return lvalue.mult(rvalue);
+                default: return null;
+            }
+        } else if (left instanceof DoubleValue && right instanceof DoubleValue) {
+            final double lvalue = ((DoubleValue) left).getDouble();
+            final double rvalue = ((DoubleValue) right).getDouble();
+            switch (operator) {
+                case ADDITION: return new DoubleValue(lvalue + rvalue);
+                case SUBTRACTION: return new DoubleValue(lvalue - rvalue);
+                case MULTIPLICATION: return new DoubleValue(lvalue * rvalue);
+                case MODULUS: return new DoubleValue(lvalue % rvalue);
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    private Sequence applyGeneric(Sequence lseq, Sequence rseq) throws XPathException {
         if (lseq.hasMany())
             {throw new XPathException(this, ErrorCodes.XPTY0004,
                 "Too many operands at the left of " + operator.symbol);}
@@ -172,12 +221,6 @@ public class OpNumeric extends BinaryOp {
                 throw e;
             }
         }
-        if (context.getProfiler().isEnabled())
-            {context.getProfiler().end(this, "", result);}
-        //Sets the return type if not already set
-        if (returnType == Type.ATOMIC)
-            //TODO : refine previously set type ? -pb
-            {returnType = result.getItemType();}
         return result;
     }
 
@@ -38,4 +38,29 @@ public interface Optimizable extends Expression {
     NodeSet preSelect(Sequence contextSequence, boolean useContext) throws XPathException;
 
     int getOptimizeAxis();
+
+    /**
+     * Estimate the number of nodes {@link #preSelect(Sequence, boolean)} will return,
+     * without doing the index lookup. If a step has several optimizable predicates,
+     * the lookups are done in the order of their estimates, so the most selective
+     * one restricts the context of the others. The estimate should be cheap to
+     * compute, e.g. from the term statistics of the index.
+     *
+     * @param contextSequence the context of the lookup
+     * @return estimated number of nodes or {@link CostEstimator#UNKNOWN}
+     * @throws XPathException
+     */
+    default long estimateCardinality(Sequence contextSequence) throws XPathException {
+        return CostEstimator.UNKNOWN;
+    }
+
+    /**
+     * Check if the lookup has to be done after all other lookups on the same step,
+     * e.g. because it only returns the best matches among the remaining nodes.
+     *
+     * @return true if the lookup must be done last
+     */
+    default boolean mustRunLast() {
+        return false;
+    }
 }
@@ -21,11 +21,15 @@ package org.exist.xquery;
 
 import org.exist.dom.QName;
 import org.exist.xquery.functions.array.ArrayConstructor;
+import org.exist.xquery.functions.fn.FunDistinctValues;
+import org.exist.xquery.functions.fn.FunMax;
+import org.exist.xquery.functions.fn.FunMin;
 import org.exist.xquery.pragmas.Optimize;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Type;
 
 import java.util.*;
 
@@ -46,6 +50,10 @@ import java.util.*;
  *
  * <pre>declare option exist:optimize "enable=yes|no";</pre>
  *
+ * If the index statistics module is enabled, the optimizer uses the element counts collected
+ * by it (see {@link CostEstimator}) to evaluate the most selective predicates of a step first.
+ * With profiling enabled, the estimated and actual number of nodes are reported
+ * for each optimized expression.
  */
 public class Optimizer extends DefaultExpressionVisitor {
 
@@ -59,9 +67,12 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     private List<QueryRewriter> rewriters = new ArrayList<QueryRewriter>(5);
 
+    private final CostEstimator costEstimator;
+
     public Optimizer(XQueryContext context) {
         this.context = context;
         this.rewriters = context.getBroker().getIndexController().getQueryRewriters(context);
+        this.costEstimator = new CostEstimator(context);
     }
 
     public boolean hasOptimized() {
@@ -70,6 +81,7 @@ public class Optimizer extends DefaultExpressionVisitor {
 
     public void visitLocationStep(LocationStep locationStep) {
         super.visitLocationStep(locationStep);
+        reorderPredicates(locationStep);
         // check query rewriters if they want to rewrite the location step
         Pragma optimizePragma = null;
         for (QueryRewriter rewriter : rewriters) {
@@ -121,7 +133,9 @@ public class Optimizer extends DefaultExpressionVisitor {
                 if (optimizePragma != null) {
                     extension.addPragma(optimizePragma);
                 }
-                extension.addPragma(new Optimize(context, Optimize.OPTIMIZE_PRAGMA, null, false));
+                final Optimize optimizeStep = new Optimize(context, Optimize.OPTIMIZE_PRAGMA, null, false);
+                optimizeStep.setEstimatedCardinality(estimatePredicates(locationStep.getPredicates()));
+                extension.addPragma(optimizeStep);
                 extension.setExpression(locationStep);
                 
                 // Replace the old expression with the pragma
@@ -180,6 +194,100 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    public void visitForExpression(ForExpr forExpr) {
+        super.visitForExpression(forExpr);
+        // check query rewriters if they can order the input by an index
+        final OrderByClause orderBy = forExpr.getOrderByClause();
+        if (orderBy == null) {
+            return;
+        }
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                final QName variable = QName.parse(context, forExpr.getVariable(), null);
+                final IndexOrdering ordering = rewriter.rewriteOrderBy(variable, orderBy.getOrderSpecs());
+                if (ordering != null) {
+                    forExpr.setIndexOrdering(ordering);
+                    break;
+                }
+            } catch (XPathException e) {
+                LOG.warn("Exception called while rewriting order by clause: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public void visitBuiltinFunction(Function function) {
+        super.visitBuiltinFunction(function);
+        // aggregates which ignore duplicate values may read the distinct values of their
+        // argument from an index
+        final int type;
+        if (function instanceof FunDistinctValues) {
+            // values are compared by codepoint in the index
+            if (function.getArgumentCount() != 1 || context.getDefaultCollator() != null) {
+                return;
+            }
+            type = Type.UNTYPED_ATOMIC;
+        } else if (function instanceof FunMin || function instanceof FunMax) {
+            // untyped values are cast to xs:double
+            type = Type.DOUBLE;
+        } else {
+            return;
+        }
+        Expression arg = function.getArgument(0);
+        if (arg instanceof DynamicTypeCheck) {
+            arg = ((DynamicTypeCheck) arg).getExpression();
+        }
+        if (arg instanceof UntypedValueCheck) {
+            arg = ((UntypedValueCheck) arg).getExpression();
+        }
+        if (!(arg instanceof Atomize)) {
+            return;
+        }
+        final Atomize atomize = (Atomize) arg;
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                final IndexValues values = rewriter.rewriteDistinctValues(atomize.getExpression(), type);
+                if (values != null) {
+                    atomize.setIndexValues(values);
+                    break;
+                }
+            } catch (XPathException e) {
+                LOG.warn("Exception called while rewriting aggregate function: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public void visitPathExpr(PathExpr expression) {
+        super.visitPathExpr(expression);
+        if (expression.getClass() != PathExpr.class || expression.inPredicate) {
+            return;
+        }
+        // replace trailing child and descendant steps like //a//b/c by a single twig join.
+        // The first expression provides the context; steps followed by other steps are not
+        // replaced, since index functions inspect the step preceding them.
+        int first = expression.getLength();
+        while (first > 1 && TwigJoin.isJoinable(expression.getExpression(first - 1))) {
+            first--;
+        }
+        final List<LocationStep> steps = new ArrayList<LocationStep>();
+        boolean hasDescendantStep = false;
+        for (int i = first; i < expression.getLength(); i++) {
+            final LocationStep step = (LocationStep) expression.getExpression(i);
+            hasDescendantStep |= step.getAxis() != Constants.CHILD_AXIS;
+            steps.add(step);
+        }
+        if (steps.size() < 2 || !hasDescendantStep) {
+            return;
+        }
+        hasOptimized = true;
+        final TwigJoin join = new TwigJoin(context, steps);
+        expression.replace(steps.get(0), join);
+        for (int i = 1; i < steps.size(); i++) {
+            expression.remove(steps.get(i));
+        }
+        if (LOG.isTraceEnabled())
+            {LOG.trace("Rewritten expression: " + ExpressionDumper.dump(expression));}
+    }
+
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
 
@@ -224,7 +332,9 @@ public class Optimizer extends DefaultExpressionVisitor {
             try {
                 // Create the pragma
                 final ExtensionExpression extension = new ExtensionExpression(context);
-                extension.addPragma(new Optimize(context, Optimize.OPTIMIZE_PRAGMA, null, false));
+                final Optimize optimizeFilter = new Optimize(context, Optimize.OPTIMIZE_PRAGMA, null, false);
+                optimizeFilter.setEstimatedCardinality(estimatePredicates(preds));
+                extension.addPragma(optimizeFilter);
                 extension.setExpression(filtered);
                 // Replace the old expression with the pragma
                 path.replace(filtered, extension);
@@ -234,6 +344,55 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    /**
+     * Reorder the predicates of a location step so the most selective ones
+     * are evaluated first, using the estimates provided by the {@link CostEstimator}.
+     * The predicates are only reordered if none of them is positional and
+     * an estimate is available for all of them.
+     *
+     * @param step the location step
+     */
+    private void reorderPredicates(LocationStep step) {
+        final List<Predicate> preds = step.getPredicates();
+        if (preds.size() < 2 || !costEstimator.isAvailable()) {
+            return;
+        }
+        final Map<Predicate, Long> estimates = new IdentityHashMap<>();
+        for (final Predicate pred : preds) {
+            if (CostEstimator.isPositional(pred)) {
+                return;
+            }
+            final long estimate = costEstimator.estimateFilter(pred);
+            if (estimate == CostEstimator.UNKNOWN) {
+                return;
+            }
+            estimates.put(pred, estimate);
+        }
+        final List<Predicate> ordered = new ArrayList<>(preds);
+        ordered.sort(Comparator.comparingLong(estimates::get));
+        if (!ordered.equals(preds)) {
+            hasOptimized = true;
+            if (LOG.isDebugEnabled()) {
+                final StringBuilder buf = new StringBuilder();
+                for (final Predicate pred : ordered) {
+                    buf.append(" [").append(ExpressionDumper.dump(pred)).append("] ~")
+                        .append(estimates.get(pred));
+                }
+                LOG.debug("Reordering predicates of step " + step.getTest() + " by estimated selectivity:" + buf);
+            }
+            preds.clear();
+            preds.addAll(ordered);
+        }
+    }
+
+    private long estimatePredicates(List<Predicate> preds) {
+        long estimate = CostEstimator.UNKNOWN;
+        for (final Predicate pred : preds) {
+            estimate = Math.min(estimate, costEstimator.estimateFilter(pred));
+        }
+        return estimate;
+    }
+
     private boolean hasOptimizable(List<Predicate> preds) {
         // walk through the predicates attached to the current location step.
         // try to find a predicate containing an expression which is an instance
@@ -273,14 +432,34 @@ public class Optimizer extends DefaultExpressionVisitor {
                 }
                 predicate = (Predicate) parent;
             }
+            Expression first = and.getLeft();
+            Expression second = and.getRight();
+            // a separate filter would see different context positions
+            if (CostEstimator.isPositional(first) || CostEstimator.isPositional(second)) {
+                if (LOG.isTraceEnabled())
+                    {LOG.trace("Boolean operator has a positional operand: " + ExpressionDumper.dump(and));}
+                return;
+            }
             if (LOG.isTraceEnabled())
                 {LOG.trace("Rewriting boolean expression: " + ExpressionDumper.dump(and));}
             hasOptimized = true;
+            // evaluate the more selective operand first if the estimates allow us to decide
+            if (costEstimator.isAvailable()) {
+                final long leftEstimate = costEstimator.estimateFilter(first);
+                final long rightEstimate = costEstimator.estimateFilter(second);
+                if (leftEstimate != CostEstimator.UNKNOWN && rightEstimate < leftEstimate) {
+                    if (LOG.isDebugEnabled())
+                        {LOG.debug("Swapping operands of boolean and by estimated selectivity: " +
+                            rightEstimate + " < " + leftEstimate);}
+                    first = and.getRight();
+                    second = and.getLeft();
+                }
+            }
             final LocationStep step = (LocationStep) predicate.getParent();
             final Predicate newPred = new Predicate(context);
-            newPred.add(simplifyPath(and.getRight()));
+            newPred.add(simplifyPath(second));
             step.insertPredicate(predicate, newPred);
-            path.replace(and, simplifyPath(and.getLeft()));
+            path.replace(and, simplifyPath(first));
         } else if (and.isRewritable()) {
         	and.getLeft().accept(this);
 			and.getRight().accept(this);
@@ -182,6 +182,7 @@ public class PathExpr extends AbstractExpression implements CompiledXQuery,
                 {contextInfo.setContextStep((Expression) steps.get(i - 1));}
             contextInfo.setParent(this);
             expr.analyze(contextInfo);
+            steps.set(i, ConstantFolding.fold(expr));
         }
     }
 
@@ -36,6 +36,7 @@ import java.io.PrintWriter;
 public class PerformanceStats {
 
     public final static String RANGE_IDX_TYPE = "range";
+    public final static String STRUCTURAL_IDX_TYPE = "structural";
 
     public final static String XML_NAMESPACE = "http://exist-db.org/xquery/profiling";
     public final static String XML_PREFIX = "stats";
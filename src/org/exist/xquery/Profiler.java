@@ -81,6 +81,8 @@ public class Profiler {
 
     private Database db;
 
+    private QueryProfile profile = null;
+
     public Profiler(Database db) {
         this.db = db;
         this.stats = new PerformanceStats(db);
@@ -131,12 +133,30 @@ public class Profiler {
     }
     
     /**
-     * Is profiling enabled?
+     * Is profiling enabled? Returns true if profiling output is
+     * enabled or an execution profile is being collected.
      * 
      * @return True if profiling is enabled
      */
     public final boolean isEnabled() {
-        return enabled;
+        return enabled || profile != null;
+    }
+
+    /**
+     * Start or stop collecting an execution profile. While a profile is set,
+     * all expressions reporting to the profiler are recorded in it, independent of
+     * the logging configuration of the profiler.
+     *
+     * @param profile the profile to collect into, or null to stop collecting
+     * @return the profile which was active before, or null
+     */
+    public final QueryProfile setQueryProfile(QueryProfile profile) {
+        final QueryProfile previous = this.profile;
+        this.profile = profile;
+        if (profile == null && !enabled) {
+            stack.clear();
+        }
+        return previous;
     }
 
     public final boolean isLogEnabled() {
@@ -155,7 +175,7 @@ public class Profiler {
     }
     
     public final boolean traceFunctions() {
-        return stats.isEnabled() || isLogEnabled();
+        return stats.isEnabled() || isLogEnabled() || profile != null;
     }
     
     /**
@@ -192,7 +212,12 @@ public class Profiler {
     }
 
     public final void traceIndexUsage(XQueryContext context, String indexType, Expression expression, int mode, long elapsed) {
-        stats.recordIndexUse(expression, indexType, context.getSource().path(), mode, elapsed);
+        if (stats.isEnabled()) {
+            stats.recordIndexUse(expression, indexType, context.getSource().path(), mode, elapsed);
+        }
+        if (profile != null) {
+            profile.recordIndexUse(expression, indexType, mode);
+        }
     }
 
     private void save() {
@@ -219,8 +244,20 @@ public class Profiler {
      * @param message if not null, contains an optional message to print in the log.
      */
     public final void start(Expression expr, String message) {
-        if (!enabled)
+        if (!isEnabled())
             {return;}
+
+        final ProfiledExpr e = new ProfiledExpr(expr);
+        if (profile != null) {
+            // an expression of an enclosing profile is not the parent within this profile
+            final ProfiledExpr parent = stack.isEmpty() ? null : stack.peek();
+            e.profile = profile;
+            e.stats = profile.enter(expr, parent != null && parent.profile == profile ? parent.stats : null);
+        }
+        if (!enabled) {
+            stack.push(e);
+            return;
+        }
         
         if (stack.size() == 0) {
             log.debug("QUERY START");                
@@ -230,7 +267,6 @@ public class Profiler {
     	for (int i = 0; i < stack.size(); i++)
     		buf.append('\t');             
         
-        final ProfiledExpr e = new ProfiledExpr(expr);
     	stack.push(e);
             
         buf.append("START\t");
@@ -259,7 +295,7 @@ public class Profiler {
      * @param message required: a message to be printed to the log.
      */
     public final void end(Expression expr, String message, Sequence result) {
-        if (!enabled)
+        if (!isEnabled())
             {return;}        
         
         try {         	     	
@@ -270,6 +306,12 @@ public class Profiler {
 			    stack.clear();
 			    return;
 			}
+
+            if (e.stats != null) {
+                e.profile.exit(e.stats, System.nanoTime() - e.startNanos, result);
+            }
+            if (!enabled)
+                {return;}
             
             final long elapsed = System.currentTimeMillis() - e.start;
             
@@ -342,6 +384,12 @@ public class Profiler {
      * @param expr 
      */
     public final void message(Expression expr, int level, String title, Sequence sequence) {
+        if (profile != null && level == START_SEQUENCES && !stack.isEmpty()) {
+            final ProfiledExpr current = stack.peek();
+            if (current.expr == expr && current.profile == profile) {
+                profile.recordInput(current.stats, sequence);
+            }
+        }
     	if (!enabled)
     		{return;}
         if (level > verbosity)
@@ -439,11 +487,16 @@ public class Profiler {
 
     private final static class ProfiledExpr {
         long start;
+        long startNanos;
         Expression expr;
+        // the profile the expression is recorded in, if any
+        QueryProfile profile = null;
+        QueryProfile.ExpressionStats stats = null;
         
         private ProfiledExpr(Expression expression) {
             this.expr = expression;
             this.start = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
         }
     }
 
@@ -0,0 +1,194 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.dom.persistent.VirtualNodeSet;
+import org.exist.xquery.value.Sequence;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution profile of a query, collected by the {@link Profiler} while
+ * profile collection is active (see {@link Profiler#setQueryProfile(QueryProfile)}).
+ *
+ * For every expression which reports to the profiler, the profile records the number of calls,
+ * the time spent, the number of items passed in and returned, and the use of indexes.
+ * Expressions are arranged into a tree reflecting the order in which they were called
+ * for the first time.
+ *
+ * Item counts are not computed for virtual node sets, which would otherwise
+ * be realized by the profiler.
+ */
+public class QueryProfile {
+
+    public final static QName PROFILE_ELEMENT = new QName("profile", PerformanceStats.XML_NAMESPACE, PerformanceStats.XML_PREFIX);
+    public final static QName EXPR_ELEMENT = new QName("expr", PerformanceStats.XML_NAMESPACE, PerformanceStats.XML_PREFIX);
+
+    private final static int MAX_EXPR_LENGTH = 256;
+
+    private final Map<Expression, ExpressionStats> expressions = new IdentityHashMap<>();
+    private final List<ExpressionStats> roots = new ArrayList<>();
+
+    /**
+     * Called by the profiler when evaluation of an expression starts.
+     *
+     * @param expr the expression
+     * @param parent statistics of the calling expression, or null
+     * @return the statistics for the expression
+     */
+    ExpressionStats enter(Expression expr, ExpressionStats parent) {
+        ExpressionStats stats = expressions.get(expr);
+        if (stats == null) {
+            stats = new ExpressionStats(expr);
+            expressions.put(expr, stats);
+            if (parent == null) {
+                roots.add(stats);
+            } else {
+                parent.addChild(stats);
+            }
+        }
+        stats.calls++;
+        stats.active++;
+        return stats;
+    }
+
+    /**
+     * Called by the profiler when evaluation of an expression ends.
+     *
+     * @param stats the statistics returned by {@link #enter(Expression, ExpressionStats)}
+     * @param elapsed the time spent in nanoseconds
+     * @param result the result of the expression
+     */
+    void exit(ExpressionStats stats, long elapsed, Sequence result) {
+        // only count the outermost call of a recursive expression
+        if (--stats.active == 0) {
+            stats.elapsed += elapsed;
+        }
+        if (result instanceof VirtualNodeSet) {
+            stats.uncounted = true;
+        } else if (result != null) {
+            stats.itemsOut += result.getItemCount();
+        }
+    }
+
+    void recordInput(ExpressionStats stats, Sequence input) {
+        if (input instanceof VirtualNodeSet) {
+            stats.uncounted = true;
+        } else if (input != null) {
+            stats.itemsIn += input.getItemCount();
+        }
+    }
+
+    void recordIndexUse(Expression expr, String indexType, int mode) {
+        ExpressionStats stats = expressions.get(expr);
+        if (stats == null) {
+            // expression did not report to the profiler itself
+            stats = new ExpressionStats(expr);
+            expressions.put(expr, stats);
+            roots.add(stats);
+        }
+        stats.indexType = indexType;
+        stats.indexMode = Math.max(stats.indexMode, mode);
+        stats.indexCalls++;
+    }
+
+    public boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    /**
+     * Write the profile as a tree of stats:expr elements into the given builder.
+     *
+     * @param builder the builder to write to
+     */
+    public void toXML(MemTreeBuilder builder) {
+        builder.startElement(PROFILE_ELEMENT, null);
+        for (final ExpressionStats stats : roots) {
+            stats.toXML(builder);
+        }
+        builder.endElement();
+    }
+
+    static class ExpressionStats {
+
+        private final Expression expr;
+        private List<ExpressionStats> children = null;
+
+        private int calls = 0;
+        private int active = 0;
+        private long elapsed = 0;
+        private long itemsIn = 0;
+        private long itemsOut = 0;
+        private boolean uncounted = false;
+
+        private String indexType = null;
+        private int indexMode = PerformanceStats.NO_INDEX;
+        private int indexCalls = 0;
+
+        private ExpressionStats(Expression expr) {
+            this.expr = expr;
+        }
+
+        private void addChild(ExpressionStats child) {
+            if (children == null) {
+                children = new ArrayList<>(4);
+            }
+            children.add(child);
+        }
+
+        private void toXML(MemTreeBuilder builder) {
+            final AttributesImpl attrs = new AttributesImpl();
+            attrs.addAttribute("", "type", "type", "CDATA", expr.getClass().getSimpleName());
+            if (expr.getLine() > -1) {
+                attrs.addAttribute("", "line", "line", "CDATA", Integer.toString(expr.getLine()));
+                attrs.addAttribute("", "column", "column", "CDATA", Integer.toString(expr.getColumn()));
+            }
+            attrs.addAttribute("", "calls", "calls", "CDATA", Integer.toString(calls));
+            attrs.addAttribute("", "elapsed", "elapsed", "CDATA", Double.toString(elapsed / 1000000000.0));
+            if (!uncounted) {
+                attrs.addAttribute("", "items-in", "items-in", "CDATA", Long.toString(itemsIn));
+                attrs.addAttribute("", "items-out", "items-out", "CDATA", Long.toString(itemsOut));
+            }
+            if (indexType != null) {
+                attrs.addAttribute("", "index", "index", "CDATA", indexType);
+                attrs.addAttribute("", "optimization", "optimization", "CDATA", Integer.toString(indexMode));
+                attrs.addAttribute("", "index-calls", "index-calls", "CDATA", Integer.toString(indexCalls));
+            }
+            String code = expr.toString();
+            if (code.length() > MAX_EXPR_LENGTH) {
+                code = code.substring(0, MAX_EXPR_LENGTH) + "...";
+            }
+            attrs.addAttribute("", "expression", "expression", "CDATA", code);
+            builder.startElement(EXPR_ELEMENT, attrs);
+            if (children != null) {
+                for (final ExpressionStats child : children) {
+                    child.toXML(builder);
+                }
+            }
+            builder.endElement();
+        }
+    }
+}
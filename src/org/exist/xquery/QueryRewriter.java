@@ -21,6 +21,8 @@
  */
 package org.exist.xquery;
 
+import org.exist.dom.QName;
+
 /**
  * Base class to be implemented by an index module if it wants to rewrite
  * certain query expressions. Subclasses should overwrite the rewriteXXX methods
@@ -48,6 +50,39 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Check if the input of a "for" clause can be ordered by the index instead of
+     * evaluating and sorting the keys of the "order by" clause following it. The
+     * returned ordering is applied at run time and may still decline, e.g. if the
+     * index configuration does not match.
+     *
+     * @param variable the variable bound by the "for" clause
+     * @param orderSpecs the order specs of the "order by" clause
+     * @return an ordering or null if the order specs are not supported
+     * @throws XPathException
+     */
+    public IndexOrdering rewriteOrderBy(QName variable, OrderSpec[] orderSpecs) throws XPathException {
+        return null;
+    }
+
+    /**
+     * Check if the distinct values of the nodes returned by the expression can be read
+     * from the index instead of atomizing every node. This is used for the arguments of
+     * aggregate functions which ignore duplicate values, like fn:min, fn:max and
+     * fn:distinct-values.
+     *
+     * @param expression the expression returning the nodes to atomize
+     * @param type the type the values are used as: {@link org.exist.xquery.value.Type#UNTYPED_ATOMIC}
+     *             if the values must equal the atomized values, {@link org.exist.xquery.value.Type#DOUBLE}
+     *             if they are cast to xs:double to find the minimum and maximum, in which case
+     *             only the smallest and the largest value need to be returned
+     * @return the index values or null if the expression is not supported
+     * @throws XPathException
+     */
+    public IndexValues rewriteDistinctValues(Expression expression, int type) throws XPathException {
+        return null;
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
@@ -1,7 +1,7 @@
 package org.exist.xquery;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import java.math.BigInteger;
+
 import org.exist.dom.persistent.NodeSet;
 import org.exist.xquery.value.AbstractSequence;
 import org.exist.xquery.value.IntegerValue;
@@ -11,18 +11,54 @@ import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.Type;
 
+/**
+ * The integers between two values, as returned by a range expression. The
+ * items are created on demand.
+ */
 public class RangeSequence extends AbstractSequence {
 
-	private final static Logger LOG = LogManager.getLogger(AbstractSequence.class);
-	
-	private IntegerValue start;
-	private IntegerValue end;
+	private final long start;
+	private final long end;
 	
-	public RangeSequence(IntegerValue start, IntegerValue end) {
+	public RangeSequence(IntegerValue start, IntegerValue end) throws XPathException {
+		this(start.getLong(), end.getLong());
+	}
+
+	public RangeSequence(long start, long end) {
 		this.start = start;
 		this.end = end;
 	}
 
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Computes the sum of all integers in the range without iterating over them.
+	 *
+	 * @return the sum, or 0 if the range is empty
+	 */
+	public IntegerValue sum() {
+		if (start > end)
+			{return IntegerValue.ZERO;}
+		try {
+			final long count = Math.addExact(Math.subtractExact(end, start), 1);
+			final long bounds = Math.addExact(start, end);
+			// one of both factors is even
+			if (count % 2 == 0)
+				{return IntegerValue.valueOf(Math.multiplyExact(count / 2, bounds));}
+			return IntegerValue.valueOf(Math.multiplyExact(count, bounds / 2));
+		} catch (final ArithmeticException e) {
+			final BigInteger count = BigInteger.valueOf(end).subtract(BigInteger.valueOf(start)).add(BigInteger.ONE);
+			return new IntegerValue(count.multiply(BigInteger.valueOf(start).add(BigInteger.valueOf(end)))
+				.shiftRight(1));
+		}
+	}
+
 	public void add(Item item) throws XPathException {
 		throw new XPathException("Internal error: adding to an immutable sequence");
 	}
@@ -37,16 +73,16 @@ public class RangeSequence extends AbstractSequence {
 
     @Override
 	public SequenceIterator iterate() throws XPathException {
-		return new RangeSequenceIterator(start.getLong(), end.getLong());
+		return new RangeSequenceIterator(start, end);
 	}
 
     @Override
 	public SequenceIterator unorderedIterator() throws XPathException {
-		return new RangeSequenceIterator(start.getLong(), end.getLong());
+		return new RangeSequenceIterator(start, end);
 	}
 
     public SequenceIterator iterateInReverse() throws XPathException {
-        return new ReverseRangeSequenceIterator(start.getLong(), end.getLong());
+        return new ReverseRangeSequenceIterator(start, end);
     }
 
 	private static class RangeSequenceIterator implements SequenceIterator {
@@ -60,7 +96,7 @@ public class RangeSequence extends AbstractSequence {
 
 		public Item nextItem() {
             if (current <= end) {
-                return new IntegerValue(current++);
+                return IntegerValue.valueOf(current++);
             } else {
                 return null;
             }
@@ -82,7 +118,7 @@ public class RangeSequence extends AbstractSequence {
 
         public Item nextItem() {
             if (current >= start) {
-                return new IntegerValue(current--);
+                return IntegerValue.valueOf(current--);
             } else {
                 return null;
             }
@@ -94,14 +130,9 @@ public class RangeSequence extends AbstractSequence {
     }
 	
 	public int getItemCount() {
-		if (start.compareTo(end) > 0)
+		if (start > end)
 			{return 0;}
-		try {
-			return ((IntegerValue) end.minus(start)).getInt() + 1;
-		} catch (final XPathException e) {
-			LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			return 0;
-		}
+		return (int) Math.min(end - start + 1, Integer.MAX_VALUE);
 	}
 
 	public boolean isEmpty() {
@@ -117,15 +148,18 @@ public class RangeSequence extends AbstractSequence {
 	}
 
 	public Item itemAt(int pos) {
-		if (pos <= getItemCount())
-			try {
-				return new IntegerValue(start.getLong() + pos);
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			}
+		if (pos > -1 && pos < getItemCount())
+			{return IntegerValue.valueOf(start + pos);}
 		return null;
 	}
 
+	@Override
+	public Sequence tail() throws XPathException {
+		if (getItemCount() < 2)
+			{return Sequence.EMPTY_SEQUENCE;}
+		return new RangeSequence(start + 1, end);
+	}
+
 	public NodeSet toNodeSet() throws XPathException {
 		throw new XPathException("Type error: the sequence cannot be converted into" +
 				" a node set. Item type is xs:integer");
@@ -0,0 +1,303 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import antlr.collections.AST;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.SystemProperties;
+import org.exist.source.Source;
+import org.exist.storage.DBBroker;
+import org.exist.util.FileUtils;
+import org.exist.xquery.parser.XQueryASTSerializer;
+
+/**
+ * Cache for the syntax trees produced by the XQuery parser, shared by all
+ * threads.
+ *
+ * A compiled expression tree keeps state while it is evaluated and can only be
+ * used by one thread at a time, which is why the {@link org.exist.storage.XQueryPool}
+ * has to keep a separate compiled copy for every concurrent execution. The syntax
+ * tree is different: it is never modified after parsing, since the tree parser only
+ * reads it. If the pool has no copy left, a new expression tree can thus be built
+ * from the cached syntax tree, without lexing and parsing the source again. The same
+ * applies to the library modules imported by the query.
+ *
+ * Entries are keyed by {@link Source}. A cached syntax tree is only returned if the
+ * source it was parsed from is still valid compared to the source passed in. The
+ * least recently used entry is dropped if the cache is full.
+ *
+ * If a directory has been set, the syntax trees of stored and file system queries and
+ * modules are also written to disk, so they survive a restart. The files are kept in a
+ * subdirectory for the eXist version, named after a checksum of the source code, and are
+ * loaded on the first cache miss for a source with the same checksum. Queries passed as
+ * strings are not written, since they are often generated on the fly and would fill the
+ * directory.
+ *
+ * Files are never removed while the database is running. When the directory is set on
+ * startup, the subdirectories of other eXist versions are deleted, and the least recently
+ * used files are deleted if there are more than {@link #MAX_FILES}, e.g. because the
+ * stored queries have been changed many times.
+ */
+@ThreadSafe
+public class SyntaxTreeCache {
+
+    private final static Logger LOG = LogManager.getLogger(SyntaxTreeCache.class);
+
+    public static final String PERSISTENT_ATTRIBUTE = "persistent-syntax-trees";
+    public static final String PROPERTY_PERSISTENT = "db-connection.query-pool.persistent-syntax-trees";
+
+    /** name of the directory below the data directory where syntax trees are stored */
+    public static final String DIRECTORY_NAME = "xquery-syntax";
+
+    private final static int MAX_SIZE = 256;
+    final static int MAX_FILES = 1024;
+    private final static String FILE_SUFFIX = ".ast";
+
+    private volatile Path directory = null;
+
+    private final Map<Source, CachedTree> entries = new LinkedHashMap<Source, CachedTree>(64, 0.75f, true) {
+        private static final long serialVersionUID = -2375542166307564567L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Source, CachedTree> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Get the syntax tree parsed from the given source, or null if there is
+     * none or the source has changed since it was parsed.
+     *
+     * @param broker the broker used to check if the source has changed
+     * @param source the source of the query or module
+     * @return the syntax tree or null
+     */
+    public AST get(final DBBroker broker, final Source source) {
+        final CachedTree entry;
+        synchronized (this) {
+            entry = entries.get(source);
+        }
+        if (entry == null) {
+            return load(source);
+        }
+
+        // checking a database source needs a lock on the document:
+        // do not hold onto the cache meanwhile
+        int validity = entry.source.isValid(broker);
+        if (validity == Source.UNKNOWN) {
+            validity = entry.source.isValid(source);
+        }
+        if (validity != Source.VALID) {
+            synchronized (this) {
+                entries.remove(source, entry);
+            }
+            return null;
+        }
+        return entry.ast;
+    }
+
+    /**
+     * Add the syntax tree parsed from the given source. The tree must
+     * not be modified afterwards.
+     *
+     * @param source the source of the query or module
+     * @param ast the syntax tree generated by the parser
+     */
+    public void put(final Source source, final AST ast) {
+        synchronized (this) {
+            entries.put(source, new CachedTree(source, ast));
+        }
+        store(source, ast);
+    }
+
+    /**
+     * Set the directory in which syntax trees are stored, or null
+     * to keep them in memory only. Syntax trees stored by other eXist
+     * versions are deleted.
+     *
+     * @param directory the directory, which is created if it does not exist
+     */
+    public void setDirectory(final Path directory) throws IOException {
+        if (directory == null) {
+            this.directory = null;
+            return;
+        }
+        final Path versionDir = directory.resolve(getVersionName());
+        Files.createDirectories(versionDir);
+        for (final Path path : FileUtils.list(directory)) {
+            if (!path.equals(versionDir)) {
+                FileUtils.deleteQuietly(path);
+            }
+        }
+        evict(versionDir);
+        this.directory = versionDir;
+    }
+
+    /**
+     * Get the directory in which syntax trees of this eXist version
+     * are stored, or null if they are kept in memory only.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Delete left over temporary files and the least recently used
+     * syntax trees beyond {@link #MAX_FILES}.
+     */
+    private static void evict(final Path dir) throws IOException {
+        final Map<Path, FileTime> files = new HashMap<>();
+        for (final Path path : FileUtils.list(dir)) {
+            if (FileUtils.fileName(path).endsWith(FILE_SUFFIX)) {
+                files.put(path, Files.getLastModifiedTime(path));
+            } else {
+                FileUtils.deleteQuietly(path);
+            }
+        }
+        if (files.size() <= MAX_FILES) {
+            return;
+        }
+        final List<Path> sorted = new ArrayList<>(files.keySet());
+        sorted.sort(Comparator.comparing(files::get));
+        for (final Path path : sorted.subList(0, sorted.size() - MAX_FILES)) {
+            FileUtils.deleteQuietly(path);
+        }
+        LOG.info("Deleted " + (sorted.size() - MAX_FILES) + " least recently used syntax trees from " + dir);
+    }
+
+    /**
+     * Get the name of the subdirectory for the syntax trees of this
+     * eXist version.
+     */
+    private static String getVersionName() {
+        final SystemProperties properties = SystemProperties.getInstance();
+        final String version = properties.getSystemProperty("product-version", "unknown") + '-' +
+            properties.getSystemProperty("git-commit", "unknown");
+        return version.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private AST load(final Source source) {
+        final Path file = getFile(source);
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final AST ast = XQueryASTSerializer.read(is);
+            // the modification time tells which files are least recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                entries.put(source, new CachedTree(source, ast));
+            }
+            return ast;
+        } catch (final IOException e) {
+            LOG.warn("Failed to load syntax tree for " + source.path() + " from " + file + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private void store(final Source source, final AST ast) {
+        final Path file = getFile(source);
+        if (file == null || ast == null || Files.exists(file)) {
+            return;
+        }
+        try {
+            // write to a temporary file first: another thread may be loading the same file
+            final Path tmp = Files.createTempFile(file.getParent(), null, FILE_SUFFIX + ".tmp");
+            try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                XQueryASTSerializer.write(ast, os);
+            } catch (final IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOG.warn("Failed to store syntax tree for " + source.path() + " in " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the file for the syntax tree of the source, or null if
+     * the syntax tree should not be written to disk.
+     */
+    private Path getFile(final Source source) {
+        final Path dir = directory;
+        if (dir == null || source.type().startsWith("String")) {
+            return null;
+        }
+        try {
+            final String content = source.getContent();
+            if (content == null) {
+                return null;
+            }
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder();
+            for (final byte b : digest.digest()) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return dir.resolve(name.append(FILE_SUFFIX).toString());
+        } catch (final IOException e) {
+            LOG.debug("Failed to read " + source.path() + ": " + e.getMessage(), e);
+            return null;
+        } catch (final NoSuchAlgorithmException e) {
+            LOG.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private final static class CachedTree {
+        private final Source source;
+        private final AST ast;
+
+        private CachedTree(final Source source, final AST ast) {
+            this.source = source;
+            this.ast = ast;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+
+/**
+ * Implemented by index functions which can directly select the first items of
+ * their result in the order required by an "order by" clause, e.g. the best
+ * matches of a full text query, instead of returning all of them to be sorted.
+ *
+ * A "for" clause whose input is a location step filtered by such a function and
+ * which is followed by an "order by" asks {@link #canOptimizeOrder(QName, OrderSpec[])}
+ * during analysis. If the FLWOR is the argument to fn:subsequence, the number
+ * of items required is known at runtime and passed to {@link #setTopK(int)}
+ * before the input of the "for" is evaluated.
+ */
+public interface TopKOptimizable extends Expression {
+
+    /**
+     * Check if the function can select its items in the order given.
+     *
+     * @param variable the variable of the "for" clause bound to the items
+     * @param orderSpecs the order specs of the "order by" clause
+     * @return true if the order can be computed by the function
+     */
+    boolean canOptimizeOrder(QName variable, OrderSpec[] orderSpecs);
+
+    /**
+     * Restrict the following evaluations to the first k items in the order accepted
+     * by {@link #canOptimizeOrder(QName, OrderSpec[])}. Items which are equal in that
+     * order are selected in document order, like the stable sort of the "order by".
+     *
+     * @param k the number of items to select, or -1 to select all items
+     */
+    void setTopK(int k);
+
+    /**
+     * @return the number of items returned by evaluations since the last
+     * call to {@link #setTopK(int)}
+     */
+    int getTopKCount();
+}
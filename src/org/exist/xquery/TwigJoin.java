@@ -0,0 +1,394 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.exist.dom.persistent.AbstractArrayNodeSet;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.dom.persistent.NodeSetIterator;
+import org.exist.indexing.StructuralIndex;
+import org.exist.numbering.NodeId;
+import org.exist.storage.ElementValue;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+
+/**
+ * Evaluates a series of child and descendant steps with element name tests, e.g.
+ * the steps <code>chapter//section/title</code> in <code>$book//chapter//section/title</code>,
+ * as a single structural join. The steps are created by {@link Optimizer}.
+ *
+ * Evaluating the steps one by one creates a node set for every step, which is
+ * then joined with the nodes selected by the next step. Instead, the join reads the
+ * nodes for every name test from the structural index and merges them in document
+ * order, keeping a stack for every step with the chain of matching ancestors of the
+ * current node (the PathStack algorithm). A node matches a step if the stack of the
+ * previous step contains a parent or ancestor of it. Only the nodes matching the last
+ * step are returned.
+ *
+ * Like {@link LocationStep}, every node selected by a step receives the context of
+ * the nearest matching node of the previous step. If the context needs to be tracked
+ * for a predicate, or a step has been preloaded by an index function, the steps are
+ * evaluated one by one.
+ *
+ * The join reads all nodes with the names of the steps in the context documents,
+ * whatever the size of the context. For small contexts, the steps are evaluated one
+ * by one as well, so every step only scans the descendants of its context nodes.
+ * The same threshold as in {@link LocationStep} is used.
+ */
+public class TwigJoin extends AbstractExpression {
+
+    private final List<LocationStep> steps;
+
+    public TwigJoin(XQueryContext context, List<LocationStep> steps) {
+        super(context);
+        this.steps = new ArrayList<>(steps);
+    }
+
+    /**
+     * Check if the step can be part of a twig join.
+     */
+    public static boolean isJoinable(Expression expr) {
+        if (expr.getClass() != LocationStep.class) {
+            return false;
+        }
+        final LocationStep step = (LocationStep) expr;
+        switch (step.getAxis()) {
+            case Constants.CHILD_AXIS:
+            case Constants.DESCENDANT_AXIS:
+            case Constants.DESCENDANT_SELF_AXIS:
+                break;
+            default:
+                return false;
+        }
+        final NodeTest test = step.getTest();
+        return !step.hasPredicates() && test != null && test.getType() == Type.ELEMENT &&
+            !test.isWildcardTest() && test.getName() != null;
+    }
+
+    public List<LocationStep> getSteps() {
+        return steps;
+    }
+
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        contextId = contextInfo.getContextId();
+        final AnalyzeContextInfo newContext = new AnalyzeContextInfo(contextInfo);
+        newContext.setParent(this);
+        Expression previous = contextInfo.getContextStep();
+        for (final LocationStep step : steps) {
+            if (previous != null) {
+                newContext.setContextStep(previous);
+            }
+            step.analyze(newContext);
+            previous = step;
+        }
+    }
+
+    @Override
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (context.getProfiler().isEnabled()) {
+            context.getProfiler().start(this);
+            if (contextSequence != null) {
+                context.getProfiler().message(this, Profiler.START_SEQUENCES, "CONTEXT SEQUENCE", contextSequence);
+            }
+        }
+        if (contextItem != null) {
+            contextSequence = contextItem.toSequence();
+        }
+        final Sequence result;
+        if (canJoin(contextSequence)) {
+            if (context.getProfiler().isEnabled()) {
+                context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                    "Using twig join on structural index");
+            }
+            final long start = System.currentTimeMillis();
+            result = join(contextSequence.toNodeSet());
+            if (context.getProfiler().traceFunctions()) {
+                context.getProfiler().traceIndexUsage(context, PerformanceStats.STRUCTURAL_IDX_TYPE, this,
+                    PerformanceStats.OPTIMIZED_INDEX, System.currentTimeMillis() - start);
+            }
+        } else {
+            Sequence current = contextSequence;
+            for (final LocationStep step : steps) {
+                context.getWatchDog().proceed(step);
+                current = step.eval(current);
+            }
+            result = current;
+        }
+        if (context.getProfiler().isEnabled()) {
+            context.getProfiler().end(this, "", result);
+        }
+        return result;
+    }
+
+    private boolean canJoin(Sequence contextSequence) throws XPathException {
+        if (contextId != Expression.NO_CONTEXT_ID || contextSequence == null || contextSequence.isEmpty() ||
+                !contextSequence.isPersistentSet()) {
+            return false;
+        }
+        // the join needs the context nodes in document order
+        final NodeSet contextSet = contextSequence.toNodeSet();
+        if (!(contextSet instanceof AbstractArrayNodeSet) ||
+                contextSet.getProcessInReverseOrder() || contextSet.getLength() < LocationStep.INDEX_SCAN_THRESHOLD) {
+            return false;
+        }
+        for (final LocationStep step : steps) {
+            if (step.hasPreloadedData()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private NodeSet join(NodeSet contextSet) {
+        final DocumentSet docs = contextSet.getDocumentSet();
+        final StructuralIndex index = context.getBroker().getStructuralIndex();
+        final int count = steps.size() + 1;
+
+        // stream 0 is the context set, stream i the nodes with the name of step i - 1
+        final NodeSetIterator streams[] = new NodeSetIterator[count];
+        final NodeProxy heads[] = new NodeProxy[count];
+        streams[0] = contextSet.iterator();
+        for (int i = 1; i < count; i++) {
+            final NodeSet nodes = index.findElementsByTagName(ElementValue.ELEMENT, docs,
+                steps.get(i - 1).getTest().getName(), null, this);
+            if (nodes.isEmpty()) {
+                return NodeSet.EMPTY_SET;
+            }
+            streams[i] = nodes.iterator();
+        }
+        for (int i = 0; i < count; i++) {
+            heads[i] = streams[i].hasNext() ? streams[i].next() : null;
+        }
+
+        final NodeStack stacks[] = new NodeStack[count];
+        for (int i = 0; i < count; i++) {
+            stacks[i] = new NodeStack();
+        }
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        int currentDoc = -1;
+        while (true) {
+            // find the next node in document order. If the same node has been selected
+            // for several steps, it is processed for the first step first.
+            int next = -1;
+            for (int i = 0; i < count; i++) {
+                if (heads[i] != null && (next < 0 || compare(heads[i], heads[next]) < 0)) {
+                    next = i;
+                }
+            }
+            if (next < 0 || isExhausted(heads, stacks)) {
+                break;
+            }
+            final NodeProxy node = heads[next];
+            heads[next] = streams[next].hasNext() ? streams[next].next() : null;
+
+            if (node.getOwnerDocument().getDocId() != currentDoc) {
+                currentDoc = node.getOwnerDocument().getDocId();
+                for (final NodeStack stack : stacks) {
+                    stack.clear();
+                }
+            }
+            if (next == 0) {
+                stacks[0].push(node);
+                continue;
+            }
+            final NodeProxy ancestor = stacks[next - 1].findAncestor(node, steps.get(next - 1).getAxis());
+            if (ancestor == null) {
+                continue;
+            }
+            node.copyContext(ancestor);
+            if (next == count - 1) {
+                result.add(node);
+            } else {
+                stacks[next].push(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if no more nodes can match the last step: this is the case if all nodes
+     * selected for a step have been processed and none of them is left on its stack.
+     */
+    private static boolean isExhausted(NodeProxy heads[], NodeStack stacks[]) {
+        final int last = heads.length - 1;
+        if (heads[last] == null) {
+            return true;
+        }
+        for (int i = 0; i < last; i++) {
+            if (heads[i] == null && stacks[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(NodeProxy p1, NodeProxy p2) {
+        final int docId1 = p1.getOwnerDocument().getDocId();
+        final int docId2 = p2.getOwnerDocument().getDocId();
+        if (docId1 != docId2) {
+            return docId1 < docId2 ? -1 : 1;
+        }
+        return p1.getNodeId().compareTo(p2.getNodeId());
+    }
+
+    /**
+     * A chain of nested nodes, the outermost first.
+     */
+    private static class NodeStack {
+
+        private NodeProxy nodes[] = new NodeProxy[16];
+        private int size = 0;
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                nodes[i] = null;
+            }
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(NodeProxy node) {
+            popUnrelated(node.getNodeId());
+            if (size == nodes.length) {
+                final NodeProxy temp[] = new NodeProxy[size << 1];
+                System.arraycopy(nodes, 0, temp, 0, size);
+                nodes = temp;
+            }
+            nodes[size++] = node;
+        }
+
+        /**
+         * Find the node on the stack to which the given node is related via the
+         * axis. For the descendant axes, the nearest ancestor is returned.
+         */
+        NodeProxy findAncestor(NodeProxy node, int axis) {
+            final NodeId nodeId = node.getNodeId();
+            popUnrelated(nodeId);
+            int top = size - 1;
+            if (top > -1 && axis != Constants.DESCENDANT_SELF_AXIS && nodes[top].getNodeId().equals(nodeId)) {
+                --top;
+            }
+            if (top < 0) {
+                return null;
+            }
+            if (axis == Constants.CHILD_AXIS && nodeId.computeRelation(nodes[top].getNodeId()) != NodeId.IS_CHILD) {
+                return null;
+            }
+            return nodes[top];
+        }
+
+        /**
+         * Remove all nodes which are not ancestors of the given node. The nodes
+         * are processed in document order, so they can not be ancestors of any
+         * following node either.
+         */
+        private void popUnrelated(NodeId nodeId) {
+            while (size > 0) {
+                final NodeId ancestorId = nodes[size - 1].getNodeId();
+                // the document node is not part of the ids of its descendants
+                if (ancestorId == NodeId.DOCUMENT_NODE || nodeId.isDescendantOrSelfOf(ancestorId)) {
+                    break;
+                }
+                nodes[--size] = null;
+            }
+        }
+    }
+
+    @Override
+    public void dump(ExpressionDumper dumper) {
+        for (int i = 0; i < steps.size(); i++) {
+            if (i > 0) {
+                dumper.display('/');
+            }
+            steps.get(i).dump(dumper);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < steps.size(); i++) {
+            if (i > 0) {
+                result.append('/');
+            }
+            result.append(steps.get(i).toString());
+        }
+        return result.toString();
+    }
+
+    @Override
+    public int returnsType() {
+        return Type.ELEMENT;
+    }
+
+    @Override
+    public int getCardinality() {
+        return Cardinality.ZERO_OR_MORE;
+    }
+
+    @Override
+    public int getDependencies() {
+        return steps.get(0).getDependencies();
+    }
+
+    @Override
+    public void setContextDocSet(DocumentSet contextSet) {
+        super.setContextDocSet(contextSet);
+        for (final LocationStep step : steps) {
+            step.setContextDocSet(contextSet);
+        }
+    }
+
+    @Override
+    public void setPrimaryAxis(int axis) {
+        steps.get(0).setPrimaryAxis(axis);
+    }
+
+    @Override
+    public int getPrimaryAxis() {
+        return steps.get(0).getPrimaryAxis();
+    }
+
+    @Override
+    public void resetState(boolean postOptimization) {
+        super.resetState(postOptimization);
+        for (final LocationStep step : steps) {
+            step.resetState(postOptimization);
+        }
+    }
+
+    @Override
+    public void accept(ExpressionVisitor visitor) {
+        for (final LocationStep step : steps) {
+            step.accept(visitor);
+        }
+    }
+}
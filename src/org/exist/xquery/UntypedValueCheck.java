@@ -57,6 +57,14 @@ public class UntypedValueCheck extends AbstractExpression {
         }
         this.error = error;
 	}
+
+	public Expression getExpression() {
+		return expression;
+	}
+
+	public int getRequiredType() {
+		return requiredType;
+	}
 	
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.AnalyzeContextInfo)
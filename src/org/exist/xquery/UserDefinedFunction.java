@@ -108,6 +108,7 @@ public class UserDefinedFunction extends Function implements Cloneable {
 				contextInfo.setParent(this);
 				if (!bodyAnalyzed) {
 					body.analyze(contextInfo);
+					body = ConstantFolding.fold(body);
 					bodyAnalyzed = true;
 				}
 			} finally {
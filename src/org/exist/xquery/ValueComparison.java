@@ -123,6 +123,11 @@ public class ValueComparison extends GeneralComparison {
 	public static boolean compareAtomic(Collator collator, AtomicValue lv, AtomicValue rv, StringTruncationOperator truncation, Comparison relation) throws XPathException {
 		int ltype = lv.getType();
 		int rtype = rv.getType();
+		if (ltype == rtype && truncation == StringTruncationOperator.NONE &&
+				(ltype == Type.INTEGER || ltype == Type.DOUBLE || ltype == Type.STRING)) {
+			//Fast path: operands of the same primitive type need no promotion
+			return lv.compareTo(collator, relation, rv);
+		}
 		if (ltype == Type.UNTYPED_ATOMIC) {
 			//If the atomized operand is of type xs:untypedAtomic, it is cast to xs:string.
 			lv = lv.convertTo(Type.STRING);
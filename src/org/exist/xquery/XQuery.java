@@ -42,6 +42,7 @@ import org.exist.source.FileSource;
 import org.exist.source.Source;
 import org.exist.source.StringSource;
 import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryPool;
 import org.exist.xquery.parser.XQueryLexer;
 import org.exist.xquery.parser.XQueryParser;
 import org.exist.xquery.parser.XQueryTreeParser;
@@ -56,6 +57,8 @@ import org.exist.xquery.value.Sequence;
 public class XQuery {
 
     private final static Logger LOG = LogManager.getLogger(XQuery.class);
+
+    private final SyntaxTreeCache syntaxTreeCache = new SyntaxTreeCache();
     
     public CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final String expression) throws XPathException, PermissionDeniedException {
     	final Source source = new StringSource(expression);
@@ -74,18 +77,14 @@ public class XQuery {
     public CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final Source source, final boolean xpointer) throws XPathException, IOException, PermissionDeniedException {
 
         context.setSource(source);
-
-        try(final Reader reader = source.getReader()) {
-            return compile(broker, context, reader, xpointer);
-        } catch(final UnsupportedEncodingException e) {
-            throw new XPathException(ErrorCodes.XQST0087, "unsupported encoding " + e.getMessage());
-        }
+        return compile(broker, context, xpointer);
     }
     
-    private CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final Reader reader, final boolean xpointer) throws XPathException, PermissionDeniedException {
+    private CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final boolean xpointer) throws XPathException, IOException, PermissionDeniedException {
         
         //check read permission
-        context.getSource().validate(broker.getCurrentSubject(), Permission.READ);
+        final Source source = context.getSource();
+        source.validate(broker.getCurrentSubject(), Permission.READ);
         
         
     	//TODO: move XQueryContext.getUserFromHttpSession() here, have to check if servlet.jar is in the classpath
@@ -100,24 +99,15 @@ public class XQuery {
     	 */
     	
     	final long start = System.currentTimeMillis();
-        final XQueryLexer lexer = new XQueryLexer(context, reader);
-        final XQueryParser parser = new XQueryParser(lexer);
         final XQueryTreeParser treeParser = new XQueryTreeParser(context);
         try {
-            if(xpointer) {
-                parser.xpointer();
-            } else {
-                parser.xpath();
-            }
-            
-            if(parser.foundErrors()) {
-            	LOG.debug(parser.getErrorMessage());
-            	throw new StaticXQueryException(parser.getErrorMessage());
-            }
-
-            final AST ast = parser.getAST();
+            // the syntax tree is not modified by the tree parser and can be reused
+            AST ast = xpointer ? null : syntaxTreeCache.get(broker, source);
             if(ast == null) {
-                throw new XPathException("Unknown XQuery parser error: the parser returned an empty syntax tree.");
+                ast = parse(context, source, xpointer);
+                if(!xpointer) {
+                    syntaxTreeCache.put(source, ast);
+                }
             }
             
 //            LOG.debug("Generated AST: " + ast.toStringTree());
@@ -146,9 +136,15 @@ public class XQuery {
                 }
             }
             
+            final long compilationTime = System.currentTimeMillis() - start;
+            context.setCompilationTime(compilationTime);
+            final XQueryPool pool = broker.getBrokerPool().getXQueryPool();
+            if (pool != null) {
+                pool.compiled(compilationTime);
+            }
             if (LOG.isDebugEnabled()) {
             	final NumberFormat nf = NumberFormat.getNumberInstance();
-            	LOG.debug("Compilation took "  +  nf.format(System.currentTimeMillis() - start) + " ms");
+            	LOG.debug("Compilation took "  +  nf.format(compilationTime) + " ms");
             }
             
             return expr;
@@ -176,6 +172,39 @@ public class XQuery {
     }
     
     
+    private AST parse(final XQueryContext context, final Source source, final boolean xpointer) throws XPathException, IOException, RecognitionException, TokenStreamException {
+        try(final Reader reader = source.getReader()) {
+            final XQueryLexer lexer = new XQueryLexer(context, reader);
+            final XQueryParser parser = new XQueryParser(lexer);
+            if(xpointer) {
+                parser.xpointer();
+            } else {
+                parser.xpath();
+            }
+            
+            if(parser.foundErrors()) {
+            	LOG.debug(parser.getErrorMessage());
+            	throw new StaticXQueryException(parser.getErrorMessage());
+            }
+
+            final AST ast = parser.getAST();
+            if(ast == null) {
+                throw new XPathException("Unknown XQuery parser error: the parser returned an empty syntax tree.");
+            }
+            return ast;
+        } catch(final UnsupportedEncodingException e) {
+            throw new XPathException(ErrorCodes.XQST0087, "unsupported encoding " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the cache for the syntax trees of the queries and library modules
+     * compiled by this instance.
+     */
+    public SyntaxTreeCache getSyntaxTreeCache() {
+        return syntaxTreeCache;
+    }
+    
     public Sequence execute(final DBBroker broker, final CompiledXQuery expression, final Sequence contextSequence) throws XPathException, PermissionDeniedException {
     	return execute(broker, expression, contextSequence, null);
     }
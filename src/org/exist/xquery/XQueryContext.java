@@ -303,6 +303,9 @@ public class XQueryContext implements BinaryValueManager, Context
     private boolean                                    isShared                      = false;
 
     private Source source = null;
+
+    /** time it took to compile the main module in milliseconds */
+    private long compilationTime = 0;
     
     private DebuggeeJoint                              debuggeeJoint                 = null;
 
@@ -2862,18 +2865,24 @@ public class XQueryContext implements BinaryValueManager, Context
         setModule(namespaceURI, modExternal);
         final XQueryContext    modContext = new ModuleContext( this, prefix, namespaceURI, location );
         modExternal.setContext( modContext );
-        final XQueryLexer      lexer      = new XQueryLexer( modContext, reader );
-        final XQueryParser     parser     = new XQueryParser( lexer );
         final XQueryTreeParser astParser  = new XQueryTreeParser( modContext, modExternal );
+        final SyntaxTreeCache  astCache   = getBroker().getBrokerPool().getXQueryService().getSyntaxTreeCache();
 
         try {
-            parser.xpath();
+            AST ast = astCache.get( getBroker(), source );
+
+            if( ast == null ) {
+                final XQueryLexer  lexer  = new XQueryLexer( modContext, reader );
+                final XQueryParser parser = new XQueryParser( lexer );
+                parser.xpath();
 
-            if( parser.foundErrors() ) {
-                LOG.debug( parser.getErrorMessage() );
-                throw( new XPathException( "error found while loading module from " + location + ": " + parser.getErrorMessage() ) );
+                if( parser.foundErrors() ) {
+                    LOG.debug( parser.getErrorMessage() );
+                    throw( new XPathException( "error found while loading module from " + location + ": " + parser.getErrorMessage() ) );
+                }
+                ast = parser.getAST();
+                astCache.put( source, ast );
             }
-            final AST      ast  = parser.getAST();
 
             final PathExpr path = new PathExpr( modContext );
             astParser.xpath( ast, path );
@@ -3562,6 +3571,14 @@ public class XQueryContext implements BinaryValueManager, Context
         this.source = source;
     }
 
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+
+    public void setCompilationTime(final long compilationTime) {
+        this.compilationTime = compilationTime;
+    }
+
 
     // ====================================================================================
 
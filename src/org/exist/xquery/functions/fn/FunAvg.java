@@ -31,6 +31,7 @@ import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
+import org.exist.xquery.RangeSequence;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
@@ -92,6 +93,10 @@ public class FunAvg extends Function {
         final Sequence inner = getArgument(0).eval(contextSequence, contextItem);
         if (inner.isEmpty()) {
             result = Sequence.EMPTY_SEQUENCE;
+        } else if (inner instanceof RangeSequence) {
+            final RangeSequence range = (RangeSequence) inner;
+            result = range.sum().div(
+                IntegerValue.valueOf(range.getEnd() - range.getStart() + 1));
         } else {
             final SequenceIterator iter = inner.iterate();
             Item item = iter.nextItem();
@@ -106,9 +111,25 @@ public class FunAvg extends Function {
             }
             //Set the first value
             ComputableValue sum = (ComputableValue) value;
+            //Integers are added up as long until the first value of
+            //another type or an overflow, see FunSum
+            boolean addLongs = sum instanceof IntegerValue && ((IntegerValue) sum).isLong();
+            long longSum = addLongs ? ((IntegerValue) sum).getLong() : 0;
             while (iter.hasNext()) {
                 item = iter.nextItem();
                 value = item.atomize();
+                if (addLongs) {
+                    if (value instanceof IntegerValue && ((IntegerValue) value).isLong()) {
+                        final long v = ((IntegerValue) value).getLong();
+                        final long r = longSum + v;
+                        if (((longSum ^ r) & (v ^ r)) >= 0) {
+                            longSum = r;
+                            continue;
+                        }
+                    }
+                    sum = FunSum.toInteger(longSum, sum.getType());
+                    addLongs = false;
+                }
                 //Any value of type xdt:untypedAtomic are cast to xs:double
                 if (value.getType() == Type.UNTYPED_ATOMIC) 
                     {value = value.convertTo(Type.DOUBLE);}
@@ -133,7 +154,9 @@ public class FunAvg extends Function {
                     throw new XPathException(this, ErrorCodes.FORG0006, e.getMessage());
                 }
             }
-            result = sum.div(new IntegerValue(inner.getItemCount()));
+            if (addLongs)
+                {sum = FunSum.toInteger(longSum, sum.getType());}
+            result = sum.div(IntegerValue.valueOf(inner.getItemCount()));
         }
         if (!gotInfinity) {
             if (Type.subTypeOf(result.getItemType(), Type.NUMBER) &&
@@ -12,6 +12,7 @@ import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xquery.value.VirtualSequence;
 
 public class FunHigherOrderFun extends BasicFunction {
 
@@ -190,6 +191,8 @@ public class FunHigherOrderFun extends BasicFunction {
                 result = foldRightNonRecursive(ref, zero, ((ValueSequence) seq).iterateInReverse(), contextSequence);
             } else if(seq instanceof RangeSequence) {
                 result = foldRightNonRecursive(ref, zero, ((RangeSequence)seq).iterateInReverse(), contextSequence);
+            } else if(seq instanceof VirtualSequence) {
+                result = foldRightNonRecursive(ref, zero, ((VirtualSequence)seq).iterateInReverse(), contextSequence);
             } else {
                 result = foldRight(ref, zero, seq, contextSequence);
             }
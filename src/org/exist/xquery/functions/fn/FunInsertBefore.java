@@ -28,14 +28,17 @@ import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.ConcatSequence;
 import org.exist.xquery.value.DoubleValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.SubSequence;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xquery.value.VirtualSequence;
 
 /**
  * Implements the fn:insert-before function.
@@ -100,17 +103,29 @@ public class FunInsertBefore extends Function {
     		int pos = 
     			((DoubleValue)getArgument(1).eval(contextSequence, contextItem).convertTo(Type.DOUBLE)).getInt();
     		pos--;
-    		result = new ValueSequence();
-    		if (pos <= 0) {
-    			result.addAll(seq2);
-    			result.addAll(seq1);
-    		} else if (pos >= seq1.getItemCount()) {
-    			result.addAll(seq1);
-    			result.addAll(seq2);
+    		if (VirtualSequence.isSupported(seq1) && VirtualSequence.isSupported(seq2)) {
+    			final int count = seq1.getItemCount();
+    			if (pos <= 0) {
+    				result = new ConcatSequence(seq2, seq1);
+    			} else if (pos >= count) {
+    				result = new ConcatSequence(seq1, seq2);
+    			} else {
+    				result = new ConcatSequence(new SubSequence(seq1, 0, pos), seq2,
+    					new SubSequence(seq1, pos, count));
+    			}
     		} else {
-    			for (int i=0; i<seq1.getItemCount(); i++) {
-    				if (i == pos) {result.addAll(seq2);}
-    				result.add(seq1.itemAt(i));
+    			result = new ValueSequence();
+    			if (pos <= 0) {
+    				result.addAll(seq2);
+    				result.addAll(seq1);
+    			} else if (pos >= seq1.getItemCount()) {
+    				result.addAll(seq1);
+    				result.addAll(seq2);
+    			} else {
+    				for (int i=0; i<seq1.getItemCount(); i++) {
+    					if (i == pos) {result.addAll(seq2);}
+    					result.add(seq1.itemAt(i));
+    				}
     			}
     		}
         }
@@ -31,6 +31,7 @@ import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
+import org.exist.xquery.RangeSequence;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
@@ -40,6 +41,7 @@ import org.exist.xquery.value.DurationValue;
 import org.exist.xquery.value.FloatValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.QNameValue;
@@ -141,6 +143,8 @@ public class FunMin extends CollatingFunction {
 		final Sequence arg = getArgument(0).eval(contextSequence, contextItem);
 		if (arg.isEmpty())
 			{result = Sequence.EMPTY_SEQUENCE;}
+        else if (arg instanceof RangeSequence)
+            {result = IntegerValue.valueOf(((RangeSequence) arg).getStart());}
         else {
         	//TODO : test if a range index is defined *iff* it is compatible with the collator
     		final Collator collator = getCollator(contextSequence, contextItem, 2);
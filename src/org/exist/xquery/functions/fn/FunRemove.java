@@ -31,14 +31,17 @@ import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.ConcatSequence;
 import org.exist.xquery.value.DoubleValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.SubSequence;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xquery.value.VirtualSequence;
 
 /**
  * Implements the fn:remove function.
@@ -90,7 +93,10 @@ public class FunRemove extends Function {
                 {result= seq;}
             else {
         		pos--;
-        		if (seq instanceof NodeSet) {
+        		if (VirtualSequence.isSupported(seq)) {
+        			result = new ConcatSequence(new SubSequence(seq, 0, pos),
+        				new SubSequence(seq, pos + 1, seq.getItemCount()));
+        		} else if (seq instanceof NodeSet) {
         			result = new ExtArrayNodeSet();
         			result.addAll((NodeSet) seq);
         			result = ((NodeSet)result).except((NodeSet) seq.itemAt(pos));
@@ -26,11 +26,13 @@ import org.exist.xquery.*;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.ReverseSequence;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xquery.value.VirtualSequence;
 
 /**
  * Implements the fn:reverse function.
@@ -78,6 +80,10 @@ public class FunReverse extends Function {
         final Sequence seq = getArguments(contextSequence, contextItem)[0];
 		if (seq.isEmpty()) 
             {result = Sequence.EMPTY_SEQUENCE;}
+        else if (seq.hasOne())
+            {result = seq;}
+        else if (VirtualSequence.isSupported(seq))
+            {result = new ReverseSequence(seq);}
         else {
                 final Sequence tmp = new ValueSequence();
                 Item item;
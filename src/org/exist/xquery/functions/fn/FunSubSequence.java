@@ -32,8 +32,10 @@ import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.SubSequence;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xquery.value.VirtualSequence;
 
 /**
  * Implements the fn:subsequence function.
@@ -72,6 +74,9 @@ public class FunSubSequence extends Function {
         super(context, signature);
     }
 
+    // FLWOR expression in the first argument which can compute only the items needed
+    private ForExpr limitable = null;
+
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         // statically check the argument list
         checkArguments();
@@ -87,6 +92,17 @@ public class FunSubSequence extends Function {
             if (i == 0)
                 {contextInfo.setStaticReturnType(argContextInfo.getStaticReturnType());}
         }
+
+        limitable = null;
+        if (getArgumentCount() == 3) {
+            Expression source = getArgument(0).simplify();
+            if (source instanceof DebuggableExpression) {
+                source = ((DebuggableExpression) source).getFirst().simplify();
+            }
+            if (source instanceof ForExpr && ((ForExpr) source).canLimit()) {
+                limitable = (ForExpr) source;
+            }
+        }
     }
 
     /*
@@ -110,20 +126,28 @@ public class FunSubSequence extends Function {
         }
 
         Sequence result;
-        final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+        final Sequence seq;
+        int start;
+        int length = Integer.MAX_VALUE;
+        if (limitable != null) {
+            // evaluate the positions first, so the FLWOR only needs to compute the items up to the end
+            start = getStart(contextSequence, contextItem);
+            length = getLength(contextSequence, contextItem);
+            final long end = start <= 0 ? (long) length + start - 1 : (long) start - 1 + length;
+            if (end > 0 && end < Integer.MAX_VALUE) {
+                limitable.setLimit((int) end);
+            }
+            seq = getArgument(0).eval(contextSequence, contextItem);
+        } else {
+            seq = getArgument(0).eval(contextSequence, contextItem);
+            start = seq.isEmpty() ? 0 : getStart(contextSequence, contextItem);
+            if (!seq.isEmpty() && getSignature().getArgumentCount() == 3) {
+                length = getLength(contextSequence, contextItem);
+            }
+        }
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
-            int start = ((DoubleValue) getArgument(1).eval(contextSequence,
-                    contextItem).convertTo(Type.DOUBLE)).getInt();
-
-            int length = Integer.MAX_VALUE;
-            if (getSignature().getArgumentCount() == 3) {
-                length = ((DoubleValue) getArgument(2).eval(
-                        contextSequence, contextItem)
-                        .convertTo(Type.DOUBLE)).getInt();
-            }
-
             // TODO : exception? -pb
             if (start < 0) {
                 length = length + start - 1;
@@ -133,7 +157,24 @@ public class FunSubSequence extends Function {
                 --start;
             } else
             	{--start;}
-                        
+
+            if (VirtualSequence.isSupported(seq)) {
+                // return a view on the items instead of copying them
+                final int count = seq.getItemCount();
+                final int from = Math.max(start, 0);
+                final int to = (int) Math.min((long) from + length, count);
+                if (to <= from) {
+                    result = Sequence.EMPTY_SEQUENCE;
+                } else if (from == 0 && to == count) {
+                    result = seq;
+                } else {
+                    result = new SubSequence(seq, from, to);
+                }
+                if (context.getProfiler().isEnabled())
+                    {context.getProfiler().end(this, "", result);}
+                return result;
+            }
+
             Sequence tmp;
             if (seq instanceof NodeSet) {
                 tmp = new ExtArrayNodeSet();
@@ -165,4 +206,14 @@ public class FunSubSequence extends Function {
 
     }
 
+    private int getStart(Sequence contextSequence, Item contextItem) throws XPathException {
+        return ((DoubleValue) getArgument(1).eval(contextSequence,
+                contextItem).convertTo(Type.DOUBLE)).getInt();
+    }
+
+    private int getLength(Sequence contextSequence, Item contextItem) throws XPathException {
+        return ((DoubleValue) getArgument(2).eval(
+                contextSequence, contextItem)
+                .convertTo(Type.DOUBLE)).getInt();
+    }
 }
@@ -21,6 +21,8 @@
  */
 package org.exist.xquery.functions.fn;
 
+import java.math.BigInteger;
+
 import org.exist.dom.QName;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
@@ -28,6 +30,7 @@ import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
+import org.exist.xquery.RangeSequence;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
@@ -97,6 +100,8 @@ public class FunSum extends Function {
 			if(getSignature().getArgumentCount() == 2)
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
+		} else if (inner instanceof RangeSequence) {
+			result = ((RangeSequence) inner).sum();
 		} else {
     		final SequenceIterator iter = inner.iterate();
     		Item item = iter.nextItem();
@@ -106,10 +111,27 @@ public class FunSum extends Function {
     		
     		//Set the first value
     		ComputableValue sum = (ComputableValue) value;
+    		//Integers are added up as long, without creating intermediate values,
+    		//until the first value of another type or an overflow
+    		boolean addLongs = sum instanceof IntegerValue && ((IntegerValue) sum).isLong();
+    		long longSum = addLongs ? ((IntegerValue) sum).getLong() : 0;
     		while (iter.hasNext()) {
     			item = iter.nextItem();
     			value = item.atomize();
 
+    			if (addLongs) {
+    				if (value instanceof IntegerValue && ((IntegerValue) value).isLong()) {
+    					final long v = ((IntegerValue) value).getLong();
+    					final long r = longSum + v;
+    					if (((longSum ^ r) & (v ^ r)) >= 0) {
+    						longSum = r;
+    						continue;
+    					}
+    				}
+    				sum = toInteger(longSum, sum.getType());
+    				addLongs = false;
+    			}
+
             	value = check(value, sum);
     			
         		if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
@@ -124,6 +146,8 @@ public class FunSum extends Function {
     			//Aggregate next values
     			sum = sum.plus((ComputableValue) value);
     		}
+    		if (addLongs)
+    			{sum = toInteger(longSum, sum.getType());}
     		result = sum;
         }
         
@@ -140,6 +164,10 @@ public class FunSum extends Function {
         return result;        
 	}
 	
+	static IntegerValue toInteger(long value, int type) {
+		return type == Type.INTEGER ? IntegerValue.valueOf(value) : new IntegerValue(BigInteger.valueOf(value), type);
+	}
+
 	private AtomicValue check(AtomicValue value, ComputableValue sum) throws XPathException {
 		//Duration values must either all be xs:yearMonthDuration values or must all be xs:dayTimeDuration values.
 		if (Type.subTypeOf(value.getType(), Type.DURATION)) {
@@ -0,0 +1,217 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.functions.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryPool;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+/**
+ * Evaluates an expression against a set of stored nodes in parallel.
+ *
+ * The input is split into partitions at document boundaries. Every partition is
+ * evaluated by a separate thread, using its own broker and its own compiled copy of
+ * the expression (taken from the {@link XQueryPool}), so no state is shared between
+ * the threads. If all partial results are stored nodes, they are merged into
+ * document order.
+ */
+public class ParallelEval extends BasicFunction {
+
+    public final static FunctionSignature signature =
+        new FunctionSignature(
+            new QName("eval-parallel", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            "Dynamically evaluates an XPath/XQuery expression against the nodes passed in $context, " +
+            "like util:eval-inline. The nodes are partitioned by document and the partitions are " +
+            "evaluated in parallel. The expression is compiled into a new context: it does not see " +
+            "the variables, functions or namespaces declared by the calling query. If all results " +
+            "are stored nodes, they are returned in document order. The number of parallel threads " +
+            "can be set with the evalParallelism parameter of the util module in conf.xml.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("context", Type.NODE, Cardinality.ZERO_OR_MORE, "The nodes to evaluate the expression against"),
+                new FunctionParameterSequenceType("expression", Type.STRING, Cardinality.EXACTLY_ONE, "The expression to be evaluated")
+            },
+            new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "the results of the evaluated XPath/XQuery expression"));
+
+    public ParallelEval(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final UtilModule module = (UtilModule) getParentModule();
+        if (module.isEvalDisabled()) {
+            throw new XPathException(this, "util:eval has been disabled by the eXist administrator in conf.xml");
+        }
+        final String query = args[1].getStringValue();
+        if (args[0].isEmpty() || query.trim().isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+        final Source source = new StringSource(query);
+        final BrokerPool db = context.getBroker().getBrokerPool();
+
+        final int parallelism = getParallelism(module, db);
+        final List<Sequence> partitions = partition(args[0], parallelism);
+        if (partitions.size() < 2) {
+            return evalPartition(context.getBroker(), source, args[0]);
+        }
+
+        final Subject subject = context.getSubject();
+        final List<Callable<Sequence>> tasks = new ArrayList<>(partitions.size());
+        for (final Sequence partition : partitions) {
+            tasks.add(() -> {
+                try (final DBBroker broker = db.get(Optional.ofNullable(subject))) {
+                    return evalPartition(broker, source, partition);
+                }
+            });
+        }
+
+        final List<Sequence> results = new ArrayList<>(partitions.size());
+        boolean allNodes = true;
+        try {
+            for (final Future<Sequence> future : db.getParallelEvalPool(module.getEvalParallelism()).invokeAll(tasks)) {
+                final Sequence result = future.get();
+                allNodes = allNodes && (result.isEmpty() || result.isPersistentSet());
+                results.add(result);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException(this, "Parallel evaluation was interrupted");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof XPathException) {
+                final XPathException xpe = (XPathException) cause;
+                xpe.prependMessage("Error while evaluating expression: " + query + ". ");
+                throw xpe;
+            }
+            throw new XPathException(this, "Error while evaluating expression: " + query + ". " + cause.getMessage(), cause);
+        }
+        return merge(results, allNodes);
+    }
+
+    /**
+     * Every parallel task needs its own broker: do not use more threads
+     * than there are brokers left.
+     */
+    static int getParallelism(UtilModule module, BrokerPool db) {
+        return Math.min(module.getEvalParallelism(), db.getMax() - db.countActiveBrokers());
+    }
+
+    /**
+     * Split the input into at most maxPartitions partitions of about equal
+     * numbers of documents. Sequences which are not stored nodes are not partitioned.
+     */
+    private List<Sequence> partition(Sequence input, int maxPartitions) throws XPathException {
+        final List<Sequence> partitions = new ArrayList<>(Math.max(1, maxPartitions));
+        if (maxPartitions < 2 || !input.isPersistentSet()) {
+            partitions.add(input);
+            return partitions;
+        }
+        final NodeSet nodes = input.toNodeSet();
+        final int documents = nodes.getDocumentSet().getDocumentCount();
+        if (documents < 2) {
+            partitions.add(input);
+            return partitions;
+        }
+        final int documentsPerPartition = (documents + maxPartitions - 1) / maxPartitions;
+        NodeSet partition = null;
+        DocumentImpl lastDoc = null;
+        int count = 0;
+        for (final NodeProxy node : nodes) {
+            if (node.getOwnerDocument() != lastDoc) {
+                lastDoc = node.getOwnerDocument();
+                if (count++ % documentsPerPartition == 0) {
+                    partition = new NewArrayNodeSet();
+                    partitions.add(partition);
+                }
+            }
+            partition.add(node);
+        }
+        return partitions;
+    }
+
+    private Sequence evalPartition(DBBroker broker, Source source, Sequence partition) throws XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final XQueryPool pool = broker.getBrokerPool().getXQueryPool();
+        CompiledXQuery compiled = null;
+        try {
+            compiled = pool.borrowCompiledXQuery(broker, source);
+            if (compiled == null) {
+                compiled = xquery.compile(broker, new XQueryContext(broker.getBrokerPool()), source);
+            }
+            // absolute paths in the expression should only see the documents of the partition
+            compiled.getContext().setStaticallyKnownDocuments(partition.getDocumentSet());
+            return xquery.execute(broker, compiled, partition);
+        } catch (final IOException | PermissionDeniedException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        } finally {
+            if (compiled != null) {
+                pool.returnCompiledXQuery(source, compiled);
+            }
+        }
+    }
+
+    private Sequence merge(List<Sequence> results, boolean allNodes) throws XPathException {
+        if (allNodes) {
+            final NodeSet merged = new NewArrayNodeSet();
+            for (final Sequence result : results) {
+                if (!result.isEmpty()) {
+                    merged.addAll(result.toNodeSet());
+                }
+            }
+            return merged;
+        }
+        final ValueSequence merged = new ValueSequence();
+        for (final Sequence result : results) {
+            merged.addAll(result);
+        }
+        return merged;
+    }
+}
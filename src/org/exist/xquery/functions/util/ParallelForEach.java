@@ -0,0 +1,221 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.functions.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.exist.dom.QName;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.AnalyzeContextInfo;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.Function;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.Module;
+import org.exist.xquery.ModuleContext;
+import org.exist.xquery.UserDefinedFunction;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReference;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+/**
+ * Parallel version of fn:for-each.
+ *
+ * Expression trees keep state while they are evaluated and can not be shared
+ * between threads. Every worker thread therefore compiles its own call to the
+ * function, using its own broker and context. This is only possible for functions
+ * which can be referenced by name from a new query: built-in functions and
+ * functions declared in library modules. Anonymous functions, closures and functions
+ * declared in the main module are applied sequentially, like fn:for-each does.
+ *
+ * The input is split into consecutive chunks, one per worker. The results are returned
+ * in input order. If the function fails for several items, the error raised for the first
+ * of them is reported.
+ */
+public class ParallelForEach extends BasicFunction {
+
+    private final static String ITEM_VARIABLE = "item";
+
+    public final static FunctionSignature signature =
+        new FunctionSignature(
+            new QName("for-each-parallel", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            "Applies the function item $function to every item from the sequence $sequence, " +
+            "returning the concatenation of the resulting sequences in order, like fn:for-each. " +
+            "The items are processed in parallel if $function is a built-in function or a function " +
+            "declared in a library module; otherwise they are processed sequentially. " +
+            "The number of parallel threads can be set with the evalParallelism parameter " +
+            "of the util module in conf.xml.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("sequence", Type.ITEM, Cardinality.ZERO_OR_MORE, "the sequence on which to apply the function"),
+                new FunctionParameterSequenceType("function", Type.FUNCTION_REFERENCE, Cardinality.EXACTLY_ONE, "the function to call")
+            },
+            new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "result of applying the function to each item of the sequence"));
+
+    private AnalyzeContextInfo cachedContextInfo;
+
+    public ParallelForEach(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        cachedContextInfo = new AnalyzeContextInfo(contextInfo);
+        super.analyze(contextInfo);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final UtilModule module = (UtilModule) getParentModule();
+        final FunctionReference ref = (FunctionReference) args[1].itemAt(0);
+        if (ref.getSignature().getArgumentCount() != 1) {
+            throw new XPathException(this, "util:for-each-parallel expects a function with one parameter");
+        }
+        final Sequence items = args[0];
+        final BrokerPool db = context.getBroker().getBrokerPool();
+        final int parallelism = Math.min(ParallelEval.getParallelism(module, db), items.getItemCount());
+        final String query = parallelism < 2 ? null : getCallQuery(ref);
+        if (query == null) {
+            return forEach(ref, items, contextSequence);
+        }
+
+        final int chunkSize = (items.getItemCount() + parallelism - 1) / parallelism;
+        final Subject subject = context.getSubject();
+        final String moduleLoadPath = context.getModuleLoadPath();
+        final List<Callable<Sequence>> tasks = new ArrayList<>(parallelism);
+        for (int start = 0; start < items.getItemCount(); start += chunkSize) {
+            final int first = start;
+            final int last = Math.min(start + chunkSize, items.getItemCount());
+            tasks.add(() -> {
+                try (final DBBroker broker = db.get(Optional.ofNullable(subject))) {
+                    return apply(broker, query, moduleLoadPath, items, first, last);
+                }
+            });
+        }
+
+        final ValueSequence result = new ValueSequence();
+        try {
+            for (final Future<Sequence> future : db.getParallelEvalPool(module.getEvalParallelism()).invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException(this, "Parallel evaluation was interrupted");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof XPathException) {
+                throw (XPathException) cause;
+            }
+            throw new XPathException(this, cause.getMessage(), cause);
+        }
+        return result;
+    }
+
+    private Sequence forEach(FunctionReference ref, Sequence items, Sequence contextSequence) throws XPathException {
+        ref.analyze(cachedContextInfo);
+        final ValueSequence result = new ValueSequence();
+        for (final SequenceIterator i = items.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            result.addAll(ref.evalFunction(contextSequence, null, new Sequence[] { item.toSequence() }));
+        }
+        return result;
+    }
+
+    /**
+     * Apply the function to the items first (inclusive) to last (exclusive).
+     * Called by the worker threads.
+     */
+    private Sequence apply(DBBroker broker, String query, String moduleLoadPath, Sequence items, int first, int last)
+            throws XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final XQueryContext workerContext = new XQueryContext(broker.getBrokerPool());
+        if (moduleLoadPath != null) {
+            workerContext.setModuleLoadPath(moduleLoadPath);
+        }
+        try {
+            final CompiledXQuery compiled = xquery.compile(broker, workerContext, new StringSource(query));
+            final ValueSequence result = new ValueSequence();
+            for (int i = first; i < last; i++) {
+                workerContext.declareVariable(ITEM_VARIABLE, items.itemAt(i));
+                result.addAll(xquery.execute(broker, compiled, null));
+            }
+            return result;
+        } catch (final IOException | PermissionDeniedException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        } finally {
+            workerContext.runCleanupTasks();
+        }
+    }
+
+    /**
+     * Generate a query calling the referenced function with the external variable $item
+     * as argument, or return null if the function can not be referenced from a new query.
+     */
+    private String getCallQuery(FunctionReference ref) {
+        final UserDefinedFunction function = ref.getCall().getFunction();
+        final QName name = function.getSignature().getName();
+        if (name == null || name.getNamespaceURI() == null || name.getNamespaceURI().isEmpty() ||
+                function.getSignature().isPrivate()) {
+            return null;
+        }
+        final StringBuilder query = new StringBuilder();
+        final Module module = context.getModule(name.getNamespaceURI());
+        if (Function.BUILTIN_FUNCTION_NS.equals(name.getNamespaceURI())) {
+            query.append("declare namespace f=\"").append(escape(name.getNamespaceURI())).append("\";\n");
+        } else if (module != null && module.isInternalModule()) {
+            query.append("import module namespace f=\"").append(escape(name.getNamespaceURI())).append("\";\n");
+        } else if (function.getContext() instanceof ModuleContext) {
+            final ModuleContext moduleContext = (ModuleContext) function.getContext();
+            if (moduleContext.getLocation() == null || !name.getNamespaceURI().equals(moduleContext.getModuleNamespace())) {
+                return null;
+            }
+            query.append("import module namespace f=\"").append(escape(name.getNamespaceURI()))
+                .append("\" at \"").append(escape(moduleContext.getLocation())).append("\";\n");
+        } else {
+            return null;
+        }
+        query.append("declare variable $").append(ITEM_VARIABLE).append(" external;\n");
+        query.append("f:").append(name.getLocalPart()).append("($").append(ITEM_VARIABLE).append(")");
+        return query.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\"", "\"\"").replace("&", "&amp;");
+    }
+}
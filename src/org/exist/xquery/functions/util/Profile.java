@@ -24,13 +24,18 @@ package org.exist.xquery.functions.util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
+import org.exist.xquery.QueryProfile;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReference;
+import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
@@ -55,18 +60,55 @@ public class Profile extends BasicFunction {
             new QName("disable-profiling", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
             "Disable profiling output within the query.",
             null,
-            new SequenceType(Type.ITEM, Cardinality.EMPTY))
+            new SequenceType(Type.ITEM, Cardinality.EMPTY)),
+        new FunctionSignature(
+            new QName("profile", UtilModule.NAMESPACE_URI, UtilModule.PREFIX),
+            "Calls the function passed in $function without arguments and returns an execution profile " +
+            "instead of its result. The profile is a tree of expressions, annotated with the number of calls, the " +
+            "elapsed time in seconds, the number of items passed in and returned, and the indexes used.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("function", Type.FUNCTION_REFERENCE, Cardinality.EXACTLY_ONE, "The function to profile")
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the execution profile"))
     };
-    
+
+    private AnalyzeContextInfo cachedContextInfo;
+
     public Profile(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
     }
 
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        cachedContextInfo = new AnalyzeContextInfo(contextInfo);
+        super.analyze(cachedContextInfo);
+    }
+
     public Sequence eval(Sequence[] args, Sequence contextSequence)
             throws XPathException {
     	
         final Profiler profiler = context.getProfiler();
-        if (isCalledAs("enable-profiling")) {
+        if (isCalledAs("profile")) {
+            final FunctionReference ref = (FunctionReference) args[0].itemAt(0);
+            ref.analyze(cachedContextInfo);
+            final QueryProfile profile = new QueryProfile();
+            final QueryProfile outer = profiler.setQueryProfile(profile);
+            try {
+                final Sequence result = ref.evalFunction(contextSequence, null, new Sequence[0]);
+                // make sure lazy results are evaluated while the profile is collected
+                result.getItemCount();
+            } finally {
+                profiler.setQueryProfile(outer);
+            }
+            context.pushDocumentContext();
+            try {
+                final MemTreeBuilder builder = context.getDocumentBuilder();
+                profile.toXML(builder);
+                return builder.getDocument().getNode(1);
+            } finally {
+                context.popDocumentContext();
+            }
+        } else if (isCalledAs("enable-profiling")) {
             final int verbosity = ((IntegerValue)args[0].itemAt(0)).getInt();
             profiler.setEnabled(true);
             profiler.setVerbosity(verbosity);
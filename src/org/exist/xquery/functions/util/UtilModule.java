@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import org.exist.dom.QName;
 import org.exist.xquery.AbstractInternalModule;
+import org.exist.xquery.Expression;
 import org.exist.xquery.FunctionDef;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.functions.inspect.InspectFunction;
@@ -49,6 +50,8 @@ public class UtilModule extends AbstractInternalModule {
 
     public boolean evalDisabled = false;
 
+    private int evalParallelism = Runtime.getRuntime().availableProcessors();
+
     public final static FunctionDef[] functions = {
         new FunctionDef(BuiltinFunctions.signatures[0], BuiltinFunctions.class),
         new FunctionDef(BuiltinFunctions.signatures[1], BuiltinFunctions.class),
@@ -77,6 +80,8 @@ public class UtilModule extends AbstractInternalModule {
         new FunctionDef(Eval.signatures[5], Eval.class),
         new FunctionDef(Eval.signatures[6], Eval.class),
         new FunctionDef(Eval.signatures[7], Eval.class),
+        new FunctionDef(ParallelEval.signature, ParallelEval.class),
+        new FunctionDef(ParallelForEach.signature, ParallelForEach.class),
         new FunctionDef(Compile.signatures[0], Compile.class),
         new FunctionDef(Compile.signatures[1], Compile.class),
         new FunctionDef(Compile.signatures[2], Compile.class),
@@ -118,6 +123,7 @@ public class UtilModule extends AbstractInternalModule {
         new FunctionDef(BinaryToString.signatures[3], BinaryToString.class),
         new FunctionDef(Profile.signatures[0], Profile.class),
         new FunctionDef(Profile.signatures[1], Profile.class),
+        new FunctionDef(Profile.signatures[2], Profile.class),
         new FunctionDef(PrologFunctions.signatures[0], PrologFunctions.class),
         new FunctionDef(PrologFunctions.signatures[1], PrologFunctions.class),
         new FunctionDef(PrologFunctions.signatures[2], PrologFunctions.class),
@@ -173,6 +179,21 @@ public class UtilModule extends AbstractInternalModule {
                 this.evalDisabled = Boolean.parseBoolean(strEvalDisabled);
             }
         }
+
+        final List<String> evalParallelismParamList = (List<String>)getParameter("evalParallelism");
+        if(evalParallelismParamList != null && !evalParallelismParamList.isEmpty()) {
+            final String strEvalParallelism = evalParallelismParamList.get(0);
+            if(strEvalParallelism != null) {
+                try {
+                    final int parallelism = Integer.parseInt(strEvalParallelism.trim());
+                    if(parallelism > 0) {
+                        this.evalParallelism = parallelism;
+                    }
+                } catch(final NumberFormatException e) {
+                    throw new XPathException((Expression) null, "Invalid value for parameter evalParallelism: " + strEvalParallelism, e);
+                }
+            }
+        }
     }
 
     @Override
@@ -198,4 +219,11 @@ public class UtilModule extends AbstractInternalModule {
     public boolean isEvalDisabled() {
         return evalDisabled;
     }
+
+    /**
+     * @return the maximum number of threads used by util:eval-parallel and util:for-each-parallel
+     */
+    public int getEvalParallelism() {
+        return evalParallelism;
+    }
 }
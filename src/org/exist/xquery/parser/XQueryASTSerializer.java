@@ -0,0 +1,155 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import antlr.collections.AST;
+
+/**
+ * Writes and reads the syntax trees generated by {@link XQueryParser} in a compact
+ * binary form, so they can be stored and loaded without parsing the query again.
+ *
+ * Nodes are written in document order. Long lists of siblings are common (e.g. the
+ * declarations in a library module), so the tree is traversed with an explicit stack
+ * instead of recursion.
+ */
+public class XQueryASTSerializer {
+
+    private final static int FORMAT_VERSION = 1;
+
+    private final static byte HAS_CHILD = 0x1;
+    private final static byte HAS_SIBLING = 0x2;
+    private final static byte FUNCTION_AST = 0x4;
+    private final static byte HAS_TEXT = 0x8;
+    private final static byte HAS_DOC = 0x10;
+
+    private XQueryASTSerializer() {
+    }
+
+    public static void write(final AST ast, final DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        final Deque<AST> stack = new ArrayDeque<>();
+        stack.push(ast);
+        while (!stack.isEmpty()) {
+            final AST node = stack.pop();
+            if (!(node instanceof XQueryAST)) {
+                throw new IOException("Unsupported syntax tree node: " + node.getClass().getName());
+            }
+            final XQueryAST xqNode = (XQueryAST) node;
+            final AST child = node.getFirstChild();
+            final AST sibling = node.getNextSibling();
+            byte flags = 0;
+            if (child != null) {
+                flags |= HAS_CHILD;
+            }
+            if (sibling != null) {
+                flags |= HAS_SIBLING;
+            }
+            if (node instanceof XQueryFunctionAST) {
+                flags |= FUNCTION_AST;
+            }
+            if (node.getText() != null) {
+                flags |= HAS_TEXT;
+            }
+            if (xqNode.getDoc() != null) {
+                flags |= HAS_DOC;
+            }
+            out.writeByte(flags);
+            out.writeInt(node.getType());
+            out.writeInt(xqNode.getLine());
+            out.writeInt(xqNode.getColumn());
+            if (node.getText() != null) {
+                writeString(node.getText(), out);
+            }
+            if (xqNode.getDoc() != null) {
+                writeString(xqNode.getDoc(), out);
+            }
+            // the child subtree is written before the following siblings
+            if (sibling != null) {
+                stack.push(sibling);
+            }
+            if (child != null) {
+                stack.push(child);
+            }
+        }
+    }
+
+    public static AST read(final DataInput in) throws IOException {
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported syntax tree format: " + version);
+        }
+        XQueryAST root = null;
+        // for every node still to be read: the node it should be attached to and
+        // whether it is the first child (true) or the next sibling (false) of that node
+        final Deque<XQueryAST> parents = new ArrayDeque<>();
+        final Deque<Boolean> isChild = new ArrayDeque<>();
+        do {
+            final byte flags = in.readByte();
+            final XQueryAST node = (flags & FUNCTION_AST) != 0 ? new XQueryFunctionAST() : new XQueryAST();
+            node.setType(in.readInt());
+            node.setLine(in.readInt());
+            node.setColumn(in.readInt());
+            if ((flags & HAS_TEXT) != 0) {
+                node.setText(readString(in));
+            }
+            if ((flags & HAS_DOC) != 0) {
+                node.setDoc(readString(in));
+            }
+
+            if (root == null) {
+                root = node;
+            } else if (isChild.pop()) {
+                parents.pop().setFirstChild(node);
+            } else {
+                parents.pop().setNextSibling(node);
+            }
+
+            if ((flags & HAS_SIBLING) != 0) {
+                parents.push(node);
+                isChild.push(Boolean.FALSE);
+            }
+            if ((flags & HAS_CHILD) != 0) {
+                parents.push(node);
+                isChild.push(Boolean.TRUE);
+            }
+        } while (!parents.isEmpty());
+        return root;
+    }
+
+    private static void writeString(final String str, final DataOutput out) throws IOException {
+        // DataOutput.writeUTF is limited to 64k, which is too small for large string literals
+        final byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -29,10 +29,12 @@ import org.exist.indexing.StructuralIndex;
 import org.exist.storage.QNameRangeIndexSpec;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
+import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -49,6 +51,7 @@ public class Optimize extends Pragma {
     private LocationStep contextStep = null;
     private VariableReference contextVar = null;
     private int contextId = Expression.NO_CONTEXT_ID;
+    private long estimatedCardinality = CostEstimator.UNKNOWN;
 
     private NodeSet cachedContext = null;
     private int cachedTimestamp;
@@ -68,6 +71,16 @@ public class Optimize extends Pragma {
         }
     }
 
+    /**
+     * Set the number of nodes the optimizer expects the index pre-selection
+     * to return. Reported together with the actual number if profiling is enabled.
+     *
+     * @param estimate estimated cardinality or {@link CostEstimator#UNKNOWN}
+     */
+    public void setEstimatedCardinality(long estimate) {
+        this.estimatedCardinality = estimate;
+    }
+
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         super.analyze(contextInfo);
         this.contextId = contextInfo.getContextId();
@@ -112,8 +125,9 @@ public class Optimize extends Pragma {
             cachedOptimize = true;
             NodeSet ancestors;
             NodeSet result = null;
-            for (int current = 0; current < optimizables.length; current++) {
-                NodeSet selection = optimizables[current].preSelect(contextSequence, current > 0);
+            final Optimizable[] plan = optimizables.length > 1 ? plan(contextSequence) : optimizables;
+            for (int current = 0; current < plan.length; current++) {
+                NodeSet selection = plan[current].preSelect(contextSequence, current > 0);
                 if (LOG.isTraceEnabled())
                     {LOG.trace("exist:optimize: pre-selection: " + selection.getLength());}
                 // determine the set of potential ancestors for which the predicate has to
@@ -129,12 +143,12 @@ public class Optimize extends Pragma {
 //                    selector = new AncestorSelector(selection, contextId, true, false);
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     final QName ancestorQN = contextStep.getTest().getName();
-                    if (optimizables[current].optimizeOnSelf()) {
+                    if (plan[current].optimizeOnSelf()) {
                         ancestors = index.findAncestorsByTagName(ancestorQN.getNameType(), ancestorQN, Constants.SELF_AXIS,
                             selection.getDocumentSet(), selection, contextId);
                     } else {
                         ancestors = index.findAncestorsByTagName(ancestorQN.getNameType(), ancestorQN,
-                            optimizables[current].optimizeOnChild() ? Constants.PARENT_AXIS : Constants.ANCESTOR_SELF_AXIS,
+                            plan[current].optimizeOnChild() ? Constants.PARENT_AXIS : Constants.ANCESTOR_SELF_AXIS,
                             selection.getDocumentSet(), selection, contextId);
                     }
                     if (LOG.isTraceEnabled()) {
@@ -144,6 +158,13 @@ public class Optimize extends Pragma {
                 }
                 result = ancestors;
                 contextSequence = result;
+                if (result.isEmpty())
+                    // the remaining lookups cannot add any nodes
+                    {break;}
+            }
+            if (context.getProfiler().isEnabled() && estimatedCardinality != CostEstimator.UNKNOWN) {
+                context.getProfiler().message(innerExpr, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                    "estimated cardinality: " + estimatedCardinality + "; actual: " + result.getLength());
             }
             if (contextStep == null) {
                 return innerExpr.eval(result);
@@ -171,6 +192,40 @@ public class Optimize extends Pragma {
         }
     }
 
+    /**
+     * Order the index lookups by the number of nodes they are expected to return. Each
+     * lookup is restricted to the nodes selected by the previous ones, so the most selective
+     * lookup should come first. Lookups which cannot estimate their result are done after
+     * those, in the order in which they appear in the query, followed by lookups which
+     * {@link Optimizable#mustRunLast() must run last}.
+     */
+    private Optimizable[] plan(Sequence contextSequence) throws XPathException {
+        final Integer[] order = new Integer[optimizables.length];
+        final long[] estimates = new long[optimizables.length];
+        for (int i = 0; i < optimizables.length; i++) {
+            order[i] = i;
+            estimates[i] = optimizables[i].estimateCardinality(contextSequence);
+        }
+        Arrays.sort(order, (i1, i2) -> {
+            final int cmp = Boolean.compare(optimizables[i1].mustRunLast(), optimizables[i2].mustRunLast());
+            return cmp != 0 ? cmp : Long.compare(estimates[i1], estimates[i2]);
+        });
+        final Optimizable[] plan = new Optimizable[optimizables.length];
+        for (int i = 0; i < order.length; i++) {
+            plan[i] = optimizables[order[i]];
+        }
+        if (context.getProfiler().isEnabled()) {
+            final StringBuilder buf = new StringBuilder("index lookup order:");
+            for (int i = 0; i < order.length; i++) {
+                buf.append(' ').append(ExpressionDumper.dump(plan[i])).append(" (estimated: ");
+                buf.append(estimates[order[i]] == CostEstimator.UNKNOWN ? "unknown" : Long.toString(estimates[order[i]]));
+                buf.append(')');
+            }
+            context.getProfiler().message(innerExpr, Profiler.OPTIMIZATIONS, "OPTIMIZATION", buf.toString());
+        }
+        return plan;
+    }
+
     public void before(XQueryContext context, Expression expression, Sequence contextSequence) throws XPathException {
         if (innerExpr != null)
             {return;}
@@ -0,0 +1,157 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.xquery.XPathException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A view on the items of several sequences, one after the other.
+ */
+public class ConcatSequence extends VirtualSequence {
+
+    /**
+     * Maximum number of parts: repeatedly removing items from or inserting items into a
+     * sequence adds a part every time, so the items are copied once there are more.
+     */
+    private final static int MAX_PARTS = 64;
+
+    /** the parts, which are never concatenated sequences themselves */
+    private final Sequence parts[];
+    /** position of the first item of every part */
+    private final int offsets[];
+    private final int count;
+    private final int itemType;
+
+    /**
+     * @param sequences the sequences to concatenate, empty sequences are skipped
+     */
+    public ConcatSequence(final Sequence... sequences) throws XPathException {
+        // avoid nested views: take over the parts of concatenated sequences
+        List<Sequence> flat = new ArrayList<>(sequences.length);
+        for (final Sequence seq : sequences) {
+            if (seq instanceof ConcatSequence) {
+                Collections.addAll(flat, ((ConcatSequence) seq).parts);
+            } else if (seq instanceof SubSequence && ((SubSequence) seq).getSource() instanceof ConcatSequence) {
+                final SubSequence sub = (SubSequence) seq;
+                ((ConcatSequence) sub.getSource()).addParts(flat, sub.getStart(), sub.getEnd());
+            } else if (!seq.isEmpty()) {
+                flat.add(seq);
+            }
+        }
+        if (flat.size() > MAX_PARTS) {
+            final ValueSequence values = new ValueSequence();
+            for (final Sequence seq : flat) {
+                values.addAll(seq);
+            }
+            flat = Collections.singletonList(values);
+        }
+        parts = flat.toArray(new Sequence[flat.size()]);
+        offsets = new int[parts.length];
+        int total = 0;
+        int type = Type.ITEM;
+        for (int i = 0; i < parts.length; i++) {
+            offsets[i] = total;
+            total += parts[i].getItemCount();
+            type = i == 0 ? parts[i].getItemType() : Type.getCommonSuperType(type, parts[i].getItemType());
+        }
+        this.count = total;
+        this.itemType = type;
+    }
+
+    /**
+     * Add the parts of this sequence which contain the items between start and end,
+     * the first and last one restricted to these items.
+     */
+    private void addParts(final List<Sequence> flat, final int start, final int end) {
+        for (int i = 0; i < parts.length; i++) {
+            final int partCount = parts[i].getItemCount();
+            final int from = Math.max(start - offsets[i], 0);
+            final int to = Math.min(end - offsets[i], partCount);
+            if (from < to) {
+                flat.add(from == 0 && to == partCount ? parts[i] : new SubSequence(parts[i], from, to));
+            }
+        }
+    }
+
+    @Override
+    public int getItemType() {
+        return itemType;
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= count) {
+            return null;
+        }
+        int idx = Arrays.binarySearch(offsets, pos);
+        if (idx < 0) {
+            idx = -(idx + 1) - 1;
+        }
+        return parts[idx].itemAt(pos - offsets[idx]);
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return new ConcatSequenceIterator();
+    }
+
+    /**
+     * Iterates over the parts one after the other, so items are
+     * not looked up by position.
+     */
+    private class ConcatSequenceIterator implements SequenceIterator {
+
+        private final SequenceIterator iterators[];
+        private int part = 0;
+
+        ConcatSequenceIterator() throws XPathException {
+            iterators = new SequenceIterator[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                iterators[i] = parts[i].iterate();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (part < iterators.length) {
+                if (iterators[part].hasNext()) {
+                    return true;
+                }
+                part++;
+            }
+            return false;
+        }
+
+        @Override
+        public Item nextItem() {
+            return hasNext() ? iterators[part].nextItem() : null;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.Collator;
 
+import org.exist.xquery.Constants.Comparison;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.XPathException;
 
@@ -38,8 +39,18 @@ public class IntegerValue extends NumericValue {
 
     //TODO this class should be split into numerous sub classes for each xs: type with proper
     //inheritance as defined by http://www.w3.org/TR/xmlschema-2/#built-in-datatypes
-    
-	public final static IntegerValue ZERO = new IntegerValue(0);
+
+    /** range of the cached instances returned by {@link #valueOf(long)} */
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final IntegerValue CACHE[] = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntegerValue(i + CACHE_LOW);
+        }
+    }
+
+	public final static IntegerValue ZERO = valueOf(0);
         
 	private static final BigInteger ZERO_BIGINTEGER = new BigInteger("0");
 	private static final BigInteger ONE_BIGINTEGER = new BigInteger("1");
@@ -64,15 +75,27 @@ public class IntegerValue extends NumericValue {
 	private static final BigInteger SMALLEST_BYTE = new BigInteger("-128");
         
     private static final BigInteger LARGEST_UNSIGNED_BYTE = new BigInteger("255");
-	
-	private BigInteger value;
-	// 	private long value;
+
+	// the value if it fits into a long
+	private long value;
+	// the value if it does not fit into a long, null otherwise
+	private BigInteger bigValue = null;
 
 	//should default type be NUMBER or LONG ? -shabanovd
 	private int type = Type.INTEGER;
 
+	/**
+	 * Returns an xs:integer for the given value. Instances for small
+	 * values are shared.
+	 */
+	public static IntegerValue valueOf(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH)
+			{return CACHE[(int) value - CACHE_LOW];}
+		return new IntegerValue(value);
+	}
+
 	public IntegerValue(long value) {
-		this.value = BigInteger.valueOf(value); // new BigInteger(value);
+		this.value = value;
 	}
 
 	public IntegerValue(long value, int type) throws XPathException {
@@ -85,7 +108,7 @@ public class IntegerValue extends NumericValue {
 
 	public IntegerValue(String stringValue) throws XPathException {
 		try {
-			value = new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
+			setValue(StringValue.trimWhitespace(stringValue));
 		} catch (final NumberFormatException e) {
 				throw new XPathException(ErrorCodes.FORG0001,
 					"failed to convert '" + stringValue + "' to an integer: " + e.getMessage(), e);
@@ -96,8 +119,8 @@ public class IntegerValue extends NumericValue {
 	public IntegerValue(String stringValue, int requiredType) throws XPathException {
 		this.type = requiredType;
 		try {
-			value =  new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
-			if (!(checkType(value, type)))
+			setValue(StringValue.trimWhitespace(stringValue));
+			if (!(checkType(type)))
 				{throw new XPathException(ErrorCodes.FORG0001, "can not convert '" + 
 						stringValue + "' to " + Type.getTypeName(type));}
 		} catch (final NumberFormatException e) {
@@ -111,7 +134,7 @@ public class IntegerValue extends NumericValue {
 	 * @param requiredType
 	 */
 	public IntegerValue(BigInteger value, int requiredType) {
-		this.value = value;
+		setValue(value);
 		type = requiredType;
 	}
 
@@ -119,15 +142,98 @@ public class IntegerValue extends NumericValue {
 	 * @param integer
 	 */
 	public IntegerValue(BigInteger integer) {
-		this.value = integer;
+		setValue(integer);
+	}
+
+	private IntegerValue(IntegerValue other, int requiredType) {
+		this.value = other.value;
+		this.bigValue = other.bigValue;
+		this.type = requiredType;
+	}
+
+	private void setValue(String stringValue) throws NumberFormatException {
+		// most values fit into a long, which is much cheaper to parse
+		if (stringValue.length() < 19) {
+			value = Long.parseLong(stringValue);
+		} else {
+			setValue(new BigInteger(stringValue));
+		}
+	}
+
+	private void setValue(BigInteger integer) {
+		if (integer.bitLength() < 64) {
+			value = integer.longValue();
+			bigValue = null;
+		} else {
+			bigValue = integer;
+		}
+	}
+
+	/**
+	 * Returns true if the value fits into a long, i.e. {@link #getLong()}
+	 * returns the exact value.
+	 */
+	public boolean isLong() {
+		return bigValue == null;
+	}
+
+	private BigInteger toBigInteger() {
+		return bigValue == null ? BigInteger.valueOf(value) : bigValue;
+	}
+
+	/**
+	 * Creates the result of an operation on two long values.
+	 */
+	private IntegerValue result(long result, int type) {
+		if (type == Type.INTEGER)
+			{return valueOf(result);}
+		final IntegerValue v = new IntegerValue(result);
+		v.type = type;
+		return v;
+	}
+
+	/**
+	 * Check if the value is in the range of the given type.
+	 */
+	private boolean checkType(int type) throws XPathException {
+		if (bigValue != null)
+			{return checkType(bigValue, type);}
+		switch (type) {
+			case Type.LONG :
+			case Type.INTEGER :
+			case Type.DECIMAL :
+				return true;
+			case Type.UNSIGNED_LONG :
+			case Type.NON_NEGATIVE_INTEGER :
+				return value >= 0;
+			case Type.POSITIVE_INTEGER :
+				return value > 0;
+			case Type.NEGATIVE_INTEGER :
+				return value < 0;
+			case Type.NON_POSITIVE_INTEGER :
+				return value <= 0;
+			case Type.INT :
+				return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+			case Type.UNSIGNED_INT :
+				return value >= 0 && value <= 4294967295L;
+			case Type.SHORT :
+				return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+			case Type.UNSIGNED_SHORT :
+				return value >= 0 && value <= 65535;
+			case Type.BYTE :
+				return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+			case Type.UNSIGNED_BYTE :
+				return value >= 0 && value <= 255;
+		}
+		throw new XPathException("Unknown type: " + Type.getTypeName(type));
 	}
 
 	/**
-	 * @param value2
-	 * @param type2
+	 * @param value
+	 * @param type
 	 * @throws XPathException
 	 */
-	private boolean checkType(BigInteger value2, int type2) throws XPathException {
+	private static boolean checkType(BigInteger value, int type) throws XPathException {
             switch (type) {
 		
                 case Type.LONG :
@@ -229,19 +335,23 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public long getValue() {
-		return value.longValue();
+		return bigValue == null ? value : bigValue.longValue();
 	}
 
+	/**
+	 * @deprecated instances may be shared, see {@link #valueOf(long)}
+	 */
+	@Deprecated
 	public void setValue(long value) {
-		this.value = BigInteger.valueOf(value);
+		this.value = value;
+		this.bigValue = null;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Item#getStringValue()
 	 */
 	public String getStringValue() {
-		return // Long.toString(value);
-		value.toString();
+		return bigValue == null ? Long.toString(value) : bigValue.toString();
 	}
 	
 	public boolean isNaN() {
@@ -253,16 +363,19 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public boolean isZero() {
-		return value.signum() == 0;
-		//return value.compareTo(ZERO_BIGINTEGER) == Constants.EQUAL;
+		return signum() == 0;
 	}
 
 	public boolean isNegative() {
-        return value.signum()<0;
+        return signum()<0;
     }
 
     public boolean isPositive() {
-        return value.signum()>0;
+        return signum()>0;
+    }
+
+    private int signum() {
+        return bigValue == null ? Long.signum(value) : bigValue.signum();
     }
 
 	/* (non-Javadoc)
@@ -277,7 +390,7 @@ public class IntegerValue extends NumericValue {
 			case Type.ITEM :
 				return this;
 			case Type.DECIMAL :
-				return new DecimalValue(new BigDecimal(value));
+				return new DecimalValue(bigValue == null ? BigDecimal.valueOf(value) : new BigDecimal(bigValue));
 			case Type.UNTYPED_ATOMIC :
 				return new UntypedAtomicValue(getStringValue());				
 			case Type.NUMBER :
@@ -294,21 +407,21 @@ public class IntegerValue extends NumericValue {
 			case Type.UNSIGNED_SHORT :
 			case Type.UNSIGNED_BYTE :
 			case Type.POSITIVE_INTEGER :
-				return new IntegerValue(value, requiredType);
+				return new IntegerValue(this, requiredType);
 			case Type.DOUBLE :
-				return new DoubleValue(value.doubleValue());
+				return new DoubleValue(getDouble());
 			case Type.FLOAT:
-			    return new FloatValue(value.floatValue());
+			    return new FloatValue(bigValue == null ? (float) value : bigValue.floatValue());
 			case Type.STRING :
 				return new StringValue(getStringValue());
 			case Type.BOOLEAN :
-				return (value.compareTo(ZERO_BIGINTEGER) == 0 ) ? BooleanValue.FALSE : BooleanValue.TRUE;
+				return isZero() ? BooleanValue.FALSE : BooleanValue.TRUE;
 			default :
 				throw new XPathException(ErrorCodes.FORG0001,
 					"cannot convert '" 
                     +  Type.getTypeName(this.getType()) 
                     + " (" 
-                    + value 
+                    + getStringValue() 
                     + ")' into " 
                     + Type.getTypeName(requiredType));
 		}
@@ -318,21 +431,21 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#getInt()
 	 */
 	public int getInt() throws XPathException {
-		return value.intValue(); // (int) value;
+		return bigValue == null ? (int) value : bigValue.intValue();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getLong()
 	 */
 	public long getLong() throws XPathException {
-		return value.longValue();
+		return bigValue == null ? value : bigValue.longValue();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getDouble()
 	 */
 	public double getDouble() throws XPathException {
-		return value.doubleValue(); // (double) value;
+		return bigValue == null ? (double) value : bigValue.doubleValue();
 	}
 
 	/* (non-Javadoc)
@@ -372,9 +485,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#minus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue minus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value - ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.subtract( ((IntegerValue) other).value ), type );}
+		if (Type.subTypeOf(other.getType(), Type.INTEGER)) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long result = value - o.value;
+				// overflow if both operands have a different sign than the result
+				if (((value ^ o.value) & (value ^ result)) >= 0)
+					{return result(result, type);}
+			}
+			return new IntegerValue( toBigInteger().subtract( o.toBigInteger() ), type );
+		}
 		else
 			{return ((ComputableValue) convertTo(other.getType())).minus(other);}
 	}
@@ -383,9 +503,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#plus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue plus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value + ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.add( ((IntegerValue) other).value ), type );}
+		if (Type.subTypeOf(other.getType(), Type.INTEGER)) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long result = value + o.value;
+				// overflow if both operands have a different sign than the result
+				if (((value ^ result) & (o.value ^ result)) >= 0)
+					{return result(result, type);}
+			}
+			return new IntegerValue( toBigInteger().add( o.toBigInteger() ), type );
+		}
 		else
 			{return ((ComputableValue) convertTo(other.getType())).plus(other);}
 	}
@@ -394,8 +521,17 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#mult(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue mult(ComputableValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-		    {return new IntegerValue( value.multiply( ((IntegerValue) other).value ), type );}
+		if(Type.subTypeOf(other.getType(), Type.INTEGER)) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				try {
+					return result(Math.multiplyExact(value, o.value), type);
+				} catch (final ArithmeticException e) {
+					// overflow: fall back to BigInteger
+				}
+			}
+		    return new IntegerValue( toBigInteger().multiply( o.toBigInteger() ), type );
+		}
         else if(Type.subTypeOf(other.getType(), Type.DURATION))
             {return other.mult(this);}
         else
@@ -410,8 +546,8 @@ public class IntegerValue extends NumericValue {
 			if (((IntegerValue) other).isZero())
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 			//http://www.w3.org/TR/xpath20/#mapping : numeric; but xs:decimal if both operands are xs:integer
-			final BigDecimal d = new BigDecimal(value);			 
-			final BigDecimal od = new BigDecimal(((IntegerValue) other).value);
+			final BigDecimal d = new BigDecimal(toBigInteger());
+			final BigDecimal od = new BigDecimal(((IntegerValue) other).toBigInteger());
 			final int scale = Math.max(18, Math.max(d.scale(), od.scale()));	
 			return new DecimalValue(d.divide(od, scale, BigDecimal.ROUND_HALF_DOWN));
 		} else
@@ -435,9 +571,11 @@ public class IntegerValue extends NumericValue {
 			if( other.isZero() )
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 
-			// long ov = ((IntegerValue) other).value.longValue();
-			final BigInteger ov =  ((IntegerValue) other).value;
-			return new IntegerValue(value.remainder(ov), type);
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null)
+				// the remainder is never larger than the operands
+				{return result(value % o.value, type);}
+			return new IntegerValue(toBigInteger().remainder(o.toBigInteger()), type);
 		} else
 			{return ((NumericValue) convertTo(other.getType())).mod(other);}
 	}
@@ -446,15 +584,20 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#unaryMinus()
 	 */
 	public NumericValue negate() throws XPathException {
-		return new IntegerValue(value.negate());
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return valueOf(-value);}
+		return new IntegerValue(toBigInteger().negate());
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#abs()
 	 */
 	public NumericValue abs() throws XPathException {
-		// return new IntegerValue(Math.abs(value), type);
-		return new IntegerValue( value.abs(), type);
+		if (signum() >= 0)
+			{return this;}
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return result(-value, type);}
+		return new IntegerValue( toBigInteger().abs(), type);
 	}
 
 	/* (non-Javadoc)
@@ -462,14 +605,14 @@ public class IntegerValue extends NumericValue {
 	 */
 	public AtomicValue max(Collator collator, AtomicValue other) throws XPathException {
 		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.max( ((IntegerValue) other).value) );}
+			{return compareTo(other) >= 0 ? this : other;}
 		else
 			{return ((NumericValue) convertTo(other.getType())).max(collator, other);}
 	}
 
 	public AtomicValue min(Collator collator, AtomicValue other) throws XPathException {
 		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.min( ((IntegerValue) other).value) );}
+			{return compareTo(other) <= 0 ? this : other;}
 		else
 			{return ((NumericValue) convertTo(other.getType())).min(collator, other);}
 	}
@@ -501,16 +644,16 @@ public class IntegerValue extends NumericValue {
 			return (T)this;
                 } else if(target == Long.class || target == long.class) {
 			// ?? jmv: return new Long(value);
-			return (T)Long.valueOf(value.longValue());
+			return (T)Long.valueOf(getLong());
                 } else if(target == Integer.class || target == int.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.INT);
-			return (T)Integer.valueOf((int)v.value.intValue());
+			return (T)Integer.valueOf(v.getInt());
 		} else if(target == Short.class || target == short.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.SHORT);
-			return (T)Short.valueOf((short)v.value.shortValue());
+			return (T)Short.valueOf((short)v.getInt());
 		} else if(target == Byte.class || target == byte.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.BYTE);
-			return (T)Byte.valueOf((byte)v.value.byteValue());
+			return (T)Byte.valueOf((byte)v.getInt());
 		} else if(target == Double.class || target == double.class) {
 			final DoubleValue v = (DoubleValue)convertTo(Type.DOUBLE);
 			return (T)Double.valueOf(v.getValue());
@@ -520,11 +663,11 @@ public class IntegerValue extends NumericValue {
 		} else if(target == Boolean.class || target == boolean.class) {
 			return (T)new BooleanValue(effectiveBooleanValue());
                 } else if(target == String.class) {
-			return (T)value.toString();
+			return (T)getStringValue();
                 } else if(target == BigInteger.class) {
-                    return (T)new BigInteger(value.toByteArray());
+                    return (T)toBigInteger();
                 } else if(target == Object.class) {
-			return (T)value; // Long(value);
+			return (T)toBigInteger();
                 }
 		
 		throw new XPathException("cannot convert value of type " + Type.getTypeName(getType()) +
@@ -537,13 +680,51 @@ public class IntegerValue extends NumericValue {
     public int compareTo(Object o) {
         final AtomicValue other = (AtomicValue)o;
         if(Type.subTypeOf(other.getType(), Type.INTEGER))
-            {return value.compareTo(((IntegerValue)other).value);}
+            {return compareTo((IntegerValue) other);}
         else
             {return getType() > other.getType() ? 1 : -1;}
     }
 
+    private int compareTo(final IntegerValue other) {
+        if (bigValue == null && other.bigValue == null)
+            {return Long.compare(value, other.value);}
+        return toBigInteger().compareTo(other.toBigInteger());
+    }
+
+    /**
+     * Compares two integers exactly, without converting them to double.
+     */
+    @Override
+    public boolean compareTo(Collator collator, Comparison operator, AtomicValue other) throws XPathException {
+        if (other instanceof IntegerValue) {
+            final int cmp = compareTo((IntegerValue) other);
+            switch (operator) {
+                case EQ:
+                    return cmp == 0;
+                case NEQ:
+                    return cmp != 0;
+                case LT:
+                    return cmp < 0;
+                case LTEQ:
+                    return cmp <= 0;
+                case GT:
+                    return cmp > 0;
+                case GTEQ:
+                    return cmp >= 0;
+            }
+        }
+        return super.compareTo(collator, operator, other);
+    }
+
+    @Override
+    public int compareTo(Collator collator, AtomicValue other) throws XPathException {
+        if (other instanceof IntegerValue)
+            {return compareTo((IntegerValue) other);}
+        return super.compareTo(collator, other);
+    }
+
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return bigValue == null ? Long.hashCode(value) : bigValue.hashCode();
     }
 }
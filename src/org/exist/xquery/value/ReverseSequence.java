@@ -0,0 +1,52 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+/**
+ * A view on the items of another sequence in reverse order.
+ */
+public class ReverseSequence extends VirtualSequence {
+
+    private final Sequence source;
+    private final int count;
+
+    public ReverseSequence(final Sequence source) {
+        this.source = source;
+        this.count = source.getItemCount();
+    }
+
+    @Override
+    public int getItemType() {
+        return source.getItemType();
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= count) {
+            return null;
+        }
+        return source.itemAt(count - pos - 1);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+/**
+ * A view on the items of another sequence between two positions.
+ */
+public class SubSequence extends VirtualSequence {
+
+    private final Sequence source;
+    private final int start;
+    private final int end;
+
+    /**
+     * @param source the sequence
+     * @param start position of the first item, starting at 0
+     * @param end position after the last item
+     */
+    public SubSequence(final Sequence source, final int start, final int end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range: " + start + " - " + end);
+        }
+        // avoid chains of views
+        if (source instanceof SubSequence) {
+            final SubSequence other = (SubSequence) source;
+            this.source = other.source;
+            this.start = other.start + start;
+            this.end = other.start + end;
+        } else {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    Sequence getSource() {
+        return source;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    @Override
+    public int getItemType() {
+        return source.getItemType();
+    }
+
+    @Override
+    public int getItemCount() {
+        return end - start;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= end - start) {
+            return null;
+        }
+        return source.itemAt(start + pos);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.XPathException;
+
+/**
+ * Base class for immutable sequences of atomic values which are computed
+ * from other sequences on demand, e.g. a part of a sequence or a sequence
+ * in reverse order, instead of copying their items.
+ *
+ * Items are accessed by position, so the underlying sequences should support
+ * fast random access via {@link Sequence#itemAt(int)}, like {@link ValueSequence}
+ * or {@link org.exist.xquery.RangeSequence}.
+ */
+public abstract class VirtualSequence extends AbstractSequence {
+
+    /**
+     * Check if a view may be created on the sequence: only sequences of atomic
+     * values are supported, as sequences of nodes need to be ordered and
+     * deduplicated.
+     */
+    public static boolean isSupported(final Sequence seq) {
+        return !(seq instanceof NodeSet) && Type.subTypeOf(seq.getItemType(), Type.ATOMIC);
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public void addAll(final Sequence other) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return new VirtualSequenceIterator(0, getItemCount(), 1);
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return iterate();
+    }
+
+    public SequenceIterator iterateInReverse() throws XPathException {
+        return new VirtualSequenceIterator(getItemCount() - 1, -1, -1);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getItemCount() == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return getItemCount() == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        return getItemCount() > 1;
+    }
+
+    @Override
+    public Sequence tail() throws XPathException {
+        final int count = getItemCount();
+        return count < 2 ? Sequence.EMPTY_SEQUENCE : new SubSequence(this, 1, count);
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+            " a node set. Item type is " + Type.getTypeName(getItemType()));
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+            " a node set. Item type is " + Type.getTypeName(getItemType()));
+    }
+
+    @Override
+    public void removeDuplicates() {
+        // nodes are not supported
+    }
+
+    private class VirtualSequenceIterator implements SequenceIterator {
+
+        private int pos;
+        private final int end;
+        private final int step;
+
+        VirtualSequenceIterator(final int start, final int end, final int step) {
+            this.pos = start;
+            this.end = end;
+            this.step = step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pos != end;
+        }
+
+        @Override
+        public Item nextItem() {
+            if (pos == end) {
+                return null;
+            }
+            final Item item = itemAt(pos);
+            pos += step;
+            return item;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections;
+
+import org.exist.TestUtils;
+import org.exist.xmldb.CollectionManagementServiceImpl;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.UserManagementService;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XPathQueryService;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that fn:collection returns the current documents of a collection tree
+ * after documents and collections have been added, removed or moved, or the
+ * permissions have changed.
+ */
+public class CollectionDocumentsTest {
+
+    private final static String QUERY = "count(collection('/db/test'))";
+
+    private static Collection root;
+    private Collection test;
+    private Collection sub1;
+    private Collection sub2;
+
+    @Test
+    public void storeAndRemove() throws XMLDBException {
+        assertEquals(3, count("admin", ""));
+        assertEquals(3, count("admin", ""));
+
+        store(sub2, "d.xml");
+        assertEquals(4, count("admin", ""));
+
+        sub1.removeResource(sub1.getResource("b.xml"));
+        assertEquals(3, count("admin", ""));
+
+        final CollectionManagementService service =
+            (CollectionManagementService) sub1.getService("CollectionManagementService", "1.0");
+        service.removeCollection("sub2");
+        assertEquals(1, count("admin", ""));
+
+        service.createCollection("sub3");
+        store(sub1.getChildCollection("sub3"), "e.xml");
+        assertEquals(2, count("admin", ""));
+    }
+
+    @Test
+    public void move() throws XMLDBException {
+        assertEquals(3, count("admin", ""));
+
+        final CollectionManagementServiceImpl service =
+            (CollectionManagementServiceImpl) root.getService("CollectionManagementService", "1.0");
+        service.move(XmldbURI.create("/db/test/sub1"), XmldbURI.create("/db/test2"), XmldbURI.create("sub1"));
+        assertEquals(1, count("admin", ""));
+
+        service.move(XmldbURI.create("/db/test2/sub1"), XmldbURI.create("/db/test"), XmldbURI.create("sub4"));
+        assertEquals(3, count("admin", ""));
+    }
+
+    @Test
+    public void permissions() throws XMLDBException {
+        assertEquals(3, count("guest", "guest"));
+
+        final UserManagementService ums = (UserManagementService) sub1.getService("UserManagementService", "1.0");
+        ums.chmod("rwx------");
+        assertEquals(3, count("admin", ""));
+        assertEquals(1, count("guest", "guest"));
+
+        ums.chmod("rwxr-xr-x");
+        ums.chmod(sub1.getResource("b.xml"), "rw-------");
+        assertEquals(2, count("guest", "guest"));
+        assertEquals(3, count("admin", ""));
+    }
+
+    private int count(String user, String password) throws XMLDBException {
+        final Collection collection = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, user, password);
+        final XPathQueryService service = (XPathQueryService) collection.getService("XPathQueryService", "1.0");
+        return Integer.parseInt(service.query(QUERY).getResource(0).getContent().toString());
+    }
+
+    private static void store(Collection collection, String name) throws XMLDBException {
+        final Resource resource = collection.createResource(name, XMLResource.RESOURCE_TYPE);
+        resource.setContent("<doc name='" + name + "'/>");
+        collection.storeResource(resource);
+    }
+
+    @Before
+    public void setUp() throws XMLDBException {
+        final CollectionManagementService service =
+            (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        test = service.createCollection("test");
+        service.createCollection("test2");
+        sub1 = ((CollectionManagementService) test.getService("CollectionManagementService", "1.0"))
+            .createCollection("sub1");
+        sub2 = ((CollectionManagementService) sub1.getService("CollectionManagementService", "1.0"))
+            .createCollection("sub2");
+        store(test, "a.xml");
+        store(sub1, "b.xml");
+        store(sub2, "c.xml");
+    }
+
+    @After
+    public void tearDown() throws XMLDBException {
+        final CollectionManagementService service =
+            (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        service.removeCollection("test");
+        service.removeCollection("test2");
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        final Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        final Database database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+        root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+    }
+
+    @AfterClass
+    public static void stopDB() throws XMLDBException {
+        TestUtils.cleanupDB();
+        final DatabaseInstanceManager dim = (DatabaseInstanceManager) root.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        root = null;
+    }
+}
@@ -29,6 +29,7 @@ import org.junit.BeforeClass;
 import org.exist.EXistException;
 import org.exist.collections.Collection;
 import org.exist.collections.IndexInfo;
+import org.exist.numbering.NodeId;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.ElementValue;
@@ -59,6 +60,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.Optional;
 
 import org.junit.Test;
@@ -280,6 +282,47 @@ public class BasicNodeSetTest {
         assertEquals(1, result.getLength());
     }
 	
+    @Test
+    public void newArrayNodeSet_structuralJoins() throws XPathException, SAXException, PermissionDeniedException {
+        // nested ancestors: the nearest one has to be found for every descendant
+        NodeSet sections = executeQuery(broker, "//section[@n = ('1', '1.1', '1.1.1', '1.2')]", 4, null).toNodeSet();
+        NodeSet nodes = executeQuery(broker, "//section | //para", 10, null).toNodeSet();
+
+        NewArrayNodeSet ancestors = new NewArrayNodeSet();
+        ancestors.addAll(sections);
+        // the generic implementation does a lookup for every ancestor id
+        ExtArrayNodeSet reference = new ExtArrayNodeSet();
+        reference.addAll(sections);
+
+        assertSameNodes(NodeSetHelper.selectParentChild(nodes, reference, NodeSet.DESCENDANT, -1),
+            NodeSetHelper.selectParentChild(nodes, ancestors, NodeSet.DESCENDANT, -1));
+        assertSameNodes(NodeSetHelper.selectParentChild(nodes, reference, NodeSet.ANCESTOR, -1),
+            NodeSetHelper.selectParentChild(nodes, ancestors, NodeSet.ANCESTOR, -1));
+        for (final boolean includeSelf : new boolean[] { true, false }) {
+            assertSameNodes(NodeSetHelper.selectAncestorDescendant(nodes, reference, NodeSet.DESCENDANT, includeSelf, -1),
+                NodeSetHelper.selectAncestorDescendant(nodes, ancestors, NodeSet.DESCENDANT, includeSelf, -1));
+            assertSameNodes(NodeSetHelper.selectAncestorDescendant(nodes, reference, NodeSet.ANCESTOR, includeSelf, -1),
+                NodeSetHelper.selectAncestorDescendant(nodes, ancestors, NodeSet.ANCESTOR, includeSelf, -1));
+        }
+
+        // document nodes are ancestors of all nodes in their document
+        NodeSet speakers = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, new QName("SPEAKER", ""), null);
+        NewArrayNodeSet documents = new NewArrayNodeSet();
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            documents.add(new NodeProxy(i.next(), NodeId.DOCUMENT_NODE));
+        }
+        assertEquals(speakers.getLength(),
+            NodeSetHelper.selectAncestorDescendant(speakers, documents, NodeSet.DESCENDANT, false, -1).getLength());
+        assertEquals(0, NodeSetHelper.selectParentChild(speakers, documents, NodeSet.DESCENDANT, -1).getLength());
+    }
+
+    private static void assertSameNodes(NodeSet expected, NodeSet actual) {
+        assertEquals(expected.getLength(), actual.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            assertEquals(expected.get(i).getNodeId(), actual.get(i).getNodeId());
+        }
+    }
+
     @Test
     public void testOptimizations() throws XPathException, SAXException, PermissionDeniedException {
             
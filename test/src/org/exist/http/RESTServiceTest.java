@@ -510,6 +510,28 @@ public class RESTServiceTest {
         readResponse(connect.getInputStream());
     }
 
+    @Test
+    public void queryGetProfile() throws IOException {
+        // the profile of the query contains the expressions of the query, not its result
+        String uri = getCollectionUri() + "?_profile=yes&_query=" +
+                URLEncoder.encode("declare namespace stats='http://exist-db.org/xquery/profiling'; " +
+                    "let $inner := util:profile(function() { (1 to 10)[. mod 2 = 0] }) " +
+                    "return if (exists($inner/stats:expr)) then 'inner' else error(xs:QName('local:empty'), 'empty')",
+                    "UTF-8");
+        HttpURLConnection connect = getConnection(uri);
+        connect.setRequestMethod("GET");
+        connect.connect();
+
+        int r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 200, r);
+
+        String response = readResponse(connect.getInputStream());
+        assertTrue(response, response.contains("stats:profile"));
+        assertTrue(response, response.contains("type=\"Profile\""));
+        // the expressions of the nested profile are not recorded
+        assertTrue(response, !response.contains(" mod "));
+    }
+
     @Test
     public void requestModule() throws IOException {
         String uri = getCollectionUri() + "?_query=request:get-uri()&_wrap=no";
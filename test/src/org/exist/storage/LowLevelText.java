@@ -18,6 +18,7 @@ import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * Currently, tests for the {@link org.exist.storage.XQueryPool}
@@ -110,6 +111,32 @@ public class LowLevelText {
 		callAndTestBorrowCompiledXQuery(localStringSource);
 	}
 
+	@Test
+	public void statistics() throws PermissionDeniedException {
+		assertNull(pool.borrowCompiledXQuery(broker, stringSource));
+		pool.returnCompiledXQuery(stringSource, preCompiledXQuery);
+		callAndTestBorrowCompiledXQuery(stringSource);
+		assertEquals(1, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void eviction() throws DatabaseConfigurationException, XPathException, PermissionDeniedException, IOException {
+		Configuration configuration = new Configuration();
+		configuration.setProperty(XQueryPool.PROPERTY_POOL_SIZE, 2);
+		XQueryPool smallPool = new XQueryPool(configuration);
+		XQuery xquery = brokerPool.getXQueryService();
+		for (int i = 0; i < 3; i++) {
+			StringSource source = new StringSource("/test" + i);
+			smallPool.returnCompiledXQuery(source, xquery.compile(broker, new XQueryContext(brokerPool), source));
+		}
+		assertEquals(2, smallPool.size());
+		assertEquals(1, smallPool.getEvictions());
+		// the last query returned must be in the pool
+		assertNotNull(smallPool.borrowCompiledXQuery(broker, new StringSource("/test2")));
+	}
+
 	private void callAndTestBorrowCompiledXQuery(StringSource stringSourceArg) throws PermissionDeniedException {
 		final CompiledXQuery compiledXQuery = pool.borrowCompiledXQuery(broker, stringSourceArg);
 		assertNotNull(
@@ -0,0 +1,136 @@
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Reindex a collection and its sub-collection with several threads.
+ */
+public class ParallelReindexTest {
+
+    private static final String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <create qname=\"@id\" type=\"xs:integer\"/>" +
+        "   </index>" +
+        "</collection>";
+
+    private static final int DOCUMENT_COUNT = 40;
+    private static final int ITEM_COUNT = 20;
+
+    private static BrokerPool pool;
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(NativeBroker.PROPERTY_REINDEX_THREADS, 4);
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+            final Collection child = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI2);
+            broker.saveCollection(transaction, child);
+            for (int i = 0; i < DOCUMENT_COUNT; i++) {
+                store(transaction, broker, i % 2 == 0 ? root : child, i);
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    private static void store(final Txn transaction, final DBBroker broker, final Collection collection, final int n) throws Exception {
+        final StringBuilder data = new StringBuilder("<items>");
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            data.append("<item id=\"").append(i).append("\">").append(n).append("</item>");
+        }
+        data.append("</items>");
+        final XmldbURI name = XmldbURI.create("test" + n + ".xml");
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, name, data.toString());
+        assertNotNull(info);
+        collection.store(transaction, broker, info, data.toString(), false);
+    }
+
+    @AfterClass
+    public static void closeDB() throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.removeCollection(transaction, root);
+            transact.commit(transaction);
+        }
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+
+    @Test
+    public void reindex() throws Exception {
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertIndexed(broker);
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+            assertIndexed(broker);
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI2);
+            assertIndexed(broker);
+        }
+    }
+
+    @Test
+    public void removedDocument() throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection child = broker.getCollection(TestConstants.TEST_COLLECTION_URI2);
+            final List<DocumentImpl> documents = new ArrayList<>();
+            try (final Txn transaction = transact.beginTransaction()) {
+                store(transaction, broker, child, DOCUMENT_COUNT);
+                for (final Iterator<DocumentImpl> i = child.iterator(broker); i.hasNext(); ) {
+                    documents.add(i.next());
+                }
+                ((NativeBroker) broker).dropCollectionIndex(transaction, child, true);
+                transact.commit(transaction);
+            }
+            // removed after the documents to reindex were collected
+            try (final Txn transaction = transact.beginTransaction()) {
+                child.removeXMLResource(transaction, broker, XmldbURI.create("test" + DOCUMENT_COUNT + ".xml"));
+                transact.commit(transaction);
+            }
+
+            final ParallelReindex reindex = new ParallelReindex(pool, broker.getCurrentSubject(), child.getURI(),
+                documents, DBBroker.IndexMode.STORE);
+            reindex.run(4);
+            assertEquals(1, reindex.getSkippedCount());
+            assertEquals(documents.size() - 1, reindex.getReindexedCount());
+            assertIndexed(broker);
+        }
+    }
+
+    private void assertIndexed(final DBBroker broker) throws Exception {
+        final XQuery xquery = pool.getXQueryService();
+        Sequence result = xquery.execute(broker, "count(collection('" + TestConstants.TEST_COLLECTION_URI + "')//item[@id = 3])", null);
+        assertEquals(DOCUMENT_COUNT, (int) result.itemAt(0).toJavaObject(int.class));
+        result = xquery.execute(broker, "count(collection('" + TestConstants.TEST_COLLECTION_URI2 + "')//items/item)", null);
+        assertEquals(DOCUMENT_COUNT / 2 * ITEM_COUNT, (int) result.itemAt(0).toJavaObject(int.class));
+    }
+}
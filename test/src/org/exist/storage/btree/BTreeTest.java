@@ -354,6 +354,36 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void ascendingKeys() throws DBException, IOException, BTreeException {
+        BTree btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file);
+        try {
+            btree.create((short) -1);
+            for (int i = 0; i < COUNT * 4; i++) {
+                btree.addValue(new Value(String.format("K%08d", i)), i);
+            }
+            // pages filled up to the default fill factor
+            final TreeMetrics metrics = btree.treeStatistics();
+            assertTrue("leaf fill ratio: " + metrics.getLeafFillRatio(), metrics.getLeafFillRatio() > 0.8);
+            for (int i = 0; i < COUNT * 4; i++) {
+                assertEquals(i, btree.findValue(new Value(String.format("K%08d", i))));
+            }
+
+            // fill factor 0.5 splits at the median
+            btree.setFillFactor(0.5);
+            for (int i = 0; i < COUNT * 4; i++) {
+                btree.addValue(new Value(String.format("L%08d", i)), i);
+            }
+            final TreeMetrics halfFilled = btree.treeStatistics();
+            assertTrue(halfFilled.getLeafPages() - metrics.getLeafPages() > metrics.getLeafPages() * 1.5);
+            for (int i = 0; i < COUNT * 4; i++) {
+                assertEquals(i, btree.findValue(new Value(String.format("L%08d", i))));
+            }
+        } finally {
+            btree.close();
+        }
+    }
+
     @Test
     public void numbersWithPrefix() {
         try {
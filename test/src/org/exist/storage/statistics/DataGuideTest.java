@@ -0,0 +1,55 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.exist.dom.QName;
+import org.exist.storage.NodePath;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DataGuideTest {
+
+    @Test
+    public void nodeCountSumsAllPaths() {
+        final DataGuide guide = new DataGuide();
+        for (int i = 0; i < 3; i++) {
+            guide.add(new NodePath(null, "/book/title"));
+        }
+        guide.add(new NodePath(null, "/book/chapter/title"));
+        guide.add(new NodePath(null, "/book/chapter"));
+
+        assertEquals(4, guide.getNodeCount(new QName("title")));
+        assertEquals(1, guide.getNodeCount(new QName("chapter")));
+        assertEquals(0, guide.getNodeCount(new QName("author")));
+    }
+
+    @Test
+    public void nodeCountAfterMerge() {
+        final DataGuide first = new DataGuide();
+        first.add(new NodePath(null, "/book/title"));
+        final DataGuide second = new DataGuide();
+        second.add(new NodePath(null, "/book/title"));
+        second.add(new NodePath(null, "/article/title"));
+
+        final DataGuide merged = first.mergeInto(second);
+        assertEquals(3, merged.getNodeCount(new QName("title")));
+    }
+}
@@ -0,0 +1,116 @@
+package org.exist.util;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedIntSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        final CompressedIntSet set = new CompressedIntSet();
+        assertTrue(set.isEmpty());
+        assertEquals(-1, set.first());
+        assertEquals(-1, set.nextSetBit(0));
+
+        assertTrue(set.add(5));
+        assertTrue(set.add(1 << 20));
+        assertTrue(set.add(3));
+        assertFalse(set.add(5));
+        assertEquals(3, set.cardinality());
+        assertTrue(set.contains(5));
+        assertTrue(set.contains(1 << 20));
+        assertFalse(set.contains(4));
+        assertFalse(set.contains(-1));
+        assertEquals(3, set.first());
+        assertEquals(1 << 20, set.last());
+        assertArrayEquals(new int[] { 3, 5, 1 << 20 }, set.toArray());
+
+        assertTrue(set.remove(1 << 20));
+        assertFalse(set.remove(1 << 20));
+        assertEquals(5, set.last());
+        assertEquals(-1, set.nextSetBit(6));
+    }
+
+    @Test
+    public void denseChunks() {
+        final CompressedIntSet set = new CompressedIntSet();
+        final BitSet expected = new BitSet();
+        for (int i = 0; i < 70000; i += 3) {
+            set.add(i);
+            expected.set(i);
+        }
+        assertEquals(expected.cardinality(), set.cardinality());
+        assertEquals(expected.length() - 1, set.last());
+        assertSame(expected, set);
+        for (int i = 0; i < 70000; i += 3) {
+            set.remove(i);
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void and() {
+        final Random random = new Random(42);
+        final CompressedIntSet s1 = new CompressedIntSet();
+        final CompressedIntSet s2 = new CompressedIntSet();
+        final BitSet b1 = new BitSet();
+        final BitSet b2 = new BitSet();
+        // a dense and a sparse chunk in both sets
+        for (int i = 0; i < 20000; i++) {
+            final int v1 = random.nextInt(30000);
+            final int v2 = random.nextInt(30000);
+            s1.add(v1);
+            b1.set(v1);
+            s2.add(v2);
+            b2.set(v2);
+        }
+        for (int i = 0; i < 100; i++) {
+            final int v1 = 100000 + random.nextInt(50000);
+            final int v2 = 100000 + random.nextInt(50000);
+            s1.add(v1);
+            b1.set(v1);
+            s2.add(v2);
+            b2.set(v2);
+        }
+        final CompressedIntSet result = s1.and(s2);
+        b1.and(b2);
+        assertSame(b1, result);
+        assertTrue(s1.containsAll(result));
+        assertTrue(s2.containsAll(result));
+        assertFalse(result.containsAll(s1));
+        assertTrue(s1.intersects(s2));
+    }
+
+    @Test
+    public void equality() {
+        final CompressedIntSet s1 = new CompressedIntSet();
+        final CompressedIntSet s2 = new CompressedIntSet();
+        for (int i = 0; i < 10000; i++) {
+            s1.add(i * 7);
+            s2.add((10000 - i - 1) * 7);
+        }
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        s2.remove(0);
+        s2.add(1);
+        assertFalse(s1.equals(s2));
+        assertFalse(s1.containsAll(s2));
+    }
+
+    private static void assertSame(final BitSet expected, final CompressedIntSet set) {
+        assertEquals(expected.cardinality(), set.cardinality());
+        int j = set.nextSetBit(0);
+        for (int i = expected.nextSetBit(0); i > -1; i = expected.nextSetBit(i + 1)) {
+            assertEquals(i, j);
+            j = set.nextSetBit(j + 1);
+        }
+        assertEquals(-1, j);
+    }
+}
@@ -1,6 +1,13 @@
 package org.exist.util.hashtable;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class Int2ObjectHashMapTest extends
 		AbstractHashtableTest<Int2ObjectHashMap, Integer, Object> {
@@ -66,4 +73,34 @@ public class Int2ObjectHashMapTest extends
 	protected int keyEquiv(Integer k) {
 		return k;
 	}
+
+	@Test
+	public void iteratorRemoveCallsRemove() {
+		final List<Integer> removed = new ArrayList<>();
+		final Int2ObjectHashMap<Object> subclass = new Int2ObjectHashMap<Object>() {
+			@Override
+			public Object remove(final int key) {
+				removed.add(key);
+				return super.remove(key);
+			}
+		};
+		for (int i = 0; i < 10; i++) {
+			subclass.put(i, valEquiv(i));
+		}
+		for (final Iterator<Integer> i = subclass.iterator(); i.hasNext(); ) {
+			if (i.next() % 2 == 0) {
+				i.remove();
+			}
+		}
+		for (final Iterator<Object> i = subclass.valueIterator(); i.hasNext(); ) {
+			if ((Integer) i.next() == 3) {
+				i.remove();
+			}
+		}
+		assertEquals(6, removed.size());
+		assertEquals(4, subclass.size());
+		assertFalse(subclass.containsKey(4));
+		assertFalse(subclass.containsKey(3));
+		assertEquals(valEquiv(5), subclass.get(5));
+	}
 }
@@ -296,6 +296,24 @@ public class XmlRpcTest {
         assertTrue(result.length > 0);
     }
 
+    @Test
+    public void testProfile() throws XmlRpcException, MalformedURLException {
+        storeData();
+        List<Object> params = new ArrayList<>();
+        String query = "declare namespace stats='http://exist-db.org/xquery/profiling'; " +
+                "let $inner := util:profile(function() { //para[. = 'x'] }) " +
+                "return if (exists($inner/stats:expr)) then //para else error(xs:QName('local:empty'), 'empty')";
+        params.add(query);
+        params.add(new HashMap());
+        XmlRpcClient xmlrpc = getClient();
+        String result = (String) xmlrpc.execute("profile", params);
+        assertNotNull(result);
+        assertTrue(result, result.contains("stats:profile"));
+        assertTrue(result, result.contains("type=\"Profile\""));
+        // the expressions of the nested profile are not recorded
+        assertFalse(result, result.contains("'x'") || result.contains("&quot;x&quot;"));
+    }
+
     @Test
     public void testQueryWithStylesheet() throws XmlRpcException, MalformedURLException, SAXException, IOException {
         storeData();
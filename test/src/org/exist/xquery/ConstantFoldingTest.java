@@ -0,0 +1,127 @@
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConstantFoldingTest {
+
+    private static BrokerPool pool;
+    private static DBBroker broker;
+
+    @BeforeClass
+    public static void setUp() throws DatabaseConfigurationException, EXistException {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+        broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (broker != null) {
+            broker.close();
+        }
+        BrokerPool.stopAll(false);
+        broker = null;
+        pool = null;
+    }
+
+    @Test
+    public void arithmetic() throws XPathException, PermissionDeniedException {
+        assertFolded("86400", "60 * 60 * 24");
+        assertFolded("-3", "-(1 + 2)");
+        assertFolded("11", "xs:integer('5') * 2 + 1");
+    }
+
+    @Test
+    public void functions() throws XPathException, PermissionDeniedException {
+        assertFolded("\"ab2\"", "concat('a', 'b', 1 + 1)");
+        assertFolded("\"ABC\"", "upper-case('a' || 'bc')");
+        assertFolded("3", "string-length(normalize-space(' a  b '))");
+    }
+
+    @Test
+    public void userFunction() throws XPathException, PermissionDeniedException {
+        assertFolded("\"xy\"", "declare function local:f() { 'x' || 'y' }; local:f()");
+    }
+
+    @Test
+    public void notFolded() throws XPathException, PermissionDeniedException {
+        assertNotFolded("current-dateTime()");
+        assertNotFolded("(1, 2)[. = 1 + 1]");
+        assertNotFolded("let $x := 1 return $x + 1");
+        // errors are raised when the expression is evaluated
+        assertNotFolded("if (true()) then 1 else 1 div 0");
+        try {
+            execute("1 div 0");
+            fail("Expected division by zero");
+        } catch (final XPathException e) {
+            assertEquals(ErrorCodes.FOAR0001, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void redundantTypeChecks() throws XPathException, PermissionDeniedException {
+        // the cast already returns the required type
+        assertNoTypeCheck("function-lookup(xs:QName('fn:true'), 0)()");
+        assertNoTypeCheck("for $name in ('true', 'false') return function-lookup(xs:QName('fn:' || $name), 0)()");
+        // the type of $name is not known statically
+        final String dump = ExpressionDumper.dump((Expression) compile(
+            "for $name in (xs:QName('fn:true'), 'fn:false') return function-lookup($name, 0)()"));
+        assertTrue(dump, dump.contains("untyped-value-check"));
+        try {
+            execute("for $name in (xs:QName('fn:true'), 'fn:false') return function-lookup($name, 0)()");
+            fail("Expected type error");
+        } catch (final XPathException e) {
+            assertEquals(ErrorCodes.XPTY0004, e.getErrorCode());
+        }
+    }
+
+    private void assertNoTypeCheck(final String query) throws XPathException, PermissionDeniedException {
+        final CompiledXQuery compiled = compile(query);
+        final String dump = ExpressionDumper.dump((Expression) compiled);
+        assertFalse(dump, dump.contains("untyped-value-check"));
+        pool.getXQueryService().execute(broker, compiled, null);
+    }
+
+    private void assertFolded(final String expected, final String query) throws XPathException, PermissionDeniedException {
+        final CompiledXQuery compiled = compile(query);
+        assertEquals(expected, ExpressionDumper.dump((Expression) compiled).trim());
+        final Sequence result = pool.getXQueryService().execute(broker, compiled, null);
+        assertEquals(1, result.getItemCount());
+    }
+
+    private void assertNotFolded(final String query) throws XPathException, PermissionDeniedException {
+        final CompiledXQuery compiled = compile(query);
+        Expression expr = (Expression) compiled;
+        while (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+            expr = ((PathExpr) expr).getExpression(0);
+        }
+        assertFalse(ExpressionDumper.dump(expr), expr instanceof LiteralValue);
+        pool.getXQueryService().execute(broker, compiled, null);
+    }
+
+    private CompiledXQuery compile(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().compile(broker, new XQueryContext(pool), query);
+    }
+
+    private Sequence execute(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().execute(broker, compile(query), null);
+    }
+}
@@ -0,0 +1,127 @@
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.statistics.IndexStatistics;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.exist.indexing.IndexManager.PROPERTY_INDEXER_MODULES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the {@link Optimizer} orders filters by the estimates of the {@link CostEstimator}
+ * if the statistics index is enabled, without changing the result.
+ */
+public class CostEstimatorTest {
+
+    private final static String ITEMS = "collection('/db/estimatortest')//item";
+
+    private static BrokerPool pool;
+    private static DBBroker broker;
+
+    @BeforeClass
+    public static void setUp() throws DatabaseConfigurationException, EXistException, ParserConfigurationException,
+            XPathException, PermissionDeniedException {
+        final Configuration config = new Configuration();
+        final Element statistics = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument().createElement("module");
+        final Configuration.IndexModuleConfig[] modules = (Configuration.IndexModuleConfig[]) config.getProperty(PROPERTY_INDEXER_MODULES);
+        final Configuration.IndexModuleConfig[] withStatistics = Arrays.copyOf(modules, modules.length + 1);
+        withStatistics[modules.length] = new Configuration.IndexModuleConfig("index-stats", IndexStatistics.class.getName(), statistics);
+        config.setProperty(PROPERTY_INDEXER_MODULES, withStatistics);
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+        broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+
+        // every item has a price, but only every tenth item is rare
+        execute("xmldb:create-collection('/db', 'estimatortest'), " +
+            "xmldb:store('/db/estimatortest', 'items.xml', <items>{ " +
+            "for $i in 1 to 200 return <item><price>{$i}</price>{ if ($i mod 10 = 0) then <rare>{$i mod 20}</rare> else () }</item> " +
+            "}</items>)");
+    }
+
+    @AfterClass
+    public static void tearDown() throws XPathException, PermissionDeniedException {
+        try {
+            if (broker != null) {
+                execute("xmldb:remove('/db/estimatortest')");
+                broker.close();
+            }
+        } finally {
+            BrokerPool.stopAll(false);
+            broker = null;
+            pool = null;
+        }
+    }
+
+    @Test
+    public void reorderPredicates() throws XPathException, PermissionDeniedException {
+        assertOrder(ITEMS + "[price > 50][rare = 0]", "rare", "price");
+        assertSameResult(ITEMS + "[price > 50][rare = 0]", 8);
+        assertOrder(ITEMS + "[rare = 0][price > 50]", "rare", "price");
+    }
+
+    @Test
+    public void swapAndOperands() throws XPathException, PermissionDeniedException {
+        assertOrder(ITEMS + "[price > 50 and rare = 0]", "rare", "price");
+        assertSameResult(ITEMS + "[price > 50 and rare = 0]", 8);
+    }
+
+    @Test
+    public void positionalPredicates() throws XPathException, PermissionDeniedException {
+        assertOrder(ITEMS + "[price > 50][rare = 0][2]", "price", "rare");
+        assertSameResult(ITEMS + "[price > 50][rare = 0][2]", 1);
+        assertOrder(ITEMS + "[price > 50][position() < 100][rare = 0]", "price", "rare");
+        assertSameResult(ITEMS + "[price > 50][position() < 100][rare = 0]", 5);
+        assertOrder(ITEMS + "[price > 50][rare = 0][last()]", "price", "rare");
+        assertSameResult(ITEMS + "[price > 50][rare = 0][last()]", 1);
+        assertOrder(ITEMS + "[price > 50 and position() < 100][rare = 0]", "price", "rare");
+        assertSameResult(ITEMS + "[price > 50 and position() < 100][rare = 0]", 2);
+    }
+
+    /**
+     * Check that the comparison on the first element is evaluated before
+     * the one on the second.
+     */
+    private void assertOrder(final String query, final String first, final String second)
+            throws XPathException, PermissionDeniedException {
+        final String dump = ExpressionDumper.dump((Expression) compile(query));
+        final int firstPos = dump.indexOf("child::{}" + first);
+        final int secondPos = dump.indexOf("child::{}" + second);
+        assertTrue(dump, firstPos > -1 && secondPos > -1);
+        assertTrue(dump, firstPos < secondPos);
+    }
+
+    private void assertSameResult(final String query, final int expectedCount)
+            throws XPathException, PermissionDeniedException {
+        final Sequence optimized = execute(query + " ! string(price)");
+        final Sequence unoptimized = execute("declare option exist:optimize 'enable=no'; " + query + " ! string(price)");
+        assertEquals(expectedCount, optimized.getItemCount());
+        assertEquals(expectedCount, unoptimized.getItemCount());
+        for (int i = 0; i < expectedCount; i++) {
+            assertEquals(unoptimized.itemAt(i).getStringValue(), optimized.itemAt(i).getStringValue());
+        }
+    }
+
+    private static CompiledXQuery compile(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().compile(broker, new XQueryContext(pool), query);
+    }
+
+    private static Sequence execute(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().execute(broker, compile(query), null);
+    }
+}
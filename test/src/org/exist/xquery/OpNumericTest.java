@@ -260,4 +260,26 @@ public class OpNumericTest {
 	public void minusReturnType10() {
 		assertEquals(Type.TIME, buildOp(ArithmeticOperator.SUBTRACTION, time, dtDuration).returnsType());
 	}
+
+    @Test
+	public void integerArithmetic() throws XPathException {
+		assertOp("7", ArithmeticOperator.ADDITION, new IntegerValue(3), new IntegerValue(4));
+		assertOp("-1", ArithmeticOperator.SUBTRACTION, new IntegerValue(3), new IntegerValue(4));
+		assertOp("12", ArithmeticOperator.MULTIPLICATION, new IntegerValue(3), new IntegerValue(4));
+		assertOp("3", ArithmeticOperator.MODULUS, new IntegerValue(3), new IntegerValue(4));
+	}
+
+    @Test
+	public void doubleArithmetic() throws XPathException {
+		assertOp("4", ArithmeticOperator.ADDITION, new DoubleValue(1.5), new DoubleValue(2.5));
+		assertOp("3.75", ArithmeticOperator.MULTIPLICATION, new DoubleValue(1.5), new DoubleValue(2.5));
+		assertOp("1.5", ArithmeticOperator.MODULUS, new DoubleValue(1.5), new DoubleValue(2.5));
+		assertOp("NaN", ArithmeticOperator.MODULUS, new DoubleValue(1.5), new DoubleValue(0));
+	}
+
+    @Test
+	public void mixedArithmetic() throws XPathException {
+		assertOp("4", ArithmeticOperator.ADDITION, new IntegerValue(2), new DoubleValue(2.0));
+		assertOp("5", ArithmeticOperator.ADDITION, new IntegerValue(2, Type.SHORT), new IntegerValue(3, Type.SHORT));
+	}
 }
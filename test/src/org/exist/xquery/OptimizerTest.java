@@ -178,6 +178,44 @@ public class OptimizerTest {
         execute("/root//b/parent::c[b = 'two']", true, MSG_OPT_ERROR, r);
     }
 
+    @Test
+    public void twigJoin() {
+        int r = execute("/root//a//b", false);
+        Assert.assertEquals(3, r);
+        execute("/root//a//b", true, MSG_OPT_ERROR, r);
+
+        r = execute("/root//c//a/c/b", false);
+        Assert.assertEquals(1, r);
+        execute("/root//c//a/c/b", true, MSG_OPT_ERROR, r);
+
+        execute("/root//c/descendant-or-self::c/b", true, MSG_OPT_ERROR, 2);
+
+        r = execute("for $a in /root/a return $a//c//b", false);
+        Assert.assertEquals(1, r);
+        execute("for $a in /root/a return $a//c//b", true, MSG_OPT_ERROR, r);
+
+        r = execute("//SCENE//SPEECH/SPEAKER", false);
+        execute("//SCENE//SPEECH/SPEAKER", true, MSG_OPT_ERROR, r);
+
+        r = execute("//ACT[TITLE = 'ACT I']//SPEECH/LINE", false);
+        execute("//ACT[TITLE = 'ACT I']//SPEECH/LINE", true, MSG_OPT_ERROR, r);
+
+        r = execute("//SCENE[.//SPEECH/SPEAKER = 'HAMLET']", false);
+        execute("//SCENE[.//SPEECH/SPEAKER = 'HAMLET']", true, MSG_OPT_ERROR, r);
+
+        r = execute("//SCENE[ft:query(.//SPEECH/LINE, 'king')]//SPEECH/SPEAKER", false);
+        execute("//SCENE[ft:query(.//SPEECH/LINE, 'king')]//SPEECH/SPEAKER", true, MSG_OPT_ERROR, r);
+
+        r = execute("ft:query(//SCENE//SPEECH/LINE, 'king')", false);
+        Assert.assertTrue(r > 0);
+        execute("ft:query(//SCENE//SPEECH/LINE, 'king')", true, MSG_OPT_ERROR, r);
+
+        // the join is only used for large contexts
+        r = execute("(//SCENE | //LINE | //SPEAKER)//SPEECH/LINE", false);
+        Assert.assertTrue(r > 0);
+        execute("(//SCENE | //LINE | //SPEAKER)//SPEECH/LINE", true, MSG_OPT_ERROR, r);
+    }
+
     @Test @Ignore
     public void reversePathsWithWildcard() {
         //parent with wildcard
@@ -24,6 +24,7 @@ package org.exist.xquery;
 
 import org.exist.source.StringSource;
 import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.EXistResource;
 import org.exist.xmldb.XQueryService;
 import org.exist.xmldb.XmldbURI;
 import org.junit.After;
@@ -32,10 +33,13 @@ import org.junit.Test;
 import org.xmldb.api.DatabaseManager;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Database;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.ResourceSet;
 import org.xmldb.api.base.XMLDBException;
 import org.xmldb.api.modules.CollectionManagementService;
 import org.xmldb.api.modules.XMLResource;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 public class QueryPoolTest {
@@ -57,6 +61,35 @@ public class QueryPoolTest {
         }
     }
 
+    @Test
+    public void sameQuery() throws XMLDBException {
+        XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        for (int i = 0; i < 10; i++) {
+            ResourceSet result = service.execute(new StringSource("count(//test[@id = 't1'])"));
+            assertEquals("1", result.getResource(0).getContent());
+        }
+    }
+
+    @Test
+    public void changedModule() throws XMLDBException, InterruptedException {
+        XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
+        String query = "import module namespace m='http://exist-db.org/test/pool' at 'xmldb:exist:///db/test-pool/pool.xql'; m:f()";
+        storeModule("1");
+        assertEquals("1", service.query(query).getResource(0).getContent());
+        assertEquals("1", service.query(query).getResource(0).getContent());
+        // make sure the modification time changes
+        Thread.sleep(10);
+        storeModule("2");
+        assertEquals("2", service.query(query).getResource(0).getContent());
+    }
+
+    private void storeModule(String result) throws XMLDBException {
+        Resource module = testCollection.createResource("pool.xql", "BinaryResource");
+        module.setContent("module namespace m='http://exist-db.org/test/pool'; declare function m:f() { " + result + " };");
+        ((EXistResource) module).setMimeType("application/xquery");
+        testCollection.storeResource(module);
+    }
+
     @Test
     public void read() throws XMLDBException {
         XMLResource res = (XMLResource) testCollection.getResource("large_list.xml");
@@ -0,0 +1,163 @@
+package org.exist.xquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import antlr.RecognitionException;
+import antlr.TokenStreamException;
+import antlr.collections.AST;
+import org.exist.source.FileSource;
+import org.exist.util.FileUtils;
+import org.exist.xquery.parser.XQueryAST;
+import org.exist.xquery.parser.XQueryASTSerializer;
+import org.exist.xquery.parser.XQueryLexer;
+import org.exist.xquery.parser.XQueryParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyntaxTreeCacheTest {
+
+    private final static String MODULE =
+        "xquery version \"3.0\";\n" +
+        "module namespace m=\"http://exist-db.org/test/syntax\";\n" +
+        "(:~ Add one :)\n" +
+        "declare function m:inc($i as xs:integer) { $i + 1 };\n" +
+        "declare variable $m:text := 'some text';\n" +
+        "declare function m:twice($i) { m:inc(m:inc($i)) };";
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("syntax-tree-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.delete(dir);
+    }
+
+    @Test
+    public void serialize() throws RecognitionException, TokenStreamException, XPathException, IOException {
+        final AST ast = parse(MODULE);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        XQueryASTSerializer.write(ast, new DataOutputStream(os));
+        final AST copy = XQueryASTSerializer.read(new DataInputStream(new ByteArrayInputStream(os.toByteArray())));
+
+        assertEquals(ast.toStringList(), copy.toStringList());
+        assertSameTree(ast, copy);
+    }
+
+    @Test
+    public void persistent() throws RecognitionException, TokenStreamException, XPathException, IOException {
+        final Path file = dir.resolve("module.xqm");
+        Files.write(file, MODULE.getBytes(StandardCharsets.UTF_8));
+        final AST ast = parse(MODULE);
+
+        final SyntaxTreeCache cache = new SyntaxTreeCache();
+        cache.setDirectory(dir.resolve("cache"));
+        cache.put(new FileSource(file, false), ast);
+
+        // a new cache, e.g. after a restart
+        final SyntaxTreeCache restarted = new SyntaxTreeCache();
+        restarted.setDirectory(dir.resolve("cache"));
+        final AST loaded = restarted.get(null, new FileSource(file, false));
+        assertNotNull(loaded);
+        assertEquals(ast.toStringList(), loaded.toStringList());
+
+        // the stored tree must not be used if the source has changed
+        Files.write(file, MODULE.replace("$i + 1", "$i + 2").getBytes(StandardCharsets.UTF_8));
+        final SyntaxTreeCache changed = new SyntaxTreeCache();
+        changed.setDirectory(dir.resolve("cache"));
+        assertNull(changed.get(null, new FileSource(file, false)));
+    }
+
+    @Test
+    public void deleteOtherVersions() throws IOException {
+        final Path cacheDir = dir.resolve("cache");
+        Files.createDirectories(cacheDir.resolve("2.2-abcdef"));
+        Files.write(cacheDir.resolve("2.2-abcdef").resolve("old.ast"), new byte[] { 1 });
+        Files.write(cacheDir.resolve("stray.ast"), new byte[] { 1 });
+
+        final SyntaxTreeCache cache = new SyntaxTreeCache();
+        cache.setDirectory(cacheDir);
+        assertEquals(Arrays.asList(cache.getDirectory()), FileUtils.list(cacheDir));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws RecognitionException, TokenStreamException, XPathException, IOException {
+        final Path file = dir.resolve("module.xqm");
+        Files.write(file, MODULE.getBytes(StandardCharsets.UTF_8));
+        final SyntaxTreeCache cache = new SyntaxTreeCache();
+        cache.setDirectory(dir.resolve("cache"));
+        cache.put(new FileSource(file, false), parse(MODULE));
+
+        final Path versionDir = cache.getDirectory();
+        final long now = System.currentTimeMillis();
+        for (final Path ast : FileUtils.list(versionDir)) {
+            Files.setLastModifiedTime(ast, FileTime.fromMillis(now - 120000));
+        }
+        for (int i = 0; i < SyntaxTreeCache.MAX_FILES - 1; i++) {
+            final Path ast = versionDir.resolve(i + ".ast");
+            Files.write(ast, new byte[] { 1 });
+            Files.setLastModifiedTime(ast, FileTime.fromMillis(now - 60000 - i));
+        }
+
+        // loading the syntax tree marks it as recently used
+        final SyntaxTreeCache used = new SyntaxTreeCache();
+        used.setDirectory(dir.resolve("cache"));
+        assertEquals(SyntaxTreeCache.MAX_FILES, FileUtils.list(versionDir).size());
+        assertNotNull(used.get(null, new FileSource(file, false)));
+
+        Files.write(versionDir.resolve("new.ast"), new byte[] { 1 });
+        Files.write(versionDir.resolve("unfinished.ast.tmp"), new byte[] { 1 });
+        final SyntaxTreeCache restarted = new SyntaxTreeCache();
+        restarted.setDirectory(dir.resolve("cache"));
+        assertEquals(SyntaxTreeCache.MAX_FILES, FileUtils.list(versionDir).size());
+        assertFalse(Files.exists(versionDir.resolve((SyntaxTreeCache.MAX_FILES - 2) + ".ast")));
+        assertTrue(Files.exists(versionDir.resolve("0.ast")));
+        assertTrue(Files.exists(versionDir.resolve("new.ast")));
+        assertFalse(Files.exists(versionDir.resolve("unfinished.ast.tmp")));
+        assertNotNull(restarted.get(null, new FileSource(file, false)));
+    }
+
+    private void assertSameTree(AST expected, AST actual) {
+        for (; expected != null; expected = expected.getNextSibling(), actual = actual.getNextSibling()) {
+            assertNotNull(actual);
+            assertEquals(expected.getClass(), actual.getClass());
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(((XQueryAST) expected).getLine(), ((XQueryAST) actual).getLine());
+            assertEquals(((XQueryAST) expected).getColumn(), ((XQueryAST) actual).getColumn());
+            assertEquals(((XQueryAST) expected).getDoc(), ((XQueryAST) actual).getDoc());
+            if (expected.getFirstChild() != null) {
+                assertSameTree(expected.getFirstChild(), actual.getFirstChild());
+            } else {
+                assertNull(actual.getFirstChild());
+            }
+        }
+        assertNull(actual);
+    }
+
+    private AST parse(String query) throws RecognitionException, TokenStreamException, XPathException {
+        final XQueryParser parser = new XQueryParser(new XQueryLexer(null, new StringReader(query)));
+        parser.xpath();
+        assertEquals(parser.getErrorMessage(), false, parser.foundErrors());
+        return parser.getAST();
+    }
+}
@@ -0,0 +1,124 @@
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Check that a {@link TwigJoin} returns the same nodes as the steps it replaces. The
+ * join is only used for contexts above {@link LocationStep#INDEX_SCAN_THRESHOLD}, so
+ * the test document has more nested elements than that.
+ */
+public class TwigJoinTest {
+
+    private final static String ROOT = "doc('/db/twigjointest/test.xml')";
+
+    private static BrokerPool pool;
+    private static DBBroker broker;
+
+    @BeforeClass
+    public static void setUp() throws DatabaseConfigurationException, EXistException, XPathException,
+            PermissionDeniedException {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+        broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+
+        execute("xmldb:create-collection('/db', 'twigjointest'), " +
+            "xmldb:store('/db/twigjointest', 'test.xml', <root>{ " +
+            "for $i in 1 to " + (LocationStep.INDEX_SCAN_THRESHOLD / 2 + 500) + " return " +
+            "<a n='{$i}'><b><c>{$i}</c><a><b><c>{-$i}</c></b><c/></a></b><c/></a> " +
+            "}</root>)");
+    }
+
+    @AfterClass
+    public static void tearDown() throws XPathException, PermissionDeniedException {
+        try {
+            if (broker != null) {
+                execute("xmldb:remove('/db/twigjointest')");
+                broker.close();
+            }
+        } finally {
+            BrokerPool.stopAll(false);
+            broker = null;
+            pool = null;
+        }
+    }
+
+    @Test
+    public void largeContext() throws XPathException, PermissionDeniedException {
+        assertJoined("(" + ROOT + "//a)//b/c", 11000);
+        assertJoined("(" + ROOT + "//a)//b//c", 16500);
+        assertJoined("(" + ROOT + "//a)/b//a/c", 5500);
+        assertJoined("(" + ROOT + "//a)//a//c", 11000);
+        assertJoined("(" + ROOT + "//a)/descendant-or-self::a/b/c", 11000);
+    }
+
+    @Test
+    public void smallContext() throws XPathException, PermissionDeniedException {
+        assertNotJoined("(" + ROOT + "//a)[position() < 100]//b/c", 100);
+        assertNotJoined(ROOT + "//a//b/c", 11000);
+        // nested context nodes find the same node
+        assertNotJoined("(" + ROOT + "//a)[position() < 100]/descendant-or-self::a/b/c", 100);
+    }
+
+    @Test
+    public void findLocationSteps() throws XPathException, PermissionDeniedException {
+        final Expression compiled = (Expression) compile(ROOT + "//a//b/c");
+        final List<LocationStep> steps = BasicExpressionVisitor.findLocationSteps(compiled);
+        assertEquals(4, steps.size());
+        assertNull(steps.get(0));
+        assertEquals("a", steps.get(1).getTest().getName().getLocalPart());
+        assertEquals("b", steps.get(2).getTest().getName().getLocalPart());
+        assertNotNull(steps.get(3));
+        assertEquals("c", steps.get(3).getTest().getName().getLocalPart());
+    }
+
+    private void assertJoined(final String query, final int expectedCount) throws XPathException, PermissionDeniedException {
+        assertSameResult(query, expectedCount);
+        assertEquals("true", execute(usesJoin(query)).getStringValue());
+    }
+
+    private void assertNotJoined(final String query, final int expectedCount) throws XPathException, PermissionDeniedException {
+        assertSameResult(query, expectedCount);
+        assertEquals("false", execute(usesJoin(query)).getStringValue());
+    }
+
+    private static String usesJoin(final String query) {
+        return "declare namespace stats='http://exist-db.org/xquery/profiling'; " +
+            "exists(util:profile(function() { count(" + query + ") })" +
+            "//stats:expr[@type = 'TwigJoin'][@index = 'structural'])";
+    }
+
+    private void assertSameResult(final String query, final int expectedCount) throws XPathException, PermissionDeniedException {
+        final String summary = "let $r := " + query + " return (count($r), sum($r[. != ''] ! number(.)), count($r/..))";
+        final Sequence optimized = execute(summary);
+        final Sequence unoptimized = execute("declare option exist:optimize 'enable=no'; " + summary);
+        assertEquals(String.valueOf(expectedCount), optimized.itemAt(0).getStringValue());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(unoptimized.itemAt(i).getStringValue(), optimized.itemAt(i).getStringValue());
+        }
+    }
+
+    private static CompiledXQuery compile(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().compile(broker, new XQueryContext(pool), query);
+    }
+
+    private static Sequence execute(final String query) throws XPathException, PermissionDeniedException {
+        return pool.getXQueryService().execute(broker, compile(query), null);
+    }
+}
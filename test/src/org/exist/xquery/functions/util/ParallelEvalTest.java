@@ -0,0 +1,102 @@
+package org.exist.xquery.functions.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.exist.EXistException;
+import org.exist.storage.BrokerPool;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XPathQueryService;
+
+public class ParallelEvalTest {
+
+    private final static int DOCUMENTS = 20;
+
+    private XPathQueryService service;
+    private Collection root = null;
+    private Collection test = null;
+    private Database database = null;
+    private ForkJoinPool threads = null;
+
+    @Before
+    public void setUp() throws Exception {
+        Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+        root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+        final CollectionManagementService mgmt = (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        test = mgmt.createCollection("parallel-test");
+        for (int i = 0; i < DOCUMENTS; i++) {
+            final XMLResource doc = (XMLResource) test.createResource("doc" + i + ".xml", "XMLResource");
+            doc.setContent("<records><record id='" + i + "a'><price>" + (i * 10) + "</price></record>" +
+                "<record id='" + i + "b'><price>" + (i * 10 + 5) + "</price></record></records>");
+            test.storeResource(doc);
+        }
+        service = (XPathQueryService) root.getService("XQueryService", "1.0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final CollectionManagementService mgmt = (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        mgmt.removeCollection("parallel-test");
+        DatabaseManager.deregisterDatabase(database);
+        DatabaseInstanceManager dim = (DatabaseInstanceManager) root.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        if (threads != null) {
+            assertTrue(threads.isShutdown());
+            threads = null;
+        }
+        service = null;
+        test = null;
+        root = null;
+    }
+
+    @Test
+    public void sameResultAsSequential() throws XMLDBException {
+        final ResourceSet sequential = service.query(
+            "string-join(collection('/db/parallel-test')//record[price > 100]/@id, ',')");
+        final ResourceSet parallel = service.query(
+            "string-join(util:eval-parallel(collection('/db/parallel-test'), '//record[price > 100]')/@id, ',')");
+        assertEquals(sequential.getResource(0).getContent(), parallel.getResource(0).getContent());
+    }
+
+    @Test
+    public void atomicResults() throws XMLDBException {
+        final ResourceSet result = service.query(
+            "sum(util:eval-parallel(collection('/db/parallel-test'), 'sum(.//price)'))");
+        // sum of i * 20 + 5 for i in 0 .. DOCUMENTS - 1
+        assertEquals(Integer.toString(20 * DOCUMENTS * (DOCUMENTS - 1) / 2 + 5 * DOCUMENTS),
+            result.getResource(0).getContent());
+    }
+
+    @Test
+    public void emptyContext() throws XMLDBException {
+        final ResourceSet result = service.query("count(util:eval-parallel((), '//record'))");
+        assertEquals("0", result.getResource(0).getContent());
+    }
+
+    @Test
+    public void threadsOwnedByDatabase() throws XMLDBException, EXistException {
+        final BrokerPool db = BrokerPool.getInstance();
+        threads = db.getParallelEvalPool(2);
+        assertEquals(2, threads.getParallelism());
+        service.query("count(util:eval-parallel(collection('/db/parallel-test'), '//record'))");
+        assertSame(threads, db.getParallelEvalPool(4));
+        // shut down with the database, see tearDown
+    }
+}
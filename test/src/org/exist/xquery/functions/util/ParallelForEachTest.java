@@ -0,0 +1,92 @@
+package org.exist.xquery.functions.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.EXistResource;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.XPathQueryService;
+
+public class ParallelForEachTest {
+
+    private final static String MODULE =
+        "module namespace m=\"http://exist-db.org/test/parallel\";\n" +
+        "declare function m:square($i) { $i * $i };\n" +
+        "declare function m:check($i) { if ($i = 7) then error(xs:QName('m:SEVEN'), 'seven') else $i };";
+
+    private final static String IMPORT =
+        "import module namespace m=\"http://exist-db.org/test/parallel\" at \"xmldb:exist:///db/parallel.xql\";\n";
+
+    private XPathQueryService service;
+    private Collection root = null;
+    private Database database = null;
+    private Resource module;
+
+    @Before
+    public void setUp() throws Exception {
+        Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+        root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+        module = root.createResource("parallel.xql", "BinaryResource");
+        module.setContent(MODULE);
+        ((EXistResource) module).setMimeType("application/xquery");
+        root.storeResource(module);
+        service = (XPathQueryService) root.getService("XQueryService", "1.0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        root.removeResource(module);
+        DatabaseManager.deregisterDatabase(database);
+        DatabaseInstanceManager dim = (DatabaseInstanceManager) root.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        service = null;
+        root = null;
+    }
+
+    @Test
+    public void libraryFunction() throws XMLDBException {
+        final ResourceSet result = service.query(IMPORT +
+            "string-join(util:for-each-parallel(1 to 20, m:square#1), ',') eq " +
+            "string-join(for-each(1 to 20, m:square#1), ',')");
+        assertEquals("true", result.getResource(0).getContent());
+    }
+
+    @Test
+    public void builtinFunction() throws XMLDBException {
+        final ResourceSet result = service.query(
+            "string-join(util:for-each-parallel(('a', 'b', 'c', 'd'), upper-case#1), '')");
+        assertEquals("ABCD", result.getResource(0).getContent());
+    }
+
+    @Test
+    public void inlineFunction() throws XMLDBException {
+        final ResourceSet result = service.query(
+            "let $offset := 10 return " +
+            "string-join(util:for-each-parallel(1 to 5, function($i) { $i + $offset }), ',')");
+        assertEquals("11,12,13,14,15", result.getResource(0).getContent());
+    }
+
+    @Test
+    public void error() {
+        try {
+            service.query(IMPORT + "util:for-each-parallel(1 to 20, m:check#1)");
+            fail("expected error m:SEVEN");
+        } catch (final XMLDBException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("SEVEN"));
+        }
+    }
+}
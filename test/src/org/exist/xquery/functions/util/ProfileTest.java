@@ -0,0 +1,87 @@
+package org.exist.xquery.functions.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmldb.api.DatabaseManager;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Database;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.XPathQueryService;
+
+public class ProfileTest {
+
+    private XPathQueryService service;
+    private Collection root = null;
+    private Database database = null;
+
+    @Before
+    public void setUp() throws Exception {
+        Class<?> cl = Class.forName("org.exist.xmldb.DatabaseImpl");
+        database = (Database) cl.newInstance();
+        database.setProperty("create-database", "true");
+        DatabaseManager.registerDatabase(database);
+        root = DatabaseManager.getCollection(XmldbURI.LOCAL_DB, "admin", "");
+        service = (XPathQueryService) root.getService("XQueryService", "1.0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DatabaseManager.deregisterDatabase(database);
+        DatabaseInstanceManager dim = (DatabaseInstanceManager) root.getService("DatabaseInstanceManager", "1.0");
+        dim.shutdown();
+        service = null;
+        root = null;
+    }
+
+    @Test
+    public void profileFunction() throws XMLDBException {
+        final String query =
+            "declare namespace stats='http://exist-db.org/xquery/profiling';" +
+            "let $data := <a><b>1</b><b>2</b><b>3</b></a> " +
+            "let $profile := util:profile(function() { $data/b[. > 1] }) " +
+            "return (" +
+            "   local-name($profile), " +
+            "   exists($profile//stats:expr[@calls > 0]), " +
+            "   max($profile//stats:expr/@items-out/xs:integer(.))" +
+            ")";
+        final ResourceSet result = service.query(query);
+        assertEquals(3, result.getSize());
+        assertEquals("profile", result.getResource(0).getContent());
+        assertEquals("true", result.getResource(1).getContent());
+        assertEquals("3", result.getResource(2).getContent());
+    }
+
+    @Test
+    public void nestedProfile() throws XMLDBException {
+        final String query =
+            "declare namespace stats='http://exist-db.org/xquery/profiling';" +
+            "let $outer := util:profile(function() { " +
+            "   let $inner := util:profile(function() { (1 to 10)[. mod 2 = 0] }) " +
+            "   return if (exists($inner/stats:expr[@calls > 0])) then () else error(xs:QName('local:empty'), 'empty') " +
+            "}) " +
+            "return (" +
+            "   exists($outer/stats:expr[@calls > 0]), " +
+            "   exists($outer//stats:expr[contains(@expression, 'mod')])" +
+            ")";
+        final ResourceSet result = service.query(query);
+        assertEquals(2, result.getSize());
+        assertEquals("true", result.getResource(0).getContent());
+        // the expressions of the inner profile are not recorded in the outer one
+        assertEquals("false", result.getResource(1).getContent());
+    }
+
+    @Test
+    public void profilingIsRestored() throws XMLDBException {
+        final String query =
+            "let $p := util:profile(function() { (1 to 10)[. mod 2 = 0] }) " +
+            "return count((1 to 10)[. mod 2 = 0])";
+        final ResourceSet result = service.query(query);
+        assertEquals("5", result.getResource(0).getContent());
+    }
+}
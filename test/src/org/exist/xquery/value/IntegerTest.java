@@ -0,0 +1,80 @@
+package org.exist.xquery.value;
+
+import java.math.BigInteger;
+
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.RangeSequence;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IntegerTest {
+
+    private static final String MAX = "9223372036854775807";
+    private static final String MIN = "-9223372036854775808";
+
+    @Test
+    public void cachedValues() {
+        assertSame(IntegerValue.valueOf(1), IntegerValue.valueOf(1));
+        assertEquals(100000, IntegerValue.valueOf(100000).getValue());
+    }
+
+    @Test
+    public void overflowToBigInteger() throws XPathException {
+        final IntegerValue max = new IntegerValue(MAX);
+        assertTrue(max.isLong());
+        final IntegerValue sum = (IntegerValue) max.plus(IntegerValue.valueOf(1));
+        assertFalse(sum.isLong());
+        assertEquals("9223372036854775808", sum.getStringValue());
+        assertEquals(MAX, ((IntegerValue) sum.minus(IntegerValue.valueOf(1))).getStringValue());
+        assertTrue(((IntegerValue) sum.minus(IntegerValue.valueOf(1))).isLong());
+
+        final IntegerValue min = new IntegerValue(MIN);
+        assertEquals("-9223372036854775809", ((IntegerValue) min.minus(IntegerValue.valueOf(1))).getStringValue());
+        assertEquals("9223372036854775808", ((IntegerValue) min.negate()).getStringValue());
+        assertEquals("9223372036854775808", ((IntegerValue) min.abs()).getStringValue());
+        assertEquals("85070591730234615847396907784232501249",
+            ((IntegerValue) max.mult(max)).getStringValue());
+        assertEquals(new BigInteger("99999999999999999999"),
+            new IntegerValue("99999999999999999999").toJavaObject(BigInteger.class));
+    }
+
+    @Test
+    public void arithmetic() throws XPathException {
+        final IntegerValue a = new IntegerValue(-7);
+        final IntegerValue b = new IntegerValue(3);
+        assertEquals(-4, ((IntegerValue) a.plus(b)).getLong());
+        assertEquals(-10, ((IntegerValue) a.minus(b)).getLong());
+        assertEquals(-21, ((IntegerValue) a.mult(b)).getLong());
+        assertEquals(-1, ((IntegerValue) a.mod(b)).getLong());
+        assertEquals(-2, a.idiv(b).getLong());
+        assertEquals(7, ((IntegerValue) a.abs()).getLong());
+        assertSame(b, b.max(null, a));
+        assertSame(a, b.min(null, a));
+    }
+
+    @Test
+    public void compare() throws XPathException {
+        final IntegerValue big = new IntegerValue("9223372036854775808");
+        final IntegerValue max = new IntegerValue(MAX);
+        // both are equal as double
+        assertTrue(big.compareTo(null, Comparison.GT, max));
+        assertFalse(big.compareTo(null, Comparison.EQ, max));
+        assertEquals(1, big.compareTo(null, max));
+        assertEquals(new IntegerValue("5"), new IntegerValue(new BigInteger("5")));
+        assertEquals(new IntegerValue("5").hashCode(), IntegerValue.valueOf(5).hashCode());
+    }
+
+    @Test
+    public void rangeSum() {
+        assertEquals(5050, new RangeSequence(1, 100).sum().getValue());
+        assertEquals(-5, new RangeSequence(-5, 4).sum().getValue());
+        assertEquals(0, new RangeSequence(2, 1).sum().getValue());
+        assertEquals("42535295865117307928310139910543638528",
+            new RangeSequence(1, Long.MAX_VALUE).sum().getStringValue());
+    }
+}
@@ -0,0 +1,110 @@
+package org.exist.xquery.value;
+
+import org.exist.xquery.RangeSequence;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualSequenceTest {
+
+    @Test
+    public void subSequence() throws XPathException {
+        final Sequence range = new RangeSequence(1, 10);
+        final SubSequence sub = new SubSequence(range, 2, 6);
+        assertItems(sub, 3, 4, 5, 6);
+        assertNull(sub.itemAt(4));
+        assertItems(new SubSequence(sub, 1, 3), 4, 5);
+        assertItems(sub.tail(), 4, 5, 6);
+        assertTrue(new SubSequence(range, 3, 3).isEmpty());
+        assertEquals(Type.INTEGER, sub.getItemType());
+    }
+
+    @Test
+    public void reverseSequence() throws XPathException {
+        final Sequence reversed = new ReverseSequence(new RangeSequence(1, 4));
+        assertItems(reversed, 4, 3, 2, 1);
+        final SequenceIterator i = ((VirtualSequence) reversed).iterateInReverse();
+        for (int expected = 1; expected <= 4; expected++) {
+            assertEquals(expected, ((IntegerValue) i.nextItem()).getInt());
+        }
+        assertFalse(i.hasNext());
+    }
+
+    @Test
+    public void concatSequence() throws XPathException {
+        final ValueSequence values = new ValueSequence();
+        values.add(new IntegerValue(7));
+        values.add(new IntegerValue(8));
+        final Sequence concat = new ConcatSequence(new RangeSequence(1, 2), Sequence.EMPTY_SEQUENCE,
+            values, new RangeSequence(3, 3));
+        assertItems(concat, 1, 2, 7, 8, 3);
+        assertTrue(new ConcatSequence(Sequence.EMPTY_SEQUENCE).isEmpty());
+        assertEquals(Type.INTEGER, concat.getItemType());
+        assertEquals(Type.ATOMIC,
+            new ConcatSequence(concat, new StringValue("a")).getItemType());
+    }
+
+    @Test
+    public void nestedConcatSequence() throws XPathException {
+        final Sequence concat = new ConcatSequence(new RangeSequence(1, 3), new RangeSequence(7, 9));
+        final Sequence nested = new ConcatSequence(new SubSequence(concat, 1, 5), concat);
+        assertItems(nested, 2, 3, 7, 8, 1, 2, 3, 7, 8, 9);
+        assertItems(new ConcatSequence(new SubSequence(nested, 3, 7)), 8, 1, 2, 3);
+    }
+
+    @Test
+    public void repeatedRemove() throws XPathException {
+        // remove every second item the way fn:remove does
+        Sequence seq = new RangeSequence(1, 20000);
+        for (int i = 0; i < 10000; i++) {
+            final int count = seq.getItemCount();
+            seq = new ConcatSequence(new SubSequence(seq, 0, i), new SubSequence(seq, i + 1, count));
+        }
+        assertEquals(10000, seq.getItemCount());
+        assertEquals(2, ((IntegerValue) seq.itemAt(0)).getInt());
+        assertEquals(20000, ((IntegerValue) seq.itemAt(9999)).getInt());
+        int expected = 2;
+        for (final SequenceIterator i = seq.iterate(); i.hasNext(); expected += 2) {
+            assertEquals(expected, ((IntegerValue) i.nextItem()).getInt());
+        }
+    }
+
+    @Test
+    public void repeatedInsert() throws XPathException {
+        // insert an item in the middle the way fn:insert-before does
+        Sequence seq = new RangeSequence(1, 2);
+        for (int i = 0; i < 10000; i++) {
+            final int count = seq.getItemCount();
+            seq = new ConcatSequence(new SubSequence(seq, 0, 1), new RangeSequence(3, 3),
+                new SubSequence(seq, 1, count));
+        }
+        assertEquals(10002, seq.getItemCount());
+        assertEquals(1, ((IntegerValue) seq.itemAt(0)).getInt());
+        assertEquals(3, ((IntegerValue) seq.itemAt(5000)).getInt());
+        assertEquals(2, ((IntegerValue) seq.itemAt(10001)).getInt());
+    }
+
+    @Test
+    public void rangeSequence() throws XPathException {
+        final Sequence range = new RangeSequence(5, 7);
+        assertEquals(3, range.getItemCount());
+        assertNull(range.itemAt(3));
+        assertItems(range.tail(), 6, 7);
+        assertTrue(new RangeSequence(2, 1).isEmpty());
+    }
+
+    private static void assertItems(final Sequence seq, final int... expected) throws XPathException {
+        assertEquals(expected.length, seq.getItemCount());
+        int pos = 0;
+        for (final SequenceIterator i = seq.iterate(); i.hasNext(); pos++) {
+            final int value = ((IntegerValue) i.nextItem()).getInt();
+            assertEquals(expected[pos], value);
+            assertEquals(expected[pos], ((IntegerValue) seq.itemAt(pos)).getInt());
+        }
+        assertEquals(expected.length, pos);
+    }
+}